@@ -0,0 +1,73 @@
+package org.processmining.models.graphbased.directed.petrinet.impl;
+
+import java.util.Collection;
+
+import org.processmining.models.graphbased.directed.petrinet.PetrinetGraph;
+
+/**
+ * Check for structural change in a net, for invalidating derived indexes. The stamp is an order
+ * independent hash of the identities of the net's places, transitions and edges, so it changes
+ * when any element is added or removed, including when one is removed and another added in its
+ * place. Reads the element sets of an {@link AbstractResetInhibitorNet} directly, as
+ * <code>getEdges()</code> and <code>getNodes()</code> copy every element.
+ *
+ * Changes to the attributes of existing elements, such as arc weights, do not change the stamp.
+ * A stamp reads every element, so {@link #counts(PetrinetGraph)} is the cheaper check where
+ * only additions and removals that change a count need to be seen.
+ */
+public class NetStructureStamp {
+// Must be in this package to read the internals of AbstractResetInhibitorNet, eg net.arcs
+
+	private static final long PLACE = 1;
+	private static final long TRANSITION = 2;
+	private static final long EDGE = 3;
+
+	public static long stamp(PetrinetGraph net) {
+		if (net instanceof AbstractResetInhibitorNet) {
+			AbstractResetInhibitorNet rinet = (AbstractResetInhibitorNet)net;
+			synchronized(rinet) {
+				return mix(stamp(PLACE, rinet.places) + stamp(TRANSITION, rinet.transitions)
+						+ stamp(EDGE, rinet.arcs) + stamp(EDGE, rinet.inhibitorArcs)
+						+ stamp(EDGE, rinet.resetArcs));
+			}
+		}
+		return mix(stamp(PLACE, net.getPlaces()) + stamp(TRANSITION, net.getTransitions())
+				+ stamp(EDGE, net.getEdges()));
+	}
+
+	/**
+	 * Hash of the numbers of places, transitions and edges. Constant time for an
+	 * {@link AbstractResetInhibitorNet}, but misses a change that leaves every count the same.
+	 */
+	public static long counts(PetrinetGraph net) {
+		if (net instanceof AbstractResetInhibitorNet) {
+			AbstractResetInhibitorNet rinet = (AbstractResetInhibitorNet)net;
+			synchronized(rinet) {
+				return counts(rinet.places.size(), rinet.transitions.size(),
+						rinet.arcs.size() + rinet.inhibitorArcs.size() + rinet.resetArcs.size());
+			}
+		}
+		return counts(net.getPlaces().size(), net.getTransitions().size(), net.getEdges().size());
+	}
+
+	private static long counts(int places, int transitions, int edges) {
+		return mix(mix(mix(places) ^ transitions) ^ edges);
+	}
+
+	private static long stamp(long kind, Collection<?> elements) {
+		long sum = 0;
+		for (Object element: elements)
+			sum += mix((kind << 32) | (System.identityHashCode(element) & 0xffffffffL));
+		return sum;
+	}
+
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+}
@@ -0,0 +1,208 @@
+package qut.pm.prom.helpers;
+
+import java.util.Arrays;
+
+import org.processmining.models.graphbased.directed.petrinet.PetrinetNode;
+import org.processmining.models.graphbased.directed.petrinet.StochasticNet;
+import org.processmining.models.graphbased.directed.petrinet.elements.Place;
+import org.processmining.models.graphbased.directed.petrinet.elements.Transition;
+import org.processmining.models.graphbased.directed.petrinet.impl.StochasticNetImpl;
+
+import qut.pm.util.LongHashSet;
+
+/**
+ * Compact intermediate form of a net parsed by {@link PetriNetFragmentParser}. Nodes are int ids
+ * in order of creation and arcs are de-duplicated pairs of node ids.
+ *
+ * A <code>StochasticNet</code> is only built on request, in a single pass over nodes and then
+ * arcs, so callers that only need the structure never touch the ProM graph classes. Once
+ * returned by the parser instances are not modified, and can be shared between threads.
+ */
+public class FragmentNet {
+
+	private static final byte PLACE = 0;
+	private static final byte TRANSITION = 1;
+	private static final byte IMMEDIATE_TRANSITION = 2;
+	private static final int INITIAL_CAPACITY = 16;
+
+	private int nodeCount = 0;
+	private byte[] kinds = new byte[INITIAL_CAPACITY];
+	private String[] labels = new String[INITIAL_CAPACITY];
+	private String[] ids = new String[INITIAL_CAPACITY];
+	private double[] weights = new double[INITIAL_CAPACITY];
+	private boolean[] invisible = new boolean[INITIAL_CAPACITY];
+
+	private int arcCount = 0;
+	private int[] arcSources = new int[INITIAL_CAPACITY];
+	private int[] arcTargets = new int[INITIAL_CAPACITY];
+	private LongHashSet arcKeys = new LongHashSet();
+
+	FragmentNet(){
+	}
+
+	int addPlace(String label) {
+		return addNode(PLACE, label, null, 0, false);
+	}
+
+	int addTransition(String label, String id, boolean silent) {
+		return addNode(TRANSITION, label, id, 1.0, silent);
+	}
+
+	int addImmediateTransition(String label, String id, double weight, boolean silent) {
+		return addNode(IMMEDIATE_TRANSITION, label, id, weight, silent);
+	}
+
+	private int addNode(byte kind, String label, String id, double weight, boolean silent) {
+		if (nodeCount == kinds.length) {
+			int capacity = kinds.length * 2;
+			kinds = Arrays.copyOf(kinds, capacity);
+			labels = Arrays.copyOf(labels, capacity);
+			ids = Arrays.copyOf(ids, capacity);
+			weights = Arrays.copyOf(weights, capacity);
+			invisible = Arrays.copyOf(invisible, capacity);
+		}
+		kinds[nodeCount] = kind;
+		labels[nodeCount] = label;
+		ids[nodeCount] = id;
+		weights[nodeCount] = weight;
+		invisible[nodeCount] = silent;
+		return nodeCount++;
+	}
+
+	/**
+	 *
+	 * @param source
+	 * @param target
+	 * @return false if the arc already exists
+	 * @throws IllegalArgumentException if either node does not exist, or both are places or
+	 * both transitions
+	 */
+	boolean addArc(int source, int target) {
+		if (source < 0 || source >= nodeCount || target < 0 || target >= nodeCount)
+			throw new IllegalArgumentException("Arc between unknown nodes " + source + " and " + target
+					+ " of " + nodeCount);
+		if (isPlace(source) == isPlace(target))
+			throw new IllegalArgumentException("Arc must join a place and a transition: " 
+					+ labels[source] + " and " + labels[target]);
+		if (!arcKeys.add( ((long)source << 32) | target ))
+			return false;
+		if (arcCount == arcSources.length) {
+			arcSources = Arrays.copyOf(arcSources, arcCount*2);
+			arcTargets = Arrays.copyOf(arcTargets, arcCount*2);
+		}
+		arcSources[arcCount] = source;
+		arcTargets[arcCount] = target;
+		arcCount++;
+		return true;
+	}
+
+	public int getNodeCount() {
+		return nodeCount;
+	}
+
+	public boolean isPlace(int node) {
+		return kinds[node] == PLACE;
+	}
+
+	public boolean isTransition(int node) {
+		return kinds[node] != PLACE;
+	}
+
+	/**
+	 * True for transitions declared with the weighted syntax, eg <code>{a 0.4}</code>.
+	 */
+	public boolean isWeighted(int node) {
+		return kinds[node] == IMMEDIATE_TRANSITION;
+	}
+
+	public String getLabel(int node) {
+		return labels[node];
+	}
+
+	/**
+	 * For transitions, the label plus any id suffix, eg <code>a__2</code>. Null for places.
+	 */
+	public String getId(int node) {
+		return ids[node];
+	}
+
+	public double getWeight(int node) {
+		return weights[node];
+	}
+
+	public boolean isInvisible(int node) {
+		return invisible[node];
+	}
+
+	public int getArcCount() {
+		return arcCount;
+	}
+
+	public int getArcSource(int arc) {
+		return arcSources[arc];
+	}
+
+	public int getArcTarget(int arc) {
+		return arcTargets[arc];
+	}
+
+	public boolean hasArc(int source, int target) {
+		return arcKeys.contains( ((long)source << 32) | target );
+	}
+
+	public StochasticNet toStochasticNet(String label) {
+		return toStochasticNet(label, new NodeMapper());
+	}
+
+	/**
+	 * Build a new net, recording transition ids in <code>nodeMapper</code>.
+	 *
+	 * @param label
+	 * @param nodeMapper
+	 * @return
+	 */
+	public StochasticNet toStochasticNet(String label, NodeMapper nodeMapper) {
+		StochasticNet net = new StochasticNetImpl(label);
+		materialize(net, new PetrinetNode[nodeCount], 0, 0, nodeMapper);
+		return net;
+	}
+
+	/**
+	 * Add nodes from <code>fromNode</code> and arcs from <code>fromArc</code> onward to
+	 * <code>net</code>. <code>nodes</code> holds the net's node for each id already materialized,
+	 * and is filled in for new ones.
+	 */
+	void materialize(StochasticNet net, PetrinetNode[] nodes, int fromNode, int fromArc,
+			NodeMapper nodeMapper)
+	{
+		for (int node = fromNode; node < nodeCount; node++) {
+			PetrinetNode petrinetNode = null;
+			switch(kinds[node]) {
+			case PLACE:
+				petrinetNode = net.addPlace(labels[node]);
+				break;
+			case TRANSITION:
+				petrinetNode = net.addTransition(labels[node]);
+				break;
+			default:
+				petrinetNode = net.addImmediateTransition(labels[node], weights[node]);
+			}
+			if (petrinetNode instanceof Transition) {
+				Transition transition = (Transition)petrinetNode;
+				transition.setInvisible(invisible[node]);
+				nodeMapper.put(transition.getId(), ids[node]);
+			}
+			nodes[node] = petrinetNode;
+		}
+		for (int arc = fromArc; arc < arcCount; arc++) {
+			PetrinetNode source = nodes[arcSources[arc]];
+			PetrinetNode target = nodes[arcTargets[arc]];
+			if (source instanceof Place) {
+				net.addArc((Place)source, (Transition)target);
+			}else {
+				net.addArc((Transition)source, (Place)target);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,95 @@
+package qut.pm.prom.helpers;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.processmining.models.graphbased.directed.petrinet.PetrinetEdge;
+import org.processmining.models.graphbased.directed.petrinet.PetrinetNode;
+import org.processmining.models.graphbased.directed.petrinet.StochasticNet;
+import org.processmining.models.graphbased.directed.petrinet.elements.Place;
+import org.processmining.models.semantics.petrinet.Marking;
+
+/**
+ * Translates markings from other nets onto one target net, matching places by label. The
+ * target net is indexed once, so each marking costs time in proportion to its own size. Token
+ * counts are carried across, so markings with more than one token per place or more than one
+ * place translate in full.
+ *
+ * The target net should not change while the translator is in use.
+ */
+public class MarkingTranslator {
+
+	private final StochasticNet net;
+	private final Map<String,Place> placesByLabel = new HashMap<>();
+	private final Map<String,List<Place>> sinksByLabel = new HashMap<>();
+
+	public MarkingTranslator(StochasticNet net) {
+		this.net = net;
+		Collection<Place> places = net.getPlaces();
+		// places which are the source of any edge, found in one pass rather than per place
+		Set<PetrinetNode> sources = new HashSet<>();
+		for (PetrinetEdge<? extends PetrinetNode, ? extends PetrinetNode> edge: net.getEdges()) {
+			sources.add(edge.getSource());
+		}
+		for (Place place: places) {
+			placesByLabel.putIfAbsent(place.getLabel(), place);
+			if (!sources.contains(place)) {
+				sinksByLabel.computeIfAbsent(place.getLabel(), l -> new ArrayList<>(1)).add(place);
+			}
+		}
+	}
+
+	public StochasticNet getNet() {
+		return net;
+	}
+
+	/**
+	 * Each place in <code>marking</code> maps to the first place in the target net with the same
+	 * label, keeping its token count. Places with no counterpart are dropped.
+	 *
+	 * @param marking
+	 * @return
+	 */
+	public Marking translateInitialMarking(Marking marking) {
+		Marking result = new Marking();
+		for (Place oldPlace: marking.baseSet()) {
+			Place newPlace = placesByLabel.get(oldPlace.getLabel());
+			if (newPlace != null)
+				result.add(newPlace, marking.occurrences(oldPlace));
+		}
+		return result;
+	}
+
+	/**
+	 * Each place in <code>marking</code> maps to every place in the target net with the same label
+	 * and no outgoing edges, keeping its token count.
+	 *
+	 * @param marking
+	 * @return
+	 */
+	public Marking translateFinalMarking(Marking marking) {
+		Marking result = new Marking();
+		for (Place oldPlace: marking.baseSet()) {
+			List<Place> newPlaces = sinksByLabel.get(oldPlace.getLabel());
+			if (newPlaces == null)
+				continue;
+			int count = marking.occurrences(oldPlace);
+			for (Place newPlace: newPlaces)
+				result.add(newPlace, count);
+		}
+		return result;
+	}
+
+	public Set<Marking> translateFinalMarkings(Set<Marking> markings) {
+		Set<Marking> result = new HashSet<>();
+		for (Marking marking: markings)
+			result.add(translateFinalMarking(marking));
+		return result;
+	}
+
+}
@@ -0,0 +1,107 @@
+package qut.pm.prom.helpers;
+
+/**
+ * A 128-bit hash of a net, from {@link StochasticPetriNetUtils#fingerprint(org.processmining.models.graphbased.directed.petrinet.StochasticNet)}.
+ * Suitable as a map key when bucketing candidate nets, with a full equality check to confirm
+ * matches. Values are stable across JVM runs.
+ */
+public final class NetFingerprint {
+
+	private static final long C1 = 0x87c37b91114253d5L;
+	private static final long C2 = 0x4cf5ad432745937fL;
+
+	private final long high;
+	private final long low;
+
+	public NetFingerprint(long high, long low) {
+		this.high = high;
+		this.low = low;
+	}
+
+	public long getHigh() {
+		return high;
+	}
+
+	public long getLow() {
+		return low;
+	}
+
+	@Override
+	public int hashCode() {
+		return (int)(low ^ (low >>> 32));
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null || getClass() != obj.getClass())
+			return false;
+		NetFingerprint other = (NetFingerprint) obj;
+		return high == other.high && low == other.low;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%016x%016x", high, low);
+	}
+
+	/**
+	 * Incremental 128-bit hash over a sequence of longs, using the mixing steps of
+	 * MurmurHash3 x64_128.
+	 */
+	static class Builder {
+		private long h1 = 0;
+		private long h2 = 0;
+		private long length = 0;
+
+		Builder add(long value) {
+			long k1 = value * C1;
+			k1 = Long.rotateLeft(k1, 31);
+			k1 *= C2;
+			h1 ^= k1;
+			h1 = Long.rotateLeft(h1, 27);
+			h1 += h2;
+			h1 = h1 * 5 + 0x52dce729;
+			long k2 = value * C2;
+			k2 = Long.rotateLeft(k2, 33);
+			k2 *= C1;
+			h2 ^= k2;
+			h2 = Long.rotateLeft(h2, 31);
+			h2 += h1;
+			h2 = h2 * 5 + 0x38495ab5;
+			length++;
+			return this;
+		}
+
+		Builder add(String value) {
+			add(value.length());
+			for (int i=0; i<value.length(); i++) {
+				add(value.charAt(i));
+			}
+			return this;
+		}
+
+		NetFingerprint build() {
+			long r1 = h1 ^ length;
+			long r2 = h2 ^ length;
+			r1 += r2;
+			r2 += r1;
+			r1 = fmix(r1);
+			r2 = fmix(r2);
+			r1 += r2;
+			r2 += r1;
+			return new NetFingerprint(r1, r2);
+		}
+
+		private static long fmix(long k) {
+			k ^= k >>> 33;
+			k *= 0xff51afd7ed558ccdL;
+			k ^= k >>> 33;
+			k *= 0xc4ceb9fe1a85ec53L;
+			k ^= k >>> 33;
+			return k;
+		}
+	}
+
+}
@@ -0,0 +1,141 @@
+package qut.pm.prom.helpers;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.processmining.models.graphbased.directed.petrinet.StochasticNet;
+
+import qut.pm.spm.AcceptingStochasticNet;
+
+/**
+ * Memoizing front end to {@link PetriNetFragmentParser}, for test suites which build the same
+ * fragments many times. Each distinct list of fragment specs is parsed once to an immutable
+ * {@link FragmentNet}, and every request gets a freshly built net which callers are free to
+ * modify.
+ *
+ * The least recently used fragments are evicted once more than <code>maxEntries</code> are held.
+ * Instances are thread safe.
+ */
+public class PetriNetFragmentCache {
+
+	public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+	private static final PetriNetFragmentCache SHARED = new PetriNetFragmentCache();
+
+	private final Map<List<String>,FragmentNet> cache;
+	private long hits = 0;
+	private long misses = 0;
+
+	public PetriNetFragmentCache() {
+		this(DEFAULT_MAX_ENTRIES);
+	}
+
+	public PetriNetFragmentCache(final int maxEntries) {
+		if (maxEntries < 1)
+			throw new IllegalArgumentException("Cache must hold at least one entry");
+		cache = new LinkedHashMap<List<String>,FragmentNet>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<List<String>,FragmentNet> eldest) {
+				return size() > maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * A cache shared across the JVM, with {@link #DEFAULT_MAX_ENTRIES}.
+	 *
+	 * @return
+	 */
+	public static PetriNetFragmentCache shared() {
+		return SHARED;
+	}
+
+	/**
+	 * The parsed form of <code>specs</code>, from the cache where possible. Parse errors are
+	 * thrown as by {@link PetriNetFragmentParser} and are not cached.
+	 *
+	 * @param specs
+	 * @return
+	 */
+	public FragmentNet getFragmentNet(String ... specs) {
+		List<String> key = Arrays.asList(specs.clone());
+		synchronized(this) {
+			FragmentNet fragment = cache.get(key);
+			if (fragment != null) {
+				hits++;
+				return fragment;
+			}
+			misses++;
+		}
+		// parse outside the lock; a concurrent miss on the same key just parses twice
+		FragmentNet fragment = new PetriNetFragmentParser().createFragmentNet(specs);
+		synchronized(this) {
+			cache.put(key, fragment);
+		}
+		return fragment;
+	}
+
+	public StochasticNet createNet(String label, String netText) {
+		return createNetArgs(label, netText);
+	}
+
+	/**
+	 * A new net equivalent to {@link PetriNetFragmentParser#createNetArgs(String, String...)}.
+	 *
+	 * @param label
+	 * @param specs
+	 * @return
+	 */
+	public StochasticNet createNetArgs(String label, String ... specs) {
+		return getFragmentNet(specs).toStochasticNet(label);
+	}
+
+	/**
+	 * A new net with transition ids recorded in <code>nodeMapper</code>.
+	 *
+	 * @param label
+	 * @param nodeMapper
+	 * @param specs
+	 * @return
+	 */
+	public StochasticNet createNetArgs(String label, NodeMapper nodeMapper, String ... specs) {
+		return getFragmentNet(specs).toStochasticNet(label, nodeMapper);
+	}
+
+	/**
+	 * A new accepting net, with initial and final markings per
+	 * {@link PetriNetFragmentParser#createAcceptingNet(String, String)} applied after all specs
+	 * are added, as in {@link PetriNetFragmentParser#parseAll(Map)}.
+	 *
+	 * @param label
+	 * @param specs
+	 * @return
+	 */
+	public AcceptingStochasticNet createAcceptingNet(String label, String ... specs) {
+		StochasticNet net = createNetArgs(label, specs);
+		return new PetriNetFragmentParser().markInitialFinalPlaces(net);
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized int size() {
+		return cache.size();
+	}
+
+	public synchronized void clear() {
+		cache.clear();
+		hits = 0;
+		misses = 0;
+	}
+
+}
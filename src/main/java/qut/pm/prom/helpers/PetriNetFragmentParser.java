@@ -1,22 +1,28 @@
 package qut.pm.prom.helpers;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 import org.processmining.acceptingpetrinet.models.AcceptingPetriNet;
-import org.processmining.models.graphbased.NodeID;
 import org.processmining.models.graphbased.directed.petrinet.PetrinetNode;
 import org.processmining.models.graphbased.directed.petrinet.StochasticNet;
-import org.processmining.models.graphbased.directed.petrinet.elements.Arc;
 import org.processmining.models.graphbased.directed.petrinet.elements.Place;
-import org.processmining.models.graphbased.directed.petrinet.elements.Transition;
 import org.processmining.models.graphbased.directed.petrinet.impl.StochasticNetImpl;
 import org.processmining.models.semantics.petrinet.Marking;
 
@@ -44,6 +50,9 @@ import qut.pm.spm.AcceptingStochasticNetImpl;
  * conventions to identify initial and final markings per
  * {@link #createAcceptingNet(String, String)}.
  * 
+ * Parser instances hold state for the net being built and are not thread safe. Many independent 
+ * nets can be built in parallel with {@link #parseAll(Map, ForkJoinPool)}.
+ * 
  * Grammar
  * 
  * <pre>
@@ -80,32 +89,20 @@ import qut.pm.spm.AcceptingStochasticNetImpl;
 public class PetriNetFragmentParser{
 
 	private static String ID_LEXEME = "__";
+	private static String SILENT_LEXEME = "tau";
 	
 	private static enum TokenInfo{
-		SIMPLE_TRAN_START("\\["),
-		SIMPLE_TRAN_END("\\]"),
-		WEIGHTED_TRAN_START("\\{"),
-		WEIGHTED_TRAN_END("\\}"),
-		ID_PREFIX(ID_LEXEME),
-		EDGE("->"),
-		SILENT_LABEL("tau"),
-		LABEL("[a-zA-Z][a-zA-Z0-9]*"),
-		WEIGHT("[0-9]+\\.[0-9]+"),
-		ID("[0-9]+"),
-		TERMINAL("");
-
-		public static final TokenInfo[] LEX_VALUES = 
-				{SIMPLE_TRAN_START,SIMPLE_TRAN_END,
-				 WEIGHTED_TRAN_START,WEIGHTED_TRAN_END,
-						ID_PREFIX,EDGE,SILENT_LABEL,LABEL,WEIGHT,ID}; 
-		
-		private Pattern pattern;
-		
-		private TokenInfo(String regex){
-			this.pattern = Pattern.compile("^\\s*("+regex+")");
-		}
-		
-		
+		SIMPLE_TRAN_START,
+		SIMPLE_TRAN_END,
+		WEIGHTED_TRAN_START,
+		WEIGHTED_TRAN_END,
+		ID_PREFIX,
+		EDGE,
+		SILENT_LABEL,
+		LABEL,
+		WEIGHT,
+		ID,
+		TERMINAL;
 	}
 	
 	private static class Token{
@@ -140,24 +137,59 @@ public class PetriNetFragmentParser{
 	private LinkedList<Token> tokens = new LinkedList<Token>();
 	private Token lookahead = null;
 	private StochasticNet net;
-	private Map<String,PetrinetNode> nodeLookup = new HashMap<>();
+	private FragmentNet fragment = new FragmentNet();
+	private PetrinetNode[] netNodes = new PetrinetNode[0];
+	private int builtNodes = 0;
+	private int builtArcs = 0;
+	private Map<String,Integer> nodeLookup = new HashMap<>();
 	private NodeMapper nodeMapper = new NodeMapper();
+	private Map<String,Integer> idLookup = new HashMap<>();
 	
+	/**
+	 * Parse <code>netText</code> and add the new nodes and arcs to <code>net</code>. Existing 
+	 * nodes are looked up by label among those this parser has added to the same net.
+	 * 
+	 * @param net
+	 * @param netText
+	 * @return
+	 */
 	public NodeMapper addToNet(StochasticNet net, String netText) {
-		tokenize(netText);
-		this.net = net;
-		parse();
+		bind(net);
+		try {
+			parseLine(netText);
+		}finally {
+			build();
+			TransitionReachabilityIndex.invalidate(net);
+		}
 		return nodeMapper ;
 	}
 	
 	public StochasticNet createNet(String label, String netText) {
 		StochasticNet net = new StochasticNetImpl(label);
-		nodeLookup = new HashMap<>();
 		nodeMapper = new NodeMapper();
+		reset(net);
 		addToNet(net,netText);
 		return net;
 	}
 
+	/**
+	 * Parse to a {@link FragmentNet} without creating a <code>StochasticNet</code>. Specs are
+	 * combined as for {@link #createNetArgs(String, String...)}.
+	 * 
+	 * @param specs
+	 * @return
+	 */
+	public FragmentNet createFragmentNet(String ... specs) {
+		reset(null);
+		FragmentNet result = fragment;
+		for (String spec: specs) {
+			parseLine(spec);
+		}
+		// later calls must not modify the returned fragment
+		reset(null);
+		return result;
+	}
+
 	/**
 	 * 
 	 * Returns an AcceptingPetriNet with one initial and one final place marked. Initial and final
@@ -174,7 +206,7 @@ public class PetriNetFragmentParser{
 	 */
 	public AcceptingStochasticNet createAcceptingNet(String label, String netText) {
 		StochasticNet net = new StochasticNetImpl(label);
-		nodeLookup = new HashMap<>();
+		reset(net);
 		addToNet(net,netText);
 		return markInitialFinalPlaces(net);
 	}
@@ -235,43 +267,274 @@ public class PetriNetFragmentParser{
 	 * @param netText
 	 */
 	public NodeMapper addToAcceptingNet(AcceptingPetriNet anet, String netText) {
-		net = (StochasticNet)anet.getNet();
-		NodeMapper nm = addToNet(net,netText);
-		anet = markInitialFinalPlaces(net);
+		StochasticNet snet = (StochasticNet)anet.getNet();
+		NodeMapper nm = addToNet(snet,netText);
+		anet = markInitialFinalPlaces(snet);
 		return nm;
 	}
 	
+	/**
+	 * Create a net from fragment text read one line at a time, equivalent to 
+	 * {@link #createNetArgs(String, String...)} with one spec per line. Only the current line 
+	 * is held in memory, so large fragment files cost no more than the net they describe. 
+	 * Blank lines are skipped.
+	 * 
+	 * @param label
+	 * @param reader
+	 * @return
+	 * @throws IOException
+	 */
+	public StochasticNet createNet(String label, Reader reader) throws IOException {
+		StochasticNet net = new StochasticNetImpl(label);
+		nodeMapper = new NodeMapper();
+		reset(net);
+		BufferedReader lineReader = (reader instanceof BufferedReader)? 
+				(BufferedReader)reader : new BufferedReader(reader);
+		String line = null;
+		try {
+			while ( (line = lineReader.readLine()) != null) {
+				if (isBlank(line))
+					continue;
+				parseLine(line);
+			}
+		}finally {
+			build();
+		}
+		return net;
+	}
+
+	/**
+	 * Streaming read of a UTF-8 fragment file per {@link #createNet(String, Reader)}.
+	 * 
+	 * @param label
+	 * @param path
+	 * @return
+	 * @throws IOException
+	 */
+	public StochasticNet createNet(String label, Path path) throws IOException {
+		try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)){
+			return createNet(label,reader);
+		}
+	}
+
+	private static boolean isBlank(String line) {
+		for (int i=0; i<line.length(); i++) {
+			if (line.charAt(i) > ' ')
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * All specs are parsed before the net is built in a single pass.
+	 * 
+	 * @param label
+	 * @param specs
+	 * @return
+	 */
 	public StochasticNet createNetArgs(String label, String ... specs) {
+		StochasticNet net = new StochasticNetImpl(label);
 		if (specs.length == 0) {
-			return new StochasticNetImpl(label);
+			return net;
 		}
-		StochasticNet net = createNet(label, specs[0]);
-		for (int i=1; i<specs.length; i++) {
-			addToNet(net, specs[i]);
+		nodeMapper = new NodeMapper();
+		reset(net);
+		try {
+			for (String spec: specs) {
+				parseLine(spec);
+			}
+		}finally {
+			build();
 		}
 		return net;
 	}
 
+	private void bind(StochasticNet net) {
+		if (net != this.net)
+			reset(net);
+	}
+
+	/**
+	 * Start a new fragment for <code>net</code>, forgetting nodes from any previous net. 
+	 */
+	private void reset(StochasticNet net) {
+		this.net = net;
+		fragment = new FragmentNet();
+		netNodes = new PetrinetNode[0];
+		builtNodes = 0;
+		builtArcs = 0;
+		nodeLookup = new HashMap<>();
+		idLookup = new HashMap<>();
+	}
+
+	/**
+	 * Add nodes and arcs parsed since the last build to the bound net.
+	 */
+	private void build() {
+		if (net == null)
+			return;
+		if (netNodes.length < fragment.getNodeCount())
+			netNodes = Arrays.copyOf(netNodes, Math.max(fragment.getNodeCount(), netNodes.length*2));
+		fragment.materialize(net, netNodes, builtNodes, builtArcs, nodeMapper);
+		builtNodes = fragment.getNodeCount();
+		builtArcs = fragment.getArcCount();
+	}
+
+	private void parseLine(String netText) {
+		tokens = tokenize(netText);
+		parse();
+	}
+
+
+	/**
+	 * Build many independent accepting nets in parallel on the common fork-join pool, per 
+	 * {@link #parseAll(Map, ForkJoinPool)}.
+	 * 
+	 * @param specs
+	 * @return
+	 */
+	public static Map<String,AcceptingStochasticNet> parseAll(Map<String,String[]> specs){
+		return parseAll(specs,ForkJoinPool.commonPool());
+	}
 
-	private void tokenize(String str) {
-		tokens.clear();
-		String s = str.trim();
-		while (!s.equals("")) {
-			boolean match = false;
-		    for (PetriNetFragmentParser.TokenInfo info : TokenInfo.LEX_VALUES) {
-		        Matcher m = info.pattern.matcher(s);
-		        if (m.find()) {
-		        	match = true;
-		        	String tok = m.group().trim();
-		        	tokens.add(new Token(info, tok));
-		        	s = m.replaceFirst("");
-		        	break;
-		        }
-		    }
-		    if (!match) 
-		    	throw new RuntimeException("Unexpected character in input:"+s);
+	/**
+	 * Build many independent accepting nets in parallel. Keys are net labels and values are the
+	 * fragment lines for that net, as for {@link #createNetArgs(String, String...)}. Each net gets
+	 * its own parser, so this method is safe to call from multiple threads. Initial and final 
+	 * markings follow the conventions in {@link #createAcceptingNet(String, String)}, applied 
+	 * after all lines for the net are parsed.
+	 * 
+	 * Results are returned in the iteration order of <code>specs</code>. A parse error in any net
+	 * is rethrown. 
+	 * 
+	 * @param specs
+	 * @param pool
+	 * @return
+	 */
+	public static Map<String,AcceptingStochasticNet> parseAll(Map<String,String[]> specs, 
+			ForkJoinPool pool)
+	{
+		Map<String,ForkJoinTask<AcceptingStochasticNet>> tasks = new LinkedHashMap<>();
+		for (Map.Entry<String,String[]> spec: specs.entrySet()) {
+			final String label = spec.getKey();
+			final String[] lines = spec.getValue();
+			tasks.put(label, pool.submit( () -> {
+				PetriNetFragmentParser parser = new PetriNetFragmentParser();
+				return parser.markInitialFinalPlaces( parser.createNetArgs(label, lines) );
+			}));
 		}
-    }
+		Map<String,AcceptingStochasticNet> result = new LinkedHashMap<>();
+		for (Map.Entry<String,ForkJoinTask<AcceptingStochasticNet>> task: tasks.entrySet()) {
+			result.put(task.getKey(), task.getValue().join());
+		}
+		return result;
+	}
+
+	/**
+	 * Single pass lexer. Each character is examined once, with a cursor into the original string
+	 * rather than successive copies of the remaining input. Token precedence follows the grammar,
+	 * eg <code>tau</code> is always lexed as a silent label and a numeric string containing a 
+	 * point is a weight rather than an id.
+	 * 
+	 * @param str
+	 * @return
+	 */
+	LinkedList<Token> tokenize(String str) {
+		LinkedList<Token> result = new LinkedList<Token>();
+		int end = str.length();
+		while (end > 0 && str.charAt(end-1) <= ' ')
+			end--;
+		int pos = 0;
+		while (pos < end && str.charAt(pos) <= ' ')
+			pos++;
+		while (pos < end) {
+			int start = pos;
+			while (isWhitespace(str.charAt(start)))
+				start++;
+			int tokenEnd = -1;
+			TokenInfo info = null;
+			char c = str.charAt(start);
+			switch (c) {
+			case '[': 
+				info = TokenInfo.SIMPLE_TRAN_START; 
+				tokenEnd = start+1;
+				break;
+			case ']': 
+				info = TokenInfo.SIMPLE_TRAN_END;
+				tokenEnd = start+1;
+				break;
+			case '{': 
+				info = TokenInfo.WEIGHTED_TRAN_START;
+				tokenEnd = start+1;
+				break;
+			case '}': 
+				info = TokenInfo.WEIGHTED_TRAN_END;
+				tokenEnd = start+1;
+				break;
+			case '_':
+				if (str.startsWith(ID_LEXEME, start)) {
+					info = TokenInfo.ID_PREFIX;
+					tokenEnd = start + ID_LEXEME.length();
+				}
+				break;
+			case '-':
+				if (start+1 < end && str.charAt(start+1) == '>') {
+					info = TokenInfo.EDGE;
+					tokenEnd = start+2;
+				}
+				break;
+			default:
+				if (isAlpha(c)) {
+					if (str.startsWith(SILENT_LEXEME, start)) {
+						info = TokenInfo.SILENT_LABEL;
+						tokenEnd = start + SILENT_LEXEME.length();
+					}else {
+						info = TokenInfo.LABEL;
+						tokenEnd = start+1;
+						while (tokenEnd < end && isAlphaNumeric(str.charAt(tokenEnd)))
+							tokenEnd++;
+					}
+				}else if (isDigit(c)) {
+					info = TokenInfo.ID;
+					tokenEnd = scanDigits(str, start, end);
+					if (tokenEnd+1 < end && str.charAt(tokenEnd) == '.' 
+							&& isDigit(str.charAt(tokenEnd+1))) 
+					{
+						info = TokenInfo.WEIGHT;
+						tokenEnd = scanDigits(str, tokenEnd+1, end);
+					}
+				}
+			}
+			if (info == null) 
+				throw new RuntimeException("Unexpected character in input:" + str.substring(pos,end));
+			result.add(new Token(info, str.substring(start,tokenEnd)));
+			pos = tokenEnd;
+		}
+		return result;
+	}
+
+	private static int scanDigits(String str, int start, int end) {
+		int pos = start;
+		while (pos < end && isDigit(str.charAt(pos)))
+			pos++;
+		return pos;
+	}
+
+	private static boolean isWhitespace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+	}
+
+	private static boolean isAlpha(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	private static boolean isAlphaNumeric(char c) {
+		return isAlpha(c) || isDigit(c);
+	}
 
 	private void parse() {
 		lookahead = tokens.getFirst();
@@ -282,54 +545,58 @@ public class PetriNetFragmentParser{
 
 
 	private void petriOnelineNet() {
-		Place p1 = place();
+		List<Integer> chain = new ArrayList<>();
+		chain.add(place());
 		edge();
-		Transition transition = transition();
+		chain.add(transition());
 		edge();
-		Place p2 = placeLedSubnet();
-		readdArc(p1, transition);
-		readdArc(transition, p2);			
+		placeLedSubnet(chain);
+		addChainArcs(chain);
 	}
 
-	private void readdArc(Transition transition, Place p2) {
-		Arc arc = net.getArc(transition,p2);
-		if (arc == null)
-			net.addArc(transition, p2);
-	}
-
-	private void readdArc(Place p1, Transition transition) {
-		Arc arc = net.getArc(p1,transition);
-		if (arc == null)
-			net.addArc(p1, transition);
+	/**
+	 * Arcs are added from the tail of the chain back to the head, the same order as a recursive 
+	 * descent through PLACE_LED_SUBNET, but without a stack frame per transition. Arcs already 
+	 * in the fragment are skipped.
+	 * 
+	 * @param chain alternating places and transitions, starting and ending with a place 
+	 */
+	private void addChainArcs(List<Integer> chain) {
+		for (int i=chain.size()-3; i >= 0; i -= 2) {
+			int head = chain.get(i);
+			int transition = chain.get(i+1);
+			int tail = chain.get(i+2);
+			fragment.addArc(head, transition);
+			fragment.addArc(transition, tail);
+		}
 	}
 	
-	private Place placeLedSubnet() {
-		Place head = place();
-		if (lookahead.tokenInfo == TokenInfo.EDGE) {
+	private void placeLedSubnet(List<Integer> chain) {
+		chain.add(place());
+		while (lookahead.tokenInfo == TokenInfo.EDGE) {
 			edge();
-			Transition transition = transition();
+			chain.add(transition());
 			edge();
-			Place tail = placeLedSubnet();
-			readdArc(head, transition);
-			readdArc(transition, tail);
+			chain.add(place());
 		}
-		return head;
 	}
 
-	private Transition transition() {
-		Transition transition = null;
+	private int transition() {
+		int transition;
 		if (lookahead.tokenInfo.equals(TokenInfo.SIMPLE_TRAN_START)) {
 			transition = simpleTransition();
-		}
-		if (lookahead.tokenInfo.equals(TokenInfo.WEIGHTED_TRAN_START)) {
+		}else if (lookahead.tokenInfo.equals(TokenInfo.WEIGHTED_TRAN_START)) {
 			transition = weightedValueTransition();
+		}else {
+			tokenError(TokenInfo.SIMPLE_TRAN_START, TokenInfo.WEIGHTED_TRAN_START);
+			return -1;
 		}
 		nextToken();
 		return transition;
 	}
 
-	private Transition weightedValueTransition() {
-		Transition transition = null;
+	private int weightedValueTransition() {
+		Integer transition = null;
 		nextToken();
 		String label = "";
 		String id = "";
@@ -361,28 +628,12 @@ public class PetriNetFragmentParser{
 		if (id.isEmpty()) {
 			transition = checkExistingTransition(label);
 		}else {
-			transition = checkExistingTransitionById(genId);
+			transition = idLookup.get(genId);
 		}
 		if (transition == null) {
-			transition = net.addImmediateTransition(label, weight);
-			transition.setInvisible(silentTransition);
+			transition = fragment.addImmediateTransition(label, genId, weight, silentTransition);
 			nodeLookup.put(label,transition);
-			nodeMapper.put(transition.getId(), genId);
-		}
-		return transition;
-	}
-
-	private Transition checkExistingTransitionById(String id) {
-		NodeID nodeId = nodeMapper.getNode(id);
-		if (nodeId == null)
-			return null;
-		Transition transition = null;
-		net.getNodes();
-		for (PetrinetNode node: net.getNodes()) {
-			if (nodeId.equals(node.getId())){
-				transition = (Transition)node;
-				break;
-			}
+			idLookup.put(genId, transition);
 		}
 		return transition;
 	}
@@ -398,8 +649,8 @@ public class PetriNetFragmentParser{
 		return Double.valueOf(lookahead.sequence);
 	}
 
-	private Transition simpleTransition() {
-		Transition transition = null;
+	private int simpleTransition() {
+		Integer transition = null;
 		nextToken();
 		String label = "";
 		String id = "";
@@ -417,22 +668,21 @@ public class PetriNetFragmentParser{
 		if (lookahead.tokenInfo.equals(TokenInfo.SIMPLE_TRAN_END)) {
 			transition = checkExistingTransition(label);
 		}else if (lookahead.tokenInfo.equals(TokenInfo.ID_PREFIX)){
-			transition = null;
 			nextToken();
 			id = id();
 			nextToken();
 			if (!lookahead.tokenInfo.equals(TokenInfo.SIMPLE_TRAN_END)) {
 				tokenError(TokenInfo.SIMPLE_TRAN_END,TokenInfo.ID_PREFIX);				
 			}
+			transition = idLookup.get(genId(label, id));
 		}else {
 			tokenError(TokenInfo.SIMPLE_TRAN_END,TokenInfo.ID_PREFIX);
 		}
 		if (transition == null) {
-			transition = net.addTransition(label);
-			transition.setInvisible(silentTransition);
-			nodeLookup.put(label,transition);
 			String genId = genId(label, id);
-			nodeMapper.put(transition.getId(), genId);
+			transition = fragment.addTransition(label, genId, silentTransition);
+			nodeLookup.put(label,transition);
+			idLookup.put(genId, transition);
 		}
 		return transition;
 	}
@@ -450,19 +700,19 @@ public class PetriNetFragmentParser{
 		return lookahead.sequence;
 	}
 
-	private Transition checkExistingTransition(String label) {
-		return (Transition)checkExistingNode(label,Transition.class);
+	private Integer checkExistingTransition(String label) {
+		return checkExistingNode(label,true);
 	}
 	
-	private Place checkExistingPlace(String label) {
-		return (Place)checkExistingNode(label,Place.class);
+	private Integer checkExistingPlace(String label) {
+		return checkExistingNode(label,false);
 	}
 
 	
-	private PetrinetNode checkExistingNode(String label, Class<?> expectedClass) {
-		PetrinetNode existing = nodeLookup.get(label);
+	private Integer checkExistingNode(String label, boolean expectTransition) {
+		Integer existing = nodeLookup.get(label);
 		if (existing != null)
-			if (!(expectedClass.isInstance(existing))) {
+			if (fragment.isTransition(existing) != expectTransition) {
 				throw new RuntimeException("New node " + label + " duplicates existing node of wrong type");
 			}
 		return existing;
@@ -476,11 +726,11 @@ public class PetriNetFragmentParser{
 	}
 
 
-	private Place place() {
+	private int place() {
 		String label = lookahead.sequence;
-		Place place = checkExistingPlace(label);
+		Integer place = checkExistingPlace(label);
 		if (place == null) {
-			place = net.addPlace(label);
+			place = fragment.addPlace(label);
 			nodeLookup.put(label,place);
 		}
 		nextToken();
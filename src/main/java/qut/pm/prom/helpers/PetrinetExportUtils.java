@@ -2,9 +2,6 @@ package qut.pm.prom.helpers;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Paths;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -44,7 +41,6 @@ import qut.pm.spm.AcceptingStochasticNetImpl;
 public class PetrinetExportUtils {
 
     private static final double EPSILON = 0.0001;
-	private static final String LINE_SEP = "\n";
 
 	private static int checkId(PetrinetNode node, Map<PetrinetNode, String> idMapping, int currentCounter) {
         if (!idMapping.containsKey(node)) {
@@ -131,11 +127,8 @@ public class PetrinetExportUtils {
 
 
 	public static StochasticNet readPNetFragmentToStochasticNet(File inFile) throws IOException {
-		byte[] encoded = Files.readAllBytes( Paths.get( inFile.toURI() ));
-		String text = new String(encoded,StandardCharsets.UTF_8); 
 		PetriNetFragmentParser parser = new PetriNetFragmentParser();
-		String[] lines = text.split(LINE_SEP);
-		StochasticNet net = parser.createNetArgs(inFile.getName() , lines);
+		StochasticNet net = parser.createNet(inFile.getName() , inFile.toPath());
 		return net;
 	}
 
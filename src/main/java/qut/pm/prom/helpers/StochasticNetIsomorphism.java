@@ -0,0 +1,443 @@
+package qut.pm.prom.helpers;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.processmining.models.graphbased.directed.petrinet.PetrinetEdge;
+import org.processmining.models.graphbased.directed.petrinet.PetrinetNode;
+import org.processmining.models.graphbased.directed.petrinet.StochasticNet;
+import org.processmining.models.graphbased.directed.petrinet.elements.Arc;
+import org.processmining.models.graphbased.directed.petrinet.elements.InhibitorArc;
+import org.processmining.models.graphbased.directed.petrinet.elements.Place;
+import org.processmining.models.graphbased.directed.petrinet.elements.ResetArc;
+import org.processmining.models.graphbased.directed.petrinet.elements.TimedTransition;
+import org.processmining.models.graphbased.directed.petrinet.elements.Transition;
+
+import qut.pm.util.LongHashSet;
+
+/**
+ * Labelled isomorphism of stochastic nets, for nets where labels are not unique, such as those
+ * with many silent transitions. Nodes must map to nodes of the same kind, label, visibility
+ * and distribution type, with transition weights within a tolerance, and every edge must map
+ * to an edge of the same kind and weight.
+ *
+ * Each net is read once into an int-indexed adjacency index. Node colours start from the node
+ * attributes and are refined by the colours of neighbours until the partition is stable, then
+ * a backtracking search matches nodes only within colour classes, checking edges to nodes
+ * already matched. The nets themselves are never copied.
+ */
+public class StochasticNetIsomorphism {
+
+	private static final int INHIBITOR_WEIGHT = -1;
+	private static final int RESET_WEIGHT = -2;
+	private static final long IN_EDGE = 0x9e3779b97f4a7c15L;
+	private static final long OUT_EDGE = 0xc2b2ae3d27d4eb4fL;
+
+	/**
+	 * Read-only adjacency form of a net. Places are numbered before transitions, and edges are
+	 * held in compressed rows sorted by neighbour then weight. A row may hold a neighbour more
+	 * than once, as for an inhibitor or reset arc alongside an ordinary arc.
+	 */
+	private static class Index {
+		final int nodeCount;
+		final int placeCount;
+		final String[] labels;
+		final boolean[] invisible;
+		final double[] weights;
+		final String[] distributionTypes;
+		final int[] outStart;
+		final int[] outNode;
+		final int[] outWeight;
+		final int[] inStart;
+		final int[] inNode;
+		final int[] inWeight;
+
+		Index(StochasticNet net) {
+			Collection<Place> places = net.getPlaces();
+			Collection<Transition> transitions = net.getTransitions();
+			placeCount = places.size();
+			nodeCount = placeCount + transitions.size();
+			labels = new String[nodeCount];
+			invisible = new boolean[nodeCount];
+			weights = new double[nodeCount];
+			distributionTypes = new String[nodeCount];
+			Map<PetrinetNode,Integer> nodeIds = new IdentityHashMap<>(nodeCount);
+			int node = 0;
+			for (Place place: places) {
+				labels[node] = place.getLabel();
+				nodeIds.put(place, node++);
+			}
+			for (Transition transition: transitions) {
+				labels[node] = transition.getLabel();
+				invisible[node] = transition.isInvisible();
+				if (transition instanceof TimedTransition) {
+					TimedTransition timed = (TimedTransition)transition;
+					weights[node] = timed.getWeight();
+					distributionTypes[node] = String.valueOf(timed.getDistributionType());
+				}
+				nodeIds.put(transition, node++);
+			}
+			Collection<PetrinetEdge<? extends PetrinetNode, ? extends PetrinetNode>> edges = net.getEdges();
+			int edgeCount = edges.size();
+			int[] sources = new int[edgeCount];
+			int[] targets = new int[edgeCount];
+			int[] edgeWeights = new int[edgeCount];
+			int edge = 0;
+			for (PetrinetEdge<? extends PetrinetNode, ? extends PetrinetNode> petrinetEdge: edges) {
+				sources[edge] = nodeIds.get(petrinetEdge.getSource());
+				targets[edge] = nodeIds.get(petrinetEdge.getTarget());
+				edgeWeights[edge] = edgeWeight(petrinetEdge);
+				edge++;
+			}
+			outStart = new int[nodeCount+1];
+			outNode = new int[edgeCount];
+			outWeight = new int[edgeCount];
+			fillRows(sources, targets, edgeWeights, outStart, outNode, outWeight);
+			inStart = new int[nodeCount+1];
+			inNode = new int[edgeCount];
+			inWeight = new int[edgeCount];
+			fillRows(targets, sources, edgeWeights, inStart, inNode, inWeight);
+		}
+
+		/**
+		 * Counting sort of edges into rows by <code>rowKeys</code>, each row then sorted by
+		 * neighbour and weight.
+		 */
+		private void fillRows(int[] rowKeys, int[] neighbours, int[] edgeWeights,
+				int[] start, int[] rowNode, int[] rowWeight)
+		{
+			for (int key: rowKeys)
+				start[key+1]++;
+			for (int i=0; i<nodeCount; i++)
+				start[i+1] += start[i];
+			int[] next = Arrays.copyOf(start, nodeCount);
+			for (int edge=0; edge<rowKeys.length; edge++) {
+				int pos = next[rowKeys[edge]]++;
+				rowNode[pos] = neighbours[edge];
+				rowWeight[pos] = edgeWeights[edge];
+			}
+			for (int node=0; node<nodeCount; node++) {
+				// insertion sort, rows are short
+				for (int i=start[node]+1; i<start[node+1]; i++) {
+					int n = rowNode[i];
+					int w = rowWeight[i];
+					int j = i-1;
+					while (j >= start[node]
+							&& (rowNode[j] > n || (rowNode[j] == n && rowWeight[j] > w)))
+					{
+						rowNode[j+1] = rowNode[j];
+						rowWeight[j+1] = rowWeight[j];
+						j--;
+					}
+					rowNode[j+1] = n;
+					rowWeight[j+1] = w;
+				}
+			}
+		}
+
+		/**
+		 * @return the first position of <code>neighbour</code> in the row of <code>node</code>,
+		 * 		or where it would be
+		 */
+		int findFirst(int[] start, int[] rowNode, int node, int neighbour) {
+			int low = start[node];
+			int high = start[node+1];
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (rowNode[mid] < neighbour)
+					low = mid + 1;
+				else
+					high = mid;
+			}
+			return low;
+		}
+	}
+
+	private static int edgeWeight(PetrinetEdge<? extends PetrinetNode, ? extends PetrinetNode> edge) {
+		if (edge instanceof InhibitorArc)
+			return INHIBITOR_WEIGHT;
+		if (edge instanceof ResetArc)
+			return RESET_WEIGHT;
+		if (edge instanceof Arc)
+			return ((Arc)edge).getWeight();
+		return 0;
+	}
+
+	private final Index index1;
+	private final Index index2;
+	private final double epsilon;
+	private int[] colours1;
+	private int[] colours2;
+
+	private StochasticNetIsomorphism(StochasticNet net1, StochasticNet net2, double epsilon) {
+		this.index1 = new Index(net1);
+		this.index2 = new Index(net2);
+		this.epsilon = epsilon;
+	}
+
+	/**
+	 *
+	 * @param net1
+	 * @param net2
+	 * @param epsilon tolerance for transition weights
+	 * @return true if there is a label, weight and edge preserving bijection between the nets
+	 */
+	public static boolean areIsomorphic(StochasticNet net1, StochasticNet net2, double epsilon) {
+		return new StochasticNetIsomorphism(net1, net2, epsilon).match();
+	}
+
+	private boolean match() {
+		if (index1.nodeCount != index2.nodeCount || index1.placeCount != index2.placeCount
+				|| index1.outNode.length != index2.outNode.length)
+			return false;
+		if (!refineColours())
+			return false;
+		return search();
+	}
+
+	private static long mix(long h, long value) {
+		long k = h ^ (value + 0x9e3779b97f4a7c15L + (h << 6) + (h >>> 2));
+		k ^= k >>> 33;
+		k *= 0xff51afd7ed558ccdL;
+		k ^= k >>> 33;
+		k *= 0xc4ceb9fe1a85ec53L;
+		k ^= k >>> 33;
+		return k;
+	}
+
+	private static long mix(long h, String value) {
+		if (value == null)
+			return mix(h, -1);
+		h = mix(h, value.length());
+		for (int i=0; i<value.length(); i++)
+			h = mix(h, value.charAt(i));
+		return h;
+	}
+
+	private static long[] initialColours(Index index) {
+		long[] colours = new long[index.nodeCount];
+		for (int node=0; node<index.nodeCount; node++) {
+			long h = mix(0, node < index.placeCount? 1 : 2);
+			h = mix(h, index.labels[node]);
+			h = mix(h, index.invisible[node]? 1 : 0);
+			colours[node] = mix(h, index.distributionTypes[node]);
+		}
+		return colours;
+	}
+
+	private static long[] refine(Index index, long[] colours, long[] buffer) {
+		long[] result = new long[index.nodeCount];
+		for (int node=0; node<index.nodeCount; node++) {
+			int size = 0;
+			for (int i=index.outStart[node]; i<index.outStart[node+1]; i++)
+				buffer[size++] = mix(mix(OUT_EDGE, index.outWeight[i]), colours[index.outNode[i]]);
+			for (int i=index.inStart[node]; i<index.inStart[node+1]; i++)
+				buffer[size++] = mix(mix(IN_EDGE, index.inWeight[i]), colours[index.inNode[i]]);
+			Arrays.sort(buffer, 0, size);
+			long h = colours[node];
+			for (int i=0; i<size; i++)
+				h = mix(h, buffer[i]);
+			result[node] = h;
+		}
+		return result;
+	}
+
+	private static int countDistinct(long[] colours1, long[] colours2) {
+		LongHashSet distinct = new LongHashSet(colours1.length);
+		for (long colour: colours1)
+			distinct.add(colour);
+		for (long colour: colours2)
+			distinct.add(colour);
+		return distinct.size();
+	}
+
+	/**
+	 * Refine both nets together so colours are comparable, then relabel them densely.
+	 *
+	 * @return false if the colour histograms of the nets differ
+	 */
+	private boolean refineColours() {
+		long[] c1 = initialColours(index1);
+		long[] c2 = initialColours(index2);
+		long[] buffer = new long[Math.max(maxDegree(index1), maxDegree(index2))];
+		int classes = countDistinct(c1, c2);
+		for (int round=0; round<index1.nodeCount; round++) {
+			long[] r1 = refine(index1, c1, buffer);
+			long[] r2 = refine(index2, c2, buffer);
+			int refined = countDistinct(r1, r2);
+			c1 = r1;
+			c2 = r2;
+			if (refined == classes)
+				break;
+			classes = refined;
+		}
+		Map<Long,Integer> dense = new HashMap<>();
+		colours1 = new int[index1.nodeCount];
+		colours2 = new int[index2.nodeCount];
+		for (int node=0; node<index1.nodeCount; node++)
+			colours1[node] = dense.computeIfAbsent(c1[node], c -> dense.size());
+		for (int node=0; node<index2.nodeCount; node++) {
+			Integer colour = dense.get(c2[node]);
+			if (colour == null)
+				return false;
+			colours2[node] = colour;
+		}
+		int[] histogram = new int[dense.size()];
+		for (int colour: colours1)
+			histogram[colour]++;
+		for (int colour: colours2)
+			histogram[colour]--;
+		for (int count: histogram) {
+			if (count != 0)
+				return false;
+		}
+		return true;
+	}
+
+	private static int maxDegree(Index index) {
+		int result = 0;
+		for (int node=0; node<index.nodeCount; node++) {
+			result = Math.max(result, index.outStart[node+1] - index.outStart[node]
+									+ index.inStart[node+1] - index.inStart[node]);
+		}
+		return result;
+	}
+
+	/**
+	 * Order net1 nodes so each one is adjacent to as many already ordered nodes as possible, with
+	 * smaller colour classes first. Edges are then checked as early as possible in the search.
+	 */
+	private int[] matchOrder(int[] classSizes) {
+		int n = index1.nodeCount;
+		int[] order = new int[n];
+		boolean[] ordered = new boolean[n];
+		int[] orderedNeighbours = new int[n];
+		for (int pos=0; pos<n; pos++) {
+			int best = -1;
+			for (int node=0; node<n; node++) {
+				if (ordered[node])
+					continue;
+				if (best < 0 || orderedNeighbours[node] > orderedNeighbours[best]
+						|| (orderedNeighbours[node] == orderedNeighbours[best]
+							&& classSizes[colours1[node]] < classSizes[colours1[best]]))
+				{
+					best = node;
+				}
+			}
+			order[pos] = best;
+			ordered[best] = true;
+			for (int i=index1.outStart[best]; i<index1.outStart[best+1]; i++)
+				orderedNeighbours[index1.outNode[i]]++;
+			for (int i=index1.inStart[best]; i<index1.inStart[best+1]; i++)
+				orderedNeighbours[index1.inNode[i]]++;
+		}
+		return order;
+	}
+
+	private boolean search() {
+		int n = index1.nodeCount;
+		if (n == 0)
+			return true;
+		int colourCount = 0;
+		for (int colour: colours2)
+			colourCount = Math.max(colourCount, colour+1);
+		// net2 nodes grouped by colour
+		int[] classStart = new int[colourCount+1];
+		for (int colour: colours2)
+			classStart[colour+1]++;
+		for (int i=0; i<colourCount; i++)
+			classStart[i+1] += classStart[i];
+		int[] classMembers = new int[n];
+		int[] next = Arrays.copyOf(classStart, colourCount);
+		for (int node=0; node<n; node++)
+			classMembers[next[colours2[node]]++] = node;
+		int[] classSizes = new int[colourCount];
+		for (int i=0; i<colourCount; i++)
+			classSizes[i] = classStart[i+1] - classStart[i];
+		int[] order = matchOrder(classSizes);
+		int[] mapping = new int[n];
+		int[] inverse = new int[n];
+		Arrays.fill(mapping, -1);
+		Arrays.fill(inverse, -1);
+		int[] candidatePos = new int[n];
+		int depth = 0;
+		candidatePos[0] = classStart[colours1[order[0]]];
+		while (depth >= 0) {
+			if (depth == n)
+				return true;
+			int node = order[depth];
+			if (mapping[node] >= 0) {
+				inverse[mapping[node]] = -1;
+				mapping[node] = -1;
+			}
+			int classEnd = classStart[colours1[node]+1];
+			boolean advanced = false;
+			while (candidatePos[depth] < classEnd) {
+				int candidate = classMembers[candidatePos[depth]++];
+				if (inverse[candidate] >= 0 || !feasible(node, candidate, mapping, inverse))
+					continue;
+				mapping[node] = candidate;
+				inverse[candidate] = node;
+				depth++;
+				if (depth < n)
+					candidatePos[depth] = classStart[colours1[order[depth]]];
+				advanced = true;
+				break;
+			}
+			if (!advanced)
+				depth--;
+		}
+		return false;
+	}
+
+	private boolean feasible(int node, int candidate, int[] mapping, int[] inverse) {
+		if (Math.abs(index1.weights[node] - index2.weights[candidate]) > epsilon)
+			return false;
+		return feasibleRow(node, candidate, mapping, inverse,
+						   index1.outStart, index1.outNode, index1.outWeight,
+						   index2.outStart, index2.outNode, index2.outWeight)
+			&& feasibleRow(node, candidate, mapping, inverse,
+						   index1.inStart, index1.inNode, index1.inWeight,
+						   index2.inStart, index2.inNode, index2.inWeight);
+	}
+
+	/**
+	 * The edges from <code>node</code> to each matched node have the same sorted weights as the
+	 * edges from <code>candidate</code> to its image, and <code>candidate</code> has no other
+	 * edges to matched nodes.
+	 */
+	private boolean feasibleRow(int node, int candidate, int[] mapping, int[] inverse,
+			int[] start1, int[] rowNode1, int[] rowWeight1,
+			int[] start2, int[] rowNode2, int[] rowWeight2)
+	{
+		int matched = 0;
+		int end1 = start1[node+1];
+		int end2 = start2[candidate+1];
+		int i = start1[node];
+		while (i < end1) {
+			int neighbour = rowNode1[i];
+			int image = mapping[neighbour];
+			if (image < 0) {
+				i++;
+				continue;
+			}
+			int j = index2.findFirst(start2, rowNode2, candidate, image);
+			for (; i < end1 && rowNode1[i] == neighbour; i++, j++) {
+				if (j == end2 || rowNode2[j] != image || rowWeight2[j] != rowWeight1[i])
+					return false;
+				matched++;
+			}
+			if (j < end2 && rowNode2[j] == image)
+				return false;
+		}
+		for (int j=start2[candidate]; j<end2; j++) {
+			if (inverse[rowNode2[j]] >= 0)
+				matched--;
+		}
+		return matched == 0;
+	}
+
+}
@@ -0,0 +1,227 @@
+package qut.pm.prom.helpers;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.function.Function;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.processmining.models.graphbased.directed.petrinet.PetrinetEdge;
+import org.processmining.models.graphbased.directed.petrinet.PetrinetNode;
+import org.processmining.models.graphbased.directed.petrinet.StochasticNet;
+import org.processmining.models.graphbased.directed.petrinet.StochasticNet.DistributionType;
+import org.processmining.models.graphbased.directed.petrinet.elements.Arc;
+import org.processmining.models.graphbased.directed.petrinet.elements.InhibitorArc;
+import org.processmining.models.graphbased.directed.petrinet.elements.Place;
+import org.processmining.models.graphbased.directed.petrinet.elements.ResetArc;
+import org.processmining.models.graphbased.directed.petrinet.elements.TimedTransition;
+import org.processmining.models.graphbased.directed.petrinet.elements.Transition;
+
+/**
+ * Canonical form of a net with uniquely labelled nodes, for equality checks. Places and
+ * transitions are represented by their rank in sorted label arrays, and transition attributes
+ * are held in arrays aligned with those ranks. Each edge is packed into a long of
+ * (place rank, transition rank, edge kind), and the edge keys are sorted with arc weights
+ * alongside.
+ *
+ * Built in one pass over the nodes and one over the edges, with no allocation per node or edge
+ * beyond the arrays themselves. Two signatures match when every array matches, with transition
+ * weights compared within a tolerance.
+ *
+ * Nets with duplicate place labels, or duplicate transition labels after applying the label
+ * function, are rejected with an <code>IllegalArgumentException</code>.
+ */
+public class StochasticNetSignature {
+
+	private static Logger LOGGER = LogManager.getLogger();
+
+	private static final int ARC_TO_TRANSITION = 0;
+	private static final int ARC_TO_PLACE = 1;
+	private static final int INHIBITOR_ARC = 2;
+	private static final int RESET_ARC = 3;
+	private static final int MAX_TRANSITIONS = 1 << 30;
+
+	private final String[] placeLabels;
+	private final String[] transitionLabels;
+	private final boolean[] invisible;
+	private final double[] weights;
+	private final DistributionType[] distributionTypes;
+	private final long[] edgeKeys;
+	private final int[] arcWeights;
+
+	public StochasticNetSignature(StochasticNet net) {
+		this(net, Transition::getLabel);
+	}
+
+	/**
+	 *
+	 * @param net
+	 * @param transitionLabeller label to use for each transition, eg a {@link NodeMapper} id for
+	 * nets with duplicate labels. Where it returns null the transition label is used.
+	 */
+	public StochasticNetSignature(StochasticNet net, Function<Transition,String> transitionLabeller) {
+		Collection<Place> places = net.getPlaces();
+		placeLabels = new String[places.size()];
+		int i = 0;
+		for (Place place: places) {
+			placeLabels[i++] = place.getLabel();
+		}
+		Arrays.sort(placeLabels);
+		checkUnique(placeLabels, "place");
+		Collection<Transition> transitions = net.getTransitions();
+		if (transitions.size() > MAX_TRANSITIONS)
+			throw new IllegalArgumentException("Too many transitions for signature: " + transitions.size());
+		transitionLabels = new String[transitions.size()];
+		i = 0;
+		for (Transition transition: transitions) {
+			transitionLabels[i++] = transitionLabel(transition, transitionLabeller);
+		}
+		Arrays.sort(transitionLabels);
+		checkUnique(transitionLabels, "transition");
+		invisible = new boolean[transitionLabels.length];
+		weights = new double[transitionLabels.length];
+		distributionTypes = new DistributionType[transitionLabels.length];
+		for (Transition transition: transitions) {
+			int rank = Arrays.binarySearch(transitionLabels, transitionLabel(transition, transitionLabeller));
+			invisible[rank] = transition.isInvisible();
+			if (transition instanceof TimedTransition) {
+				TimedTransition timed = (TimedTransition)transition;
+				weights[rank] = timed.getWeight();
+				distributionTypes[rank] = timed.getDistributionType();
+			}
+		}
+		Collection<PetrinetEdge<? extends PetrinetNode, ? extends PetrinetNode>> edges = net.getEdges();
+		edgeKeys = new long[edges.size()];
+		i = 0;
+		for (PetrinetEdge<? extends PetrinetNode, ? extends PetrinetNode> edge: edges) {
+			edgeKeys[i++] = edgeKey(edge, transitionLabeller);
+		}
+		Arrays.sort(edgeKeys);
+		for (i=1; i<edgeKeys.length; i++) {
+			if (edgeKeys[i-1] == edgeKeys[i])
+				throw new IllegalArgumentException("Repeated edge in net " + net.getLabel());
+		}
+		arcWeights = new int[edgeKeys.length];
+		for (PetrinetEdge<? extends PetrinetNode, ? extends PetrinetNode> edge: edges) {
+			if (edge instanceof Arc) {
+				int index = Arrays.binarySearch(edgeKeys, edgeKey(edge, transitionLabeller));
+				arcWeights[index] = ((Arc)edge).getWeight();
+			}
+		}
+	}
+
+	private static String transitionLabel(Transition transition,
+			Function<Transition,String> transitionLabeller)
+	{
+		String label = transitionLabeller.apply(transition);
+		return (label == null)? transition.getLabel() : label;
+	}
+
+	private static void checkUnique(String[] sortedLabels, String nodeType) {
+		for (int i=1; i<sortedLabels.length; i++) {
+			if (sortedLabels[i-1].equals(sortedLabels[i]))
+				throw new IllegalArgumentException("Duplicate " + nodeType + " label " + sortedLabels[i]);
+		}
+	}
+
+	private long edgeKey(PetrinetEdge<? extends PetrinetNode, ? extends PetrinetNode> edge,
+			Function<Transition,String> transitionLabeller)
+	{
+		PetrinetNode source = edge.getSource();
+		PetrinetNode target = edge.getTarget();
+		Place place;
+		Transition transition;
+		int kind;
+		if (source instanceof Place) {
+			place = (Place)source;
+			transition = (Transition)target;
+			if (edge instanceof InhibitorArc) {
+				kind = INHIBITOR_ARC;
+			}else if (edge instanceof ResetArc) {
+				kind = RESET_ARC;
+			}else {
+				kind = ARC_TO_TRANSITION;
+			}
+		}else {
+			place = (Place)target;
+			transition = (Transition)source;
+			kind = ARC_TO_PLACE;
+		}
+		long placeRank = Arrays.binarySearch(placeLabels, place.getLabel());
+		long transitionRank = Arrays.binarySearch(transitionLabels,
+				transitionLabel(transition, transitionLabeller));
+		return (placeRank << 32) | (transitionRank << 2) | kind;
+	}
+
+	public int getPlaceCount() {
+		return placeLabels.length;
+	}
+
+	public int getTransitionCount() {
+		return transitionLabels.length;
+	}
+
+	public int getEdgeCount() {
+		return edgeKeys.length;
+	}
+
+	/**
+	 *
+	 * @param other
+	 * @param epsilon tolerance for transition weights
+	 * @return
+	 */
+	public boolean matches(StochasticNetSignature other, double epsilon) {
+		if (!Arrays.equals(placeLabels, other.placeLabels)) {
+			LOGGER.debug("Not equal: places differ");
+			return false;
+		}
+		if (!Arrays.equals(transitionLabels, other.transitionLabels)) {
+			LOGGER.debug("Not equal: transitions differ");
+			return false;
+		}
+		for (int i=0; i<transitionLabels.length; i++) {
+			if (invisible[i] != other.invisible[i]
+					|| Math.abs(weights[i] - other.weights[i]) > epsilon
+					|| distributionTypes[i] != other.distributionTypes[i])
+			{
+				LOGGER.debug("Not equal: transition {} differs",transitionLabels[i]);
+				return false;
+			}
+		}
+		if (!Arrays.equals(edgeKeys, other.edgeKeys) || !Arrays.equals(arcWeights, other.arcWeights)) {
+			LOGGER.debug("Not equal: edges differ");
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Hash of this signature consistent with {@link #matches(StochasticNetSignature, double)} for
+	 * any epsilon. Transition weights are left out, as no rounding of them agrees with a 
+	 * tolerance, so nets differing only in weights fingerprint the same and are told apart by
+	 * <code>matches()</code>.
+	 * 
+	 * @return
+	 */
+	public NetFingerprint fingerprint() {
+		NetFingerprint.Builder builder = new NetFingerprint.Builder();
+		builder.add(placeLabels.length);
+		for (String label: placeLabels) {
+			builder.add(label);
+		}
+		builder.add(transitionLabels.length);
+		for (int i=0; i<transitionLabels.length; i++) {
+			builder.add(transitionLabels[i]);
+			builder.add(invisible[i]? 1 : 0);
+			builder.add(distributionTypes[i] == null? "" : distributionTypes[i].name());
+		}
+		builder.add(edgeKeys.length);
+		for (int i=0; i<edgeKeys.length; i++) {
+			builder.add(edgeKeys[i]);
+			builder.add(arcWeights[i]);
+		}
+		return builder.build();
+	}
+
+}
@@ -0,0 +1,280 @@
+package qut.pm.prom.helpers;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.processmining.models.graphbased.directed.petrinet.PetrinetEdge;
+import org.processmining.models.graphbased.directed.petrinet.PetrinetNode;
+import org.processmining.models.graphbased.directed.petrinet.StochasticNet;
+import org.processmining.models.graphbased.directed.petrinet.StochasticNet.DistributionType;
+import org.processmining.models.graphbased.directed.petrinet.elements.Arc;
+import org.processmining.models.graphbased.directed.petrinet.elements.Place;
+import org.processmining.models.graphbased.directed.petrinet.elements.TimedTransition;
+import org.processmining.models.graphbased.directed.petrinet.elements.Transition;
+
+/**
+ * Immutable int-indexed copy of the structure of a <code>StochasticNet</code>. Places and
+ * transitions are numbered separately from zero, in the net's iteration order, and weighted arcs
+ * are held in compressed sparse rows for each direction. Inhibitor and reset arcs are not
+ * included.
+ *
+ * Neighbourhood queries read the row arrays directly and allocate nothing, which suits repeated
+ * queries in inner loops. Later changes to the net are not reflected. Instances are safe to share
+ * between threads.
+ */
+public class StochasticNetSnapshot {
+
+	/**
+	 * One direction of adjacency. The neighbours of node <code>n</code> are
+	 * <code>target(i)</code> for <code>start(n) <= i < end(n)</code>, in ascending order, with
+	 * arc weights <code>weight(i)</code>.
+	 */
+	public static final class Csr {
+		private final int[] offsets;
+		private final int[] targets;
+		private final int[] weights;
+
+		private Csr(int nodeCount, int[] sources, int[] targets, int[] weights) {
+			offsets = new int[nodeCount+1];
+			this.targets = new int[sources.length];
+			this.weights = new int[sources.length];
+			for (int source: sources)
+				offsets[source+1]++;
+			for (int i=0; i<nodeCount; i++)
+				offsets[i+1] += offsets[i];
+			int[] next = Arrays.copyOf(offsets, nodeCount);
+			// sorted by target so that rows come out in ascending order
+			for (int edge: sortedBy(targets, sources.length)) {
+				int pos = next[sources[edge]]++;
+				this.targets[pos] = targets[edge];
+				this.weights[pos] = weights[edge];
+			}
+		}
+
+		private static int[] sortedBy(int[] keys, int length) {
+			int max = 0;
+			for (int key: keys)
+				max = Math.max(max, key+1);
+			int[] counts = new int[max+1];
+			for (int key: keys)
+				counts[key+1]++;
+			for (int i=0; i<max; i++)
+				counts[i+1] += counts[i];
+			int[] result = new int[length];
+			for (int i=0; i<length; i++)
+				result[counts[keys[i]]++] = i;
+			return result;
+		}
+
+		public int start(int node) {
+			return offsets[node];
+		}
+
+		public int end(int node) {
+			return offsets[node+1];
+		}
+
+		public int degree(int node) {
+			return offsets[node+1] - offsets[node];
+		}
+
+		public int target(int index) {
+			return targets[index];
+		}
+
+		public int weight(int index) {
+			return weights[index];
+		}
+
+		/**
+		 * Index of the arc from <code>node</code> to <code>target</code>, or -1.
+		 */
+		public int find(int node, int target) {
+			int pos = Arrays.binarySearch(targets, offsets[node], offsets[node+1], target);
+			return (pos < 0)? -1 : pos;
+		}
+
+		/**
+		 * Copy the neighbours of <code>node</code> into <code>result</code>.
+		 *
+		 * @return the number of neighbours
+		 */
+		public int copyRow(int node, int[] result) {
+			int length = degree(node);
+			System.arraycopy(targets, offsets[node], result, 0, length);
+			return length;
+		}
+
+		public int getArcCount() {
+			return targets.length;
+		}
+	}
+
+	private final StochasticNet net;
+	private final Place[] places;
+	private final Transition[] transitions;
+	private final Map<PetrinetNode,Integer> nodeIds;
+	private final boolean[] invisible;
+	private final double[] weights;
+	private final DistributionType[] distributionTypes;
+	private final Csr placeInputs;
+	private final Csr placeOutputs;
+	private final Csr transitionInputs;
+	private final Csr transitionOutputs;
+
+	public StochasticNetSnapshot(StochasticNet net) {
+		this.net = net;
+		Collection<Place> netPlaces = net.getPlaces();
+		Collection<Transition> netTransitions = net.getTransitions();
+		places = netPlaces.toArray(new Place[netPlaces.size()]);
+		transitions = netTransitions.toArray(new Transition[netTransitions.size()]);
+		Map<PetrinetNode,Integer> ids = new IdentityHashMap<>(places.length + transitions.length);
+		for (int p=0; p<places.length; p++)
+			ids.put(places[p], p);
+		invisible = new boolean[transitions.length];
+		weights = new double[transitions.length];
+		distributionTypes = new DistributionType[transitions.length];
+		for (int t=0; t<transitions.length; t++) {
+			Transition transition = transitions[t];
+			ids.put(transition, t);
+			invisible[t] = transition.isInvisible();
+			if (transition instanceof TimedTransition) {
+				TimedTransition timed = (TimedTransition)transition;
+				weights[t] = timed.getWeight();
+				distributionTypes[t] = timed.getDistributionType();
+			}
+		}
+		nodeIds = Collections.unmodifiableMap(ids);
+		Collection<PetrinetEdge<? extends PetrinetNode, ? extends PetrinetNode>> edges = net.getEdges();
+		int[] ptPlaces = new int[edges.size()];
+		int[] ptTransitions = new int[edges.size()];
+		int[] ptWeights = new int[edges.size()];
+		int[] tpPlaces = new int[edges.size()];
+		int[] tpTransitions = new int[edges.size()];
+		int[] tpWeights = new int[edges.size()];
+		int ptCount = 0;
+		int tpCount = 0;
+		for (PetrinetEdge<? extends PetrinetNode, ? extends PetrinetNode> edge: edges) {
+			if (!(edge instanceof Arc))
+				continue;
+			int weight = ((Arc)edge).getWeight();
+			if (edge.getSource() instanceof Place) {
+				ptPlaces[ptCount] = ids.get(edge.getSource());
+				ptTransitions[ptCount] = ids.get(edge.getTarget());
+				ptWeights[ptCount++] = weight;
+			}else {
+				tpTransitions[tpCount] = ids.get(edge.getSource());
+				tpPlaces[tpCount] = ids.get(edge.getTarget());
+				tpWeights[tpCount++] = weight;
+			}
+		}
+		ptPlaces = Arrays.copyOf(ptPlaces, ptCount);
+		ptTransitions = Arrays.copyOf(ptTransitions, ptCount);
+		ptWeights = Arrays.copyOf(ptWeights, ptCount);
+		tpPlaces = Arrays.copyOf(tpPlaces, tpCount);
+		tpTransitions = Arrays.copyOf(tpTransitions, tpCount);
+		tpWeights = Arrays.copyOf(tpWeights, tpCount);
+		placeOutputs = new Csr(places.length, ptPlaces, ptTransitions, ptWeights);
+		transitionInputs = new Csr(transitions.length, ptTransitions, ptPlaces, ptWeights);
+		transitionOutputs = new Csr(transitions.length, tpTransitions, tpPlaces, tpWeights);
+		placeInputs = new Csr(places.length, tpPlaces, tpTransitions, tpWeights);
+	}
+
+	public StochasticNet getNet() {
+		return net;
+	}
+
+	public int getPlaceCount() {
+		return places.length;
+	}
+
+	public int getTransitionCount() {
+		return transitions.length;
+	}
+
+	public Place getPlace(int place) {
+		return places[place];
+	}
+
+	public Transition getTransition(int transition) {
+		return transitions[transition];
+	}
+
+	/**
+	 *
+	 * @param place
+	 * @return the index of <code>place</code>, or -1 if it is not in the snapshot
+	 */
+	public int indexOf(Place place) {
+		Integer id = nodeIds.get(place);
+		return (id == null)? -1 : id;
+	}
+
+	/**
+	 *
+	 * @param transition
+	 * @return the index of <code>transition</code>, or -1 if it is not in the snapshot
+	 */
+	public int indexOf(Transition transition) {
+		Integer id = nodeIds.get(transition);
+		return (id == null)? -1 : id;
+	}
+
+	public String getPlaceLabel(int place) {
+		return places[place].getLabel();
+	}
+
+	public String getTransitionLabel(int transition) {
+		return transitions[transition].getLabel();
+	}
+
+	public boolean isInvisible(int transition) {
+		return invisible[transition];
+	}
+
+	/**
+	 * Weight of a <code>TimedTransition</code>, otherwise 0.
+	 */
+	public double getWeight(int transition) {
+		return weights[transition];
+	}
+
+	/**
+	 * Distribution type of a <code>TimedTransition</code>, otherwise null.
+	 */
+	public DistributionType getDistributionType(int transition) {
+		return distributionTypes[transition];
+	}
+
+	/**
+	 * Transitions with an arc into each place.
+	 */
+	public Csr getPlaceInputs() {
+		return placeInputs;
+	}
+
+	/**
+	 * Transitions with an arc from each place.
+	 */
+	public Csr getPlaceOutputs() {
+		return placeOutputs;
+	}
+
+	/**
+	 * Places with an arc into each transition, ie, the preset.
+	 */
+	public Csr getTransitionInputs() {
+		return transitionInputs;
+	}
+
+	/**
+	 * Places with an arc from each transition, ie, the postset.
+	 */
+	public Csr getTransitionOutputs() {
+		return transitionOutputs;
+	}
+
+}
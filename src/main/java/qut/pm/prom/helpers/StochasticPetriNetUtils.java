@@ -5,7 +5,6 @@ import java.util.Collection;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
-import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import org.apache.logging.log4j.LogManager;
@@ -13,16 +12,13 @@ import org.apache.logging.log4j.Logger;
 import org.processmining.models.graphbased.directed.AbstractDirectedGraph;
 import org.processmining.models.graphbased.directed.petrinet.Petrinet;
 import org.processmining.models.graphbased.directed.petrinet.PetrinetEdge;
+import org.processmining.models.graphbased.directed.petrinet.PetrinetGraph;
 import org.processmining.models.graphbased.directed.petrinet.PetrinetNode;
 import org.processmining.models.graphbased.directed.petrinet.StochasticNet;
 import org.processmining.models.graphbased.directed.petrinet.elements.Arc;
 import org.processmining.models.graphbased.directed.petrinet.elements.Place;
 import org.processmining.models.graphbased.directed.petrinet.elements.TimedTransition;
 import org.processmining.models.graphbased.directed.petrinet.elements.Transition;
-import org.processmining.models.graphbased.directed.petrinet.impl.StochasticNetMappingCloner;
-import org.processmining.models.graphbased.directed.utils.GraphIterator;
-import org.processmining.models.graphbased.directed.utils.GraphIterator.EdgeAcceptor;
-import org.processmining.models.graphbased.directed.utils.GraphIterator.NodeAcceptor;
 import org.processmining.models.semantics.petrinet.Marking;
 
 public class StochasticPetriNetUtils {
@@ -32,7 +28,9 @@ public class StochasticPetriNetUtils {
 	private static final double EPSILON = 0.00001d;
 
 	/**
-	 * Doesn't work for nets with duplicate labels. 
+	 * Structural equality by label, including node counts, transition weights and arc weights,
+	 * via {@link StochasticNetSignature}. Doesn't work for nets with duplicate labels - use 
+	 * areEqualWithDupes.
 	 * 
 	 * @param o1
 	 * @param o2
@@ -43,40 +41,19 @@ public class StochasticPetriNetUtils {
 			return true;
 		if (o1 == null || o2 == null)
 			return false;
-		if (!checkPlaces(o1, o2))
-			return false;
-		return checkTransitions(o1, o2);		
-	}
-
-	private static boolean checkTransitions(StochasticNet o1, StochasticNet o2) {
-		Map <String,Transition> o1TransitionMap = o1.getTransitions().stream().collect(
-										Collectors.toMap(Transition::getLabel, Function.identity()));
-		for (Transition t: o2.getTransitions()) {
-			Transition o1Transition = o1TransitionMap.get(t.getLabel());
-			if (o1Transition instanceof TimedTransition) {
-				if (!areEqual((TimedTransition)o1Transition,(TimedTransition)t)) {
-					LOGGER.debug("Not equal: transitions {} != {}",t,o1Transition);
-					return false;
-				}
-			}else {
-				if (!areEqual(o1Transition,t))
-					return false;
-			}
-		}
-		return true;
+		return new StochasticNetSignature(o1).matches(new StochasticNetSignature(o2), EPSILON);
 	}
 
-	private static boolean checkPlaces(StochasticNet o1, StochasticNet o2) {
-		Map<String,Place> o1PlaceMap = o1.getPlaces().stream().collect(
-										Collectors.toMap(Place::getLabel, Function.identity()));
-		for (Place p: o2.getPlaces()) {
-			Place o1Place = o1PlaceMap.get(p.getLabel());
-			if (!areEqual(o1Place,p)) {
-				LOGGER.debug("Not equal: places {} != {}",p, o1Place);
-				return false;
-			}
-		}
-		return true;
+	/**
+	 * 128-bit hash consistent with {@link #areEqual(StochasticNet, StochasticNet)}, for bucketing
+	 * nets before checking equality. Transition weights are not hashed, see 
+	 * {@link StochasticNetSignature#fingerprint()}.
+	 * 
+	 * @param net
+	 * @return
+	 */
+	public static NetFingerprint fingerprint(StochasticNet net) {
+		return new StochasticNetSignature(net).fingerprint();
 	}
 
 	public static boolean areEqual(Transition t1, Transition t2) {
@@ -192,6 +169,24 @@ public class StochasticPetriNetUtils {
 		return true;
 	}
 	
+	/**
+	 * Equality for nets which may have duplicate labels, such as many silent transitions, 
+	 * without needing to know which nodes correspond. True when there is a mapping between the 
+	 * nets preserving node labels, visibility, transition weights and arcs. See 
+	 * {@link StochasticNetIsomorphism}.
+	 * 
+	 * @param o1
+	 * @param o2
+	 * @return
+	 */
+	public static boolean areIsomorphic(StochasticNet o1, StochasticNet o2) {
+		if (o1 == null && o2 == null)
+			return true;
+		if (o1 == null || o2 == null)
+			return false;
+		return StochasticNetIsomorphism.areIsomorphic(o1, o2, EPSILON);
+	}
+
 	public static boolean areEqualWithDupes(StochasticNet o1, StochasticNet o2, 
 										    NodeMapper nodeMapper1, NodeMapper nodeMapper2) 
 	{
@@ -199,54 +194,52 @@ public class StochasticPetriNetUtils {
 			return true;
 		if (o1 == null || o2 == null)
 			return false;
-		// Yes, creating new nets is inefficient. But it's very awkward to constantly work around the label mapping as well
-		StochasticNet new1 = StochasticNetMappingCloner.cloneFromStochasticNet(o1, nodeMapper1);
-		StochasticNet new2 = StochasticNetMappingCloner.cloneFromStochasticNet(o2, nodeMapper2);
-		return areEqual(new1, new2);
+		StochasticNetSignature signature1 = 
+				new StochasticNetSignature(o1, t -> nodeMapper1.getId(t.getId()));
+		StochasticNetSignature signature2 = 
+				new StochasticNetSignature(o2, t -> nodeMapper2.getId(t.getId()));
+		return signature1.matches(signature2, EPSILON);
 	}
 	
 
 
 
+	/**
+	 * Transitions which directly follow <code>transition</code> through one of its output places,
+	 * excluding <code>transition</code> itself. Answered from a cached 
+	 * {@link TransitionReachabilityIndex} for the net.
+	 * 
+	 * @param transition
+	 * @return
+	 */
 	public static Collection<Transition> findAllSuccessors(Transition transition) {
-	
-		final NodeAcceptor<PetrinetNode> nodeAcceptor = new NodeAcceptor<PetrinetNode>() {
-			public boolean acceptNode(PetrinetNode node, int depth) {
-				return ((depth != 0) && (node instanceof Transition) );
-			}
-		};
-	
-		Collection<PetrinetNode> transitions = GraphIterator.getDepthFirstSuccessors(transition, transition.getGraph(),
-				new EdgeAcceptor<PetrinetNode, PetrinetEdge<? extends PetrinetNode, ? extends PetrinetNode>>() {
-	
-					public boolean acceptEdge(PetrinetEdge<? extends PetrinetNode, ? extends PetrinetNode> edge,
-							int depth) {
-						return !nodeAcceptor.acceptNode(edge.getSource(), depth);
-					}
-				}, nodeAcceptor);
-	
-		return Arrays.asList(transitions.toArray(new Transition[0]));
+		return reachabilityIndex(transition).getSuccessors(transition);
 	}
 
+	/**
+	 * Transitions which directly precede <code>transition</code> through one of its input places,
+	 * excluding <code>transition</code> itself.
+	 * 
+	 * @param transition
+	 * @return
+	 */
 	public static Collection<Transition> findAllPredecessors(Transition transition) {
-		
-		final NodeAcceptor<PetrinetNode> nodeAcceptor = new NodeAcceptor<PetrinetNode>() {
-			public boolean acceptNode(PetrinetNode node, int depth) {
-				return ((depth != 0) && (node instanceof Transition) );
-			}
-		};
-	
-		Collection<PetrinetNode> transitions = GraphIterator.getDepthFirstPredecessors(transition, 
-				transition.getGraph(),
-				new EdgeAcceptor<PetrinetNode, PetrinetEdge<? extends PetrinetNode, ? extends PetrinetNode>>() {
-	
-					public boolean acceptEdge(PetrinetEdge<? extends PetrinetNode, ? extends PetrinetNode> edge,
-							int depth) {
-						return !nodeAcceptor.acceptNode(edge.getTarget(), depth);
-					}
-				}, nodeAcceptor);
-	
-		return Arrays.asList(transitions.toArray(new Transition[0]));
+		return reachabilityIndex(transition).getPredecessors(transition);
+	}
+
+	/**
+	 * True if <code>to</code> can follow <code>from</code> along some path of arcs.
+	 * 
+	 * @param from
+	 * @param to
+	 * @return
+	 */
+	public static boolean isReachable(Transition from, Transition to) {
+		return reachabilityIndex(from).isReachable(from, to);
+	}
+
+	private static TransitionReachabilityIndex reachabilityIndex(Transition transition) {
+		return TransitionReachabilityIndex.forNet((PetrinetGraph)transition.getGraph());
 	}
 
 	
@@ -297,46 +290,88 @@ public class StochasticPetriNetUtils {
 		return result;
 	}
 
+	/*
+	 * Snapshot variants of the neighbourhood helpers. Nodes are indexes in the snapshot, and 
+	 * results are written to <code>result</code>, which must be large enough for the net, with 
+	 * the number of results returned. Nothing is allocated.
+	 */
+
+	public static int placePredecessors(StochasticNetSnapshot snapshot, int place, int[] result) {
+		return snapshot.getPlaceInputs().copyRow(place, result);
+	}
+
+	public static int placeSuccessors(StochasticNetSnapshot snapshot, int place, int[] result) {
+		return snapshot.getPlaceOutputs().copyRow(place, result);
+	}
+
+	public static int transitionPredecessors(StochasticNetSnapshot snapshot, int transition, int[] result) {
+		return snapshot.getTransitionInputs().copyRow(transition, result);
+	}
+
+	public static int transitionSuccessors(StochasticNetSnapshot snapshot, int transition, int[] result) {
+		return snapshot.getTransitionOutputs().copyRow(transition, result);
+	}
+
+	/**
+	 * Transitions sharing an input place with <code>transition</code>, including itself, as per
+	 * {@link #findAllSiblings(Transition)}. 
+	 * 
+	 * @param snapshot
+	 * @param transition
+	 * @param result at least as long as the number of transitions in the net
+	 * @return the number of siblings
+	 */
+	public static int siblings(StochasticNetSnapshot snapshot, int transition, int[] result) {
+		return siblings(snapshot, transition, result, new boolean[snapshot.getTransitionCount()]);
+	}
+
+	/**
+	 * As for {@link #siblings(StochasticNetSnapshot, int, int[])}, with a caller supplied
+	 * <code>seen</code> flag per transition, so repeated calls allocate nothing. The flags must
+	 * all be false on entry, and are all false again on return.
+	 */
+	public static int siblings(StochasticNetSnapshot snapshot, int transition, int[] result,
+			boolean[] seen)
+	{
+		StochasticNetSnapshot.Csr inputs = snapshot.getTransitionInputs();
+		StochasticNetSnapshot.Csr placeOutputs = snapshot.getPlaceOutputs();
+		int count = 0;
+		for (int i=inputs.start(transition); i<inputs.end(transition); i++) {
+			int place = inputs.target(i);
+			for (int j=placeOutputs.start(place); j<placeOutputs.end(place); j++) {
+				int sibling = placeOutputs.target(j);
+				if (!seen[sibling]) {
+					seen[sibling] = true;
+					result[count++] = sibling;
+				}
+			}
+		}
+		for (int k=0; k<count; k++)
+			seen[result[k]] = false;
+		return count;
+	}
+
 	/**
 	 * Pre: unique label equivalence for places between the two nets. This is needed because 
 	 * a number of valid and interesting nets don't have input places with no incoming edges, ie,
 	 * they are not WorkflowNets. InductiveMiner and other miners can produce such nets under
 	 * important edge cases.
 	 * 
-	 * An earlier version of this checked for <code>net.getInEdges(newPlace).isEmpty()</code>.
+	 * An earlier version of this checked for <code>net.getInEdges(newPlace).isEmpty()</code>, 
+	 * and another only translated the first place in the marking.
+	 * 
+	 * To translate many markings onto the same net, use a {@link MarkingTranslator}.
 	 * 
 	 * @param initialMarking
 	 * @param net
 	 * @return
 	 */
 	public static Marking findEquivalentInitialMarking(Marking initialMarking, StochasticNet net) {
-		Marking newMarking = new Marking();
-		for (Place oldPlace: initialMarking) {
-			for (Place newPlace: net.getPlaces()) {
-				if (oldPlace.getLabel().equals(newPlace.getLabel())) {
-					newMarking.add(newPlace);
-					return newMarking;
-				}
-			}
-		}
-		return newMarking;
+		return new MarkingTranslator(net).translateInitialMarking(initialMarking);
 	}
 
 	public static Set<Marking> findEquivalentFinalMarkings(Set<Marking> finalMarkings, StochasticNet net) {
-		Set<Marking> newMarkings = new HashSet<>();
-		for (Marking finalMarking: finalMarkings) {
-			Marking newMarking = new Marking();
-			for (Place oldPlace: finalMarking) {
-				for (Place newPlace: net.getPlaces()) {
-					if (oldPlace.getLabel().equals(newPlace.getLabel()) 
-							&& net.getOutEdges(newPlace).isEmpty() ) {
-						newMarking.add(newPlace);
-					}
-				}
-			}
-			newMarkings.add(newMarking);
-		}
-		return newMarkings;
+		return new MarkingTranslator(net).translateFinalMarkings(finalMarkings);
 	}
 
 	/**
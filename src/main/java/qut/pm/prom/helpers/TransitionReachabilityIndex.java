@@ -0,0 +1,333 @@
+package qut.pm.prom.helpers;
+
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.processmining.models.graphbased.NodeID;
+import org.processmining.models.graphbased.directed.petrinet.PetrinetEdge;
+import org.processmining.models.graphbased.directed.petrinet.PetrinetGraph;
+import org.processmining.models.graphbased.directed.petrinet.PetrinetNode;
+import org.processmining.models.graphbased.directed.petrinet.elements.Transition;
+import org.processmining.models.graphbased.directed.petrinet.impl.NetStructureStamp;
+
+/**
+ * Transition to transition reachability for a net, built once and then answered from bitsets.
+ *
+ * Transition <code>t2</code> directly succeeds <code>t1</code> when some output place of
+ * <code>t1</code> is an input place of <code>t2</code>. The transitive closure of that relation
+ * is computed over the condensation of its strongly connected components, so transitions in
+ * the same cycle share one closure row.
+ *
+ * Indexes for use by {@link StochasticPetriNetUtils} are cached per net by 
+ * {@link #forNet(PetrinetGraph)}. A cached index is checked in constant time against the
+ * numbers of places, transitions and arcs, and rebuilt when one of them has changed. A change
+ * that keeps every count, such as moving an arc, is not seen by the cache, so code making one
+ * should call {@link #invalidate(PetrinetGraph)}. {@link #isStale()} checks the full structure,
+ * at the cost of reading the whole net. An index holds its net and transitions only weakly, so
+ * caching one does not keep the net alive.
+ */
+public class TransitionReachabilityIndex {
+
+	private static final Map<PetrinetGraph,SoftReference<TransitionReachabilityIndex>> CACHE =
+			new WeakHashMap<>();
+
+	// Nothing here refers to the net or its elements strongly, as transitions refer to their net
+	// and the cache holds indexes in values of a map weakly keyed by net
+	private final WeakReference<PetrinetGraph> net;
+	private final long stamp;
+	private final long counts;
+	private final WeakReference<Transition>[] transitions;
+	private final Map<NodeID,Integer> transitionIds;
+	private final long[][] successors;
+	private final long[][] predecessors;
+	private final int[] component;
+	private final long[][] componentReach;
+	private final int[][] componentMembers;
+
+	@SuppressWarnings("unchecked")
+	public TransitionReachabilityIndex(PetrinetGraph net) {
+		this.net = new WeakReference<>(net);
+		this.stamp = NetStructureStamp.stamp(net);
+		this.counts = NetStructureStamp.counts(net);
+		Collection<Transition> netTransitions = net.getTransitions();
+		int n = netTransitions.size();
+		Transition[] netTransitionArray = netTransitions.toArray(new Transition[n]);
+		transitions = new WeakReference[n];
+		transitionIds = new HashMap<>(n * 2);
+		for (int t=0; t<n; t++) {
+			transitions[t] = new WeakReference<>(netTransitionArray[t]);
+			transitionIds.put(netTransitionArray[t].getId(), t);
+		}
+		successors = new long[n][words(n)];
+		predecessors = new long[n][words(n)];
+		for (int t=0; t<n; t++) {
+			for (PetrinetEdge<? extends PetrinetNode, ? extends PetrinetNode> outEdge:
+					net.getOutEdges(netTransitionArray[t]))
+			{
+				for (PetrinetEdge<? extends PetrinetNode, ? extends PetrinetNode> placeEdge:
+						net.getOutEdges(outEdge.getTarget()))
+				{
+					int successor = transitionIds.get(placeEdge.getTarget().getId());
+					set(successors[t], successor);
+					set(predecessors[successor], t);
+				}
+			}
+		}
+		component = new int[n];
+		int componentCount = findComponents();
+		componentMembers = groupMembers(componentCount);
+		componentReach = closeComponents(componentCount);
+	}
+
+	private static int words(int bits) {
+		return (bits + 63) >>> 6;
+	}
+
+	private static void set(long[] bits, int index) {
+		bits[index >>> 6] |= 1L << index;
+	}
+
+	private static boolean get(long[] bits, int index) {
+		return (bits[index >>> 6] & (1L << index)) != 0;
+	}
+
+	/**
+	 * Iterative Tarjan's algorithm. Components are numbered in reverse topological order, ie,
+	 * every component reachable from component c has a number less than or equal to c.
+	 *
+	 * @return the number of components
+	 */
+	private int findComponents() {
+		int n = transitions.length;
+		int[] index = new int[n];
+		int[] lowLink = new int[n];
+		boolean[] onStack = new boolean[n];
+		int[] stack = new int[n];
+		int stackSize = 0;
+		int[] callStack = new int[n];
+		int[] callNext = new int[n];
+		int nextIndex = 1;
+		int componentCount = 0;
+		for (int root=0; root<n; root++) {
+			if (index[root] != 0)
+				continue;
+			int depth = 0;
+			callStack[0] = root;
+			callNext[0] = 0;
+			index[root] = lowLink[root] = nextIndex++;
+			stack[stackSize++] = root;
+			onStack[root] = true;
+			while (depth >= 0) {
+				int node = callStack[depth];
+				int next = nextSetBit(successors[node], callNext[depth]);
+				if (next >= 0) {
+					callNext[depth] = next+1;
+					if (index[next] == 0) {
+						index[next] = lowLink[next] = nextIndex++;
+						stack[stackSize++] = next;
+						onStack[next] = true;
+						depth++;
+						callStack[depth] = next;
+						callNext[depth] = 0;
+					}else if (onStack[next]) {
+						lowLink[node] = Math.min(lowLink[node], index[next]);
+					}
+					continue;
+				}
+				if (lowLink[node] == index[node]) {
+					int member;
+					do {
+						member = stack[--stackSize];
+						onStack[member] = false;
+						component[member] = componentCount;
+					}while (member != node);
+					componentCount++;
+				}
+				depth--;
+				if (depth >= 0) {
+					int parent = callStack[depth];
+					lowLink[parent] = Math.min(lowLink[parent], lowLink[node]);
+				}
+			}
+		}
+		return componentCount;
+	}
+
+	private static int nextSetBit(long[] bits, int from) {
+		int word = from >>> 6;
+		if (word >= bits.length)
+			return -1;
+		long current = bits[word] & (-1L << from);
+		while (true) {
+			if (current != 0)
+				return (word << 6) + Long.numberOfTrailingZeros(current);
+			if (++word == bits.length)
+				return -1;
+			current = bits[word];
+		}
+	}
+
+	private int[][] groupMembers(int componentCount) {
+		int[] sizes = new int[componentCount];
+		for (int c: component)
+			sizes[c]++;
+		int[][] result = new int[componentCount][];
+		for (int c=0; c<componentCount; c++)
+			result[c] = new int[sizes[c]];
+		int[] filled = new int[componentCount];
+		for (int t=0; t<transitions.length; t++)
+			result[component[t]][filled[component[t]]++] = t;
+		return result;
+	}
+
+	/**
+	 * Reachable components for each component, from the most downstream component up, so each
+	 * row is the union of the rows of its direct successors. A component reaches itself only if
+	 * it contains a cycle.
+	 */
+	private long[][] closeComponents(int componentCount) {
+		long[][] reach = new long[componentCount][words(componentCount)];
+		for (int c=0; c<componentCount; c++) {
+			long[] row = reach[c];
+			if (componentMembers[c].length > 1)
+				set(row, c);
+			for (int member: componentMembers[c]) {
+				for (int s = nextSetBit(successors[member], 0); s >= 0;
+						s = nextSetBit(successors[member], s+1))
+				{
+					int sc = component[s];
+					if (sc == c) {
+						set(row, c);
+						continue;
+					}
+					if (get(row, sc))
+						continue;
+					set(row, sc);
+					long[] successorRow = reach[sc];
+					for (int w=0; w<row.length; w++)
+						row[w] |= successorRow[w];
+				}
+			}
+		}
+		return reach;
+	}
+
+	/**
+	 * Cached index for <code>net</code>, rebuilt if the number of places, transitions or arcs has
+	 * changed since it was built, or after {@link #invalidate(PetrinetGraph)}. Entries are released
+	 * with the net, or under memory pressure.
+	 *
+	 * @param net
+	 * @return
+	 */
+	public static TransitionReachabilityIndex forNet(PetrinetGraph net) {
+		synchronized(CACHE) {
+			SoftReference<TransitionReachabilityIndex> ref = CACHE.get(net);
+			TransitionReachabilityIndex index = (ref == null)? null : ref.get();
+			if (index != null && index.counts == NetStructureStamp.counts(net))
+				return index;
+		}
+		TransitionReachabilityIndex index = new TransitionReachabilityIndex(net);
+		synchronized(CACHE) {
+			CACHE.put(net, new SoftReference<>(index));
+		}
+		return index;
+	}
+
+	/**
+	 * Drop any cached index for <code>net</code>, after a structural change that the cache may not
+	 * see, or to release the index before the net is released.
+	 *
+	 * @param net
+	 */
+	public static void invalidate(PetrinetGraph net) {
+		synchronized(CACHE) {
+			CACHE.remove(net);
+		}
+	}
+
+	/**
+	 * True if places, transitions or arcs have been added or removed since the index was built,
+	 * even where every count is unchanged, or if the net is no longer reachable. Reads the whole
+	 * net.
+	 */
+	public boolean isStale() {
+		PetrinetGraph indexed = net.get();
+		return indexed == null || stamp != NetStructureStamp.stamp(indexed);
+	}
+
+	/**
+	 * @return the indexed net, or null once it has been garbage collected
+	 */
+	public PetrinetGraph getNet() {
+		return net.get();
+	}
+
+	private int id(Transition transition) {
+		Integer id = transitionIds.get(transition.getId());
+		if (id == null)
+			throw new IllegalArgumentException("Transition not in indexed net: " + transition);
+		return id;
+	}
+
+	/**
+	 * Transitions directly after <code>transition</code>, excluding itself, as per
+	 * {@link StochasticPetriNetUtils#findAllSuccessors(Transition)}.
+	 */
+	public Collection<Transition> getSuccessors(Transition transition) {
+		int t = id(transition);
+		return toTransitions(successors[t], t);
+	}
+
+	/**
+	 * Transitions directly before <code>transition</code>, excluding itself, as per
+	 * {@link StochasticPetriNetUtils#findAllPredecessors(Transition)}.
+	 */
+	public Collection<Transition> getPredecessors(Transition transition) {
+		int t = id(transition);
+		return toTransitions(predecessors[t], t);
+	}
+
+	public boolean isSuccessor(Transition transition, Transition successor) {
+		return get(successors[id(transition)], id(successor));
+	}
+
+	/**
+	 * True if a path of one or more arcs leads from <code>from</code> to <code>to</code>. A
+	 * transition reaches itself only when it is on a cycle.
+	 */
+	public boolean isReachable(Transition from, Transition to) {
+		return get(componentReach[component[id(from)]], component[id(to)]);
+	}
+
+	/**
+	 * All transitions reachable from <code>transition</code>, per
+	 * {@link #isReachable(Transition, Transition)}.
+	 */
+	public Collection<Transition> getReachable(Transition transition) {
+		long[] row = componentReach[component[id(transition)]];
+		List<Transition> result = new ArrayList<>();
+		for (int c = nextSetBit(row, 0); c >= 0; c = nextSetBit(row, c+1)) {
+			for (int member: componentMembers[c])
+				result.add(transitions[member].get());
+		}
+		return Collections.unmodifiableList(result);
+	}
+
+	private Collection<Transition> toTransitions(long[] bits, int exclude) {
+		List<Transition> result = new ArrayList<>();
+		for (int t = nextSetBit(bits, 0); t >= 0; t = nextSetBit(bits, t+1)) {
+			if (t != exclude)
+				result.add(transitions[t].get());
+		}
+		return Collections.unmodifiableList(result);
+	}
+
+}
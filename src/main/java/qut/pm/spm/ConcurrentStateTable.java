@@ -0,0 +1,182 @@
+package qut.pm.spm;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Lock free counterpart of {@link StateTable} for parallel exploration. Keys are numbered densely
+ * in the order they are claimed and stored in fixed size pages, so adding a key never moves
+ * existing ones.
+ *
+ * The table does not grow. Slots are allocated up front for <code>maxStates</code> keys, at eight
+ * bytes a slot and about one and a half slots a state, and {@link #add(long[], int)} reports
+ * {@link #FULL} once that many keys are held.
+ *
+ * Each slot holds a 31 bit tag from the key hash and the state number plus one. A thread adding
+ * a key first claims an empty slot with a reserved marker, then takes a state number, writes the
+ * key and publishes the slot. Another thread adding the same key meanwhile waits on the reserved
+ * marker, which is the only waiting in the table.
+ */
+public class ConcurrentStateTable implements StateIndex {
+
+	public static final int FULL = Integer.MIN_VALUE;
+
+	private static final int PAGE_SHIFT = 12;
+	private static final int PAGE_STATES = 1 << PAGE_SHIFT;
+	private static final long EMPTY = 0L;
+	private static final int RESERVED = 0;
+	private static final int TOMBSTONE = -1;
+
+	private final int words;
+	private final int maxStates;
+	private final AtomicLongArray slots;
+	private final int mask;
+	private final AtomicReferenceArray<long[]> pages;
+	private final AtomicInteger claimed = new AtomicInteger();
+
+	public ConcurrentStateTable(int words, int maxStates) {
+		if (maxStates < 1)
+			throw new IllegalArgumentException("Maximum states must be positive: " + maxStates);
+		this.words = words;
+		this.maxStates = maxStates;
+		long wanted = (long)maxStates + maxStates / 2 + 16;
+		int capacity = 16;
+		while (capacity < wanted) {
+			if (capacity >= 1 << 30)
+				throw new IllegalArgumentException("Too many states for one table: " + maxStates);
+			capacity <<= 1;
+		}
+		slots = new AtomicLongArray(capacity);
+		mask = capacity - 1;
+		pages = new AtomicReferenceArray<>((maxStates + PAGE_STATES - 1) >>> PAGE_SHIFT);
+	}
+
+	/**
+	 * Number of keys added. Only exact when no add is in progress.
+	 */
+	@Override
+	public int size() {
+		return Math.min(claimed.get(), maxStates);
+	}
+
+	@Override
+	public int getWords() {
+		return words;
+	}
+
+	public int getMaxStates() {
+		return maxStates;
+	}
+
+	@Override
+	public int find(long[] key, int offset) {
+		long hash = hash(key, offset);
+		int tag = tag(hash);
+		int slot = (int)hash & mask;
+		while (true) {
+			long value = slots.get(slot);
+			if (value == EMPTY)
+				return -1;
+			if ((int)(value >>> 32) == tag) {
+				int low = awaitPublished(slot, value);
+				if (low != TOMBSTONE && equalsKey(low - 1, key, offset))
+					return low - 1;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	/**
+	 * Add the key if not already present. Safe to call from many threads at once.
+	 *
+	 * @return the new state number, <code>-(state + 1)</code> if the key was already present, or
+	 * {@link #FULL} if the key is new and the table already holds <code>maxStates</code> keys
+	 */
+	public int add(long[] key, int offset) {
+		long hash = hash(key, offset);
+		int tag = tag(hash);
+		int slot = (int)hash & mask;
+		while (true) {
+			long value = slots.get(slot);
+			if (value == EMPTY) {
+				if (claimed.get() >= maxStates)
+					return FULL;
+				if (!slots.compareAndSet(slot, EMPTY, slotValue(tag, RESERVED)))
+					continue;
+				int state = claimed.getAndIncrement();
+				if (state >= maxStates) {
+					slots.set(slot, slotValue(tag, TOMBSTONE));
+					return FULL;
+				}
+				System.arraycopy(key, offset, page(state), (state & (PAGE_STATES - 1)) * words, words);
+				slots.set(slot, slotValue(tag, state + 1));
+				return state;
+			}
+			if ((int)(value >>> 32) == tag) {
+				int low = awaitPublished(slot, value);
+				if (low != TOMBSTONE && equalsKey(low - 1, key, offset))
+					return -low;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	@Override
+	public void get(int state, long[] dest, int offset) {
+		System.arraycopy(pages.get(state >>> PAGE_SHIFT), (state & (PAGE_STATES - 1)) * words,
+				dest, offset, words);
+	}
+
+	private int awaitPublished(int slot, long value) {
+		int low = (int)value;
+		while (low == RESERVED) {
+			Thread.yield();
+			low = (int)slots.get(slot);
+		}
+		return low;
+	}
+
+	private long[] page(int state) {
+		int index = state >>> PAGE_SHIFT;
+		long[] page = pages.get(index);
+		if (page == null) {
+			long[] created = new long[PAGE_STATES * words];
+			if (pages.compareAndSet(index, null, created))
+				return created;
+			page = pages.get(index);
+		}
+		return page;
+	}
+
+	private boolean equalsKey(int state, long[] key, int offset) {
+		long[] page = pages.get(state >>> PAGE_SHIFT);
+		int base = (state & (PAGE_STATES - 1)) * words;
+		for (int w=0; w<words; w++) {
+			if (page[base + w] != key[offset + w])
+				return false;
+		}
+		return true;
+	}
+
+	private static long slotValue(int tag, int low) {
+		return ((long)tag << 32) | (low & 0xffffffffL);
+	}
+
+	private static int tag(long hash) {
+		return (int)(hash >>> 33) | 1;
+	}
+
+	private long hash(long[] key, int offset) {
+		long h = 0;
+		for (int w=0; w<words; w++) {
+			h = (h ^ key[offset + w]) * 0x9e3779b97f4a7c15L;
+			h ^= h >>> 29;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		return h;
+	}
+
+}
@@ -0,0 +1,130 @@
+package qut.pm.spm;
+
+import org.processmining.models.graphbased.directed.petrinet.elements.Place;
+import org.processmining.models.semantics.petrinet.Marking;
+
+import qut.pm.prom.helpers.StochasticNetSnapshot;
+
+/**
+ * Packs markings of a net into fixed width <code>long</code> words, with a fixed number of bits
+ * per place. Token counts are held as <code>int[]</code> indexed by the places of a
+ * {@link StochasticNetSnapshot} while a marking is being worked on, and packed only to store or
+ * look up a state.
+ *
+ * A place field never spans two words, so a word holds <code>64 / bitsPerPlace</code> places.
+ */
+public class MarkingCodec {
+
+	public static final int DEFAULT_BITS_PER_PLACE = 4;
+
+	private final StochasticNetSnapshot snapshot;
+	private final int placeCount;
+	private final int bitsPerPlace;
+	private final int placesPerWord;
+	private final int words;
+	private final long fieldMask;
+
+	public MarkingCodec(StochasticNetSnapshot snapshot) {
+		this(snapshot, DEFAULT_BITS_PER_PLACE);
+	}
+
+	/**
+	 *
+	 * @param snapshot
+	 * @param bitsPerPlace between 1 and 32. A place can hold at most
+	 * <code>2^bitsPerPlace - 1</code> tokens.
+	 */
+	public MarkingCodec(StochasticNetSnapshot snapshot, int bitsPerPlace) {
+		if (bitsPerPlace < 1 || bitsPerPlace > 32)
+			throw new IllegalArgumentException("Bits per place must be from 1 to 32: " + bitsPerPlace);
+		this.snapshot = snapshot;
+		this.placeCount = snapshot.getPlaceCount();
+		this.bitsPerPlace = bitsPerPlace;
+		this.placesPerWord = 64 / bitsPerPlace;
+		this.words = Math.max(1, (placeCount + placesPerWord - 1) / placesPerWord);
+		this.fieldMask = (1L << bitsPerPlace) - 1;
+	}
+
+	public StochasticNetSnapshot getSnapshot() {
+		return snapshot;
+	}
+
+	public int getPlaceCount() {
+		return placeCount;
+	}
+
+	/**
+	 * Number of longs in an encoded marking.
+	 */
+	public int getWords() {
+		return words;
+	}
+
+	/**
+	 * Most tokens a place can hold, which at 32 bits per place is limited by the <code>int</code>
+	 * token counts rather than the field.
+	 */
+	public int getMaxTokens() {
+		return (int)Math.min(fieldMask, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Pack <code>tokens</code> into <code>dest</code> from <code>offset</code>.
+	 *
+	 * @throws IllegalStateException if a place holds more tokens than fit, which usually means
+	 * the net is unbounded
+	 */
+	public void encode(int[] tokens, long[] dest, int offset) {
+		for (int w=0; w<words; w++)
+			dest[offset+w] = 0;
+		for (int place=0; place<placeCount; place++) {
+			int count = tokens[place];
+			if (count == 0)
+				continue;
+			if (count < 0 || count > fieldMask)
+				throw new IllegalStateException("Token count " + count + " in place "
+						+ snapshot.getPlaceLabel(place) + " exceeds " + bitsPerPlace
+						+ " bits per place; the net may be unbounded");
+			dest[offset + place / placesPerWord] |= (long)count << ((place % placesPerWord) * bitsPerPlace);
+		}
+	}
+
+	public void decode(long[] src, int offset, int[] tokens) {
+		for (int place=0; place<placeCount; place++)
+			tokens[place] = get(src, offset, place);
+	}
+
+	public int get(long[] src, int offset, int place) {
+		long word = src[offset + place / placesPerWord];
+		return (int)((word >>> ((place % placesPerWord) * bitsPerPlace)) & fieldMask);
+	}
+
+	/**
+	 * Token counts for a ProM marking. Places not in the snapshot are ignored.
+	 */
+	public int[] toTokens(Marking marking) {
+		int[] tokens = new int[placeCount];
+		for (Place place: marking.baseSet()) {
+			int index = snapshot.indexOf(place);
+			if (index >= 0)
+				tokens[index] += marking.occurrences(place);
+		}
+		return tokens;
+	}
+
+	public Marking toMarking(int[] tokens) {
+		Marking result = new Marking();
+		for (int place=0; place<placeCount; place++) {
+			if (tokens[place] > 0)
+				result.add(snapshot.getPlace(place), tokens[place]);
+		}
+		return result;
+	}
+
+	public long[] encode(Marking marking) {
+		long[] result = new long[words];
+		encode(toTokens(marking), result, 0);
+		return result;
+	}
+
+}
@@ -0,0 +1,265 @@
+package qut.pm.spm;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import qut.pm.prom.helpers.StochasticNetSnapshot;
+
+/**
+ * Parallel version of {@link ReachabilityGraphBuilder}. Exploration is breadth first one level at
+ * a time. Each level of the frontier is a contiguous range of state numbers, which is cut into
+ * chunks and explored by fork join tasks, so idle workers steal chunks from busy ones. New states
+ * are numbered through a {@link ConcurrentStateTable}, so no lock is taken while exploring.
+ *
+ * Each chunk writes its edges to its own buffers. These are appended in state order between
+ * levels, so the graph has the same compressed edge rows as a sequential build. Levels smaller
+ * than a few chunks are explored in the calling thread, which keeps long thin state spaces from
+ * paying for a task per level.
+ *
+ * State numbers depend on thread timing, so two builds of one net give isomorphic graphs, not
+ * identical ones. At the state bound, which states are kept also depends on timing.
+ */
+public class ParallelReachabilityGraphBuilder {
+
+	private static final int SEQUENTIAL_LEVEL = 256;
+	private static final int MIN_CHUNK = 16;
+	private static final int MAX_CHUNK = 1024;
+
+	private final AcceptingStochasticNet net;
+	private final int stateBound;
+	private final int bitsPerPlace;
+	private final ForkJoinPool pool;
+
+	public ParallelReachabilityGraphBuilder(AcceptingStochasticNet net) {
+		this(net, ReachabilityGraphBuilder.DEFAULT_STATE_BOUND);
+	}
+
+	public ParallelReachabilityGraphBuilder(AcceptingStochasticNet net, int stateBound) {
+		this(net, stateBound, MarkingCodec.DEFAULT_BITS_PER_PLACE, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 *
+	 * @param net
+	 * @param stateBound also sizes the state table, which is allocated up front
+	 * @param bitsPerPlace
+	 * @param pool
+	 */
+	public ParallelReachabilityGraphBuilder(AcceptingStochasticNet net, int stateBound,
+			int bitsPerPlace, ForkJoinPool pool)
+	{
+		if (stateBound < 1)
+			throw new IllegalArgumentException("State bound must be positive: " + stateBound);
+		this.net = net;
+		this.stateBound = stateBound;
+		this.bitsPerPlace = bitsPerPlace;
+		this.pool = pool;
+	}
+
+	public ReachabilityGraph build() {
+		StochasticNetSnapshot snapshot = new StochasticNetSnapshot(net.getNet());
+		MarkingCodec codec = new MarkingCodec(snapshot, bitsPerPlace);
+		ConcurrentStateTable states = new ConcurrentStateTable(codec.getWords(), stateBound);
+		states.add(codec.encode(net.getInitialMarking()), 0);
+		ConcurrentLinkedQueue<Explorer> explorers = new ConcurrentLinkedQueue<>();
+		int[] edgeStart = new int[1024];
+		int edgeCount = 0;
+		int[] edgeTransition = new int[1024];
+		int[] edgeTarget = new int[1024];
+		double[] edgeProbability = new double[1024];
+		BitSet incomplete = new BitSet();
+		int levelStart = 0;
+		while (levelStart < states.size()) {
+			int levelEnd = states.size();
+			int levelSize = levelEnd - levelStart;
+			Chunk[] chunks;
+			if (levelSize < SEQUENTIAL_LEVEL) {
+				chunks = new Chunk[] { explore(explorers, snapshot, codec, states, levelStart, levelEnd) };
+			} else {
+				int chunkSize = Math.max(MIN_CHUNK,
+						Math.min(MAX_CHUNK, levelSize / (pool.getParallelism() * 16)));
+				chunks = new Chunk[(levelSize + chunkSize - 1) / chunkSize];
+				pool.invoke(new LevelTask(explorers, snapshot, codec, states, chunks,
+						levelStart, levelEnd, chunkSize, 0, chunks.length));
+			}
+			if (levelEnd + 1 >= edgeStart.length)
+				edgeStart = Arrays.copyOf(edgeStart, Math.max(edgeStart.length * 2, levelEnd + 1));
+			for (Chunk chunk: chunks) {
+				for (int i=0; i<chunk.degree.length; i++) {
+					edgeStart[chunk.start + i] = edgeCount;
+					edgeCount += chunk.degree[i];
+				}
+				if (edgeCount > edgeTarget.length) {
+					int capacity = Math.max(edgeTarget.length * 2, edgeCount);
+					edgeTransition = Arrays.copyOf(edgeTransition, capacity);
+					edgeTarget = Arrays.copyOf(edgeTarget, capacity);
+					edgeProbability = Arrays.copyOf(edgeProbability, capacity);
+				}
+				int offset = edgeCount - chunk.edgeCount;
+				System.arraycopy(chunk.transition, 0, edgeTransition, offset, chunk.edgeCount);
+				System.arraycopy(chunk.target, 0, edgeTarget, offset, chunk.edgeCount);
+				System.arraycopy(chunk.probability, 0, edgeProbability, offset, chunk.edgeCount);
+				if (chunk.incomplete != null) {
+					for (int i=chunk.incomplete.nextSetBit(0); i>=0; i=chunk.incomplete.nextSetBit(i+1))
+						incomplete.set(chunk.start + i);
+				}
+			}
+			levelStart = levelEnd;
+		}
+		return ReachabilityGraphBuilder.toGraph(net, codec, states, stateBound, edgeStart, edgeCount,
+				edgeTransition, edgeTarget, edgeProbability, incomplete);
+	}
+
+	private static Chunk explore(ConcurrentLinkedQueue<Explorer> explorers,
+			StochasticNetSnapshot snapshot, MarkingCodec codec, ConcurrentStateTable states,
+			int start, int end)
+	{
+		Explorer explorer = explorers.poll();
+		if (explorer == null)
+			explorer = new Explorer(snapshot, codec, states);
+		try {
+			return explorer.explore(start, end);
+		} finally {
+			explorers.add(explorer);
+		}
+	}
+
+	/**
+	 * Edges from the states <code>start</code> to <code>start + degree.length</code>, in state
+	 * order.
+	 */
+	private static class Chunk {
+		final int start;
+		final int[] degree;
+		int[] transition;
+		int[] target;
+		double[] probability;
+		int edgeCount = 0;
+		BitSet incomplete;
+
+		Chunk(int start, int end) {
+			this.start = start;
+			this.degree = new int[end - start];
+			int capacity = Math.max(16, degree.length * 2);
+			transition = new int[capacity];
+			target = new int[capacity];
+			probability = new double[capacity];
+		}
+
+		void ensureCapacity(int extra) {
+			if (edgeCount + extra <= target.length)
+				return;
+			int capacity = Math.max(target.length * 2, edgeCount + extra);
+			transition = Arrays.copyOf(transition, capacity);
+			target = Arrays.copyOf(target, capacity);
+			probability = Arrays.copyOf(probability, capacity);
+		}
+	}
+
+	/**
+	 * Scratch space for one worker at a time.
+	 */
+	private static class Explorer {
+		private final MarkingCodec codec;
+		private final ConcurrentStateTable states;
+		private final StochasticSemantics semantics;
+		private final long[] key;
+		private final int[] tokens;
+		private final int[] next;
+		private final int[] enabled;
+		private final double[] probabilities;
+
+		Explorer(StochasticNetSnapshot snapshot, MarkingCodec codec, ConcurrentStateTable states) {
+			this.codec = codec;
+			this.states = states;
+			this.semantics = new StochasticSemantics(snapshot);
+			key = new long[codec.getWords()];
+			tokens = new int[codec.getPlaceCount()];
+			next = new int[codec.getPlaceCount()];
+			enabled = new int[snapshot.getTransitionCount()];
+			probabilities = new double[snapshot.getTransitionCount()];
+		}
+
+		Chunk explore(int start, int end) {
+			Chunk chunk = new Chunk(start, end);
+			for (int state=start; state<end; state++) {
+				states.get(state, key, 0);
+				codec.decode(key, 0, tokens);
+				int count = semantics.enabled(tokens, enabled, probabilities);
+				chunk.ensureCapacity(count);
+				int before = chunk.edgeCount;
+				for (int i=0; i<count; i++) {
+					semantics.fire(tokens, enabled[i], next);
+					codec.encode(next, key, 0);
+					int target = states.add(key, 0);
+					if (target == ConcurrentStateTable.FULL) {
+						if (chunk.incomplete == null)
+							chunk.incomplete = new BitSet();
+						chunk.incomplete.set(state - start);
+						continue;
+					}
+					if (target < 0)
+						target = -(target + 1);
+					chunk.transition[chunk.edgeCount] = enabled[i];
+					chunk.target[chunk.edgeCount] = target;
+					chunk.probability[chunk.edgeCount] = probabilities[i];
+					chunk.edgeCount++;
+				}
+				chunk.degree[state - start] = chunk.edgeCount - before;
+			}
+			return chunk;
+		}
+	}
+
+	private static class LevelTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final ConcurrentLinkedQueue<Explorer> explorers;
+		private final StochasticNetSnapshot snapshot;
+		private final MarkingCodec codec;
+		private final ConcurrentStateTable states;
+		private final Chunk[] chunks;
+		private final int levelStart;
+		private final int levelEnd;
+		private final int chunkSize;
+		private final int from;
+		private final int to;
+
+		LevelTask(ConcurrentLinkedQueue<Explorer> explorers, StochasticNetSnapshot snapshot,
+				MarkingCodec codec, ConcurrentStateTable states, Chunk[] chunks,
+				int levelStart, int levelEnd, int chunkSize, int from, int to)
+		{
+			this.explorers = explorers;
+			this.snapshot = snapshot;
+			this.codec = codec;
+			this.states = states;
+			this.chunks = chunks;
+			this.levelStart = levelStart;
+			this.levelEnd = levelEnd;
+			this.chunkSize = chunkSize;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > 1) {
+				int mid = (from + to) >>> 1;
+				invokeAll(split(from, mid), split(mid, to));
+				return;
+			}
+			int start = levelStart + from * chunkSize;
+			chunks[from] = explore(explorers, snapshot, codec, states,
+					start, Math.min(levelEnd, start + chunkSize));
+		}
+
+		private LevelTask split(int splitFrom, int splitTo) {
+			return new LevelTask(explorers, snapshot, codec, states, chunks,
+					levelStart, levelEnd, chunkSize, splitFrom, splitTo);
+		}
+	}
+
+}
@@ -0,0 +1,130 @@
+package qut.pm.spm;
+
+import java.util.BitSet;
+
+import org.processmining.models.graphbased.directed.petrinet.elements.Transition;
+import org.processmining.models.semantics.petrinet.Marking;
+
+/**
+ * Reachable states of an {@link AcceptingStochasticNet}, from {@link ReachabilityGraphBuilder}.
+ * States are numbered from zero, with the initial marking as state zero. Edges are held in
+ * compressed rows by source state, each with the fired transition, the target state and its
+ * probability.
+ *
+ * If the builder's state bound was reached the graph is truncated. Edges to states beyond the
+ * bound are missing, so the outgoing probabilities of some states sum to less than one, and
+ * those states are reported by {@link #isIncomplete(int)}.
+ */
+public class ReachabilityGraph {
+
+	private final MarkingCodec codec;
+	private final StateIndex states;
+	private final int[] edgeStart;
+	private final int[] edgeTransition;
+	private final int[] edgeTarget;
+	private final double[] edgeProbability;
+	private final BitSet finalStates;
+	private final BitSet incompleteStates;
+
+	ReachabilityGraph(MarkingCodec codec, StateIndex states, int[] edgeStart,
+			int[] edgeTransition, int[] edgeTarget, double[] edgeProbability,
+			BitSet finalStates, BitSet incompleteStates)
+	{
+		this.codec = codec;
+		this.states = states;
+		this.edgeStart = edgeStart;
+		this.edgeTransition = edgeTransition;
+		this.edgeTarget = edgeTarget;
+		this.edgeProbability = edgeProbability;
+		this.finalStates = finalStates;
+		this.incompleteStates = incompleteStates;
+	}
+
+	public MarkingCodec getCodec() {
+		return codec;
+	}
+
+	public int getStateCount() {
+		return states.size();
+	}
+
+	public int getEdgeCount() {
+		return edgeTarget.length;
+	}
+
+	public int getInitialState() {
+		return 0;
+	}
+
+	public boolean isTruncated() {
+		return !incompleteStates.isEmpty();
+	}
+
+	/**
+	 * True if some successors of <code>state</code> were dropped at the state bound.
+	 */
+	public boolean isIncomplete(int state) {
+		return incompleteStates.get(state);
+	}
+
+	/**
+	 * True if the marking of <code>state</code> is one of the net's final markings.
+	 */
+	public boolean isFinal(int state) {
+		return finalStates.get(state);
+	}
+
+	/**
+	 * True if no transition is enabled in <code>state</code>.
+	 */
+	public boolean isDeadlock(int state) {
+		return edgeStart[state] == edgeStart[state+1] && !incompleteStates.get(state);
+	}
+
+	public int getEdgeStart(int state) {
+		return edgeStart[state];
+	}
+
+	public int getEdgeEnd(int state) {
+		return edgeStart[state+1];
+	}
+
+	/**
+	 * Index of the fired transition in the net's {@link qut.pm.prom.helpers.StochasticNetSnapshot}.
+	 */
+	public int getEdgeTransition(int edge) {
+		return edgeTransition[edge];
+	}
+
+	public Transition getTransition(int edge) {
+		return codec.getSnapshot().getTransition(edgeTransition[edge]);
+	}
+
+	public int getEdgeTarget(int edge) {
+		return edgeTarget[edge];
+	}
+
+	public double getEdgeProbability(int edge) {
+		return edgeProbability[edge];
+	}
+
+	public int[] getTokens(int state) {
+		long[] key = new long[states.getWords()];
+		states.get(state, key, 0);
+		int[] tokens = new int[codec.getPlaceCount()];
+		codec.decode(key, 0, tokens);
+		return tokens;
+	}
+
+	public Marking getMarking(int state) {
+		return codec.toMarking(getTokens(state));
+	}
+
+	/**
+	 * The state with <code>marking</code>, or -1 if it was not reached.
+	 */
+	public int findState(Marking marking) {
+		return states.find(codec.encode(marking), 0);
+	}
+
+}
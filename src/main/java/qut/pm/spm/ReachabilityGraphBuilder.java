@@ -0,0 +1,126 @@
+package qut.pm.spm;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.processmining.models.semantics.petrinet.Marking;
+
+import qut.pm.prom.helpers.StochasticNetSnapshot;
+
+/**
+ * Breadth first exploration of the reachable markings of an {@link AcceptingStochasticNet}.
+ * Markings are packed by a {@link MarkingCodec} and numbered in a {@link StateTable}, and since
+ * states are numbered in the order found, the table itself is the exploration queue.
+ *
+ * Exploration stops adding states at the state bound, giving a truncated
+ * {@link ReachabilityGraph}. A place exceeding the codec's token capacity raises an
+ * <code>IllegalStateException</code>, as the net is most likely unbounded.
+ */
+public class ReachabilityGraphBuilder {
+
+	private static Logger LOGGER = LogManager.getLogger();
+
+	public static final int DEFAULT_STATE_BOUND = 1000000;
+
+	private final AcceptingStochasticNet net;
+	private final int stateBound;
+	private final int bitsPerPlace;
+
+	public ReachabilityGraphBuilder(AcceptingStochasticNet net) {
+		this(net, DEFAULT_STATE_BOUND, MarkingCodec.DEFAULT_BITS_PER_PLACE);
+	}
+
+	public ReachabilityGraphBuilder(AcceptingStochasticNet net, int stateBound) {
+		this(net, stateBound, MarkingCodec.DEFAULT_BITS_PER_PLACE);
+	}
+
+	public ReachabilityGraphBuilder(AcceptingStochasticNet net, int stateBound, int bitsPerPlace) {
+		if (stateBound < 1)
+			throw new IllegalArgumentException("State bound must be positive: " + stateBound);
+		this.net = net;
+		this.stateBound = stateBound;
+		this.bitsPerPlace = bitsPerPlace;
+	}
+
+	public ReachabilityGraph build() {
+		StochasticNetSnapshot snapshot = new StochasticNetSnapshot(net.getNet());
+		MarkingCodec codec = new MarkingCodec(snapshot, bitsPerPlace);
+		StochasticSemantics semantics = new StochasticSemantics(snapshot);
+		int words = codec.getWords();
+		int transitionCount = snapshot.getTransitionCount();
+		StateTable states = new StateTable(words);
+		long[] key = new long[words];
+		int[] tokens = codec.toTokens(net.getInitialMarking());
+		int[] next = new int[tokens.length];
+		int[] enabled = new int[transitionCount];
+		double[] probabilities = new double[transitionCount];
+		codec.encode(tokens, key, 0);
+		states.add(key, 0);
+		int[] edgeStart = new int[1024];
+		int edgeCount = 0;
+		int[] edgeTransition = new int[1024];
+		int[] edgeTarget = new int[1024];
+		double[] edgeProbability = new double[1024];
+		BitSet incomplete = new BitSet();
+		for (int state=0; state<states.size(); state++) {
+			if (state+1 >= edgeStart.length)
+				edgeStart = Arrays.copyOf(edgeStart, edgeStart.length * 2);
+			edgeStart[state] = edgeCount;
+			codec.decode(states.keys(), state * words, tokens);
+			int count = semantics.enabled(tokens, enabled, probabilities);
+			if (edgeCount + count > edgeTarget.length) {
+				int capacity = Math.max(edgeTarget.length * 2, edgeCount + count);
+				edgeTransition = Arrays.copyOf(edgeTransition, capacity);
+				edgeTarget = Arrays.copyOf(edgeTarget, capacity);
+				edgeProbability = Arrays.copyOf(edgeProbability, capacity);
+			}
+			for (int i=0; i<count; i++) {
+				semantics.fire(tokens, enabled[i], next);
+				codec.encode(next, key, 0);
+				int target = states.find(key, 0);
+				if (target < 0) {
+					if (states.size() >= stateBound) {
+						incomplete.set(state);
+						continue;
+					}
+					target = states.add(key, 0);
+				}
+				edgeTransition[edgeCount] = enabled[i];
+				edgeTarget[edgeCount] = target;
+				edgeProbability[edgeCount] = probabilities[i];
+				edgeCount++;
+			}
+		}
+		return toGraph(net, codec, states, stateBound, edgeStart, edgeCount,
+				edgeTransition, edgeTarget, edgeProbability, incomplete);
+	}
+
+	/**
+	 * Trim the edge arrays, which may be longer than <code>edgeCount</code>, and mark the final
+	 * states.
+	 */
+	static ReachabilityGraph toGraph(AcceptingStochasticNet net, MarkingCodec codec,
+			StateIndex states, int stateBound, int[] edgeStart, int edgeCount,
+			int[] edgeTransition, int[] edgeTarget, double[] edgeProbability, BitSet incomplete)
+	{
+		int stateCount = states.size();
+		edgeStart = Arrays.copyOf(edgeStart, stateCount+1);
+		edgeStart[stateCount] = edgeCount;
+		BitSet finalStates = new BitSet();
+		for (Marking finalMarking: net.getFinalMarkings()) {
+			int state = states.find(codec.encode(finalMarking), 0);
+			if (state >= 0)
+				finalStates.set(state);
+		}
+		if (!incomplete.isEmpty())
+			LOGGER.warn("State space of {} truncated at {} states", net.getId(), stateBound);
+		LOGGER.debug("Built reachability graph of {} with {} states, {} edges",
+				net.getId(), stateCount, edgeCount);
+		return new ReachabilityGraph(codec, states, edgeStart,
+				Arrays.copyOf(edgeTransition, edgeCount), Arrays.copyOf(edgeTarget, edgeCount),
+				Arrays.copyOf(edgeProbability, edgeCount), finalStates, incomplete);
+	}
+
+}
@@ -0,0 +1,286 @@
+package qut.pm.spm;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import qut.pm.util.LongSequenceTable;
+
+/**
+ * Converts an {@link AcceptingStochasticNet} to a {@link StochasticDeterministicFiniteAutomaton}
+ * by subset construction. An automaton state is a probability distribution over markings of the
+ * net, each reached by the same visible labels. Silent moves are summed over by
+ * {@link SilentClosures}, which computes the outcome of each marking once, so markings shared by
+ * many automaton states cost nothing after the first.
+ *
+ * A successor distribution is keyed by its sorted markings and probabilities rounded to
+ * <code>epsilon</code>, and numbered in a {@link LongSequenceTable}. Nets whose distributions
+ * keep changing never converge, so conversion stops adding states at the state bound, leaving
+ * a truncated automaton.
+ *
+ * Unlike the ProM SPN to SDFA plugin this needs no plugin context.
+ */
+public class SDFAConverter {
+
+	private static Logger LOGGER = LogManager.getLogger();
+
+	public static final int DEFAULT_STATE_BOUND = 1000000;
+	public static final double DEFAULT_EPSILON = 1.0E-12;
+
+	private final int stateBound;
+	private final double epsilon;
+
+	public SDFAConverter() {
+		this(DEFAULT_STATE_BOUND, DEFAULT_EPSILON);
+	}
+
+	public SDFAConverter(int stateBound, double epsilon) {
+		if (stateBound < 1)
+			throw new IllegalArgumentException("State bound must be positive: " + stateBound);
+		this.stateBound = stateBound;
+		this.epsilon = epsilon;
+	}
+
+	public StochasticDeterministicFiniteAutomaton convert(AcceptingStochasticNet net) {
+		return new Conversion(net).run();
+	}
+
+	/**
+	 * Working state for converting one net.
+	 */
+	private class Conversion {
+		private final AcceptingStochasticNet net;
+		private final SilentClosures closures;
+		private final int labelCount;
+		private final LongSequenceTable dfaStates = new LongSequenceTable();
+		// distributions of automaton states, end to end
+		private int[] distributionStart = new int[1024];
+		private int[] distributionMarkings = new int[1024];
+		private double[] distributionProbabilities = new double[1024];
+		private int distributionSize = 0;
+		private int[] edgeStart = new int[1024];
+		private int[] edgeLabel = new int[1024];
+		private int[] edgeTarget = new int[1024];
+		private double[] edgeProbability = new double[1024];
+		private int edgeCount = 0;
+		private double[] termination = new double[1024];
+		private final BitSet incomplete = new BitSet();
+		// visible steps of the current state, then the same bucketed by label
+		private int[] stepLabel = new int[64];
+		private int[] stepTarget = new int[64];
+		private double[] stepWeight = new double[64];
+		private int[] bucketTarget = new int[64];
+		private double[] bucketWeight = new double[64];
+		private final int[] labelStart;
+		// accumulation of one successor distribution by marking
+		private int[] slotStamp = new int[0];
+		private int[] slot = new int[0];
+		private int stamp = 0;
+		private int[] successorMarkings = new int[64];
+		private double[] successorWeights = new double[64];
+		private long[] key = new long[128];
+
+		Conversion(AcceptingStochasticNet net) {
+			this.net = net;
+			this.closures = new SilentClosures(net, MarkingCodec.DEFAULT_BITS_PER_PLACE);
+			this.labelCount = closures.getLabelCount();
+			this.labelStart = new int[labelCount + 1];
+		}
+
+		StochasticDeterministicFiniteAutomaton run() {
+			successorMarkings[0] = closures.getInitialState();
+			successorWeights[0] = 1.0;
+			addState(1, 1.0);
+			for (int state=0; state<dfaStates.size(); state++) {
+				if (state + 1 >= edgeStart.length)
+					edgeStart = Arrays.copyOf(edgeStart, edgeStart.length * 2);
+				edgeStart[state] = edgeCount;
+				int steps = gatherSteps(state);
+				bucketByLabel(steps);
+				for (int label=0; label<labelCount; label++) {
+					if (labelStart[label] < labelStart[label+1])
+						addSuccessor(state, label);
+				}
+			}
+			int stateCount = dfaStates.size();
+			edgeStart = Arrays.copyOf(edgeStart, stateCount + 1);
+			edgeStart[stateCount] = edgeCount;
+			String[] labels = new String[labelCount];
+			for (int label=0; label<labelCount; label++)
+				labels[label] = closures.getLabel(label);
+			if (!incomplete.isEmpty())
+				LOGGER.warn("SDFA of {} truncated at {} states", net.getId(), stateBound);
+			LOGGER.debug("Converted {} to SDFA with {} states, {} edges from {} markings",
+					net.getId(), stateCount, edgeCount, closures.getStateCount());
+			return new StochasticDeterministicFiniteAutomaton(labels, edgeStart,
+					Arrays.copyOf(edgeLabel, edgeCount), Arrays.copyOf(edgeTarget, edgeCount),
+					Arrays.copyOf(edgeProbability, edgeCount), Arrays.copyOf(termination, stateCount),
+					incomplete);
+		}
+
+		/**
+		 * Collect the visible steps of every marking in <code>state</code>, weighted by the
+		 * marking's probability, and set its termination probability.
+		 */
+		private int gatherSteps(int state) {
+			int steps = 0;
+			double ending = 0;
+			for (int i=distributionStart[state]; i<distributionStart[state+1]; i++) {
+				double probability = distributionProbabilities[i];
+				SilentClosures.Closure closure = closures.get(distributionMarkings[i]);
+				ending += probability * closure.termination;
+				int count = closure.labels.length;
+				if (steps + count > stepTarget.length) {
+					int capacity = Math.max(stepTarget.length * 2, steps + count);
+					stepLabel = Arrays.copyOf(stepLabel, capacity);
+					stepTarget = Arrays.copyOf(stepTarget, capacity);
+					stepWeight = Arrays.copyOf(stepWeight, capacity);
+				}
+				for (int j=0; j<count; j++) {
+					stepLabel[steps] = closure.labels[j];
+					stepTarget[steps] = closure.targets[j];
+					stepWeight[steps] = probability * closure.probabilities[j];
+					steps++;
+				}
+			}
+			termination[state] = ending;
+			return steps;
+		}
+
+		private void bucketByLabel(int steps) {
+			Arrays.fill(labelStart, 0);
+			for (int i=0; i<steps; i++)
+				labelStart[stepLabel[i] + 1]++;
+			for (int label=0; label<labelCount; label++)
+				labelStart[label+1] += labelStart[label];
+			if (steps > bucketTarget.length) {
+				bucketTarget = new int[stepTarget.length];
+				bucketWeight = new double[stepTarget.length];
+			}
+			for (int i=0; i<steps; i++) {
+				int position = labelStart[stepLabel[i]]++;
+				bucketTarget[position] = stepTarget[i];
+				bucketWeight[position] = stepWeight[i];
+			}
+			// the scatter advanced each start to the next label's start
+			for (int label=labelCount; label>0; label--)
+				labelStart[label] = labelStart[label-1];
+			labelStart[0] = 0;
+		}
+
+		private void addSuccessor(int state, int label) {
+			if (++stamp == Integer.MAX_VALUE) {
+				Arrays.fill(slotStamp, 0);
+				stamp = 1;
+			}
+			if (slotStamp.length < closures.getStateCount()) {
+				int capacity = Math.max(closures.getStateCount(), slotStamp.length * 2);
+				slotStamp = Arrays.copyOf(slotStamp, capacity);
+				slot = Arrays.copyOf(slot, capacity);
+			}
+			int size = 0;
+			double total = 0;
+			for (int i=labelStart[label]; i<labelStart[label+1]; i++) {
+				int marking = bucketTarget[i];
+				total += bucketWeight[i];
+				if (slotStamp[marking] == stamp) {
+					successorWeights[slot[marking]] += bucketWeight[i];
+					continue;
+				}
+				if (size == successorMarkings.length) {
+					successorMarkings = Arrays.copyOf(successorMarkings, size * 2);
+					successorWeights = Arrays.copyOf(successorWeights, size * 2);
+				}
+				slotStamp[marking] = stamp;
+				slot[marking] = size;
+				successorMarkings[size] = marking;
+				successorWeights[size] = bucketWeight[i];
+				size++;
+			}
+			if (total <= 0)
+				return;
+			int target = addState(size, total);
+			if (target < 0) {
+				incomplete.set(state);
+				return;
+			}
+			if (edgeCount == edgeTarget.length) {
+				int capacity = edgeCount * 2;
+				edgeLabel = Arrays.copyOf(edgeLabel, capacity);
+				edgeTarget = Arrays.copyOf(edgeTarget, capacity);
+				edgeProbability = Arrays.copyOf(edgeProbability, capacity);
+			}
+			edgeLabel[edgeCount] = label;
+			edgeTarget[edgeCount] = target;
+			edgeProbability[edgeCount] = total;
+			edgeCount++;
+		}
+
+		/**
+		 * Look up or add the state for the first <code>size</code> successor markings and weights,
+		 * normalised by <code>total</code>.
+		 *
+		 * @return the state, or -1 if it is new and the state bound has been reached
+		 */
+		private int addState(int size, double total) {
+			sortSuccessors(size);
+			if (key.length < size * 2)
+				key = new long[size * 4];
+			for (int i=0; i<size; i++) {
+				key[2*i] = successorMarkings[i];
+				key[2*i+1] = Math.round(successorWeights[i] / total / epsilon);
+			}
+			int existing = dfaStates.find(key, 0, size * 2);
+			if (existing >= 0)
+				return existing;
+			if (dfaStates.size() >= stateBound)
+				return -1;
+			int state = dfaStates.add(key, 0, size * 2);
+			if (state + 1 >= distributionStart.length) {
+				distributionStart = Arrays.copyOf(distributionStart, distributionStart.length * 2);
+				termination = Arrays.copyOf(termination, distributionStart.length);
+			}
+			if (distributionSize + size > distributionMarkings.length) {
+				int capacity = Math.max(distributionMarkings.length * 2, distributionSize + size);
+				distributionMarkings = Arrays.copyOf(distributionMarkings, capacity);
+				distributionProbabilities = Arrays.copyOf(distributionProbabilities, capacity);
+			}
+			for (int i=0; i<size; i++) {
+				distributionMarkings[distributionSize] = successorMarkings[i];
+				distributionProbabilities[distributionSize] = successorWeights[i] / total;
+				distributionSize++;
+			}
+			distributionStart[state+1] = distributionSize;
+			return state;
+		}
+
+		/**
+		 * Sort successors by marking. Small distributions, the usual case, use insertion sort.
+		 * Larger ones sort the markings and look weights up through the accumulation slots.
+		 */
+		private void sortSuccessors(int size) {
+			if (size > 32) {
+				double[] weights = Arrays.copyOf(successorWeights, size);
+				Arrays.sort(successorMarkings, 0, size);
+				for (int i=0; i<size; i++)
+					successorWeights[i] = weights[slot[successorMarkings[i]]];
+				return;
+			}
+			for (int i=1; i<size; i++) {
+				int marking = successorMarkings[i];
+				double weight = successorWeights[i];
+				int j = i - 1;
+				while (j >= 0 && successorMarkings[j] > marking) {
+					successorMarkings[j+1] = successorMarkings[j];
+					successorWeights[j+1] = successorWeights[j];
+					j--;
+				}
+				successorMarkings[j+1] = marking;
+				successorWeights[j+1] = weight;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,545 @@
+package qut.pm.spm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.processmining.models.semantics.petrinet.Marking;
+
+import qut.pm.prom.helpers.StochasticNetSnapshot;
+
+/**
+ * Lazily explored markings of an {@link AcceptingStochasticNet}, with the outcome of silent moves
+ * from each marking computed once and kept.
+ *
+ * The closure of a marking is what happens before the next visible transition fires. For each
+ * visible label and marking after firing it, this is the probability that the next visible step
+ * is that label leading to that marking, summed over all silent runs. The closure also has the
+ * probability of the run instead ending silently in a final deadlock. Runs which end in a
+ * deadlock that is not final, or which stay in silent cycles forever, are in neither.
+ *
+ * Silent cycles are handled by solving for the expected visits to each marking, one strongly
+ * connected component of silent moves at a time in topological order. Small components are solved
+ * exactly, large ones by iterating to convergence.
+ *
+ * Not thread safe.
+ */
+class SilentClosures {
+
+	/**
+	 * Silent components up to this size are solved by Gaussian elimination.
+	 */
+	private static final int DENSE_LIMIT = 256;
+	private static final double TOLERANCE = 1.0E-14;
+	private static final int MAX_ITERATIONS = 1000000;
+
+	static class Closure {
+		/** Probability of ending silently in a final deadlock. */
+		final double termination;
+		/** Visible steps sorted by label then target. */
+		final int[] labels;
+		final int[] targets;
+		final double[] probabilities;
+
+		Closure(double termination, int[] labels, int[] targets, double[] probabilities) {
+			this.termination = termination;
+			this.labels = labels;
+			this.targets = targets;
+			this.probabilities = probabilities;
+		}
+
+		/**
+		 * First visible step with <code>label</code>, or the insertion point if none.
+		 */
+		int labelStart(int label) {
+			int low = 0;
+			int high = labels.length;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (labels[mid] < label)
+					low = mid + 1;
+				else
+					high = mid;
+			}
+			return low;
+		}
+	}
+
+	private final StochasticNetSnapshot snapshot;
+	private final MarkingCodec codec;
+	private final StochasticSemantics semantics;
+	private final StateTable states;
+	private final BitSet finalStates = new BitSet();
+	private final int initialState;
+	private final int[] transitionLabels;
+	private final List<String> labels = new ArrayList<>();
+	private final Map<String,Integer> labelIndex = new HashMap<>();
+	private final List<Closure> closures = new ArrayList<>();
+
+	private final long[] key;
+	private final int[] tokens;
+	private final int[] next;
+	private final int[] enabled;
+	private final double[] probabilities;
+
+	// per closure scratch
+	private int[] localStamp = new int[0];
+	private int[] localIndex = new int[0];
+	private int stamp = 0;
+
+	SilentClosures(AcceptingStochasticNet net, int bitsPerPlace) {
+		snapshot = new StochasticNetSnapshot(net.getNet());
+		codec = new MarkingCodec(snapshot, bitsPerPlace);
+		semantics = new StochasticSemantics(snapshot);
+		states = new StateTable(codec.getWords());
+		int transitionCount = snapshot.getTransitionCount();
+		transitionLabels = new int[transitionCount];
+		for (int t=0; t<transitionCount; t++) {
+			if (snapshot.isInvisible(t)) {
+				transitionLabels[t] = -1;
+				continue;
+			}
+			String label = snapshot.getTransitionLabel(t);
+			Integer index = labelIndex.get(label);
+			if (index == null) {
+				index = labels.size();
+				labels.add(label);
+				labelIndex.put(label, index);
+			}
+			transitionLabels[t] = index;
+		}
+		key = new long[codec.getWords()];
+		tokens = new int[codec.getPlaceCount()];
+		next = new int[codec.getPlaceCount()];
+		enabled = new int[transitionCount];
+		probabilities = new double[transitionCount];
+		initialState = intern(codec.encode(net.getInitialMarking()));
+		for (Marking finalMarking: net.getFinalMarkings())
+			finalStates.set(intern(codec.encode(finalMarking)));
+	}
+
+	MarkingCodec getCodec() {
+		return codec;
+	}
+
+	int getInitialState() {
+		return initialState;
+	}
+
+	boolean isFinal(int state) {
+		return finalStates.get(state);
+	}
+
+	/**
+	 * Number of markings seen so far.
+	 */
+	int getStateCount() {
+		return states.size();
+	}
+
+	int getLabelCount() {
+		return labels.size();
+	}
+
+	String getLabel(int label) {
+		return labels.get(label);
+	}
+
+	/**
+	 * Index of a visible transition label, or -1 if no visible transition has it.
+	 */
+	int labelIndex(String label) {
+		Integer index = labelIndex.get(label);
+		return (index == null)? -1 : index;
+	}
+
+	Marking getMarking(int state) {
+		states.get(state, key, 0);
+		codec.decode(key, 0, tokens);
+		return codec.toMarking(tokens);
+	}
+
+	Closure get(int state) {
+		while (closures.size() <= state)
+			closures.add(null);
+		Closure closure = closures.get(state);
+		if (closure == null) {
+			closure = compute(state);
+			closures.set(state, closure);
+		}
+		return closure;
+	}
+
+	private int intern(long[] packed) {
+		int state = states.add(packed, 0);
+		return (state < 0)? -(state + 1) : state;
+	}
+
+	private int localOf(int state) {
+		if (state >= localStamp.length) {
+			int capacity = Math.max(state + 1, localStamp.length * 2);
+			localStamp = Arrays.copyOf(localStamp, capacity);
+			localIndex = Arrays.copyOf(localIndex, capacity);
+		}
+		return (localStamp[state] == stamp)? localIndex[state] : -1;
+	}
+
+	private Closure compute(int start) {
+		if (++stamp == Integer.MAX_VALUE) {
+			Arrays.fill(localStamp, 0);
+			stamp = 1;
+		}
+		IntArray members = new IntArray();
+		IntArray silentStart = new IntArray();
+		IntArray silentTarget = new IntArray();
+		DoubleArray silentProbability = new DoubleArray();
+		IntArray visibleStart = new IntArray();
+		IntArray visibleLabel = new IntArray();
+		IntArray visibleTarget = new IntArray();
+		DoubleArray visibleProbability = new DoubleArray();
+		BitSet terminal = new BitSet();
+		localOf(start);
+		localStamp[start] = stamp;
+		localIndex[start] = 0;
+		members.add(start);
+		for (int local=0; local<members.size(); local++) {
+			silentStart.add(silentTarget.size());
+			visibleStart.add(visibleTarget.size());
+			int state = members.get(local);
+			states.get(state, key, 0);
+			codec.decode(key, 0, tokens);
+			int count = semantics.enabled(tokens, enabled, probabilities);
+			if (count == 0 && finalStates.get(state))
+				terminal.set(local);
+			for (int i=0; i<count; i++) {
+				int t = enabled[i];
+				semantics.fire(tokens, t, next);
+				codec.encode(next, key, 0);
+				int target = intern(key);
+				if (transitionLabels[t] >= 0) {
+					visibleLabel.add(transitionLabels[t]);
+					visibleTarget.add(target);
+					visibleProbability.add(probabilities[i]);
+					continue;
+				}
+				int targetLocal = localOf(target);
+				if (targetLocal < 0) {
+					targetLocal = members.size();
+					localStamp[target] = stamp;
+					localIndex[target] = targetLocal;
+					members.add(target);
+				}
+				silentTarget.add(targetLocal);
+				silentProbability.add(probabilities[i]);
+			}
+		}
+		silentStart.add(silentTarget.size());
+		visibleStart.add(visibleTarget.size());
+		double[] visits = visits(members.size(), silentStart.toArray(), silentTarget.toArray(),
+				silentProbability.toArray());
+		double termination = 0;
+		for (int local=terminal.nextSetBit(0); local>=0; local=terminal.nextSetBit(local+1))
+			termination += visits[local];
+		int steps = visibleTarget.size();
+		long[] order = new long[steps];
+		double[] weight = new double[steps];
+		int kept = 0;
+		for (int local=0; local<members.size(); local++) {
+			if (visits[local] == 0)
+				continue;
+			for (int i=visibleStart.get(local); i<visibleStart.get(local+1); i++) {
+				order[kept] = ((long)visibleLabel.get(i) << 32) | visibleTarget.get(i);
+				weight[kept] = visits[local] * visibleProbability.get(i);
+				kept++;
+			}
+		}
+		return merge(termination, order, weight, kept);
+	}
+
+	/**
+	 * Sort visible steps by label and target, summing duplicates.
+	 */
+	private static Closure merge(double termination, long[] order, double[] weight, int count) {
+		Integer[] sorted = new Integer[count];
+		for (int i=0; i<count; i++)
+			sorted[i] = i;
+		Arrays.sort(sorted, (a,b) -> Long.compare(order[a], order[b]));
+		int distinct = 0;
+		for (int i=0; i<count; i++) {
+			if (i == 0 || order[sorted[i]] != order[sorted[i-1]])
+				distinct++;
+		}
+		int[] labels = new int[distinct];
+		int[] targets = new int[distinct];
+		double[] probabilities = new double[distinct];
+		int j = -1;
+		for (int i=0; i<count; i++) {
+			long step = order[sorted[i]];
+			if (i == 0 || step != order[sorted[i-1]]) {
+				j++;
+				labels[j] = (int)(step >>> 32);
+				targets[j] = (int)step;
+			}
+			probabilities[j] += weight[sorted[i]];
+		}
+		return new Closure(termination, labels, targets, probabilities);
+	}
+
+	/**
+	 * Expected visits to each node from node 0 of a substochastic graph in compressed rows, here
+	 * the local markings of a closure along silent moves. Components which cannot be left trap
+	 * their mass and contribute nothing, so get zero visits.
+	 */
+	static double[] visits(int n, int[] start, int[] target, double[] probability) {
+		double[] visits = new double[n];
+		visits[0] = 1.0;
+		int[] component = new int[n];
+		int components = tarjan(n, start, target, component);
+		int[][] members = membersByComponent(n, component, components);
+		// tarjan numbers components in reverse topological order
+		for (int c=components-1; c>=0; c--) {
+			int[] nodes = members[c];
+			boolean closed = true;
+			boolean cyclic = nodes.length > 1;
+			for (int node: nodes) {
+				double inside = 0;
+				for (int i=start[node]; i<end(start, node); i++) {
+					if (component[target[i]] == c) {
+						inside += probability[i];
+						cyclic = true;
+					}
+				}
+				if (inside < 1.0 - TOLERANCE || start[node] == end(start, node))
+					closed = false;
+			}
+			if (closed) {
+				for (int node: nodes)
+					visits[node] = 0;
+				continue;
+			}
+			if (cyclic) {
+				if (nodes.length <= DENSE_LIMIT)
+					solveDense(nodes, component, c, start, target, probability, visits);
+				else
+					solveIterative(nodes, component, c, start, target, probability, visits);
+			}
+			for (int node: nodes) {
+				for (int i=start[node]; i<end(start, node); i++) {
+					if (component[target[i]] != c)
+						visits[target[i]] += visits[node] * probability[i];
+				}
+			}
+		}
+		return visits;
+	}
+
+	private static int end(int[] start, int node) {
+		return start[node+1];
+	}
+
+	/**
+	 * Solve v = b + v Q within a component, where b is the mass already in <code>visits</code>.
+	 */
+	private static void solveDense(int[] nodes, int[] component, int c, int[] start,
+			int[] target, double[] probability, double[] visits)
+	{
+		int size = nodes.length;
+		Map<Integer,Integer> position = new HashMap<>();
+		for (int i=0; i<size; i++)
+			position.put(nodes[i], i);
+		// row i: v_i - sum_j v_j Q_ji = b_i
+		double[][] a = new double[size][size + 1];
+		for (int i=0; i<size; i++) {
+			a[i][i] = 1.0;
+			a[i][size] = visits[nodes[i]];
+		}
+		for (int j=0; j<size; j++) {
+			int node = nodes[j];
+			for (int k=start[node]; k<end(start, node); k++) {
+				if (component[target[k]] == c)
+					a[position.get(target[k])][j] -= probability[k];
+			}
+		}
+		for (int col=0; col<size; col++) {
+			int pivot = col;
+			for (int row=col+1; row<size; row++) {
+				if (Math.abs(a[row][col]) > Math.abs(a[pivot][col]))
+					pivot = row;
+			}
+			double[] swap = a[col];
+			a[col] = a[pivot];
+			a[pivot] = swap;
+			for (int row=col+1; row<size; row++) {
+				double factor = a[row][col] / a[col][col];
+				if (factor == 0)
+					continue;
+				for (int k=col; k<=size; k++)
+					a[row][k] -= factor * a[col][k];
+			}
+		}
+		for (int row=size-1; row>=0; row--) {
+			double sum = a[row][size];
+			for (int k=row+1; k<size; k++)
+				sum -= a[row][k] * visits[nodes[k]];
+			visits[nodes[row]] = sum / a[row][row];
+		}
+	}
+
+	/**
+	 * Sum the series b + bQ + bQ^2 ... within a component until the added mass is negligible.
+	 */
+	private static void solveIterative(int[] nodes, int[] component, int c, int[] start,
+			int[] target, double[] probability, double[] visits)
+	{
+		Map<Integer,Integer> position = new HashMap<>();
+		for (int i=0; i<nodes.length; i++)
+			position.put(nodes[i], i);
+		double[] residual = new double[nodes.length];
+		double[] moved = new double[nodes.length];
+		double total = 0;
+		for (int i=0; i<nodes.length; i++) {
+			residual[i] = visits[nodes[i]];
+			total += residual[i];
+		}
+		for (int iteration=0; iteration<MAX_ITERATIONS; iteration++) {
+			Arrays.fill(moved, 0);
+			for (int i=0; i<nodes.length; i++) {
+				if (residual[i] == 0)
+					continue;
+				int node = nodes[i];
+				for (int k=start[node]; k<end(start, node); k++) {
+					if (component[target[k]] == c)
+						moved[position.get(target[k])] += residual[i] * probability[k];
+				}
+			}
+			double added = 0;
+			for (int i=0; i<nodes.length; i++) {
+				visits[nodes[i]] += moved[i];
+				added += moved[i];
+			}
+			total += added;
+			double[] swap = residual;
+			residual = moved;
+			moved = swap;
+			if (added <= TOLERANCE * total)
+				return;
+		}
+	}
+
+	private static int[][] membersByComponent(int n, int[] component, int components) {
+		int[] sizes = new int[components];
+		for (int node=0; node<n; node++)
+			sizes[component[node]]++;
+		int[][] members = new int[components][];
+		for (int c=0; c<components; c++)
+			members[c] = new int[sizes[c]];
+		Arrays.fill(sizes, 0);
+		for (int node=0; node<n; node++)
+			members[component[node]][sizes[component[node]]++] = node;
+		return members;
+	}
+
+	/**
+	 * Iterative Tarjan. Components are numbered in the order completed, which is reverse
+	 * topological.
+	 */
+	private static int tarjan(int n, int[] start, int[] target, int[] component) {
+		int[] index = new int[n];
+		int[] low = new int[n];
+		int[] edge = new int[n];
+		int[] callStack = new int[n];
+		int[] stack = new int[n];
+		boolean[] onStack = new boolean[n];
+		Arrays.fill(index, -1);
+		int counter = 0;
+		int components = 0;
+		int stackSize = 0;
+		for (int root=0; root<n; root++) {
+			if (index[root] >= 0)
+				continue;
+			int depth = 0;
+			callStack[depth++] = root;
+			index[root] = low[root] = counter++;
+			edge[root] = start[root];
+			stack[stackSize++] = root;
+			onStack[root] = true;
+			while (depth > 0) {
+				int node = callStack[depth-1];
+				if (edge[node] < end(start, node)) {
+					int next = target[edge[node]++];
+					if (index[next] < 0) {
+						index[next] = low[next] = counter++;
+						edge[next] = start[next];
+						stack[stackSize++] = next;
+						onStack[next] = true;
+						callStack[depth++] = next;
+					} else if (onStack[next]) {
+						low[node] = Math.min(low[node], index[next]);
+					}
+					continue;
+				}
+				depth--;
+				if (depth > 0) {
+					int parent = callStack[depth-1];
+					low[parent] = Math.min(low[parent], low[node]);
+				}
+				if (low[node] == index[node]) {
+					int member;
+					do {
+						member = stack[--stackSize];
+						onStack[member] = false;
+						component[member] = components;
+					} while (member != node);
+					components++;
+				}
+			}
+		}
+		return components;
+	}
+
+	private static class IntArray {
+		private int[] values = new int[16];
+		private int size = 0;
+
+		void add(int value) {
+			if (size == values.length)
+				values = Arrays.copyOf(values, size * 2);
+			values[size++] = value;
+		}
+
+		int get(int i) {
+			return values[i];
+		}
+
+		int size() {
+			return size;
+		}
+
+		int[] toArray() {
+			return Arrays.copyOf(values, size);
+		}
+	}
+
+	private static class DoubleArray {
+		private double[] values = new double[16];
+		private int size = 0;
+
+		void add(double value) {
+			if (size == values.length)
+				values = Arrays.copyOf(values, size * 2);
+			values[size++] = value;
+		}
+
+		double get(int i) {
+			return values[i];
+		}
+
+		double[] toArray() {
+			return Arrays.copyOf(values, size);
+		}
+	}
+
+}
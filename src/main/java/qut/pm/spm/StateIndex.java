@@ -0,0 +1,24 @@
+package qut.pm.spm;
+
+/**
+ * Read access to a dense numbering of packed markings, shared by {@link StateTable} and
+ * {@link ConcurrentStateTable}.
+ */
+interface StateIndex {
+
+	int size();
+
+	int getWords();
+
+	/**
+	 *
+	 * @return the state number of the key at <code>offset</code> in <code>key</code>, or -1
+	 */
+	int find(long[] key, int offset);
+
+	/**
+	 * Copy the key of <code>state</code> into <code>dest</code> at <code>offset</code>.
+	 */
+	void get(int state, long[] dest, int offset);
+
+}
@@ -0,0 +1,130 @@
+package qut.pm.spm;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash table of fixed width <code>long[]</code> keys, such as markings packed by
+ * {@link MarkingCodec}. Keys are numbered densely from zero in the order they are added and
+ * stored end to end in a single array, so a state costs its key words plus two table slots, with
+ * no object per state. Not thread safe.
+ */
+public class StateTable implements StateIndex {
+
+	private static final int EMPTY = -1;
+	private static final int INITIAL_CAPACITY = 1024;
+
+	private final int words;
+	private long[] keys;
+	private int[] slots;
+	private int size = 0;
+
+	public StateTable(int words) {
+		this(words, INITIAL_CAPACITY);
+	}
+
+	public StateTable(int words, int expectedStates) {
+		this.words = words;
+		int capacity = INITIAL_CAPACITY;
+		while (capacity < expectedStates * 2)
+			capacity <<= 1;
+		slots = new int[capacity];
+		Arrays.fill(slots, EMPTY);
+		keys = new long[Math.max(expectedStates, 16) * words];
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public int getWords() {
+		return words;
+	}
+
+	/**
+	 *
+	 * @return the state number of the key at <code>offset</code> in <code>key</code>, or -1
+	 */
+	@Override
+	public int find(long[] key, int offset) {
+		int mask = slots.length - 1;
+		int slot = hash(key, offset) & mask;
+		while (slots[slot] != EMPTY) {
+			if (equalsKey(slots[slot], key, offset))
+				return slots[slot];
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * Add the key if not already present.
+	 *
+	 * @return the new state number, or <code>-(state + 1)</code> if the key was already present
+	 */
+	public int add(long[] key, int offset) {
+		int mask = slots.length - 1;
+		int slot = hash(key, offset) & mask;
+		while (slots[slot] != EMPTY) {
+			if (equalsKey(slots[slot], key, offset))
+				return -(slots[slot] + 1);
+			slot = (slot + 1) & mask;
+		}
+		if ((size+1) * words > keys.length)
+			keys = Arrays.copyOf(keys, Math.max(keys.length * 2, (size+1) * words));
+		System.arraycopy(key, offset, keys, size * words, words);
+		slots[slot] = size;
+		size++;
+		if (size * 2 > slots.length)
+			rehash(slots.length * 2);
+		return size - 1;
+	}
+
+	/**
+	 * Copy the key of <code>state</code> into <code>dest</code> at <code>offset</code>.
+	 */
+	@Override
+	public void get(int state, long[] dest, int offset) {
+		System.arraycopy(keys, state * words, dest, offset, words);
+	}
+
+	/**
+	 * Backing key array, with state <code>s</code> at offset <code>s * getWords()</code>. Only
+	 * valid until the next add.
+	 */
+	long[] keys() {
+		return keys;
+	}
+
+	private boolean equalsKey(int state, long[] key, int offset) {
+		int base = state * words;
+		for (int w=0; w<words; w++) {
+			if (keys[base + w] != key[offset + w])
+				return false;
+		}
+		return true;
+	}
+
+	private int hash(long[] key, int offset) {
+		long h = 0;
+		for (int w=0; w<words; w++) {
+			h = (h ^ key[offset + w]) * 0x9e3779b97f4a7c15L;
+			h ^= h >>> 29;
+		}
+		return (int)(h ^ (h >>> 32));
+	}
+
+	private void rehash(int capacity) {
+		slots = new int[capacity];
+		Arrays.fill(slots, EMPTY);
+		int mask = capacity - 1;
+		for (int state=0; state<size; state++) {
+			int slot = hash(keys, state * words) & mask;
+			while (slots[slot] != EMPTY)
+				slot = (slot + 1) & mask;
+			slots[slot] = state;
+		}
+	}
+
+}
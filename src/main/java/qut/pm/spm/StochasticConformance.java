@@ -0,0 +1,115 @@
+package qut.pm.spm;
+
+import java.util.List;
+
+/**
+ * Stochastic conformance of a log and an {@link AcceptingStochasticNet}, from
+ * {@link StochasticConformanceCalculator}. Variants are the distinct traces of the log, sorted
+ * by label sequence.
+ *
+ * Entropies are in bits. Entropy precision and recall are the share of the entropy of the model
+ * and log languages respectively that comes from the variants the log and model share, ie, the
+ * sum of <code>-p log p</code> over the shared variants, without renormalising, divided by the
+ * whole entropy. Both are in [0,1].
+ */
+public class StochasticConformance {
+
+	private final List<List<String>> variants;
+	private final double[] logProbabilities;
+	private final double[] modelProbabilities;
+	private final double unitEarthMovers;
+	private final double truncatedEarthMovers;
+	private final double logEntropy;
+	private final double modelEntropy;
+	private final double sharedLogEntropy;
+	private final double sharedModelEntropy;
+
+	StochasticConformance(List<List<String>> variants, double[] logProbabilities,
+			double[] modelProbabilities, double unitEarthMovers, double truncatedEarthMovers,
+			double logEntropy, double modelEntropy, double sharedLogEntropy,
+			double sharedModelEntropy)
+	{
+		this.variants = variants;
+		this.logProbabilities = logProbabilities;
+		this.modelProbabilities = modelProbabilities;
+		this.unitEarthMovers = unitEarthMovers;
+		this.truncatedEarthMovers = truncatedEarthMovers;
+		this.logEntropy = logEntropy;
+		this.modelEntropy = modelEntropy;
+		this.sharedLogEntropy = sharedLogEntropy;
+		this.sharedModelEntropy = sharedModelEntropy;
+	}
+
+	public int getVariantCount() {
+		return variants.size();
+	}
+
+	public List<String> getVariant(int variant) {
+		return variants.get(variant);
+	}
+
+	public double getLogProbability(int variant) {
+		return logProbabilities[variant];
+	}
+
+	public double getModelProbability(int variant) {
+		return modelProbabilities[variant];
+	}
+
+	/**
+	 * Earth movers stochastic conformance with unit distance between different traces, which is
+	 * one less the log probability mass the model does not cover.
+	 */
+	public double getUnitEarthMovers() {
+		return unitEarthMovers;
+	}
+
+	/**
+	 * Truncated earth movers stochastic conformance (tEMSC), with normalised Levenshtein distance
+	 * between traces and the model language truncated at a probability mass. A lower bound on the
+	 * untruncated measure.
+	 *
+	 * @return NaN unless the calculator was made with a truncation mass and model trace limit
+	 */
+	public double getTruncatedEarthMovers() {
+		return truncatedEarthMovers;
+	}
+
+	public double getLogEntropy() {
+		return logEntropy;
+	}
+
+	/**
+	 * Entropy of the model's trace distribution, from its {@link StochasticDeterministicFiniteAutomaton}.
+	 */
+	public double getModelEntropy() {
+		return modelEntropy;
+	}
+
+	public double getEntropyRecall() {
+		return ratio(sharedLogEntropy, logEntropy);
+	}
+
+	public double getEntropyPrecision() {
+		return ratio(sharedModelEntropy, modelEntropy);
+	}
+
+	private double ratio(double shared, double whole) {
+		if (whole > 0)
+			return Math.min(shared / whole, 1.0);
+		for (double probability: modelProbabilities) {
+			if (probability > 0)
+				return 1.0;
+		}
+		return 0.0;
+	}
+
+	@Override
+	public String toString() {
+		return "StochasticConformance [variants=" + variants.size() + ", uEMSC=" + unitEarthMovers
+				+ (Double.isNaN(truncatedEarthMovers)? "" : ", tEMSC=" + truncatedEarthMovers)
+				+ ", entropyRecall=" + getEntropyRecall() + ", entropyPrecision="
+				+ getEntropyPrecision() + "]";
+	}
+
+}
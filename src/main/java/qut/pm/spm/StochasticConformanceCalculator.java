@@ -0,0 +1,253 @@
+package qut.pm.spm;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.deckfour.xes.classification.XEventClassifier;
+import org.deckfour.xes.classification.XEventNameClassifier;
+import org.deckfour.xes.model.XLog;
+
+import qut.pm.xes.helpers.TraceVariantIndex;
+
+/**
+ * Computes {@link StochasticConformance} between a log and an {@link AcceptingStochasticNet}.
+ *
+ * The log is taken as a {@link TraceVariantIndex}, and model probabilities of its variants come
+ * from {@link TraceProbabilityCalculator}. Variants are sorted, so neighbours share prefixes, and
+ * cut into chunks of a fixed size, each evaluated by its own calculator. With a pool, chunks run in parallel.
+ * Chunks and the order of every sum depend only on the log and chunk size, never on the number of
+ * threads, so results are the same for any pool.
+ *
+ * The model entropy needs the whole model language, and is computed from its
+ * {@link StochasticDeterministicFiniteAutomaton} by solving for the expected visits to each
+ * state. This assumes runs of the net end in a final marking. If the automaton is truncated the
+ * entropy is a lower bound.
+ *
+ * The truncated earth movers' conformance lists the most likely traces of the same automaton and
+ * solves a transport problem between them and the log variants, see {@link TruncatedEarthMovers}.
+ * Its time and memory grow with the product of the numbers of variants and listed traces, so it
+ * is computed only by a calculator made with a truncation mass and model trace limit.
+ */
+public class StochasticConformanceCalculator {
+
+	private static Logger LOGGER = LogManager.getLogger();
+
+	private static final XEventClassifier NAME_CLASSIFIER = new XEventNameClassifier();
+	private static final double LOG2 = Math.log(2);
+
+	public static final int DEFAULT_CHUNK_VARIANTS = 1024;
+	public static final double DEFAULT_TRUNCATION_MASS = 0.8;
+	public static final int DEFAULT_MAX_MODEL_TRACES = 1000;
+
+	private final ForkJoinPool pool;
+	private final int chunkVariants;
+	private final double truncationMass;
+	private final int maxModelTraces;
+	private final boolean truncatedEarthMovers;
+
+	/**
+	 * Single threaded calculator, without the truncated earth movers' conformance.
+	 */
+	public StochasticConformanceCalculator() {
+		this(null, DEFAULT_CHUNK_VARIANTS);
+	}
+
+	public StochasticConformanceCalculator(ForkJoinPool pool) {
+		this(pool, DEFAULT_CHUNK_VARIANTS);
+	}
+
+	/**
+	 * Calculator without the truncated earth movers' conformance.
+	 *
+	 * @param pool for evaluating chunks in parallel, or null to run in the calling thread
+	 * @param chunkVariants variants per chunk
+	 */
+	public StochasticConformanceCalculator(ForkJoinPool pool, int chunkVariants) {
+		this(pool, chunkVariants, DEFAULT_TRUNCATION_MASS, DEFAULT_MAX_MODEL_TRACES, false);
+	}
+
+	/**
+	 * Calculator which also computes the truncated earth movers' conformance.
+	 *
+	 * @param pool for evaluating chunks in parallel, or null to run in the calling thread
+	 * @param chunkVariants variants per chunk
+	 * @param truncationMass model probability mass listed for the truncated earth movers' measure
+	 * @param maxModelTraces most model traces listed for the truncated earth movers' measure
+	 */
+	public StochasticConformanceCalculator(ForkJoinPool pool, int chunkVariants,
+			double truncationMass, int maxModelTraces)
+	{
+		this(pool, chunkVariants, truncationMass, maxModelTraces, true);
+	}
+
+	private StochasticConformanceCalculator(ForkJoinPool pool, int chunkVariants,
+			double truncationMass, int maxModelTraces, boolean truncatedEarthMovers)
+	{
+		if (chunkVariants < 1)
+			throw new IllegalArgumentException("Chunk size must be positive: " + chunkVariants);
+		if (!(truncationMass > 0 && truncationMass <= 1))
+			throw new IllegalArgumentException("Truncation mass must be in (0,1]: " + truncationMass);
+		if (maxModelTraces < 1)
+			throw new IllegalArgumentException("Model trace limit must be positive: " + maxModelTraces);
+		this.pool = pool;
+		this.chunkVariants = chunkVariants;
+		this.truncationMass = truncationMass;
+		this.maxModelTraces = maxModelTraces;
+		this.truncatedEarthMovers = truncatedEarthMovers;
+	}
+
+	public StochasticConformance calculate(XLog log, AcceptingStochasticNet net) {
+		return calculate(log, NAME_CLASSIFIER, net);
+	}
+
+	public StochasticConformance calculate(XLog log, XEventClassifier classifier,
+			AcceptingStochasticNet net)
+	{
+		return calculate(TraceVariantIndex.fromXLog(log, classifier), net);
+	}
+
+	public StochasticConformance calculate(TraceVariantIndex log, AcceptingStochasticNet net) {
+		List<List<String>> variants = new ArrayList<>(log.getVariantCount());
+		Map<List<String>,Integer> counts = new HashMap<>();
+		for (int variant=0; variant<log.getVariantCount(); variant++) {
+			List<String> events = log.getVariant(variant);
+			variants.add(events);
+			counts.put(events, log.getCount(variant));
+		}
+		variants.sort(StochasticConformanceCalculator::compareVariants);
+		double[] logProbabilities = new double[variants.size()];
+		for (int i=0; i<logProbabilities.length; i++)
+			logProbabilities[i] = counts.get(variants.get(i)) / (double)log.getTraceCount();
+		double[] modelProbabilities = modelProbabilities(variants, net);
+		double uncovered = 0;
+		for (int i=0; i<logProbabilities.length; i++)
+			uncovered += Math.max(logProbabilities[i] - modelProbabilities[i], 0);
+		StochasticDeterministicFiniteAutomaton sdfa = new SDFAConverter().convert(net);
+		double truncated = truncatedEarthMovers?
+				new TruncatedEarthMovers(sdfa, truncationMass, maxModelTraces, pool)
+						.calculate(variants, logProbabilities)
+				: Double.NaN;
+		StochasticConformance result = new StochasticConformance(variants, logProbabilities,
+				modelProbabilities, 1.0 - uncovered, truncated,
+				entropy(logProbabilities, null), modelEntropy(sdfa),
+				entropy(logProbabilities, modelProbabilities),
+				entropy(modelProbabilities, modelProbabilities));
+		LOGGER.debug("Stochastic conformance of {}: {}", net.getId(), result);
+		return result;
+	}
+
+	private static int compareVariants(List<String> first, List<String> second) {
+		int length = Math.min(first.size(), second.size());
+		for (int i=0; i<length; i++) {
+			int comparison = first.get(i).compareTo(second.get(i));
+			if (comparison != 0)
+				return comparison;
+		}
+		return Integer.compare(first.size(), second.size());
+	}
+
+	private double[] modelProbabilities(List<List<String>> variants, AcceptingStochasticNet net) {
+		double[] result = new double[variants.size()];
+		int chunks = (variants.size() + chunkVariants - 1) / chunkVariants;
+		ChunkTask task = new ChunkTask(variants, net, result, 0, chunks);
+		if (pool == null)
+			task.evaluate(0, chunks);
+		else
+			pool.invoke(task);
+		return result;
+	}
+
+	/**
+	 * Entropy of <code>probabilities</code>, or if <code>support</code> is given, the part of it
+	 * from the variants with positive <code>support</code>. The part is not renormalised, so it is
+	 * never more than the whole.
+	 */
+	private static double entropy(double[] probabilities, double[] support) {
+		double entropy = 0;
+		for (int i=0; i<probabilities.length; i++) {
+			if (support == null || support[i] > 0)
+				entropy -= plogp(probabilities[i]);
+		}
+		return entropy;
+	}
+
+	private static double plogp(double probability) {
+		return (probability > 0)? probability * Math.log(probability) / LOG2 : 0;
+	}
+
+	/**
+	 * Entropy of the language of a deterministic automaton, being the sum over states of the
+	 * expected visits times the entropy of the choice made there.
+	 */
+	private static double modelEntropy(StochasticDeterministicFiniteAutomaton sdfa) {
+		int states = sdfa.getStateCount();
+		int[] start = new int[states + 1];
+		int[] target = new int[sdfa.getEdgeCount()];
+		double[] probability = new double[sdfa.getEdgeCount()];
+		for (int state=0; state<states; state++)
+			start[state+1] = sdfa.getEdgeEnd(state);
+		for (int edge=0; edge<target.length; edge++) {
+			target[edge] = sdfa.getEdgeTarget(edge);
+			probability[edge] = sdfa.getEdgeProbability(edge);
+		}
+		double[] visits = SilentClosures.visits(states, start, target, probability);
+		double entropy = 0;
+		for (int state=0; state<states; state++) {
+			if (visits[state] == 0)
+				continue;
+			double choice = -plogp(sdfa.getTerminationProbability(state));
+			for (int edge=start[state]; edge<start[state+1]; edge++)
+				choice -= plogp(probability[edge]);
+			entropy += visits[state] * choice;
+		}
+		return entropy;
+	}
+
+	private class ChunkTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final List<List<String>> variants;
+		private final AcceptingStochasticNet net;
+		private final double[] result;
+		private final int from;
+		private final int to;
+
+		ChunkTask(List<List<String>> variants, AcceptingStochasticNet net, double[] result,
+				int from, int to)
+		{
+			this.variants = variants;
+			this.net = net;
+			this.result = result;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > 1) {
+				int mid = (from + to) >>> 1;
+				invokeAll(new ChunkTask(variants, net, result, from, mid),
+						new ChunkTask(variants, net, result, mid, to));
+				return;
+			}
+			evaluate(from, to);
+		}
+
+		void evaluate(int fromChunk, int toChunk) {
+			for (int chunk=fromChunk; chunk<toChunk; chunk++) {
+				int start = chunk * chunkVariants;
+				int end = Math.min(variants.size(), start + chunkVariants);
+				double[] probabilities = new TraceProbabilityCalculator(net)
+						.traceProbabilities(variants.subList(start, end));
+				System.arraycopy(probabilities, 0, result, start, probabilities.length);
+			}
+		}
+	}
+
+}
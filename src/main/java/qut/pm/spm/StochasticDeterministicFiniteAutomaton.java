@@ -0,0 +1,134 @@
+package qut.pm.spm;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stochastic deterministic finite automaton (SDFA) over transition labels, from
+ * {@link SDFAConverter}. States are numbered from zero, with zero the initial state. Each state
+ * has at most one edge per label, with the probability that label is the next event, and a
+ * probability of the trace ending there.
+ *
+ * Edge and termination probabilities of a state sum to one less whatever mass the source net
+ * loses to deadlocks outside its final markings or to silent livelocks. Edges are held in
+ * compressed rows by source state, sorted by label.
+ */
+public class StochasticDeterministicFiniteAutomaton {
+
+	private final String[] labels;
+	private final Map<String,Integer> labelIndex = new HashMap<>();
+	private final int[] edgeStart;
+	private final int[] edgeLabel;
+	private final int[] edgeTarget;
+	private final double[] edgeProbability;
+	private final double[] termination;
+	private final BitSet incompleteStates;
+
+	StochasticDeterministicFiniteAutomaton(String[] labels, int[] edgeStart, int[] edgeLabel,
+			int[] edgeTarget, double[] edgeProbability, double[] termination,
+			BitSet incompleteStates)
+	{
+		this.labels = labels;
+		for (int i=0; i<labels.length; i++)
+			labelIndex.put(labels[i], i);
+		this.edgeStart = edgeStart;
+		this.edgeLabel = edgeLabel;
+		this.edgeTarget = edgeTarget;
+		this.edgeProbability = edgeProbability;
+		this.termination = termination;
+		this.incompleteStates = incompleteStates;
+	}
+
+	public int getStateCount() {
+		return termination.length;
+	}
+
+	public int getEdgeCount() {
+		return edgeTarget.length;
+	}
+
+	public int getInitialState() {
+		return 0;
+	}
+
+	public int getLabelCount() {
+		return labels.length;
+	}
+
+	public String getLabel(int label) {
+		return labels[label];
+	}
+
+	/**
+	 * Index of <code>label</code>, or -1 if no edge can have it.
+	 */
+	public int labelIndex(String label) {
+		Integer index = labelIndex.get(label);
+		return (index == null)? -1 : index;
+	}
+
+	public double getTerminationProbability(int state) {
+		return termination[state];
+	}
+
+	public boolean isTruncated() {
+		return !incompleteStates.isEmpty();
+	}
+
+	/**
+	 * True if some edges of <code>state</code> were dropped at the converter's state bound.
+	 */
+	public boolean isIncomplete(int state) {
+		return incompleteStates.get(state);
+	}
+
+	public int getEdgeStart(int state) {
+		return edgeStart[state];
+	}
+
+	public int getEdgeEnd(int state) {
+		return edgeStart[state+1];
+	}
+
+	public int getEdgeLabel(int edge) {
+		return edgeLabel[edge];
+	}
+
+	public int getEdgeTarget(int edge) {
+		return edgeTarget[edge];
+	}
+
+	public double getEdgeProbability(int edge) {
+		return edgeProbability[edge];
+	}
+
+	/**
+	 * The edge from <code>state</code> with <code>label</code>, or -1.
+	 */
+	public int findEdge(int state, int label) {
+		int edge = Arrays.binarySearch(edgeLabel, edgeStart[state], edgeStart[state+1], label);
+		return (edge < 0)? -1 : edge;
+	}
+
+	public double traceProbability(List<String> trace) {
+		int state = 0;
+		double probability = 1.0;
+		for (String event: trace) {
+			int label = labelIndex(event);
+			int edge = (label < 0)? -1 : findEdge(state, label);
+			if (edge < 0)
+				return 0;
+			probability *= edgeProbability[edge];
+			state = edgeTarget[edge];
+		}
+		return probability * termination[state];
+	}
+
+	public double traceProbability(String ... trace) {
+		return traceProbability(Arrays.asList(trace));
+	}
+
+}
@@ -0,0 +1,370 @@
+package qut.pm.spm;
+
+import static qut.pm.xes.helpers.XESLogUtils.XES_CONCEPT_NAME;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.deckfour.xes.model.XAttributeMap;
+import org.deckfour.xes.model.XLog;
+import org.deckfour.xes.model.XTrace;
+import org.deckfour.xes.model.impl.XAttributeLiteralImpl;
+import org.deckfour.xes.model.impl.XAttributeMapImpl;
+import org.deckfour.xes.model.impl.XEventImpl;
+import org.deckfour.xes.model.impl.XLogImpl;
+import org.deckfour.xes.model.impl.XTraceImpl;
+import org.processmining.models.semantics.petrinet.Marking;
+
+import qut.pm.prom.helpers.StochasticNetSnapshot;
+import qut.pm.xes.helpers.DelimitedTraceToXESConverter;
+
+/**
+ * Generates traces from an {@link AcceptingStochasticNet} by simulation, choosing each transition
+ * with probability in proportion to its weight as in {@link StochasticSemantics}. Silent
+ * transitions are not recorded. A run which deadlocks outside a final marking, goes on past the
+ * maximum trace length, or fires more than {@link #MAX_SILENT_STEPS} silent transitions in a row,
+ * is discarded and run again, so traces follow the net's stochastic language given termination.
+ *
+ * Traces are made in blocks, each block from its own {@link SplittableRandom} split from the
+ * sampler's seed in order, and blocks run on a fork join pool. Output for a given seed and trace
+ * count is the same however many threads run.
+ *
+ * Each worker keeps the markings it has visited, with the cumulative transition probabilities and
+ * successor of each, so repeated runs through the same markings do not fire transitions again.
+ */
+public class StochasticLogSampler {
+
+	public static final int DEFAULT_MAX_TRACE_LENGTH = 10000;
+
+	private static final int BLOCK_TRACES = 4096;
+	private static final int MAX_REJECTIONS = 100000;
+
+	/**
+	 * Silent firings allowed between visible events before a run is taken to be in a silent
+	 * livelock, which the trace length bound alone would never end.
+	 */
+	public static final int MAX_SILENT_STEPS = 10000;
+
+	private final StochasticNetSnapshot snapshot;
+	private final MarkingCodec codec;
+	private final Marking initialMarking;
+	private final Marking[] finalMarkings;
+	private final int[] transitionLabels;
+	private final String[] labels;
+	private final SplittableRandom random;
+	private final ForkJoinPool pool;
+	private final int maxTraceLength;
+	private final ConcurrentLinkedQueue<Walker> walkers = new ConcurrentLinkedQueue<>();
+
+	public StochasticLogSampler(AcceptingStochasticNet net) {
+		this(net, new SplittableRandom().nextLong());
+	}
+
+	public StochasticLogSampler(AcceptingStochasticNet net, long seed) {
+		this(net, seed, DEFAULT_MAX_TRACE_LENGTH, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 *
+	 * @param net
+	 * @param seed
+	 * @param maxTraceLength runs with more visible events than this are discarded
+	 * @param pool
+	 */
+	public StochasticLogSampler(AcceptingStochasticNet net, long seed, int maxTraceLength,
+			ForkJoinPool pool)
+	{
+		this.snapshot = new StochasticNetSnapshot(net.getNet());
+		this.codec = new MarkingCodec(snapshot);
+		this.initialMarking = net.getInitialMarking();
+		this.finalMarkings = net.getFinalMarkings().toArray(new Marking[0]);
+		this.random = new SplittableRandom(seed);
+		this.maxTraceLength = maxTraceLength;
+		this.pool = pool;
+		int transitionCount = snapshot.getTransitionCount();
+		transitionLabels = new int[transitionCount];
+		Map<String,Integer> labelIndex = new HashMap<>();
+		List<String> labelList = new ArrayList<>();
+		for (int t=0; t<transitionCount; t++) {
+			if (snapshot.isInvisible(t)) {
+				transitionLabels[t] = -1;
+				continue;
+			}
+			String label = snapshot.getTransitionLabel(t);
+			Integer index = labelIndex.get(label);
+			if (index == null) {
+				index = labelList.size();
+				labelList.add(label);
+				labelIndex.put(label, index);
+			}
+			transitionLabels[t] = index;
+		}
+		labels = labelList.toArray(new String[0]);
+	}
+
+	public XLog sampleLog(int traceCount) {
+		XLog result = new XLogImpl(new XAttributeMapImpl());
+		try {
+			generate(traceCount, false, block -> {
+				for (int trace=0; trace<block.traceCount; trace++)
+					result.add(block.toXTrace(trace, labels));
+			});
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		return result;
+	}
+
+	/**
+	 * Write traces in the delimited format read by {@link DelimitedTraceToXESConverter}, one trace
+	 * per line. Only a few blocks of traces are held in memory at once. Labels containing the
+	 * event delimiter are not escaped.
+	 *
+	 * @throws IllegalStateException if an empty trace is sampled, as its empty line would end the
+	 * log when read back. Traces already written stay in <code>writer</code>.
+	 */
+	public void writeDelimited(int traceCount, Writer writer) throws IOException {
+		generate(traceCount, true, block -> writer.append(block.text));
+		writer.flush();
+	}
+
+	private interface BlockConsumer {
+		void accept(Block block) throws IOException;
+	}
+
+	private void generate(int traceCount, boolean text, BlockConsumer consumer) throws IOException {
+		int window = Math.max(2, pool.getParallelism() * 2);
+		Deque<Future<Block>> pending = new ArrayDeque<>();
+		int submitted = 0;
+		while (submitted < traceCount || !pending.isEmpty()) {
+			while (submitted < traceCount && pending.size() < window) {
+				int count = Math.min(BLOCK_TRACES, traceCount - submitted);
+				SplittableRandom blockRandom = random.split();
+				pending.add(pool.submit(() -> sampleBlock(count, blockRandom, text)));
+				submitted += count;
+			}
+			consumer.accept(await(pending.poll()));
+		}
+	}
+
+	private static Block await(Future<Block> future) {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException)e.getCause();
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	private Block sampleBlock(int count, SplittableRandom blockRandom, boolean text) {
+		Walker walker = walkers.poll();
+		if (walker == null)
+			walker = new Walker();
+		try {
+			Block block = new Block(count);
+			for (int trace=0; trace<count; trace++)
+				walker.sample(blockRandom, block);
+			if (text)
+				block.format(labels);
+			return block;
+		} finally {
+			walkers.add(walker);
+		}
+	}
+
+	/**
+	 * Traces as label indexes end to end.
+	 */
+	private static class Block {
+		final int[] traceEnd;
+		int traceCount = 0;
+		int[] events = new int[1024];
+		int eventCount = 0;
+		StringBuilder text;
+
+		Block(int traces) {
+			traceEnd = new int[traces];
+		}
+
+		void addEvent(int label) {
+			if (eventCount == events.length)
+				events = Arrays.copyOf(events, eventCount * 2);
+			events[eventCount++] = label;
+		}
+
+		int traceStart(int trace) {
+			return (trace == 0)? 0 : traceEnd[trace-1];
+		}
+
+		XTrace toXTrace(int trace, String[] labels) {
+			XTrace result = new XTraceImpl(new XAttributeMapImpl());
+			for (int i=traceStart(trace); i<traceEnd[trace]; i++) {
+				XAttributeMap eventAttrMap = new XAttributeMapImpl();
+				eventAttrMap.put(XES_CONCEPT_NAME,
+						new XAttributeLiteralImpl(XES_CONCEPT_NAME, labels[events[i]]));
+				result.add(new XEventImpl(eventAttrMap));
+			}
+			return result;
+		}
+
+		void format(String[] labels) {
+			text = new StringBuilder(eventCount * 8);
+			for (int trace=0; trace<traceCount; trace++) {
+				if (traceStart(trace) == traceEnd[trace])
+					throw new IllegalStateException("Sampled an empty trace, which a delimited log "
+							+ "cannot hold, as an empty line ends the log");
+				for (int i=traceStart(trace); i<traceEnd[trace]; i++) {
+					if (i > traceStart(trace))
+						text.append(DelimitedTraceToXESConverter.DEFAULT_EVENT_DELIMITER);
+					text.append(labels[events[i]]);
+				}
+				text.append(DelimitedTraceToXESConverter.DEFAULT_TRACE_DELIMITER);
+			}
+		}
+	}
+
+	/**
+	 * Lazily expanded state space for one thread at a time. Each expanded state has a row of
+	 * successors with cumulative probabilities.
+	 */
+	private class Walker {
+		private final StochasticSemantics semantics = new StochasticSemantics(snapshot);
+		private final StateTable states = new StateTable(codec.getWords());
+		private final BitSet finalStates = new BitSet();
+		private final int initialState;
+		private int[] rowStart = new int[1024];
+		private int[] rowEnd = new int[1024];
+		private int[] edgeTransition = new int[1024];
+		private int[] edgeTarget = new int[1024];
+		private double[] edgeCumulative = new double[1024];
+		private int edgeCount = 0;
+		private final long[] key = new long[codec.getWords()];
+		private final int[] tokens = new int[codec.getPlaceCount()];
+		private final int[] next = new int[codec.getPlaceCount()];
+		private final int[] enabled = new int[snapshot.getTransitionCount()];
+		private final double[] probabilities = new double[snapshot.getTransitionCount()];
+
+		Walker() {
+			Arrays.fill(rowStart, -1);
+			initialState = intern(codec.encode(initialMarking));
+			for (Marking finalMarking: finalMarkings)
+				finalStates.set(intern(codec.encode(finalMarking)));
+		}
+
+		void sample(SplittableRandom rng, Block block) {
+			int start = block.eventCount;
+			for (int rejections=0; rejections<MAX_REJECTIONS; rejections++) {
+				block.eventCount = start;
+				int state = initialState;
+				int length = 0;
+				int silentSteps = 0;
+				while (length <= maxTraceLength && silentSteps <= MAX_SILENT_STEPS) {
+					int row = expand(state);
+					int end = rowEnd[state];
+					if (row == end) {
+						if (!finalStates.get(state))
+							break;
+						block.traceEnd[block.traceCount++] = block.eventCount;
+						return;
+					}
+					int edge = choose(row, end, rng.nextDouble());
+					int label = transitionLabels[edgeTransition[edge]];
+					if (label >= 0) {
+						block.addEvent(label);
+						length++;
+						silentSteps = 0;
+					}else {
+						silentSteps++;
+					}
+					state = edgeTarget[edge];
+				}
+			}
+			throw new IllegalStateException("No run reached a final deadlock within "
+					+ maxTraceLength + " events and " + MAX_SILENT_STEPS + " silent steps in "
+					+ MAX_REJECTIONS + " attempts");
+		}
+
+		private int choose(int row, int end, double u) {
+			if (end - row <= 8) {
+				for (int edge=row; edge<end-1; edge++) {
+					if (u < edgeCumulative[edge])
+						return edge;
+				}
+				return end - 1;
+			}
+			int low = row;
+			int high = end - 1;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (u < edgeCumulative[mid])
+					high = mid;
+				else
+					low = mid + 1;
+			}
+			return low;
+		}
+
+		private int intern(long[] packed) {
+			int state = states.add(packed, 0);
+			if (state < 0)
+				return -(state + 1);
+			if (state >= rowStart.length) {
+				int old = rowStart.length;
+				rowStart = Arrays.copyOf(rowStart, old * 2);
+				rowEnd = Arrays.copyOf(rowEnd, old * 2);
+				Arrays.fill(rowStart, old, rowStart.length, -1);
+			}
+			return state;
+		}
+
+		/**
+		 * @return the first edge of <code>state</code>, expanding it if needed
+		 */
+		private int expand(int state) {
+			if (rowStart[state] >= 0)
+				return rowStart[state];
+			states.get(state, key, 0);
+			codec.decode(key, 0, tokens);
+			int count = semantics.enabled(tokens, enabled, probabilities);
+			if (edgeCount + count > edgeTarget.length) {
+				int capacity = Math.max(edgeTarget.length * 2, edgeCount + count);
+				edgeTransition = Arrays.copyOf(edgeTransition, capacity);
+				edgeTarget = Arrays.copyOf(edgeTarget, capacity);
+				edgeCumulative = Arrays.copyOf(edgeCumulative, capacity);
+			}
+			int row = edgeCount;
+			double cumulative = 0;
+			for (int i=0; i<count; i++) {
+				semantics.fire(tokens, enabled[i], next);
+				codec.encode(next, key, 0);
+				int target = intern(key);
+				cumulative += probabilities[i];
+				edgeTransition[edgeCount] = enabled[i];
+				edgeTarget[edgeCount] = target;
+				edgeCumulative[edgeCount] = cumulative;
+				edgeCount++;
+			}
+			rowStart[state] = row;
+			rowEnd[state] = edgeCount;
+			return row;
+		}
+	}
+
+}
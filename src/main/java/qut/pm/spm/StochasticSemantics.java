@@ -0,0 +1,149 @@
+package qut.pm.spm;
+
+import java.util.Arrays;
+
+import org.processmining.models.graphbased.directed.petrinet.StochasticNet.DistributionType;
+
+import qut.pm.prom.helpers.StochasticNetSnapshot;
+
+/**
+ * Firing rules for a stochastic net over token count vectors indexed by the places of a
+ * {@link StochasticNetSnapshot}.
+ *
+ * A transition is enabled when each input place holds at least the arc weight in tokens.
+ * Enabled immediate transitions take priority, so timed transitions are only enabled when no
+ * immediate transition is. Among the enabled transitions, each fires with probability in
+ * proportion to its weight, which for timed transitions with exponential rates is the
+ * probability of it firing first. Transitions which are not <code>TimedTransition</code>s are
+ * treated as immediate with weight 1.
+ *
+ * Instances hold scratch space and should be used by one thread at a time.
+ */
+public class StochasticSemantics {
+
+	private final StochasticNetSnapshot snapshot;
+	private final StochasticNetSnapshot.Csr inputs;
+	private final StochasticNetSnapshot.Csr outputs;
+	private final StochasticNetSnapshot.Csr placeOutputs;
+	private final boolean[] immediate;
+	private final double[] weights;
+	private final int[] sourceTransitions;
+	private final int[] seen;
+	private int seenStamp = 0;
+
+	public StochasticSemantics(StochasticNetSnapshot snapshot) {
+		this.snapshot = snapshot;
+		this.inputs = snapshot.getTransitionInputs();
+		this.outputs = snapshot.getTransitionOutputs();
+		this.placeOutputs = snapshot.getPlaceOutputs();
+		int transitionCount = snapshot.getTransitionCount();
+		immediate = new boolean[transitionCount];
+		weights = new double[transitionCount];
+		int sources = 0;
+		for (int t=0; t<transitionCount; t++) {
+			DistributionType type = snapshot.getDistributionType(t);
+			immediate[t] = (type == null || type == DistributionType.IMMEDIATE);
+			weights[t] = (type == null)? 1.0 : snapshot.getWeight(t);
+			if (inputs.degree(t) == 0)
+				sources++;
+		}
+		sourceTransitions = new int[sources];
+		sources = 0;
+		for (int t=0; t<transitionCount; t++) {
+			if (inputs.degree(t) == 0)
+				sourceTransitions[sources++] = t;
+		}
+		seen = new int[transitionCount];
+	}
+
+	public StochasticNetSnapshot getSnapshot() {
+		return snapshot;
+	}
+
+	public int getTransitionCount() {
+		return snapshot.getTransitionCount();
+	}
+
+	public boolean isImmediate(int transition) {
+		return immediate[transition];
+	}
+
+	public double getWeight(int transition) {
+		return weights[transition];
+	}
+
+	public boolean isEnabled(int[] tokens, int transition) {
+		for (int i=inputs.start(transition); i<inputs.end(transition); i++) {
+			if (tokens[inputs.target(i)] < inputs.weight(i))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Transitions which may fire next from <code>tokens</code>, in ascending order, with the
+	 * probability of each. Only transitions with a marked input place, or no input places, are
+	 * checked.
+	 *
+	 * @param tokens
+	 * @param transitions at least as long as the number of transitions
+	 * @param probabilities at least as long as the number of transitions
+	 * @return the number of transitions which may fire, zero for a deadlock
+	 */
+	public int enabled(int[] tokens, int[] transitions, double[] probabilities) {
+		if (++seenStamp == Integer.MAX_VALUE) {
+			Arrays.fill(seen, 0);
+			seenStamp = 1;
+		}
+		int count = 0;
+		boolean anyImmediate = false;
+		for (int t: sourceTransitions) {
+			transitions[count++] = t;
+			anyImmediate |= immediate[t];
+		}
+		for (int place=0; place<tokens.length; place++) {
+			if (tokens[place] == 0)
+				continue;
+			for (int i=placeOutputs.start(place); i<placeOutputs.end(place); i++) {
+				int t = placeOutputs.target(i);
+				if (seen[t] == seenStamp)
+					continue;
+				seen[t] = seenStamp;
+				if (isEnabled(tokens, t)) {
+					transitions[count++] = t;
+					anyImmediate |= immediate[t];
+				}
+			}
+		}
+		if (anyImmediate) {
+			int kept = 0;
+			for (int i=0; i<count; i++) {
+				if (immediate[transitions[i]])
+					transitions[kept++] = transitions[i];
+			}
+			count = kept;
+		}
+		Arrays.sort(transitions, 0, count);
+		double total = 0;
+		for (int i=0; i<count; i++)
+			total += weights[transitions[i]];
+		for (int i=0; i<count; i++) {
+			probabilities[i] = (total > 0)? weights[transitions[i]] / total : 1.0 / count;
+		}
+		return count;
+	}
+
+	/**
+	 * Fire <code>transition</code> from <code>tokens</code>, writing the result to
+	 * <code>result</code>, which may be the same array.
+	 */
+	public void fire(int[] tokens, int transition, int[] result) {
+		if (result != tokens)
+			System.arraycopy(tokens, 0, result, 0, tokens.length);
+		for (int i=inputs.start(transition); i<inputs.end(transition); i++)
+			result[inputs.target(i)] -= inputs.weight(i);
+		for (int i=outputs.start(transition); i<outputs.end(transition); i++)
+			result[outputs.target(i)] += outputs.weight(i);
+	}
+
+}
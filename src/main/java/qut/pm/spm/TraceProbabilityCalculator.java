@@ -0,0 +1,198 @@
+package qut.pm.spm;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+import org.deckfour.xes.classification.XEventClassifier;
+import org.deckfour.xes.classification.XEventNameClassifier;
+import org.deckfour.xes.model.XLog;
+import org.deckfour.xes.model.XTrace;
+
+import qut.pm.xes.helpers.TraceVariantIndex;
+
+/**
+ * Probability that an {@link AcceptingStochasticNet} produces a trace. A run produces a trace when
+ * its visible transition labels are the trace and it ends in a deadlock which is one of the final
+ * markings. Transitions fire with probability in proportion to their weight among the enabled
+ * transitions, immediate transitions first, as in {@link StochasticSemantics}. Silent transitions,
+ * including silent cycles, are summed over by {@link SilentClosures}.
+ *
+ * A log is evaluated over a {@link TraceVariantIndex} of its traces. The distribution over
+ * markings after each prefix is computed once and shared by every trace with that prefix, and the
+ * silent closure of each marking is computed once and kept across calls. A calculator holds on to
+ * every marking it has seen, so use a new one for an unrelated net or when memory matters.
+ *
+ * Not thread safe.
+ */
+public class TraceProbabilityCalculator {
+
+	private static final XEventClassifier NAME_CLASSIFIER = new XEventNameClassifier();
+
+	private final SilentClosures closures;
+	// scratch for accumulating the next distribution, indexed by state
+	private int[] slotStamp = new int[0];
+	private int[] slot = new int[0];
+	private int stamp = 0;
+
+	public TraceProbabilityCalculator(AcceptingStochasticNet net) {
+		this(net, MarkingCodec.DEFAULT_BITS_PER_PLACE);
+	}
+
+	public TraceProbabilityCalculator(AcceptingStochasticNet net, int bitsPerPlace) {
+		closures = new SilentClosures(net, bitsPerPlace);
+	}
+
+	/**
+	 * Number of distinct markings seen so far.
+	 */
+	public int getMarkingCount() {
+		return closures.getStateCount();
+	}
+
+	public double traceProbability(List<String> trace) {
+		TraceVariantIndex index = new TraceVariantIndex();
+		index.addTrace(trace);
+		return variantProbabilities(index)[0];
+	}
+
+	public double traceProbability(String ... trace) {
+		return traceProbability(Arrays.asList(trace));
+	}
+
+	public double traceProbability(XTrace trace, XEventClassifier classifier) {
+		TraceVariantIndex index = new TraceVariantIndex();
+		index.addTrace(trace, classifier);
+		return variantProbabilities(index)[0];
+	}
+
+	/**
+	 * Probability of each trace, sharing work between traces with common prefixes.
+	 */
+	public double[] traceProbabilities(List<List<String>> traces) {
+		TraceVariantIndex index = new TraceVariantIndex();
+		int[] traceVariants = new int[traces.size()];
+		int trace = 0;
+		for (List<String> events: traces)
+			traceVariants[trace++] = index.addTrace(events);
+		return byTrace(variantProbabilities(index), traceVariants);
+	}
+
+	/**
+	 * Probability of each trace in <code>log</code>, in log order.
+	 */
+	public double[] traceProbabilities(XLog log, XEventClassifier classifier) {
+		TraceVariantIndex index = new TraceVariantIndex();
+		int[] traceVariants = new int[log.size()];
+		int trace = 0;
+		for (XTrace events: log)
+			traceVariants[trace++] = index.addTrace(events, classifier);
+		return byTrace(variantProbabilities(index), traceVariants);
+	}
+
+	/**
+	 * Probability of each trace in <code>log</code>, classifying events by name.
+	 */
+	public double[] traceProbabilities(XLog log) {
+		return traceProbabilities(log, NAME_CLASSIFIER);
+	}
+
+	private static double[] byTrace(double[] variantProbabilities, int[] traceVariants) {
+		double[] result = new double[traceVariants.length];
+		for (int trace=0; trace<result.length; trace++)
+			result[trace] = variantProbabilities[traceVariants[trace]];
+		return result;
+	}
+
+	/**
+	 * Probability of each variant of <code>index</code>, by variant number. The distribution over
+	 * markings after each prefix in the index is computed once.
+	 */
+	public double[] variantProbabilities(TraceVariantIndex index) {
+		int[] labels = new int[index.getActivityCount()];
+		for (int activity=0; activity<labels.length; activity++)
+			labels[activity] = closures.labelIndex(index.getActivity(activity));
+		double[] result = new double[index.getVariantCount()];
+		Deque<Frame> stack = new ArrayDeque<>();
+		stack.push(new Frame(TraceVariantIndex.ROOT,
+				new int[] {closures.getInitialState()}, new double[] {1.0}, 1));
+		while (!stack.isEmpty()) {
+			Frame frame = stack.pop();
+			int node = frame.node;
+			int variant = index.getNodeVariant(node);
+			if (variant >= 0) {
+				double termination = 0;
+				for (int i=0; i<frame.size; i++)
+					termination += frame.probabilities[i] * closures.get(frame.states[i]).termination;
+				result[variant] = termination;
+			}
+			for (int child=index.getFirstChild(node); child>=0; child=index.getNextSibling(child)) {
+				Frame next = step(frame, child, labels[index.getNodeActivity(child)]);
+				if (next.size > 0)
+					stack.push(next);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Distribution over markings after the visible step <code>label</code>, unnormalised.
+	 */
+	private Frame step(Frame frame, int node, int label) {
+		if (label < 0)
+			return new Frame(node, new int[0], new double[0], 0);
+		if (++stamp == Integer.MAX_VALUE) {
+			Arrays.fill(slotStamp, 0);
+			stamp = 1;
+		}
+		int[] states = new int[Math.max(4, frame.size)];
+		double[] probabilities = new double[states.length];
+		int size = 0;
+		for (int i=0; i<frame.size; i++) {
+			SilentClosures.Closure closure = closures.get(frame.states[i]);
+			ensureScratch(closures.getStateCount());
+			for (int j=closure.labelStart(label); j<closure.labels.length && closure.labels[j] == label; j++) {
+				int target = closure.targets[j];
+				double probability = frame.probabilities[i] * closure.probabilities[j];
+				if (slotStamp[target] == stamp) {
+					probabilities[slot[target]] += probability;
+					continue;
+				}
+				if (size == states.length) {
+					states = Arrays.copyOf(states, size * 2);
+					probabilities = Arrays.copyOf(probabilities, size * 2);
+				}
+				slotStamp[target] = stamp;
+				slot[target] = size;
+				states[size] = target;
+				probabilities[size] = probability;
+				size++;
+			}
+		}
+		return new Frame(node, states, probabilities, size);
+	}
+
+	private void ensureScratch(int stateCount) {
+		if (slotStamp.length >= stateCount)
+			return;
+		int capacity = Math.max(stateCount, slotStamp.length * 2);
+		slotStamp = Arrays.copyOf(slotStamp, capacity);
+		slot = Arrays.copyOf(slot, capacity);
+	}
+
+	private static class Frame {
+		final int node;
+		final int[] states;
+		final double[] probabilities;
+		final int size;
+
+		Frame(int node, int[] states, double[] probabilities, int size) {
+			this.node = node;
+			this.states = states;
+			this.probabilities = probabilities;
+			this.size = size;
+		}
+	}
+
+}
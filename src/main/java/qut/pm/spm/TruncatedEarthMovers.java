@@ -0,0 +1,558 @@
+package qut.pm.spm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Truncated earth movers' stochastic conformance (tEMSC) of a log and a model language, being one
+ * less the least cost of moving the log's variant distribution onto the model's trace
+ * distribution. Moving probability mass between two traces costs their Levenshtein distance
+ * divided by the length of the longer.
+ *
+ * The model language may be infinite, so only its most likely traces are listed, best first
+ * from its {@link StochasticDeterministicFiniteAutomaton}, until they hold the truncation mass.
+ * The model mass not listed is taken to be at distance one from every log variant, so the result
+ * is a lower bound on the untruncated measure.
+ *
+ * The transport problem is solved exactly as a minimum cost flow over dense cost and flow
+ * matrices, so time and memory grow with the product of the numbers of log variants and listed
+ * model traces. Fewer traces are listed where that product would pass {@link #MAX_COST_CELLS},
+ * which lowers the bound but keeps the matrices to tens of megabytes.
+ */
+class TruncatedEarthMovers {
+
+	private static Logger LOGGER = LogManager.getLogger();
+
+	/**
+	 * Listing stops once the model mass left unexplored is below this.
+	 */
+	private static final double UNEXPLORED_EPSILON = 1.0E-12;
+	private static final int MAX_EXPANSIONS = 1 << 18;
+	private static final double MASS_EPSILON = 1.0E-12;
+	private static final int DISTANCE_ROWS = 64;
+	/**
+	 * Most entries in the cost matrix, each with one in the flow matrix.
+	 */
+	static final int MAX_COST_CELLS = 1 << 22;
+
+	private final StochasticDeterministicFiniteAutomaton sdfa;
+	private final double truncationMass;
+	private final int maxModelTraces;
+	private final ForkJoinPool pool;
+	private final List<int[]> modelTraces = new ArrayList<>();
+	private double[] modelProbabilities = new double[16];
+
+	/**
+	 * @param sdfa model language
+	 * @param truncationMass model probability mass to list traces up to
+	 * @param maxModelTraces most model traces to list, whatever their mass
+	 * @param pool for computing distances in parallel, or null to run in the calling thread
+	 */
+	TruncatedEarthMovers(StochasticDeterministicFiniteAutomaton sdfa, double truncationMass,
+			int maxModelTraces, ForkJoinPool pool)
+	{
+		this.sdfa = sdfa;
+		this.truncationMass = truncationMass;
+		this.maxModelTraces = maxModelTraces;
+		this.pool = pool;
+	}
+
+	private static final class Prefix {
+		final Prefix parent;
+		final int label;
+		final int state;
+		final int length;
+		final double probability;
+		final boolean complete;
+
+		Prefix(Prefix parent, int label, int state, int length, double probability,
+				boolean complete)
+		{
+			this.parent = parent;
+			this.label = label;
+			this.state = state;
+			this.length = length;
+			this.probability = probability;
+			this.complete = complete;
+		}
+
+		int[] toTrace() {
+			int[] trace = new int[length];
+			for (Prefix prefix = complete? parent : this; prefix.parent != null; prefix = prefix.parent)
+				trace[prefix.length-1] = prefix.label;
+			return trace;
+		}
+	}
+
+	/**
+	 * List the most likely model traces in order of probability. A complete trace leaves the
+	 * queue only after every prefix more likely than it, and so after every more likely trace.
+	 *
+	 * @param limit most traces to list
+	 * @return the mass listed
+	 */
+	double listModelTraces(int limit) {
+		PriorityQueue<Prefix> queue = new PriorityQueue<>(
+				(p1, p2) -> Double.compare(p2.probability, p1.probability));
+		queue.add(new Prefix(null, -1, sdfa.getInitialState(), 0, 1.0, false));
+		double unexplored = 1.0;
+		double mass = 0;
+		int expansions = 0;
+		while (!queue.isEmpty() && mass < truncationMass && modelTraces.size() < limit
+				&& unexplored > UNEXPLORED_EPSILON)
+		{
+			Prefix prefix = queue.poll();
+			unexplored -= prefix.probability;
+			if (prefix.complete) {
+				if (modelTraces.size() == modelProbabilities.length)
+					modelProbabilities = Arrays.copyOf(modelProbabilities, modelProbabilities.length * 2);
+				modelProbabilities[modelTraces.size()] = prefix.probability;
+				modelTraces.add(prefix.toTrace());
+				mass += prefix.probability;
+				continue;
+			}
+			if (++expansions > MAX_EXPANSIONS) {
+				LOGGER.debug("Model language listing stopped after {} prefixes", MAX_EXPANSIONS);
+				break;
+			}
+			int state = prefix.state;
+			double termination = prefix.probability * sdfa.getTerminationProbability(state);
+			if (termination > 0) {
+				queue.add(new Prefix(prefix, -1, state, prefix.length, termination, true));
+				unexplored += termination;
+			}
+			for (int edge=sdfa.getEdgeStart(state); edge<sdfa.getEdgeEnd(state); edge++) {
+				double probability = prefix.probability * sdfa.getEdgeProbability(edge);
+				if (probability <= 0)
+					continue;
+				queue.add(new Prefix(prefix, sdfa.getEdgeLabel(edge), sdfa.getEdgeTarget(edge),
+						prefix.length+1, probability, false));
+				unexplored += probability;
+			}
+		}
+		return mass;
+	}
+
+	/**
+	 * @param variants log variants
+	 * @param logProbabilities probability of each variant, summing to one
+	 */
+	double calculate(List<List<String>> variants, double[] logProbabilities) {
+		int limit = Math.min(maxModelTraces,
+				Math.max(1, MAX_COST_CELLS / Math.max(1, variants.size()) - 1));
+		if (limit < maxModelTraces)
+			LOGGER.debug("Listing at most {} model traces for {} log variants", limit, variants.size());
+		double mass = listModelTraces(limit);
+		int m = modelTraces.size();
+		// labels the model does not have get distinct negative ids
+		Map<String,Integer> unknownLabels = new HashMap<>();
+		int[][] logTraces = new int[variants.size()][];
+		for (int v=0; v<logTraces.length; v++) {
+			List<String> variant = variants.get(v);
+			int[] trace = new int[variant.size()];
+			for (int i=0; i<trace.length; i++) {
+				String label = variant.get(i);
+				int id = sdfa.labelIndex(label);
+				if (id < 0)
+					id = unknownLabels.computeIfAbsent(label, l -> -1 - unknownLabels.size());
+				trace[i] = id;
+			}
+			logTraces[v] = trace;
+		}
+		// the last column is the unlisted model mass
+		double[] demand = Arrays.copyOf(modelProbabilities, m+1);
+		demand[m] = Math.max(0, 1.0 - mass);
+		double[][] cost = new double[logTraces.length][m+1];
+		DistanceTask task = new DistanceTask(logTraces, cost, 0, logTraces.length);
+		if (pool == null)
+			task.compute();
+		else
+			pool.invoke(task);
+		double result = 1.0 - transportCost(logProbabilities, demand, cost);
+		LOGGER.debug("tEMSC {} over {} model traces holding mass {}", result, m, mass);
+		return result;
+	}
+
+	private class DistanceTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final int[][] logTraces;
+		private final double[][] cost;
+		private final int from;
+		private final int to;
+
+		DistanceTask(int[][] logTraces, double[][] cost, int from, int to) {
+			this.logTraces = logTraces;
+			this.cost = cost;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from > DISTANCE_ROWS && pool != null) {
+				int mid = (from + to) >>> 1;
+				invokeAll(new DistanceTask(logTraces, cost, from, mid),
+						new DistanceTask(logTraces, cost, mid, to));
+				return;
+			}
+			int m = modelTraces.size();
+			int[] row = new int[1];
+			for (int v=from; v<to; v++) {
+				for (int t=0; t<m; t++) {
+					int[] modelTrace = modelTraces.get(t);
+					if (row.length < modelTrace.length + 1)
+						row = new int[modelTrace.length + 1];
+					cost[v][t] = normalisedLevenshtein(logTraces[v], modelTrace, row);
+				}
+				cost[v][m] = 1.0;
+			}
+		}
+	}
+
+	/**
+	 * Edit distance divided by the length of the longer trace, or zero for two empty traces.
+	 *
+	 * @param row scratch of at least <code>second.length+1</code>
+	 */
+	static double normalisedLevenshtein(int[] first, int[] second, int[] row) {
+		int longer = Math.max(first.length, second.length);
+		if (longer == 0)
+			return 0;
+		for (int j=0; j<=second.length; j++)
+			row[j] = j;
+		for (int i=1; i<=first.length; i++) {
+			int diagonal = row[0];
+			row[0] = i;
+			for (int j=1; j<=second.length; j++) {
+				int above = row[j];
+				int substitution = diagonal + ((first[i-1] == second[j-1])? 0 : 1);
+				row[j] = Math.min(substitution, Math.min(above, row[j-1]) + 1);
+				diagonal = above;
+			}
+		}
+		return row[second.length] / (double)longer;
+	}
+
+	/**
+	 * Least total cost of moving <code>supply</code> onto <code>demand</code>, which have equal
+	 * sums.
+	 */
+	static double transportCost(double[] supply, double[] demand, double[][] cost) {
+		return new Transport(supply, demand, cost).solve();
+	}
+
+	/**
+	 * Primal dual minimum cost flow from a source through the supplies and demands to a sink,
+	 * nodes being numbered in that order. Each phase runs Dijkstra's algorithm over reduced
+	 * costs to update the node potentials, which keeps reduced costs non-negative, then pushes
+	 * blocking flows along edges of zero reduced cost until none reach the sink. There is one
+	 * phase per distinct shortest path cost rather than one per augmenting path, and normalised
+	 * edit distances between short traces take few distinct values.
+	 */
+	private static class Transport {
+		private static final double REDUCED_EPSILON = 1.0E-9;
+
+		private final int n;
+		private final int m;
+		private final int source;
+		private final int sink;
+		private final int nodes;
+		private final double[][] cost;
+		private final double[] restSupply;
+		private final double[] restDemand;
+		private final double[][] flow;
+		private final double[] potential;
+		private final double[] distance;
+		private final boolean[] done;
+		private final NodeHeap heap;
+		private final int[] level;
+		private final int[] queue;
+		private final int[] nextArc;
+		private final int[] path;
+		private double remaining = 0;
+
+		Transport(double[] supply, double[] demand, double[][] cost) {
+			n = supply.length;
+			m = demand.length;
+			source = 0;
+			sink = n + m + 1;
+			nodes = n + m + 2;
+			this.cost = cost;
+			restSupply = supply.clone();
+			restDemand = demand.clone();
+			flow = new double[n][m];
+			potential = new double[nodes];
+			distance = new double[nodes];
+			done = new boolean[nodes];
+			heap = new NodeHeap(distance);
+			level = new int[nodes];
+			queue = new int[nodes];
+			nextArc = new int[nodes];
+			path = new int[nodes];
+			for (double s: supply)
+				remaining += s;
+		}
+
+		double solve() {
+			while (remaining > MASS_EPSILON && shortestPaths()) {
+				while (remaining > MASS_EPSILON && levels()) {
+					Arrays.fill(nextArc, 0);
+					while (remaining > MASS_EPSILON && augment())
+						;
+				}
+			}
+			double total = 0;
+			for (int i=0; i<n; i++) {
+				for (int j=0; j<m; j++)
+					total += flow[i][j] * cost[i][j];
+			}
+			return total;
+		}
+
+		private double reduced(int from, int to, double edgeCost) {
+			return edgeCost + potential[from] - potential[to];
+		}
+
+		/**
+		 * Residual capacity of the edge from <code>from</code> to <code>to</code> if it has
+		 * any, else zero. Edges from supplies to demands are uncapacitated.
+		 */
+		private double capacity(int from, int to) {
+			if (from == source)
+				return restSupply[to-1];
+			if (from <= n)
+				return Double.POSITIVE_INFINITY;
+			if (to == sink)
+				return restDemand[from-1-n];
+			return flow[to-1][from-1-n];
+		}
+
+		private double edgeCost(int from, int to) {
+			if (from == source || to == sink)
+				return 0;
+			if (from <= n)
+				return cost[from-1][to-1-n];
+			return -cost[to-1][from-1-n];
+		}
+
+		/**
+		 * Number of edges out of a node, with capacity or not.
+		 */
+		private int arcCount(int node) {
+			if (node == sink)
+				return 0;
+			if (node == source)
+				return n;
+			if (node <= n)
+				return m;
+			return n + 1;
+		}
+
+		private int arcTarget(int node, int arc) {
+			if (node == source)
+				return 1 + arc;
+			if (node <= n)
+				return 1 + n + arc;
+			return (arc == n)? sink : 1 + arc;
+		}
+
+		private boolean residual(int from, int to) {
+			return capacity(from, to) > MASS_EPSILON;
+		}
+
+		/**
+		 * Dijkstra from the source, then raise potentials by the distances.
+		 *
+		 * @return false if the sink cannot be reached
+		 */
+		private boolean shortestPaths() {
+			Arrays.fill(distance, Double.POSITIVE_INFINITY);
+			Arrays.fill(done, false);
+			distance[source] = 0;
+			heap.clear();
+			heap.update(source);
+			while (!heap.isEmpty()) {
+				int u = heap.poll();
+				if (u == sink)
+					break;
+				done[u] = true;
+				for (int arc=0; arc<arcCount(u); arc++) {
+					int v = arcTarget(u, arc);
+					if (done[v] || !residual(u, v))
+						continue;
+					double d = distance[u] + Math.max(0, reduced(u, v, edgeCost(u, v)));
+					if (d < distance[v]) {
+						distance[v] = d;
+						heap.update(v);
+					}
+				}
+			}
+			if (distance[sink] == Double.POSITIVE_INFINITY)
+				return false;
+			for (int node=0; node<nodes; node++)
+				potential[node] += Math.min(distance[node], distance[sink]);
+			return true;
+		}
+
+		private boolean admissible(int from, int to) {
+			return residual(from, to) && reduced(from, to, edgeCost(from, to)) <= REDUCED_EPSILON;
+		}
+
+		/**
+		 * Breadth first levels over admissible edges.
+		 *
+		 * @return true if the sink is reached
+		 */
+		private boolean levels() {
+			Arrays.fill(level, -1);
+			level[source] = 0;
+			queue[0] = source;
+			int head = 0;
+			int tail = 1;
+			while (head < tail) {
+				int u = queue[head++];
+				for (int arc=0; arc<arcCount(u); arc++) {
+					int v = arcTarget(u, arc);
+					if (level[v] < 0 && admissible(u, v)) {
+						level[v] = level[u] + 1;
+						queue[tail++] = v;
+					}
+				}
+			}
+			return level[sink] >= 0;
+		}
+
+		/**
+		 * Push flow along one path of admissible edges up the levels, advancing each node's
+		 * current arc past edges which cannot lead to the sink.
+		 *
+		 * @return false if there is no such path left
+		 */
+		private boolean augment() {
+			int depth = 0;
+			path[0] = source;
+			while (depth >= 0) {
+				int u = path[depth];
+				if (u == sink)
+					break;
+				boolean advanced = false;
+				for (; nextArc[u]<arcCount(u); nextArc[u]++) {
+					int v = arcTarget(u, nextArc[u]);
+					if (level[v] == level[u] + 1 && admissible(u, v)) {
+						path[++depth] = v;
+						advanced = true;
+						break;
+					}
+				}
+				if (!advanced) {
+					level[u] = -1;
+					depth--;
+					if (depth >= 0)
+						nextArc[path[depth]]++;
+				}
+			}
+			if (depth < 0)
+				return false;
+			double amount = Double.POSITIVE_INFINITY;
+			for (int i=0; i<depth; i++)
+				amount = Math.min(amount, capacity(path[i], path[i+1]));
+			for (int i=0; i<depth; i++) {
+				int from = path[i];
+				int to = path[i+1];
+				if (from == source)
+					restSupply[to-1] -= amount;
+				else if (to == sink)
+					restDemand[from-1-n] -= amount;
+				else if (from <= n)
+					flow[from-1][to-1-n] += amount;
+				else
+					flow[to-1][from-1-n] -= amount;
+			}
+			remaining -= amount;
+			return true;
+		}
+	}
+
+	/**
+	 * Binary heap of nodes by distance, with positions kept so a node's key can decrease.
+	 */
+	private static class NodeHeap {
+		private final double[] key;
+		private final int[] heap;
+		private final int[] position;
+		private int size = 0;
+
+		NodeHeap(double[] key) {
+			this.key = key;
+			heap = new int[key.length];
+			position = new int[key.length];
+			Arrays.fill(position, -1);
+		}
+
+		boolean isEmpty() {
+			return size == 0;
+		}
+
+		void clear() {
+			for (int i=0; i<size; i++)
+				position[heap[i]] = -1;
+			size = 0;
+		}
+
+		/**
+		 * Add <code>node</code>, or move it up after its key decreased.
+		 */
+		void update(int node) {
+			int i = position[node];
+			if (i < 0) {
+				i = size++;
+				heap[i] = node;
+			}
+			while (i > 0) {
+				int parent = (i - 1) >>> 1;
+				if (key[heap[parent]] <= key[node])
+					break;
+				heap[i] = heap[parent];
+				position[heap[i]] = i;
+				i = parent;
+			}
+			heap[i] = node;
+			position[node] = i;
+		}
+
+		int poll() {
+			int result = heap[0];
+			position[result] = -1;
+			int last = heap[--size];
+			if (size > 0) {
+				int i = 0;
+				while (true) {
+					int child = 2*i + 1;
+					if (child >= size)
+						break;
+					if (child + 1 < size && key[heap[child+1]] < key[heap[child]])
+						child++;
+					if (key[last] <= key[heap[child]])
+						break;
+					heap[i] = heap[child];
+					position[heap[i]] = i;
+					i = child;
+				}
+				heap[i] = last;
+				position[last] = i;
+			}
+			return result;
+		}
+	}
+
+}
@@ -0,0 +1,106 @@
+package qut.pm.util;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash set of primitive longs. Avoids boxing when sets of packed keys, such as
+ * pairs of int ids, get large. Not thread safe.
+ */
+public class LongHashSet {
+
+	private static final long EMPTY = Long.MIN_VALUE;
+	private static final int MIN_CAPACITY = 16;
+
+	private long[] table;
+	private int size = 0;
+	private boolean containsEmptyKey = false;
+
+	public LongHashSet() {
+		this(MIN_CAPACITY);
+	}
+
+	public LongHashSet(int expectedSize) {
+		int capacity = MIN_CAPACITY;
+		while (capacity < expectedSize * 2)
+			capacity <<= 1;
+		table = new long[capacity];
+		Arrays.fill(table, EMPTY);
+	}
+
+	/**
+	 *
+	 * @param key
+	 * @return true if the key was not already present
+	 */
+	public boolean add(long key) {
+		if (key == EMPTY) {
+			if (containsEmptyKey)
+				return false;
+			containsEmptyKey = true;
+			size++;
+			return true;
+		}
+		int mask = table.length - 1;
+		int slot = hash(key) & mask;
+		while (table[slot] != EMPTY) {
+			if (table[slot] == key)
+				return false;
+			slot = (slot + 1) & mask;
+		}
+		table[slot] = key;
+		size++;
+		if (size * 2 > table.length)
+			rehash(table.length * 2);
+		return true;
+	}
+
+	public boolean contains(long key) {
+		if (key == EMPTY)
+			return containsEmptyKey;
+		int mask = table.length - 1;
+		int slot = hash(key) & mask;
+		while (table[slot] != EMPTY) {
+			if (table[slot] == key)
+				return true;
+			slot = (slot + 1) & mask;
+		}
+		return false;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	private void rehash(int capacity) {
+		long[] old = table;
+		table = new long[capacity];
+		Arrays.fill(table, EMPTY);
+		int mask = capacity - 1;
+		for (long key: old) {
+			if (key == EMPTY)
+				continue;
+			int slot = hash(key) & mask;
+			while (table[slot] != EMPTY)
+				slot = (slot + 1) & mask;
+			table[slot] = key;
+		}
+	}
+
+	/**
+	 * Finalizer step from MurmurHash3, so that keys differing only in high bits spread out.
+	 */
+	public static int hash(long key) {
+		long h = key;
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return (int)h;
+	}
+
+}
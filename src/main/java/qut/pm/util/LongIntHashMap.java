@@ -0,0 +1,96 @@
+package qut.pm.util;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from primitive longs to ints, the map counterpart of
+ * {@link LongHashSet}. Not thread safe.
+ */
+public class LongIntHashMap {
+
+	private static final long EMPTY = Long.MIN_VALUE;
+	private static final int MIN_CAPACITY = 16;
+
+	private long[] keys;
+	private int[] values;
+	private int size = 0;
+	private boolean containsEmptyKey = false;
+	private int emptyKeyValue;
+
+	public LongIntHashMap() {
+		this(MIN_CAPACITY);
+	}
+
+	public LongIntHashMap(int expectedSize) {
+		int capacity = MIN_CAPACITY;
+		while (capacity < expectedSize * 2)
+			capacity <<= 1;
+		keys = new long[capacity];
+		values = new int[capacity];
+		Arrays.fill(keys, EMPTY);
+	}
+
+	/**
+	 *
+	 * @return the value for <code>key</code>, or <code>missing</code> if absent
+	 */
+	public int get(long key, int missing) {
+		if (key == EMPTY)
+			return containsEmptyKey? emptyKeyValue : missing;
+		int mask = keys.length - 1;
+		int slot = LongHashSet.hash(key) & mask;
+		while (keys[slot] != EMPTY) {
+			if (keys[slot] == key)
+				return values[slot];
+			slot = (slot + 1) & mask;
+		}
+		return missing;
+	}
+
+	public void put(long key, int value) {
+		if (key == EMPTY) {
+			if (!containsEmptyKey)
+				size++;
+			containsEmptyKey = true;
+			emptyKeyValue = value;
+			return;
+		}
+		int mask = keys.length - 1;
+		int slot = LongHashSet.hash(key) & mask;
+		while (keys[slot] != EMPTY) {
+			if (keys[slot] == key) {
+				values[slot] = value;
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+		keys[slot] = key;
+		values[slot] = value;
+		size++;
+		if (size * 2 > keys.length)
+			rehash(keys.length * 2);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	private void rehash(int capacity) {
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		keys = new long[capacity];
+		values = new int[capacity];
+		Arrays.fill(keys, EMPTY);
+		int mask = capacity - 1;
+		for (int i=0; i<oldKeys.length; i++) {
+			if (oldKeys[i] == EMPTY)
+				continue;
+			int slot = LongHashSet.hash(oldKeys[i]) & mask;
+			while (keys[slot] != EMPTY)
+				slot = (slot + 1) & mask;
+			keys[slot] = oldKeys[i];
+			values[slot] = oldValues[i];
+		}
+	}
+
+}
@@ -0,0 +1,112 @@
+package qut.pm.util;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash table numbering variable length sequences of longs densely from zero in
+ * the order they are added. Sequences are stored end to end in one array, so there is no object
+ * per key. Not thread safe.
+ */
+public class LongSequenceTable {
+
+	private static final int EMPTY = -1;
+	private static final int MIN_CAPACITY = 16;
+
+	private long[] data = new long[64];
+	private int dataSize = 0;
+	private int[] start = new int[MIN_CAPACITY + 1];
+	private int[] slots;
+	private int size = 0;
+
+	public LongSequenceTable() {
+		slots = new int[MIN_CAPACITY * 2];
+		Arrays.fill(slots, EMPTY);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int length(int id) {
+		return start[id+1] - start[id];
+	}
+
+	public long get(int id, int index) {
+		return data[start[id] + index];
+	}
+
+	/**
+	 *
+	 * @return the id of the sequence, or -1 if absent
+	 */
+	public int find(long[] key, int offset, int length) {
+		int mask = slots.length - 1;
+		int slot = hash(key, offset, length) & mask;
+		while (slots[slot] != EMPTY) {
+			if (equalsKey(slots[slot], key, offset, length))
+				return slots[slot];
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * Add the sequence if not already present.
+	 *
+	 * @return the new id, or <code>-(id + 1)</code> if the sequence was already present
+	 */
+	public int add(long[] key, int offset, int length) {
+		int mask = slots.length - 1;
+		int slot = hash(key, offset, length) & mask;
+		while (slots[slot] != EMPTY) {
+			if (equalsKey(slots[slot], key, offset, length))
+				return -(slots[slot] + 1);
+			slot = (slot + 1) & mask;
+		}
+		if (dataSize + length > data.length)
+			data = Arrays.copyOf(data, Math.max(data.length * 2, dataSize + length));
+		if (size + 2 > start.length)
+			start = Arrays.copyOf(start, start.length * 2);
+		System.arraycopy(key, offset, data, dataSize, length);
+		dataSize += length;
+		slots[slot] = size;
+		size++;
+		start[size] = dataSize;
+		if (size * 2 > slots.length)
+			rehash(slots.length * 2);
+		return size - 1;
+	}
+
+	private boolean equalsKey(int id, long[] key, int offset, int length) {
+		if (length(id) != length)
+			return false;
+		int base = start[id];
+		for (int i=0; i<length; i++) {
+			if (data[base + i] != key[offset + i])
+				return false;
+		}
+		return true;
+	}
+
+	private static int hash(long[] key, int offset, int length) {
+		long h = length;
+		for (int i=0; i<length; i++) {
+			h = (h ^ key[offset + i]) * 0x9e3779b97f4a7c15L;
+			h ^= h >>> 29;
+		}
+		return LongHashSet.hash(h);
+	}
+
+	private void rehash(int capacity) {
+		slots = new int[capacity];
+		Arrays.fill(slots, EMPTY);
+		int mask = capacity - 1;
+		for (int id=0; id<size; id++) {
+			int slot = hash(data, start[id], length(id)) & mask;
+			while (slots[slot] != EMPTY)
+				slot = (slot + 1) & mask;
+			slots[slot] = id;
+		}
+	}
+
+}
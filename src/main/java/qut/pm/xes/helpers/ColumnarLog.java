@@ -0,0 +1,304 @@
+package qut.pm.xes.helpers;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.deckfour.xes.model.XAttributeMap;
+import org.deckfour.xes.model.XLog;
+import org.deckfour.xes.model.XTrace;
+import org.deckfour.xes.model.impl.XAttributeMapImpl;
+import org.deckfour.xes.model.impl.XEventImpl;
+import org.deckfour.xes.model.impl.XLogImpl;
+import org.deckfour.xes.model.impl.XTraceImpl;
+
+/**
+ * Binary columnar form of a log of activity sequences, for logs read more often than written.
+ * Opening one maps the file and reads the header and activity alphabet, and traces are decoded
+ * from the mapping only when asked for.
+ *
+ * The file, written by {@link ColumnarLogWriter}, has big endian sections
+ *
+ * HEADER     :: MAGIC VERSION FLAGS ACTIVITIES:int TRACES:long EVENTS:long TOTAL:long
+ *               OFFSETS_AT:long ALPHABET_AT:long COUNTS_AT:long EVENT_BYTES:long
+ * EVENTS     :: activity ids of every trace end to end, each an unsigned LEB128 varint
+ * OFFSETS    :: TRACES+1 longs, where trace t is the event bytes from offset t to offset t+1
+ * ALPHABET   :: per activity, a byte length int and the UTF-8 label
+ * COUNTS     :: TRACES ints, the multiplicity of each trace, only with the counts flag
+ *
+ * A trace is a record with a multiplicity, so a log can be stored trace by trace or variant by
+ * variant. Without the counts section every multiplicity is one. Traces are numbered from zero
+ * in file order.
+ *
+ * Safe for concurrent reads.
+ */
+public class ColumnarLog {
+
+	static final int MAGIC = 0x51504C47; // QPLG
+	static final int VERSION = 1;
+	static final int FLAG_COUNTS = 1;
+	static final int HEADER_BYTES = 72;
+
+	private final String filePath;
+	private final List<String> activities;
+	private final int traceCount;
+	private final long eventCount;
+	private final long totalCount;
+	private final MappedBytes events;
+	private final MappedBytes offsets;
+	private final MappedBytes counts;
+
+	private ColumnarLog(String filePath, List<String> activities, int traceCount, long eventCount,
+			long totalCount, MappedBytes events, MappedBytes offsets, MappedBytes counts)
+	{
+		this.filePath = filePath;
+		this.activities = activities;
+		this.traceCount = traceCount;
+		this.eventCount = eventCount;
+		this.totalCount = totalCount;
+		this.events = events;
+		this.offsets = offsets;
+		this.counts = counts;
+	}
+
+	public static ColumnarLog open(String filePath) throws IOException {
+		try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size < HEADER_BYTES)
+				throw new IOException("Not a columnar log: " + filePath);
+			ByteBuffer header = channel.map(MapMode.READ_ONLY, 0, HEADER_BYTES);
+			if (header.getInt() != MAGIC)
+				throw new IOException("Not a columnar log: " + filePath);
+			int version = header.getInt();
+			if (version != VERSION)
+				throw new IOException("Unsupported columnar log version " + version + ": " + filePath);
+			int flags = header.getInt();
+			int activityCount = header.getInt();
+			long traces = header.getLong();
+			long eventCount = header.getLong();
+			long totalCount = header.getLong();
+			long offsetsAt = header.getLong();
+			long alphabetAt = header.getLong();
+			long countsAt = header.getLong();
+			long eventBytes = header.getLong();
+			if (traces < 0 || traces >= Integer.MAX_VALUE || offsetsAt + 8 * (traces + 1) > size)
+				throw new IOException("Corrupt columnar log: " + filePath);
+			List<String> activities = readAlphabet(channel, alphabetAt, activityCount, size);
+			MappedBytes events = new MappedBytes(channel, HEADER_BYTES, eventBytes);
+			MappedBytes offsets = new MappedBytes(channel, offsetsAt, 8 * (traces + 1));
+			MappedBytes counts = ((flags & FLAG_COUNTS) != 0)?
+					new MappedBytes(channel, countsAt, 4 * traces) : null;
+			return new ColumnarLog(filePath, activities, (int)traces, eventCount, totalCount,
+					events, offsets, counts);
+		}
+	}
+
+	private static List<String> readAlphabet(FileChannel channel, long position, int activityCount,
+			long size) throws IOException
+	{
+		MappedBytes alphabet = new MappedBytes(channel, position, size - position);
+		List<String> result = new ArrayList<>(activityCount);
+		long at = 0;
+		byte[] label = new byte[64];
+		for (int activity=0; activity<activityCount; activity++) {
+			int length = alphabet.getInt(at);
+			at += 4;
+			if (label.length < length)
+				label = new byte[Math.max(length, label.length * 2)];
+			for (int i=0; i<length; i++)
+				label[i] = alphabet.get(at + i);
+			at += length;
+			result.add(new String(label, 0, length, StandardCharsets.UTF_8));
+		}
+		return result;
+	}
+
+	public String getFilePath() {
+		return filePath;
+	}
+
+	public int getActivityCount() {
+		return activities.size();
+	}
+
+	public String getActivity(int activity) {
+		return activities.get(activity);
+	}
+
+	/**
+	 * Number of trace records, which are variants when stored with multiplicities.
+	 */
+	public int getTraceCount() {
+		return traceCount;
+	}
+
+	/**
+	 * Number of events over all trace records, not counting multiplicities.
+	 */
+	public long getEventCount() {
+		return eventCount;
+	}
+
+	/**
+	 * Number of traces counting multiplicities.
+	 */
+	public long getTotalCount() {
+		return totalCount;
+	}
+
+	public boolean hasCounts() {
+		return counts != null;
+	}
+
+	public int getCount(int trace) {
+		return (counts == null)? 1 : counts.getInt(4L * trace);
+	}
+
+	public int[] getTrace(int trace) {
+		int[] result = new int[16];
+		int length = 0;
+		long end = offsets.getLong(8L * (trace + 1));
+		long at = offsets.getLong(8L * trace);
+		while (at < end) {
+			int value = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = events.get(at++);
+				value |= (b & 0x7f) << shift;
+				shift += 7;
+			} while (b < 0);
+			if (length == result.length)
+				result = Arrays.copyOf(result, length * 2);
+			result[length++] = value;
+		}
+		return Arrays.copyOf(result, length);
+	}
+
+	public List<String> getTraceLabels(int trace) {
+		int[] ids = getTrace(trace);
+		List<String> result = new ArrayList<>(ids.length);
+		for (int id: ids)
+			result.add(activities.get(id));
+		return result;
+	}
+
+	/**
+	 * Log with each trace repeated by its multiplicity. Events of the same activity share an
+	 * attribute map, as for {@link DelimitedTraceToXESConverter#DelimitedTraceToXESConverter(boolean)}.
+	 */
+	public XLog toXLog() {
+		XAttributeMap[] eventAttrMaps = new XAttributeMap[activities.size()];
+		for (int activity=0; activity<eventAttrMaps.length; activity++)
+			eventAttrMaps[activity] = DelimitedTraceToXESConverter.newEventAttrMap(activities.get(activity));
+		XLog log = new XLogImpl(new XAttributeMapImpl());
+		for (int trace=0; trace<traceCount; trace++) {
+			int[] ids = getTrace(trace);
+			for (int copy=getCount(trace); copy>0; copy--) {
+				XTrace xtrace = new XTraceImpl(new XAttributeMapImpl());
+				for (int id: ids)
+					xtrace.add(new XEventImpl(eventAttrMaps[id]));
+				log.add(xtrace);
+			}
+		}
+		return log;
+	}
+
+	public TraceVariantIndex toVariantIndex() {
+		TraceVariantIndex index = new TraceVariantIndex();
+		int[] indexActivity = new int[activities.size()];
+		for (int activity=0; activity<indexActivity.length; activity++)
+			indexActivity[activity] = index.internActivity(activities.get(activity));
+		for (int trace=0; trace<traceCount; trace++) {
+			int[] ids = getTrace(trace);
+			for (int i=0; i<ids.length; i++)
+				ids[i] = indexActivity[ids[i]];
+			index.addTrace(ids, ids.length, getCount(trace));
+		}
+		return index;
+	}
+
+	/**
+	 * Write the log as delimited text, with each trace repeated by its multiplicity.
+	 */
+	public void writeDelimited(Writer writer, String eventDelimiter, String traceDelimiter)
+			throws IOException
+	{
+		for (int trace=0; trace<traceCount; trace++) {
+			StringBuilder line = new StringBuilder();
+			int[] ids = getTrace(trace);
+			for (int i=0; i<ids.length; i++) {
+				if (i > 0)
+					line.append(eventDelimiter);
+				line.append(activities.get(ids[i]));
+			}
+			line.append(traceDelimiter);
+			for (int copy=getCount(trace); copy>0; copy--)
+				writer.write(line.toString());
+		}
+		writer.flush();
+	}
+
+	public void writeDelimited(Writer writer) throws IOException {
+		writeDelimited(writer, DelimitedTraceToXESConverter.DEFAULT_EVENT_DELIMITER,
+				DelimitedTraceToXESConverter.DEFAULT_TRACE_DELIMITER);
+	}
+
+	/**
+	 * A region of a file mapped in segments, so it may be larger than one mapping.
+	 */
+	private static class MappedBytes {
+		private static final int SEGMENT_SHIFT = 30;
+		private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+
+		private final MappedByteBuffer[] segments;
+
+		MappedBytes(FileChannel channel, long offset, long length) throws IOException {
+			if (offset < 0 || length < 0 || offset + length > channel.size())
+				throw new IOException("Section outside file");
+			int count = (int)((length + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+			segments = new MappedByteBuffer[count];
+			for (int i=0; i<count; i++) {
+				long from = (long)i << SEGMENT_SHIFT;
+				segments[i] = channel.map(MapMode.READ_ONLY, offset + from,
+						Math.min(1L << SEGMENT_SHIFT, length - from));
+			}
+		}
+
+		byte get(long position) {
+			return segments[(int)(position >>> SEGMENT_SHIFT)].get((int)(position & SEGMENT_MASK));
+		}
+
+		int getInt(long position) {
+			int index = (int)(position & SEGMENT_MASK);
+			MappedByteBuffer segment = segments[(int)(position >>> SEGMENT_SHIFT)];
+			if (index + 4 <= segment.limit())
+				return segment.getInt(index);
+			int result = 0;
+			for (int i=0; i<4; i++)
+				result = (result << 8) | (get(position + i) & 0xff);
+			return result;
+		}
+
+		long getLong(long position) {
+			int index = (int)(position & SEGMENT_MASK);
+			MappedByteBuffer segment = segments[(int)(position >>> SEGMENT_SHIFT)];
+			if (index + 8 <= segment.limit())
+				return segment.getLong(index);
+			long result = 0;
+			for (int i=0; i<8; i++)
+				result = (result << 8) | (get(position + i) & 0xff);
+			return result;
+		}
+	}
+
+}
@@ -0,0 +1,260 @@
+package qut.pm.xes.helpers;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.deckfour.xes.classification.XEventClassifier;
+import org.deckfour.xes.model.XEvent;
+import org.deckfour.xes.model.XLog;
+import org.deckfour.xes.model.XTrace;
+
+/**
+ * Writes a {@link ColumnarLog} file. Traces are added one at a time, each with a multiplicity,
+ * and their events streamed to the file, so only the trace offsets and multiplicities are held
+ * until {@link #close()} writes the remaining sections and the header. The file is incomplete
+ * until closed.
+ *
+ * Activities are numbered in the order first added. Not thread safe.
+ */
+public class ColumnarLogWriter implements Closeable {
+
+	private static final int BUFFER_BYTES = 1 << 16;
+
+	private final FileChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES);
+	private long position = ColumnarLog.HEADER_BYTES;
+	private final List<String> activities = new ArrayList<>();
+	private final Map<String,Integer> activityIndex = new HashMap<>();
+	private long[] offsets = new long[1024];
+	private int[] counts = new int[1024];
+	private int traceCount = 0;
+	private long eventCount = 0;
+	private long totalCount = 0;
+	private boolean multiplicities = false;
+	private int[] scratch = new int[16];
+	private boolean closed = false;
+
+	/**
+	 * Create or replace the file at <code>filePath</code>.
+	 */
+	public ColumnarLogWriter(String filePath) throws IOException {
+		channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+		channel.position(ColumnarLog.HEADER_BYTES);
+	}
+
+	public static void write(XLog log, XEventClassifier classifier, String filePath)
+			throws IOException
+	{
+		try (ColumnarLogWriter writer = new ColumnarLogWriter(filePath)) {
+			for (XTrace trace: log)
+				writer.addTrace(trace, classifier);
+		}
+	}
+
+	/**
+	 * Write each variant of <code>index</code> once, with its number of traces.
+	 */
+	public static void write(TraceVariantIndex index, String filePath) throws IOException {
+		try (ColumnarLogWriter writer = new ColumnarLogWriter(filePath)) {
+			int[] activityIds = new int[index.getActivityCount()];
+			for (int activity=0; activity<activityIds.length; activity++)
+				activityIds[activity] = writer.internActivity(index.getActivity(activity));
+			for (int variant=0; variant<index.getVariantCount(); variant++) {
+				int[] trace = index.getVariantActivities(variant);
+				for (int i=0; i<trace.length; i++)
+					trace[i] = activityIds[trace[i]];
+				writer.addTrace(trace, trace.length, index.getCount(variant));
+			}
+		}
+	}
+
+	/**
+	 * Convert a delimited trace file, read with a {@link MappedDelimitedTraceReader}.
+	 */
+	public static void writeDelimited(String delimitedFilePath, String eventDelimiter,
+			String traceDelimiter, String filePath) throws IOException
+	{
+		MappedDelimitedTraceReader reader =
+				new MappedDelimitedTraceReader(eventDelimiter, traceDelimiter);
+		try (ColumnarLogWriter writer = new ColumnarLogWriter(filePath)) {
+			reader.read(delimitedFilePath, (activities, length) -> {
+				while (writer.getActivityCount() < reader.getActivityCount())
+					writer.internActivity(reader.getActivity(writer.getActivityCount()));
+				writer.addTrace(activities, length, 1);
+			});
+		}
+	}
+
+	public int getActivityCount() {
+		return activities.size();
+	}
+
+	public int internActivity(String label) {
+		Integer id = activityIndex.get(label);
+		if (id == null) {
+			id = activities.size();
+			activities.add(label);
+			activityIndex.put(label, id);
+		}
+		return id;
+	}
+
+	public void addTrace(List<String> trace) throws IOException {
+		addTrace(trace, 1);
+	}
+
+	public void addTrace(List<String> trace, int count) throws IOException {
+		int length = 0;
+		for (String label: trace)
+			length = push(length, internActivity(label));
+		addTrace(scratch, length, count);
+	}
+
+	public void addTrace(XTrace trace, XEventClassifier classifier) throws IOException {
+		int length = 0;
+		for (XEvent event: trace)
+			length = push(length, internActivity(classifier.getClassIdentity(event)));
+		addTrace(scratch, length, 1);
+	}
+
+	/**
+	 * Add a trace of ids from {@link #internActivity(String)}, occurring <code>count</code> times.
+	 */
+	public void addTrace(int[] trace, int length, int count) throws IOException {
+		if (count < 1)
+			throw new IllegalArgumentException("Trace count must be positive: " + count);
+		if (traceCount == Integer.MAX_VALUE - 1)
+			throw new IllegalStateException("Too many traces");
+		// check the whole trace first, so a bad one leaves the file as it was
+		for (int i=0; i<length; i++) {
+			if (trace[i] < 0 || trace[i] >= activities.size())
+				throw new IllegalArgumentException("Unknown activity: " + trace[i]);
+		}
+		if (traceCount + 1 >= offsets.length) {
+			offsets = Arrays.copyOf(offsets, offsets.length * 2);
+			counts = Arrays.copyOf(counts, counts.length * 2);
+		}
+		offsets[traceCount] = position - ColumnarLog.HEADER_BYTES;
+		counts[traceCount] = count;
+		for (int i=0; i<length; i++)
+			writeVarint(trace[i]);
+		traceCount++;
+		eventCount += length;
+		totalCount += count;
+		multiplicities |= (count != 1);
+	}
+
+	private int push(int length, int activity) {
+		if (length == scratch.length)
+			scratch = Arrays.copyOf(scratch, length * 2);
+		scratch[length] = activity;
+		return length + 1;
+	}
+
+	/**
+	 * Write the offset index, alphabet and multiplicities, then the header, and close the file.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed)
+			return;
+		closed = true;
+		try {
+			long eventsBytes = position - ColumnarLog.HEADER_BYTES;
+			offsets[traceCount] = eventsBytes;
+			long offsetsOffset = position;
+			for (int trace=0; trace<=traceCount; trace++)
+				writeLong(offsets[trace]);
+			long dictionaryOffset = position;
+			for (String activity: activities) {
+				byte[] bytes = activity.getBytes(StandardCharsets.UTF_8);
+				writeInt(bytes.length);
+				write(bytes);
+			}
+			long countsOffset = 0;
+			if (multiplicities) {
+				countsOffset = position;
+				for (int trace=0; trace<traceCount; trace++)
+					writeInt(counts[trace]);
+			}
+			flush();
+			ByteBuffer header = ByteBuffer.allocate(ColumnarLog.HEADER_BYTES);
+			header.putInt(ColumnarLog.MAGIC);
+			header.putInt(ColumnarLog.VERSION);
+			header.putInt(multiplicities? ColumnarLog.FLAG_COUNTS : 0);
+			header.putInt(activities.size());
+			header.putLong(traceCount);
+			header.putLong(eventCount);
+			header.putLong(totalCount);
+			header.putLong(offsetsOffset);
+			header.putLong(dictionaryOffset);
+			header.putLong(countsOffset);
+			header.putLong(eventsBytes);
+			header.flip();
+			long at = 0;
+			while (header.hasRemaining())
+				at += channel.write(header, at);
+		} finally {
+			channel.close();
+		}
+	}
+
+	private void writeVarint(int value) throws IOException {
+		ensure(5);
+		while ((value & ~0x7f) != 0) {
+			buffer.put((byte)((value & 0x7f) | 0x80));
+			value >>>= 7;
+			position++;
+		}
+		buffer.put((byte)value);
+		position++;
+	}
+
+	private void writeLong(long value) throws IOException {
+		ensure(8);
+		buffer.putLong(value);
+		position += 8;
+	}
+
+	private void writeInt(int value) throws IOException {
+		ensure(4);
+		buffer.putInt(value);
+		position += 4;
+	}
+
+	private void write(byte[] bytes) throws IOException {
+		int from = 0;
+		while (from < bytes.length) {
+			if (!buffer.hasRemaining())
+				flush();
+			int length = Math.min(buffer.remaining(), bytes.length - from);
+			buffer.put(bytes, from, length);
+			from += length;
+		}
+		position += bytes.length;
+	}
+
+	private void ensure(int bytes) throws IOException {
+		if (buffer.remaining() < bytes)
+			flush();
+	}
+
+	private void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+
+}
@@ -6,6 +6,8 @@ import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.deckfour.xes.classification.XEventClassifier;
 import org.deckfour.xes.classification.XEventNameClassifier;
@@ -34,7 +36,23 @@ public class DelimitedTraceToXESConverter {
 	public static final String DEFAULT_EVENT_DELIMITER = " ";
 	public static final String DEFAULT_TRACE_DELIMITER = "\n";
 	
+	private final boolean sharedAttributes;
+	
 	public DelimitedTraceToXESConverter() {
+		this(false);
+	}
+
+	/**
+	 * With <code>sharedAttributes</code>, events of the same activity in a converted log share 
+	 * one attribute map, holding one name attribute and one copy of the label. This takes a 
+	 * fraction of the memory of a map per event, for large logs, but the events must be treated 
+	 * as read only. Change an event by giving it a map of its own with 
+	 * {@link XEvent#setAttributes(XAttributeMap)}.
+	 * 
+	 * @param sharedAttributes
+	 */
+	public DelimitedTraceToXESConverter(boolean sharedAttributes) {
+		this.sharedAttributes = sharedAttributes;
 	}
 
 	/**
@@ -58,10 +76,11 @@ public class DelimitedTraceToXESConverter {
 	public XLog convertTextArgs(String ... traces) {
 		XAttributeMap attrMap = new XAttributeMapImpl();
 		XLog result = new XLogImpl(attrMap);
+		Map<String,XAttributeMap> eventAttrMaps = newEventAttrMaps();
 		for (String line: traces) {
 			if ("".equals(line))
 				break;
-			XTrace trace = convertSingleTrace(DEFAULT_EVENT_DELIMITER, line);
+			XTrace trace = convertSingleTrace(DEFAULT_EVENT_DELIMITER, line, eventAttrMaps);
 			result.add(trace);
 		}
 		return result;
@@ -86,29 +105,54 @@ public class DelimitedTraceToXESConverter {
 	public XLog convertText(String traces, String eventDelimiter, String traceDelimiter) {
 		XAttributeMap attrMap = new XAttributeMapImpl();
 		XLog result = new XLogImpl(attrMap);
+		Map<String,XAttributeMap> eventAttrMaps = newEventAttrMaps();
 		for (String line: traces.split(traceDelimiter)) {
 			if ("".equals(line))
 				break;
-			XTrace trace = convertSingleTrace(eventDelimiter, line);
+			XTrace trace = convertSingleTrace(eventDelimiter, line, eventAttrMaps);
 			result.add(trace);
 		}
 		return result;
 	}
 
-	private XTrace convertSingleTrace(String eventDelimiter, String line) {
+	private Map<String,XAttributeMap> newEventAttrMaps() {
+		return sharedAttributes? new HashMap<>() : null;
+	}
+
+	/**
+	 * 
+	 * @param eventAttrMaps shared attribute maps by label, or null for a map per event
+	 */
+	private XTrace convertSingleTrace(String eventDelimiter, String line, 
+			Map<String,XAttributeMap> eventAttrMaps) 
+	{
 		XAttributeMap traceAttrMap = new XAttributeMapImpl();
 		XTrace trace = new XTraceImpl(traceAttrMap);
 		for (String eventLabel: line.split(eventDelimiter)) {
 			if ("".equals(eventLabel))
 				break;
-			XAttributeMap eventAttrMap = new XAttributeMapImpl();
-			XAttribute attr = new XAttributeLiteralImpl(XES_CONCEPT_NAME,eventLabel);
-			eventAttrMap.put(XES_CONCEPT_NAME, attr);
+			XAttributeMap eventAttrMap = null;
+			if (eventAttrMaps == null) {
+				eventAttrMap = newEventAttrMap(eventLabel);
+			} else {
+				eventAttrMap = eventAttrMaps.get(eventLabel);
+				if (eventAttrMap == null) {
+					eventAttrMap = newEventAttrMap(eventLabel);
+					eventAttrMaps.put(eventLabel, eventAttrMap);
+				}
+			}
 			XEvent event = new XEventImpl(eventAttrMap);
 			trace.add(event);
 		}
 		return trace;
 	}
+
+	static XAttributeMap newEventAttrMap(String eventLabel) {
+		XAttributeMap eventAttrMap = new XAttributeMapImpl();
+		XAttribute attr = new XAttributeLiteralImpl(XES_CONCEPT_NAME,eventLabel);
+		eventAttrMap.put(XES_CONCEPT_NAME, attr);
+		return eventAttrMap;
+	}
 	
 	/**
 	 * 
@@ -123,7 +167,8 @@ public class DelimitedTraceToXESConverter {
 	}
 	
 	/**
-	 * Small files only. UTF-8 encoding assumed.
+	 * Small files only. UTF-8 encoding assumed. For large files see 
+	 * {@link MappedDelimitedTraceReader}.
 	 * 
 	 * @param filePath
 	 * @param eventDelimiter
@@ -138,7 +183,8 @@ public class DelimitedTraceToXESConverter {
 	}
 	
 	/**
-	 * Export an XLog in delimited text format. Small logs only.
+	 * Export an XLog in delimited text format. Small logs only. For large logs see 
+	 * {@link DelimitedTraceWriter}.
 	 * 
 	 * @param log
 	 * @param classifier
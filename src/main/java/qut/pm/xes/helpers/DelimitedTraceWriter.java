@@ -0,0 +1,217 @@
+package qut.pm.xes.helpers;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.deckfour.xes.classification.XEventAttributeClassifier;
+import org.deckfour.xes.classification.XEventClassifier;
+import org.deckfour.xes.model.XAttribute;
+import org.deckfour.xes.model.XAttributeMap;
+import org.deckfour.xes.model.XEvent;
+import org.deckfour.xes.model.XLog;
+import org.deckfour.xes.model.XTrace;
+
+/**
+ * Exports logs in the delimited format of {@link DelimitedTraceToXESConverter} a trace at a time,
+ * to a {@link WritableByteChannel} through a reused buffer or to a {@link Writer}, which should
+ * be buffered. Nothing is kept per trace, so memory does not grow with the log.
+ *
+ * Class identities are cached by the values of the classifier's defining attributes, for
+ * attribute classifiers such as the name classifier, so the classifier is called once per
+ * distinct value rather than once per event. Other classifiers are called for every event, and
+ * their identities cached by text. Events sharing an attribute map, as from
+ * {@link DelimitedTraceToXESConverter#DelimitedTraceToXESConverter(boolean)}, skip the lookup
+ * when they follow one another.
+ *
+ * As for {@link DelimitedTraceToXESConverter#convertXLogToString(XLog, XEventClassifier)},
+ * every trace is followed by the trace delimiter. An empty trace becomes an empty line, which
+ * ends the log when read back. Not thread safe.
+ */
+public class DelimitedTraceWriter implements Closeable, Flushable {
+
+	public static final int DEFAULT_BUFFER_BYTES = 1 << 16;
+
+	private final XEventClassifier classifier;
+	private final String[] keys;
+	private final WritableByteChannel channel;
+	private final ByteBuffer buffer;
+	private final Writer writer;
+	private final String eventDelimiter;
+	private final String traceDelimiter;
+	private final byte[] eventDelimiterBytes;
+	private final byte[] traceDelimiterBytes;
+	private final Map<Object,Identity> identities = new HashMap<>();
+	private XAttributeMap lastAttributes = null;
+	private Identity lastIdentity = null;
+	private long traceCount = 0;
+
+	public DelimitedTraceWriter(WritableByteChannel channel, XEventClassifier classifier) {
+		this(channel, classifier, DEFAULT_BUFFER_BYTES,
+				DelimitedTraceToXESConverter.DEFAULT_EVENT_DELIMITER,
+				DelimitedTraceToXESConverter.DEFAULT_TRACE_DELIMITER);
+	}
+
+	public DelimitedTraceWriter(WritableByteChannel channel, XEventClassifier classifier,
+			int bufferBytes, String eventDelimiter, String traceDelimiter)
+	{
+		this(channel, ByteBuffer.allocateDirect(bufferBytes), null, classifier, eventDelimiter,
+				traceDelimiter);
+	}
+
+	public DelimitedTraceWriter(Writer writer, XEventClassifier classifier) {
+		this(writer, classifier, DelimitedTraceToXESConverter.DEFAULT_EVENT_DELIMITER,
+				DelimitedTraceToXESConverter.DEFAULT_TRACE_DELIMITER);
+	}
+
+	public DelimitedTraceWriter(Writer writer, XEventClassifier classifier, String eventDelimiter,
+			String traceDelimiter)
+	{
+		this(null, null, writer, classifier, eventDelimiter, traceDelimiter);
+	}
+
+	private DelimitedTraceWriter(WritableByteChannel channel, ByteBuffer buffer, Writer writer,
+			XEventClassifier classifier, String eventDelimiter, String traceDelimiter)
+	{
+		this.channel = channel;
+		this.buffer = buffer;
+		this.writer = writer;
+		this.classifier = classifier;
+		this.keys = (classifier instanceof XEventAttributeClassifier)?
+				classifier.getDefiningAttributeKeys() : null;
+		this.eventDelimiter = eventDelimiter;
+		this.traceDelimiter = traceDelimiter;
+		this.eventDelimiterBytes = eventDelimiter.getBytes(StandardCharsets.UTF_8);
+		this.traceDelimiterBytes = traceDelimiter.getBytes(StandardCharsets.UTF_8);
+	}
+
+	public long getTraceCount() {
+		return traceCount;
+	}
+
+	public void writeLog(XLog log) throws IOException {
+		for (XTrace trace: log)
+			writeTrace(trace);
+	}
+
+	public void writeTrace(XTrace trace) throws IOException {
+		boolean first = true;
+		for (XEvent event: trace) {
+			if (!first)
+				write(eventDelimiter, eventDelimiterBytes);
+			Identity identity = identity(event);
+			write(identity.text, identity.bytes);
+			first = false;
+		}
+		write(traceDelimiter, traceDelimiterBytes);
+		traceCount++;
+	}
+
+	private Identity identity(XEvent event) {
+		XAttributeMap attributes = event.getAttributes();
+		if (attributes == lastAttributes)
+			return lastIdentity;
+		Identity identity;
+		if (keys != null) {
+			Object key = cacheKey(attributes);
+			identity = identities.get(key);
+			if (identity == null) {
+				identity = new Identity(classifier.getClassIdentity(event));
+				identities.put(key, identity);
+			}
+		} else {
+			String text = classifier.getClassIdentity(event);
+			identity = identities.get(text);
+			if (identity == null) {
+				identity = new Identity(text);
+				identities.put(text, identity);
+			}
+		}
+		lastAttributes = attributes;
+		lastIdentity = identity;
+		return identity;
+	}
+
+	/**
+	 * Values of the defining attributes, null where absent. Attribute classifiers give the same
+	 * identity for the same values.
+	 */
+	private Object cacheKey(XAttributeMap attributes) {
+		if (keys.length == 1)
+			return value(attributes.get(keys[0]));
+		List<String> values = new ArrayList<>(keys.length);
+		for (String key: keys)
+			values.add(value(attributes.get(key)));
+		return values;
+	}
+
+	private static String value(XAttribute attribute) {
+		return (attribute == null)? null : attribute.toString();
+	}
+
+	private void write(String text, byte[] bytes) throws IOException {
+		if (writer != null) {
+			writer.write(text);
+			return;
+		}
+		if (bytes.length > buffer.remaining()) {
+			flushBuffer();
+			if (bytes.length > buffer.capacity()) {
+				ByteBuffer large = ByteBuffer.wrap(bytes);
+				while (large.hasRemaining())
+					channel.write(large);
+				return;
+			}
+		}
+		buffer.put(bytes);
+	}
+
+	private void flushBuffer() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+
+	@Override
+	public void flush() throws IOException {
+		if (writer != null)
+			writer.flush();
+		else
+			flushBuffer();
+	}
+
+	/**
+	 * Flush and close the underlying channel or writer.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			if (writer != null)
+				writer.close();
+			else
+				channel.close();
+		}
+	}
+
+	private static class Identity {
+		final String text;
+		final byte[] bytes;
+
+		Identity(String text) {
+			this.text = text;
+			this.bytes = text.getBytes(StandardCharsets.UTF_8);
+		}
+	}
+
+}
@@ -0,0 +1,568 @@
+package qut.pm.xes.helpers;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.deckfour.xes.model.XAttributeMap;
+import org.deckfour.xes.model.XLog;
+import org.deckfour.xes.model.XTrace;
+import org.deckfour.xes.model.impl.XAttributeMapImpl;
+import org.deckfour.xes.model.impl.XEventImpl;
+import org.deckfour.xes.model.impl.XLogImpl;
+import org.deckfour.xes.model.impl.XTraceImpl;
+
+import qut.pm.util.LongHashSet;
+
+/**
+ * Reads delimited trace files of any size, in the format of
+ * {@link DelimitedTraceToXESConverter#convertText(String, String, String)}, without decoding
+ * the file to a String. The file is memory mapped a window at a time and its UTF-8 bytes
+ * scanned for the delimiters. Labels are interned to activity ids straight from the mapped bytes,
+ * so only the first occurrence of each label is copied and decoded.
+ *
+ * Delimiters are literal strings, not regular expressions as for the converter. They give the
+ * same traces for delimiters without regular expression metacharacters, such as the defaults
+ * and <code>",,"</code>. As in the converter, an empty line ends the log and an empty event ends
+ * its trace.
+ *
+ * A window always starts at the beginning of a trace, so a trace must fit in the largest
+ * mapping, 2GB. Activity ids are kept across files read by the same reader.
+ *
+ * Reads given a pool cut the file at trace delimiters into chunks of a few megabytes and scan
+ * the chunks in parallel, each interning to ids of its own. Chunks are merged in file order, so
+ * traces, and activity ids, are the same as for a sequential read. Only a few chunks per thread
+ * are in flight at once, so memory does not grow with the file. A file is only cut when
+ * every occurrence of the trace delimiter must end a trace, which holds when no proper prefix of
+ * the trace delimiter is also a suffix of it and it shares no bytes with the event delimiter.
+ * Otherwise the file is read as one chunk.
+ *
+ * Not thread safe.
+ */
+public class MappedDelimitedTraceReader {
+
+	public interface TraceListener {
+		/**
+		 * Called once per trace, in file order, with activity ids from
+		 * {@link MappedDelimitedTraceReader#getActivity(int)}. The array is reused between calls.
+		 */
+		void trace(int[] activities, int length) throws IOException;
+	}
+
+	public static final int DEFAULT_WINDOW_BYTES = 1 << 28;
+	public static final int DEFAULT_CHUNK_BYTES = 1 << 22;
+
+	private static final int MAX_WINDOW_BYTES = Integer.MAX_VALUE;
+	private static final int SEARCH_BYTES = 1 << 16;
+	private static final int END_OF_LOG = -1;
+	private static final int EMPTY = -1;
+
+	private final byte[] eventDelimiter;
+	private final byte[] traceDelimiter;
+	private final int windowBytes;
+	private final int chunkBytes;
+	private final boolean splittable;
+	private final Scanner scanner;
+
+	public MappedDelimitedTraceReader() {
+		this(DelimitedTraceToXESConverter.DEFAULT_EVENT_DELIMITER,
+				DelimitedTraceToXESConverter.DEFAULT_TRACE_DELIMITER);
+	}
+
+	public MappedDelimitedTraceReader(String eventDelimiter, String traceDelimiter) {
+		this(eventDelimiter, traceDelimiter, DEFAULT_WINDOW_BYTES);
+	}
+
+	public MappedDelimitedTraceReader(String eventDelimiter, String traceDelimiter, int windowBytes) {
+		this(eventDelimiter, traceDelimiter, windowBytes, DEFAULT_CHUNK_BYTES);
+	}
+
+	/**
+	 *
+	 * @param eventDelimiter
+	 * @param traceDelimiter
+	 * @param windowBytes size of each mapping, grown when a trace does not fit
+	 * @param chunkBytes least size of the chunks of parallel reads, which end at the next trace
+	 */
+	public MappedDelimitedTraceReader(String eventDelimiter, String traceDelimiter, int windowBytes,
+			int chunkBytes)
+	{
+		if (eventDelimiter.isEmpty() || traceDelimiter.isEmpty())
+			throw new IllegalArgumentException("Delimiters must not be empty");
+		if (windowBytes < 1)
+			throw new IllegalArgumentException("Window must be positive: " + windowBytes);
+		if (chunkBytes < 1)
+			throw new IllegalArgumentException("Chunk size must be positive: " + chunkBytes);
+		this.eventDelimiter = eventDelimiter.getBytes(StandardCharsets.UTF_8);
+		this.traceDelimiter = traceDelimiter.getBytes(StandardCharsets.UTF_8);
+		this.windowBytes = windowBytes;
+		this.chunkBytes = chunkBytes;
+		this.splittable = splittable(this.eventDelimiter, this.traceDelimiter);
+		this.scanner = new Scanner();
+	}
+
+	private static boolean splittable(byte[] eventDelimiter, byte[] traceDelimiter) {
+		for (int length=1; length<traceDelimiter.length; length++) {
+			if (Arrays.equals(Arrays.copyOf(traceDelimiter, length), Arrays.copyOfRange(
+					traceDelimiter, traceDelimiter.length - length, traceDelimiter.length)))
+				return false;
+		}
+		for (byte t: traceDelimiter) {
+			for (byte e: eventDelimiter) {
+				if (t == e)
+					return false;
+			}
+		}
+		return true;
+	}
+
+	public int getActivityCount() {
+		return scanner.getActivityCount();
+	}
+
+	public String getActivity(int activity) {
+		return scanner.getActivity(activity);
+	}
+
+	public void read(String filePath, TraceListener listener) throws IOException {
+		try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+			readRegion(channel, 0, channel.size(), scanner, listener);
+		}
+	}
+
+	/**
+	 * Read the file in chunks on <code>pool</code>. The listener is called in the calling thread,
+	 * in file order.
+	 */
+	public void read(String filePath, ForkJoinPool pool, TraceListener listener)
+			throws IOException
+	{
+		readChunks(filePath, pool, chunk -> {
+			int[] trace = new int[chunk.maxLength];
+			int start = 0;
+			for (int t=0; t<chunk.traceCount; t++) {
+				int length = chunk.traceEnd[t] - start;
+				System.arraycopy(chunk.events, start, trace, 0, length);
+				listener.trace(trace, length);
+				start = chunk.traceEnd[t];
+			}
+		});
+	}
+
+	/**
+	 * Read the file as an XLog whose events of the same activity share an attribute map, as for
+	 * {@link DelimitedTraceToXESConverter#DelimitedTraceToXESConverter(boolean)}.
+	 */
+	public XLog readLog(String filePath) throws IOException {
+		XLog log = new XLogImpl(new XAttributeMapImpl());
+		List<XAttributeMap> eventAttrMaps = new ArrayList<>();
+		read(filePath, (trace, length) -> {
+			addEventAttrMaps(eventAttrMaps);
+			XTrace xtrace = new XTraceImpl(new XAttributeMapImpl());
+			for (int i=0; i<length; i++)
+				xtrace.add(new XEventImpl(eventAttrMaps.get(trace[i])));
+			log.add(xtrace);
+		});
+		return log;
+	}
+
+	/**
+	 * Read the file as for {@link #readLog(String)}, scanning chunks and building their traces on
+	 * <code>pool</code>. The log is the same as a sequential read. As many chunks are built ahead
+	 * as are scanned ahead.
+	 */
+	public XLog readLog(String filePath, ForkJoinPool pool) throws IOException {
+		XLog log = new XLogImpl(new XAttributeMapImpl());
+		List<XAttributeMap> eventAttrMaps = new ArrayList<>();
+		Deque<Future<List<XTrace>>> built = new ArrayDeque<>();
+		int ahead = chunksAhead(pool);
+		readChunks(filePath, pool, chunk -> {
+			addEventAttrMaps(eventAttrMaps);
+			XAttributeMap[] maps = eventAttrMaps.toArray(new XAttributeMap[eventAttrMaps.size()]);
+			if (built.size() == ahead)
+				log.addAll(await(built.poll()));
+			built.add(pool.submit(() -> chunk.toTraces(maps)));
+			while (!built.isEmpty() && built.peek().isDone())
+				log.addAll(await(built.poll()));
+		});
+		while (!built.isEmpty())
+			log.addAll(await(built.poll()));
+		return log;
+	}
+
+	private void addEventAttrMaps(List<XAttributeMap> eventAttrMaps) {
+		while (eventAttrMaps.size() < getActivityCount()) {
+			eventAttrMaps.add(DelimitedTraceToXESConverter.newEventAttrMap(
+					getActivity(eventAttrMaps.size())));
+		}
+	}
+
+	public TraceVariantIndex readVariants(String filePath) throws IOException {
+		VariantListener listener = new VariantListener();
+		read(filePath, listener);
+		return listener.index;
+	}
+
+	public TraceVariantIndex readVariants(String filePath, ForkJoinPool pool) throws IOException {
+		VariantListener listener = new VariantListener();
+		read(filePath, pool, listener);
+		return listener.index;
+	}
+
+	/**
+	 *
+	 * @return false if an empty line ended the log
+	 */
+	private boolean readRegion(FileChannel channel, long from, long to, Scanner regionScanner,
+			TraceListener listener) throws IOException
+	{
+		long position = from;
+		int window = windowBytes;
+		while (position < to) {
+			int length = (int)Math.min(window, to - position);
+			boolean last = (position + length == to);
+			ByteBuffer buffer = channel.map(MapMode.READ_ONLY, position, length);
+			int consumed = regionScanner.scan(buffer, length, last, listener);
+			if (consumed == END_OF_LOG)
+				return false;
+			if (consumed == 0) {
+				if (window == MAX_WINDOW_BYTES)
+					throw new IllegalStateException("Trace at byte " + position
+							+ " is longer than the largest mapping");
+				window = (int)Math.min(MAX_WINDOW_BYTES, 2L * window);
+				continue;
+			}
+			position += consumed;
+			window = windowBytes;
+		}
+		return true;
+	}
+
+	private interface ChunkConsumer {
+		void accept(Chunk chunk) throws IOException;
+	}
+
+	private static int chunksAhead(ForkJoinPool pool) {
+		return Math.max(2, pool.getParallelism() * 2);
+	}
+
+	/**
+	 * Scan chunks on <code>pool</code>, a bounded number ahead, and pass them, merged into this
+	 * reader's activity ids, to <code>consumer</code> in file order.
+	 */
+	private void readChunks(String filePath, ForkJoinPool pool, ChunkConsumer consumer)
+			throws IOException
+	{
+		try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+			long size = channel.size();
+			int ahead = chunksAhead(pool);
+			Deque<Future<Chunk>> pending = new ArrayDeque<>();
+			long position = 0;
+			while (position < size || !pending.isEmpty()) {
+				while (position < size && pending.size() < ahead) {
+					long from = position;
+					long to = splittable? nextTraceStart(channel, from + chunkBytes, size) : size;
+					pending.add(pool.submit(() -> scanChunk(channel, from, to)));
+					position = to;
+				}
+				Chunk chunk = await(pending.poll());
+				chunk.merge(scanner);
+				consumer.accept(chunk);
+				if (chunk.endOfLog) {
+					for (Future<Chunk> future: pending)
+						future.cancel(false);
+					return;
+				}
+			}
+		}
+	}
+
+	private Chunk scanChunk(FileChannel channel, long from, long to) throws IOException {
+		Chunk chunk = new Chunk();
+		chunk.endOfLog = !readRegion(channel, from, to, chunk.scanner, chunk);
+		return chunk;
+	}
+
+	/**
+	 * Position just after the first trace delimiter at or after <code>position</code>, or
+	 * <code>size</code> if there is none.
+	 */
+	private long nextTraceStart(FileChannel channel, long position, long size) throws IOException {
+		while (position < size) {
+			int length = (int)Math.min(SEARCH_BYTES, size - position);
+			ByteBuffer buffer = channel.map(MapMode.READ_ONLY, position, length);
+			for (int p=0; p<length; p++) {
+				if (buffer.get(p) == traceDelimiter[0] && matches(buffer, p, length, traceDelimiter))
+					return position + p + traceDelimiter.length;
+			}
+			if (position + length == size)
+				break;
+			// a delimiter may straddle the end of the search window
+			position += Math.max(1, length - traceDelimiter.length + 1);
+		}
+		return size;
+	}
+
+	private static <T> T await(Future<T> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException)e.getCause();
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException)e.getCause();
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	private static boolean matches(ByteBuffer buffer, int position, int limit, byte[] delimiter) {
+		if (position + delimiter.length > limit)
+			return false;
+		for (int i=1; i<delimiter.length; i++) {
+			if (buffer.get(position + i) != delimiter[i])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Splits mapped bytes into traces and interns their labels.
+	 */
+	private class Scanner {
+		private final List<String> activities = new ArrayList<>();
+		private byte[] labelBytes = new byte[256];
+		private int labelBytesSize = 0;
+		private int[] labelStart = new int[17];
+		private int[] labelHash = new int[16];
+		private int[] slots = new int[32];
+		private int[] scratch = new int[16];
+
+		Scanner() {
+			Arrays.fill(slots, EMPTY);
+		}
+
+		int getActivityCount() {
+			return activities.size();
+		}
+
+		String getActivity(int activity) {
+			return activities.get(activity);
+		}
+
+		/**
+		 * Scan complete traces in <code>buffer</code>.
+		 *
+		 * @return bytes consumed, which is zero if no trace is complete in the window, or
+		 * END_OF_LOG for an empty line
+		 */
+		int scan(ByteBuffer buffer, int limit, boolean last, TraceListener listener)
+				throws IOException
+		{
+			int traceStart = 0;
+			while (traceStart < limit) {
+				int length = 0;
+				boolean skipping = false;
+				int tokenStart = traceStart;
+				int hash = 1;
+				int p = traceStart;
+				int traceEnd;
+				int next;
+				while (true) {
+					if (p == limit) {
+						if (!last)
+							return traceStart;
+						traceEnd = limit;
+						next = limit;
+						break;
+					}
+					byte b = buffer.get(p);
+					if (b == traceDelimiter[0] && matches(buffer, p, limit, traceDelimiter)) {
+						traceEnd = p;
+						next = p + traceDelimiter.length;
+						break;
+					}
+					if (!skipping && b == eventDelimiter[0]
+							&& matches(buffer, p, limit, eventDelimiter))
+					{
+						if (p == tokenStart) {
+							skipping = true;
+						} else {
+							length = push(length, intern(buffer, tokenStart, p, hash));
+						}
+						p += eventDelimiter.length;
+						tokenStart = p;
+						hash = 1;
+						continue;
+					}
+					hash = 31 * hash + b;
+					p++;
+				}
+				if (traceEnd == traceStart)
+					return END_OF_LOG;
+				if (!skipping && traceEnd > tokenStart)
+					length = push(length, intern(buffer, tokenStart, traceEnd, hash));
+				listener.trace(scratch, length);
+				traceStart = next;
+			}
+			return traceStart;
+		}
+
+		private int push(int length, int activity) {
+			if (length == scratch.length)
+				scratch = Arrays.copyOf(scratch, length * 2);
+			scratch[length] = activity;
+			return length + 1;
+		}
+
+		/**
+		 * Intern the label of <code>other</code>.
+		 */
+		int intern(Scanner other, int activity) {
+			int start = other.labelStart[activity];
+			return intern(ByteBuffer.wrap(other.labelBytes), start, other.labelStart[activity + 1],
+					other.labelHash[activity]);
+		}
+
+		private int intern(ByteBuffer buffer, int start, int end, int hash) {
+			int mask = slots.length - 1;
+			int slot = LongHashSet.hash(hash) & mask;
+			while (slots[slot] != EMPTY) {
+				int activity = slots[slot];
+				if (labelHash[activity] == hash && equalsLabel(activity, buffer, start, end))
+					return activity;
+				slot = (slot + 1) & mask;
+			}
+			int activity = activities.size();
+			int length = end - start;
+			if (labelBytesSize + length > labelBytes.length)
+				labelBytes = Arrays.copyOf(labelBytes,
+						Math.max(labelBytes.length * 2, labelBytesSize + length));
+			for (int i=0; i<length; i++)
+				labelBytes[labelBytesSize + i] = buffer.get(start + i);
+			if (activity == labelHash.length) {
+				labelHash = Arrays.copyOf(labelHash, labelHash.length * 2);
+				labelStart = Arrays.copyOf(labelStart, labelHash.length + 1);
+			}
+			labelStart[activity] = labelBytesSize;
+			labelStart[activity + 1] = labelBytesSize + length;
+			labelHash[activity] = hash;
+			activities.add(new String(labelBytes, labelBytesSize, length, StandardCharsets.UTF_8));
+			labelBytesSize += length;
+			slots[slot] = activity;
+			if (activities.size() * 2 > slots.length)
+				rehash();
+			return activity;
+		}
+
+		private boolean equalsLabel(int activity, ByteBuffer buffer, int start, int end) {
+			int from = labelStart[activity];
+			if (labelStart[activity + 1] - from != end - start)
+				return false;
+			for (int i=0; i<end-start; i++) {
+				if (labelBytes[from + i] != buffer.get(start + i))
+					return false;
+			}
+			return true;
+		}
+
+		private void rehash() {
+			slots = new int[slots.length * 2];
+			Arrays.fill(slots, EMPTY);
+			int mask = slots.length - 1;
+			for (int activity=0; activity<activities.size(); activity++) {
+				int slot = LongHashSet.hash(labelHash[activity]) & mask;
+				while (slots[slot] != EMPTY)
+					slot = (slot + 1) & mask;
+				slots[slot] = activity;
+			}
+		}
+	}
+
+	/**
+	 * Traces of one chunk, end to end, with activity ids of the chunk's own scanner until merged.
+	 */
+	private class Chunk implements TraceListener {
+		final Scanner scanner = new Scanner();
+		int[] events = new int[1024];
+		int eventCount = 0;
+		int[] traceEnd = new int[64];
+		int traceCount = 0;
+		int maxLength = 0;
+		boolean endOfLog = false;
+
+		@Override
+		public void trace(int[] activities, int length) {
+			if (eventCount + length > events.length)
+				events = Arrays.copyOf(events, Math.max(events.length * 2, eventCount + length));
+			System.arraycopy(activities, 0, events, eventCount, length);
+			eventCount += length;
+			maxLength = Math.max(maxLength, length);
+			if (traceCount == traceEnd.length)
+				traceEnd = Arrays.copyOf(traceEnd, traceCount * 2);
+			traceEnd[traceCount++] = eventCount;
+		}
+
+		/**
+		 * Intern this chunk's activities in <code>target</code>, in the order the chunk first saw
+		 * them, and renumber events to match.
+		 */
+		void merge(Scanner target) {
+			int[] ids = new int[scanner.getActivityCount()];
+			for (int activity=0; activity<ids.length; activity++)
+				ids[activity] = target.intern(scanner, activity);
+			for (int i=0; i<eventCount; i++)
+				events[i] = ids[events[i]];
+		}
+
+		List<XTrace> toTraces(XAttributeMap[] eventAttrMaps) {
+			List<XTrace> result = new ArrayList<>(traceCount);
+			int start = 0;
+			for (int t=0; t<traceCount; t++) {
+				XTrace xtrace = new XTraceImpl(new XAttributeMapImpl());
+				for (int i=start; i<traceEnd[t]; i++)
+					xtrace.add(new XEventImpl(eventAttrMaps[events[i]]));
+				result.add(xtrace);
+				start = traceEnd[t];
+			}
+			return result;
+		}
+	}
+
+	private class VariantListener implements TraceListener {
+		final TraceVariantIndex index = new TraceVariantIndex();
+		// index activity of each activity of this reader
+		int[] indexActivity = new int[0];
+		int[] trace = new int[16];
+
+		@Override
+		public void trace(int[] activities, int length) {
+			if (indexActivity.length < getActivityCount()) {
+				int from = indexActivity.length;
+				indexActivity = Arrays.copyOf(indexActivity, getActivityCount());
+				for (int activity=from; activity<indexActivity.length; activity++)
+					indexActivity[activity] = index.internActivity(getActivity(activity));
+			}
+			if (trace.length < length)
+				trace = new int[Math.max(length, trace.length * 2)];
+			for (int i=0; i<length; i++)
+				trace[i] = indexActivity[activities[i]];
+			index.addTrace(trace, length);
+		}
+	}
+
+}
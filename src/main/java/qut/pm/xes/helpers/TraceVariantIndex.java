@@ -0,0 +1,335 @@
+package qut.pm.xes.helpers;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.deckfour.xes.classification.XEventClassifier;
+import org.deckfour.xes.model.XEvent;
+import org.deckfour.xes.model.XLog;
+import org.deckfour.xes.model.XTrace;
+
+import qut.pm.util.LongIntHashMap;
+
+/**
+ * Compressed form of a log as a prefix tree of its trace variants. Activities are interned to
+ * dense ids in the order first seen, and each tree node counts the traces ending there. A log
+ * of millions of traces with few variants costs one node per distinct prefix, with no per trace
+ * objects.
+ *
+ * Variants are numbered in the order first seen, as are nodes, with the root, the empty prefix,
+ * as node zero. Children of a node are a linked list, most recently added first.
+ *
+ * Delimited text is split the same way as {@link DelimitedTraceToXESConverter#convertText(String,
+ * String, String)}, so an index built from text has the traces a converted log would have.
+ *
+ * Not thread safe.
+ */
+public class TraceVariantIndex {
+
+	public static final int ROOT = 0;
+
+	private final List<String> activities = new ArrayList<>();
+	private final Map<String,Integer> activityIndex = new HashMap<>();
+	private final LongIntHashMap children = new LongIntHashMap();
+	private int[] parent = new int[16];
+	private int[] activity = new int[16];
+	private int[] depth = new int[16];
+	private int[] firstChild = new int[16];
+	private int[] nextSibling = new int[16];
+	private int[] endCount = new int[16];
+	private int[] nodeVariant = new int[16];
+	private int nodes = 0;
+	private int[] variantNode = new int[16];
+	private int variants = 0;
+	private long traces = 0;
+	private int[] scratch = new int[16];
+
+	public TraceVariantIndex() {
+		newNode(-1, -1);
+	}
+
+	public static TraceVariantIndex fromXLog(XLog log, XEventClassifier classifier) {
+		TraceVariantIndex index = new TraceVariantIndex();
+		for (XTrace trace: log)
+			index.addTrace(trace, classifier);
+		return index;
+	}
+
+	public static TraceVariantIndex fromXLog(XLog log, Classifier classifier) {
+		return fromXLog(log, classifier.getEventClassifier());
+	}
+
+	public static TraceVariantIndex fromDelimited(String traces) {
+		return fromDelimited(traces, DelimitedTraceToXESConverter.DEFAULT_EVENT_DELIMITER,
+				DelimitedTraceToXESConverter.DEFAULT_TRACE_DELIMITER);
+	}
+
+	/**
+	 * Index delimited text, where delimiters are regular expressions as for
+	 * {@link String#split(String)}. As in the converter, an empty trace ends the log.
+	 */
+	public static TraceVariantIndex fromDelimited(String traces, String eventDelimiter,
+			String traceDelimiter)
+	{
+		TraceVariantIndex index = new TraceVariantIndex();
+		for (String line: traces.split(traceDelimiter)) {
+			if ("".equals(line))
+				break;
+			index.addDelimitedTrace(line, eventDelimiter);
+		}
+		return index;
+	}
+
+	/**
+	 * Index delimited text one line, and trace, at a time, so only the index and the current
+	 * line are held in memory. As in the converter, an empty line ends the log.
+	 */
+	public static TraceVariantIndex fromDelimited(Reader reader, String eventDelimiter)
+			throws IOException
+	{
+		TraceVariantIndex index = new TraceVariantIndex();
+		BufferedReader lines = (reader instanceof BufferedReader)?
+				(BufferedReader)reader : new BufferedReader(reader);
+		String line;
+		while ((line = lines.readLine()) != null) {
+			if ("".equals(line))
+				break;
+			index.addDelimitedTrace(line, eventDelimiter);
+		}
+		return index;
+	}
+
+	private void addDelimitedTrace(String line, String eventDelimiter) {
+		int length = 0;
+		for (String event: line.split(eventDelimiter)) {
+			if ("".equals(event))
+				break;
+			length = push(length, internActivity(event));
+		}
+		addTrace(scratch, length);
+	}
+
+	/**
+	 * @return the variant of the trace
+	 */
+	public int addTrace(XTrace trace, XEventClassifier classifier) {
+		int length = 0;
+		for (XEvent event: trace)
+			length = push(length, internActivity(classifier.getClassIdentity(event)));
+		return addTrace(scratch, length);
+	}
+
+	/**
+	 * @return the variant of the trace
+	 */
+	public int addTrace(List<String> trace) {
+		int length = 0;
+		for (String event: trace)
+			length = push(length, internActivity(event));
+		return addTrace(scratch, length);
+	}
+
+	/**
+	 * Add a trace of activity ids from {@link #internActivity(String)}.
+	 *
+	 * @return the variant of the trace
+	 */
+	public int addTrace(int[] trace, int length) {
+		return addTrace(trace, length, 1);
+	}
+
+	/**
+	 * Add <code>count</code> traces of activity ids from {@link #internActivity(String)}.
+	 *
+	 * @return the variant of the traces
+	 */
+	public int addTrace(int[] trace, int length, int count) {
+		if (count < 1)
+			throw new IllegalArgumentException("Trace count must be positive: " + count);
+		int node = ROOT;
+		for (int i=0; i<length; i++) {
+			long edge = ((long)node << 32) | trace[i];
+			int child = children.get(edge, -1);
+			if (child < 0) {
+				child = newNode(node, trace[i]);
+				children.put(edge, child);
+			}
+			node = child;
+		}
+		if (nodeVariant[node] < 0) {
+			if (variants == variantNode.length)
+				variantNode = Arrays.copyOf(variantNode, variants * 2);
+			variantNode[variants] = node;
+			nodeVariant[node] = variants++;
+		}
+		endCount[node] += count;
+		traces += count;
+		return nodeVariant[node];
+	}
+
+	private int push(int length, int activityId) {
+		if (length == scratch.length)
+			scratch = Arrays.copyOf(scratch, length * 2);
+		scratch[length] = activityId;
+		return length + 1;
+	}
+
+	public int internActivity(String name) {
+		Integer id = activityIndex.get(name);
+		if (id == null) {
+			id = activities.size();
+			activities.add(name);
+			activityIndex.put(name, id);
+		}
+		return id;
+	}
+
+	/**
+	 * Id of the activity, or -1 if no trace has it.
+	 */
+	public int activityIndex(String name) {
+		Integer id = activityIndex.get(name);
+		return (id == null)? -1 : id;
+	}
+
+	public int getActivityCount() {
+		return activities.size();
+	}
+
+	public String getActivity(int activityId) {
+		return activities.get(activityId);
+	}
+
+	public long getTraceCount() {
+		return traces;
+	}
+
+	public int getVariantCount() {
+		return variants;
+	}
+
+	/**
+	 * Number of traces of <code>variant</code>.
+	 */
+	public int getCount(int variant) {
+		return endCount[variantNode[variant]];
+	}
+
+	public int getVariantNode(int variant) {
+		return variantNode[variant];
+	}
+
+	public int[] getVariantActivities(int variant) {
+		int node = variantNode[variant];
+		int[] result = new int[depth[node]];
+		for (int i=result.length-1; i>=0; i--) {
+			result[i] = activity[node];
+			node = parent[node];
+		}
+		return result;
+	}
+
+	public List<String> getVariant(int variant) {
+		int[] ids = getVariantActivities(variant);
+		List<String> result = new ArrayList<>(ids.length);
+		for (int id: ids)
+			result.add(activities.get(id));
+		return result;
+	}
+
+	/**
+	 * The variant of <code>trace</code>, or -1 if no trace in the index is the same.
+	 */
+	public int findVariant(List<String> trace) {
+		int node = ROOT;
+		for (String event: trace) {
+			int id = activityIndex(event);
+			if (id < 0)
+				return -1;
+			node = children.get(((long)node << 32) | id, -1);
+			if (node < 0)
+				return -1;
+		}
+		return nodeVariant[node];
+	}
+
+	public int getNodeCount() {
+		return nodes;
+	}
+
+	public int getParent(int node) {
+		return parent[node];
+	}
+
+	/**
+	 * Activity of the last event of the prefix at <code>node</code>, -1 for the root.
+	 */
+	public int getNodeActivity(int node) {
+		return activity[node];
+	}
+
+	public int getDepth(int node) {
+		return depth[node];
+	}
+
+	/**
+	 * First child of <code>node</code>, or -1.
+	 */
+	public int getFirstChild(int node) {
+		return firstChild[node];
+	}
+
+	/**
+	 * Next sibling of <code>node</code>, or -1.
+	 */
+	public int getNextSibling(int node) {
+		return nextSibling[node];
+	}
+
+	/**
+	 * Number of traces which are exactly the prefix at <code>node</code>.
+	 */
+	public int getEndCount(int node) {
+		return endCount[node];
+	}
+
+	/**
+	 * Variant ending at <code>node</code>, or -1.
+	 */
+	public int getNodeVariant(int node) {
+		return nodeVariant[node];
+	}
+
+	private int newNode(int parentNode, int activityId) {
+		if (nodes == parent.length) {
+			int capacity = nodes * 2;
+			parent = Arrays.copyOf(parent, capacity);
+			activity = Arrays.copyOf(activity, capacity);
+			depth = Arrays.copyOf(depth, capacity);
+			firstChild = Arrays.copyOf(firstChild, capacity);
+			nextSibling = Arrays.copyOf(nextSibling, capacity);
+			endCount = Arrays.copyOf(endCount, capacity);
+			nodeVariant = Arrays.copyOf(nodeVariant, capacity);
+		}
+		int node = nodes++;
+		parent[node] = parentNode;
+		activity[node] = activityId;
+		depth[node] = (parentNode < 0)? 0 : depth[parentNode] + 1;
+		firstChild[node] = -1;
+		nextSibling[node] = -1;
+		endCount[node] = 0;
+		nodeVariant[node] = -1;
+		if (parentNode >= 0) {
+			nextSibling[node] = firstChild[parentNode];
+			firstChild[parentNode] = node;
+		}
+		return node;
+	}
+
+}
@@ -1,20 +1,146 @@
 package qut.pm.xes.helpers;
 
-import java.io.FileOutputStream;
+import java.util.concurrent.ForkJoinPool;
 
-import org.deckfour.xes.model.XLog;
-import org.deckfour.xes.out.XesXmlSerializer;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
 
+/**
+ * Converts a delimited trace file to XES, streaming traces from a
+ * {@link MappedDelimitedTraceReader} to an {@link XESStreamWriter}, so memory use does not
+ * depend on the size of the log.
+ *
+ * Usage: <code>xesc [options] input output</code>. Delimiters default to <code>",,"</code>
+ * between events and a newline between traces, and may use the escapes \n, \r, \t and \\.
+ * Output is compressed with gzip when asked for or when the output file name ends in
+ * <code>.gz</code>.
+ */
 public class XESConverterCommandLine {
 
+	private static final String DEFAULT_EVENT_DELIMITER = ",,";
+	private static final String DEFAULT_TRACE_DELIMITER = "\n";
+
 	public static void main(String[] args) throws Exception{
-		// very basic for now - DCDT only
-		DelimitedTraceToXESConverter converter = new DelimitedTraceToXESConverter();
-		XLog log = converter.convertFile(args[0],",,", "\n");
-		XesXmlSerializer xser = new XesXmlSerializer();
-		FileOutputStream fos = new FileOutputStream(args[1]);
-		xser.serialize(log, fos);
-		fos.close();
+		CommandLineParser parser = new DefaultParser();
+		final Options options = new Options();
+		options.addOption(Option.builder("e")
+				.hasArg()
+				.longOpt("event-delimiter")
+				.desc("Delimiter between events (default ,,)")
+				.build());
+		options.addOption(Option.builder("t")
+				.hasArg()
+				.longOpt("trace-delimiter")
+				.desc("Delimiter between traces (default \\n)")
+				.build());
+		options.addOption(new Option("z", "gzip", false,
+				"Compress output with gzip. Implied by an output file ending in .gz."));
+		options.addOption(Option.builder("b")
+				.hasArg()
+				.longOpt("buffer-size")
+				.desc("Output buffer size in bytes (default " + XESStreamWriter.DEFAULT_BUFFER_BYTES + ")")
+				.build());
+		options.addOption(Option.builder("w")
+				.hasArg()
+				.longOpt("window-size")
+				.desc("Input mapping window size in bytes (default "
+						+ MappedDelimitedTraceReader.DEFAULT_WINDOW_BYTES + ")")
+				.build());
+		options.addOption(Option.builder("c")
+				.hasArg()
+				.longOpt("chunk-size")
+				.desc("Input chunk size in bytes for parallel scans (default "
+						+ MappedDelimitedTraceReader.DEFAULT_CHUNK_BYTES + ")")
+				.build());
+		options.addOption(Option.builder("p")
+				.hasArg()
+				.longOpt("threads")
+				.desc("Threads scanning the input (default 1)")
+				.build());
+		CommandLine cmd = null;
+		try {
+			cmd = parser.parse(options,args);
+			if (cmd.getArgs().length != 2)
+				throw new ParseException("Expected input and output files");
+		}catch (ParseException ex) {
+			exitWithHelp(options, ex.getMessage());
+			return;
+		}
+		String inFile = cmd.getArgs()[0];
+		String outFile = cmd.getArgs()[1];
+		String eventDelimiter = unescape(cmd.getOptionValue("e", DEFAULT_EVENT_DELIMITER));
+		String traceDelimiter = unescape(cmd.getOptionValue("t", DEFAULT_TRACE_DELIMITER));
+		boolean gzip = cmd.hasOption("z") || outFile.endsWith(".gz");
+		int bufferBytes = Integer.parseInt(
+				cmd.getOptionValue("b", String.valueOf(XESStreamWriter.DEFAULT_BUFFER_BYTES)));
+		int windowBytes = Integer.parseInt(
+				cmd.getOptionValue("w", String.valueOf(MappedDelimitedTraceReader.DEFAULT_WINDOW_BYTES)));
+		int chunkBytes = Integer.parseInt(
+				cmd.getOptionValue("c", String.valueOf(MappedDelimitedTraceReader.DEFAULT_CHUNK_BYTES)));
+		int threads = Integer.parseInt(cmd.getOptionValue("p", "1"));
+		convert(inFile, outFile, eventDelimiter, traceDelimiter, gzip, bufferBytes, windowBytes,
+				chunkBytes, threads);
+	}
+
+	public static long convert(String inFile, String outFile, String eventDelimiter,
+			String traceDelimiter, boolean gzip, int bufferBytes, int windowBytes, int chunkBytes,
+			int threads) throws Exception
+	{
+		MappedDelimitedTraceReader reader = new MappedDelimitedTraceReader(eventDelimiter,
+				traceDelimiter, windowBytes, chunkBytes);
+		try (XESStreamWriter writer = XESStreamWriter.open(outFile, gzip, bufferBytes)) {
+			MappedDelimitedTraceReader.TraceListener listener =
+					(activities, length) -> writer.writeTrace(activities, length, reader::getActivity);
+			if (threads > 1) {
+				ForkJoinPool pool = new ForkJoinPool(threads);
+				try {
+					reader.read(inFile, pool, listener);
+				}finally {
+					pool.shutdown();
+				}
+			}else {
+				reader.read(inFile, listener);
+			}
+			return writer.getTraceCount();
+		}
+	}
+
+	static String unescape(String delimiter) {
+		StringBuilder result = new StringBuilder();
+		for (int i=0; i<delimiter.length(); i++) {
+			char c = delimiter.charAt(i);
+			if (c != '\\' || i+1 == delimiter.length()) {
+				result.append(c);
+				continue;
+			}
+			char next = delimiter.charAt(++i);
+			switch (next) {
+			case 'n':
+				result.append('\n');
+				break;
+			case 'r':
+				result.append('\r');
+				break;
+			case 't':
+				result.append('\t');
+				break;
+			default:
+				result.append(next);
+			}
+		}
+		return result.toString();
+	}
+
+	private static void exitWithHelp(final Options options, String msg) {
+		HelpFormatter helpFormatter = new HelpFormatter();
+		System.err.println(msg);
+		helpFormatter.printHelp("xesc [options] input output",options);
+		System.exit(1);
 	}
-	
+
 }
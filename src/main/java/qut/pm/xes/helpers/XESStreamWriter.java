@@ -0,0 +1,217 @@
+package qut.pm.xes.helpers;
+
+import static qut.pm.xes.helpers.XESLogUtils.XES_CONCEPT_NAME;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes an XES log a trace at a time, so memory use does not grow with the log. Events have
+ * only a name attribute, as from {@link DelimitedTraceToXESConverter}, and the XML of each
+ * distinct event is encoded once and copied for every later occurrence.
+ *
+ * The log element is written on creation and closed by {@link #close()}, which must be called
+ * for the file to be complete. Not thread safe.
+ */
+public class XESStreamWriter implements Closeable {
+
+	public static final int DEFAULT_BUFFER_BYTES = 1 << 20;
+
+	private static final String HEADER =
+			"<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n"
+			+ "<log xes.version=\"1.0\" xes.features=\"nested-attributes\" "
+			+ "xmlns=\"http://www.xes-standard.org/\">\n"
+			+ "\t<extension name=\"Concept\" prefix=\"concept\" "
+			+ "uri=\"http://www.xes-standard.org/concept.xesext\"/>\n";
+	private static final byte[] TRACE_START = bytes("\t<trace>\n");
+	private static final byte[] TRACE_END = bytes("\t</trace>\n");
+	private static final byte[] FOOTER = bytes("</log>\n");
+
+	private final WritableByteChannel channel;
+	private final ByteBuffer buffer;
+	private final Map<String,byte[]> labelEvents = new HashMap<>();
+	private final List<byte[]> activityEvents = new ArrayList<>();
+	private long traceCount = 0;
+	private boolean closed = false;
+
+	public XESStreamWriter(WritableByteChannel channel) throws IOException {
+		this(channel, DEFAULT_BUFFER_BYTES);
+	}
+
+	public XESStreamWriter(WritableByteChannel channel, int bufferBytes) throws IOException {
+		if (bufferBytes < 1)
+			throw new IllegalArgumentException("Buffer must be positive: " + bufferBytes);
+		this.channel = channel;
+		this.buffer = ByteBuffer.allocateDirect(bufferBytes);
+		write(bytes(HEADER));
+	}
+
+	/**
+	 * Create or replace the file at <code>filePath</code>.
+	 *
+	 * @param filePath
+	 * @param gzip compress the file, as for <code>.xes.gz</code>
+	 * @param bufferBytes size of the output buffer, and of the compressor's
+	 * @return
+	 * @throws IOException
+	 */
+	public static XESStreamWriter open(String filePath, boolean gzip, int bufferBytes)
+			throws IOException
+	{
+		FileChannel file = FileChannel.open(Paths.get(filePath),
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.WRITE);
+		try {
+			WritableByteChannel channel = file;
+			if (gzip) {
+				channel = Channels.newChannel(
+						new GZIPOutputStream(Channels.newOutputStream(file), bufferBytes));
+			}
+			return new XESStreamWriter(channel, bufferBytes);
+		} catch (IOException | RuntimeException e) {
+			try {
+				file.close();
+			} catch (IOException closeFailure) {
+				e.addSuppressed(closeFailure);
+			}
+			throw e;
+		}
+	}
+
+	public long getTraceCount() {
+		return traceCount;
+	}
+
+	public void writeTrace(List<String> trace) throws IOException {
+		write(TRACE_START);
+		for (String label: trace) {
+			byte[] event = labelEvents.get(label);
+			if (event == null) {
+				event = encodeEvent(label);
+				labelEvents.put(label, event);
+			}
+			write(event);
+		}
+		write(TRACE_END);
+		traceCount++;
+	}
+
+	/**
+	 * Write a trace of activity ids, such as from a {@link MappedDelimitedTraceReader}. Ids must
+	 * mean the same activity in every call to the same writer.
+	 *
+	 * @param activities
+	 * @param length
+	 * @param activityLabels label of each activity id
+	 * @throws IOException
+	 */
+	public void writeTrace(int[] activities, int length, IntFunction<String> activityLabels)
+			throws IOException
+	{
+		write(TRACE_START);
+		for (int i=0; i<length; i++) {
+			int activity = activities[i];
+			while (activityEvents.size() <= activity)
+				activityEvents.add(null);
+			byte[] event = activityEvents.get(activity);
+			if (event == null) {
+				event = encodeEvent(activityLabels.apply(activity));
+				activityEvents.set(activity, event);
+			}
+			write(event);
+		}
+		write(TRACE_END);
+		traceCount++;
+	}
+
+	/**
+	 * Write the end of the log and close the channel.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed)
+			return;
+		closed = true;
+		try {
+			write(FOOTER);
+			flush();
+		} finally {
+			channel.close();
+		}
+	}
+
+	private void write(byte[] bytes) throws IOException {
+		if (bytes.length > buffer.remaining()) {
+			flush();
+			if (bytes.length > buffer.capacity()) {
+				ByteBuffer large = ByteBuffer.wrap(bytes);
+				while (large.hasRemaining())
+					channel.write(large);
+				return;
+			}
+		}
+		buffer.put(bytes);
+	}
+
+	private void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+
+	private static byte[] encodeEvent(String label) {
+		return bytes("\t\t<event>\n\t\t\t<string key=\"" + XES_CONCEPT_NAME + "\" value=\""
+				+ escape(label) + "\"/>\n\t\t</event>\n");
+	}
+
+	static String escape(String value) {
+		StringBuilder result = new StringBuilder(value.length());
+		for (int i=0; i<value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '&':
+				result.append("&amp;");
+				break;
+			case '<':
+				result.append("&lt;");
+				break;
+			case '>':
+				result.append("&gt;");
+				break;
+			case '"':
+				result.append("&quot;");
+				break;
+			case '\'':
+				result.append("&apos;");
+				break;
+			default:
+				if (c == '\t' || c == '\n' || c == '\r')
+					result.append("&#").append((int)c).append(';');
+				else if (c < 0x20)
+					result.append('\uFFFD'); // not allowed in XML 1.0
+				else
+					result.append(c);
+			}
+		}
+		return result.toString();
+	}
+
+	private static byte[] bytes(String text) {
+		return text.getBytes(StandardCharsets.UTF_8);
+	}
+
+}
@@ -0,0 +1,75 @@
+package qut.pm.prom.helpers;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.processmining.models.graphbased.directed.petrinet.StochasticNet;
+import org.processmining.models.graphbased.directed.petrinet.elements.Place;
+import org.processmining.models.semantics.petrinet.Marking;
+
+public class MarkingTranslatorTest {
+
+	private PetriNetFragmentParser parser = null;
+	private StochasticNet source = null;
+	private StochasticNet target = null;
+
+	@Before
+	public void setUp() {
+		parser = new PetriNetFragmentParser();
+		String[] specs = new String[] {"I -> [a] -> p1 -> [b] -> F", "I2 -> [a] -> p1 -> [c] -> F"};
+		source = parser.createNetArgs("source", specs);
+		target = parser.createNetArgs("target", specs);
+	}
+
+	private static Place place(StochasticNet net, String label) {
+		for (Place place: net.getPlaces()) {
+			if (place.getLabel().equals(label))
+				return place;
+		}
+		return null;
+	}
+
+	@Test
+	public void initialMarkingMultiset() {
+		Marking marking = new Marking();
+		marking.add(place(source, "I"), 2);
+		marking.add(place(source, "I2"));
+		Marking expected = new Marking();
+		expected.add(place(target, "I"), 2);
+		expected.add(place(target, "I2"));
+		assertEquals(expected, StochasticPetriNetUtils.findEquivalentInitialMarking(marking, target));
+	}
+
+	@Test
+	public void initialMarkingMissingPlace() {
+		Marking marking = new Marking();
+		marking.add(place(source, "I"));
+		StochasticNet other = parser.createNet("other", "Start -> [a] -> End");
+		assertEquals(new Marking(), new MarkingTranslator(other).translateInitialMarking(marking));
+	}
+
+	@Test
+	public void finalMarkingsOnlySinks() {
+		MarkingTranslator translator = new MarkingTranslator(target);
+		Marking finalMarking = new Marking();
+		finalMarking.add(place(source, "F"), 3);
+		Marking notSink = new Marking();
+		notSink.add(place(source, "p1"));
+		Set<Marking> finalMarkings = new HashSet<>();
+		finalMarkings.add(finalMarking);
+		finalMarkings.add(notSink);
+		Marking expected = new Marking();
+		expected.add(place(target, "F"), 3);
+		Set<Marking> expectedMarkings = new HashSet<>();
+		expectedMarkings.add(expected);
+		expectedMarkings.add(new Marking());
+		assertEquals(expectedMarkings, translator.translateFinalMarkings(finalMarkings));
+		assertEquals(expectedMarkings, 
+				StochasticPetriNetUtils.findEquivalentFinalMarkings(finalMarkings, target));
+	}
+
+}
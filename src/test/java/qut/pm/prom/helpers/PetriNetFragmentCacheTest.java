@@ -0,0 +1,78 @@
+package qut.pm.prom.helpers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.processmining.models.graphbased.directed.petrinet.StochasticNet;
+import org.processmining.models.graphbased.directed.petrinet.elements.Place;
+
+import qut.pm.spm.AcceptingStochasticNet;
+
+public class PetriNetFragmentCacheTest {
+
+	private PetriNetFragmentCache cache = null;
+
+	@Before
+	public void setUp() {
+		cache = new PetriNetFragmentCache(2);
+	}
+
+	@Test
+	public void sameAsParser() {
+		String[] specs = new String[] {"I -> [a] -> p1 -> {b 0.4} -> F", "p1 -> {tau 2.0} -> F"};
+		StochasticNet expected = new PetriNetFragmentParser().createNetArgs("expected", specs);
+		StochasticNet net = cache.createNetArgs("cached", specs);
+		assertTrue( StochasticPetriNetUtils.areEqual(expected, net) );
+		assertEquals("cached", net.getLabel());
+	}
+
+	@Test
+	public void hitReturnsFreshNet() {
+		StochasticNet net1 = cache.createNet("net", "I -> [a] -> F");
+		net1.addPlace("extra");
+		StochasticNet net2 = cache.createNet("net", "I -> [a] -> F");
+		assertNotSame(net1, net2);
+		assertEquals(2, net2.getPlaces().size());
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+	}
+
+	@Test
+	public void evictsLeastRecentlyUsed() {
+		FragmentNet a = cache.getFragmentNet("I -> [a] -> F");
+		cache.getFragmentNet("I -> [b] -> F");
+		assertSame(a, cache.getFragmentNet("I -> [a] -> F"));
+		cache.getFragmentNet("I -> [c] -> F");
+		assertEquals(2, cache.size());
+		assertSame(a, cache.getFragmentNet("I -> [a] -> F"));
+		cache.getFragmentNet("I -> [b] -> F");
+		assertEquals(4, cache.getMisses());
+	}
+
+	@Test
+	public void acceptingNet() {
+		AcceptingStochasticNet anet = cache.createAcceptingNet("anet",
+				"I -> [a] -> p1 -> [b] -> F", "p1 -> [c] -> F");
+		assertEquals(1, anet.getInitialMarking().size());
+		for (Place place: anet.getInitialMarking()) {
+			assertEquals("I", place.getLabel());
+		}
+		for (Place place: anet.getFinalMarkings().iterator().next()) {
+			assertEquals("F", place.getLabel());
+		}
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void invalidNotCached() {
+		try {
+			cache.createNet("invalid", "I --> [a] -> F");
+		}finally {
+			assertEquals(0, cache.size());
+		}
+	}
+
+}
@@ -0,0 +1,104 @@
+package qut.pm.prom.helpers;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import org.processmining.models.graphbased.directed.petrinet.StochasticNet;
+
+/**
+ * Rough timings for the fragment parser. Not a unit test, run from the command line with the
+ * test classpath. Times per token should stay flat as fragments get longer.
+ */
+public class PetriNetFragmentParserBenchmark {
+
+	private static final int[] TOKEN_COUNTS = {1000, 10000, 100000};
+	private static final int REPEATS = 5;
+	private static final int[] DUPLICATE_LABEL_COUNTS = {1000, 10000, 50000};
+	private static final int BATCH_SIZE = 20000;
+
+	private static String chainFragment(int tokenCount) {
+		// each step is six tokens: -> [ tn ] -> pn
+		StringBuilder result = new StringBuilder("p0");
+		for (int i=0; i < tokenCount/6; i++) {
+			result.append(" -> [t");
+			result.append(i);
+			result.append("] -> p");
+			result.append(i+1);
+		}
+		return result.toString();
+	}
+
+	private static void benchmarkTokenize() {
+		PetriNetFragmentParser parser = new PetriNetFragmentParser();
+		// warm up
+		parser.tokenize(chainFragment(TOKEN_COUNTS[TOKEN_COUNTS.length-1]));
+		for (int tokenCount: TOKEN_COUNTS) {
+			String fragment = chainFragment(tokenCount);
+			int tokens = 0;
+			long best = Long.MAX_VALUE;
+			for (int i=0; i<REPEATS; i++) {
+				long start = System.nanoTime();
+				tokens = parser.tokenize(fragment).size();
+				best = Math.min(best, System.nanoTime() - start);
+			}
+			System.out.println(String.format("tokenize %8d tokens %10.3f ms %8.1f ns/token",
+					tokens, best / 1000000.0, (double)best/tokens));
+		}
+	}
+
+	/**
+	 * Nets of duplicate labelled transitions <code>[a__n]</code>, which are then referred back to by 
+	 * id. 
+	 */
+	private static void benchmarkDuplicateLabels() {
+		for (int transitionCount: DUPLICATE_LABEL_COUNTS) {
+			PetriNetFragmentParser parser = new PetriNetFragmentParser();
+			StochasticNet net = parser.createNet("dupes", "I -> [a__0] -> F");
+			long start = System.nanoTime();
+			for (int i=1; i<transitionCount; i++) {
+				parser.addToNet(net, "I -> [a__" + i + "] -> F");
+			}
+			long build = System.nanoTime() - start;
+			start = System.nanoTime();
+			for (int i=0; i<transitionCount; i++) {
+				parser.addToNet(net, "I -> [a__" + i + "] -> F");
+			}
+			long lookup = System.nanoTime() - start;
+			System.out.println(String.format(
+					"duplicates %8d transitions build %10.3f ms lookup %10.3f ms %8.1f us/addToNet",
+					net.getTransitions().size(), build / 1000000.0, lookup / 1000000.0, 
+					lookup / 1000.0 / transitionCount ));
+		}
+	}
+
+	/**
+	 * Many small independent nets through {@link PetriNetFragmentParser#parseAll(Map, ForkJoinPool)}
+	 * with increasing parallelism.
+	 */
+	private static void benchmarkParseAll() {
+		Map<String,String[]> specs = new LinkedHashMap<>();
+		for (int i=0; i<BATCH_SIZE; i++) {
+			specs.put("net" + i, new String[] {"I -> {a 0.4} -> p1 -> {b 0.6} -> F",
+											   "p1 -> {c" + i + " 2.0} -> p2 -> [tau] -> F"});
+		}
+		int processors = Runtime.getRuntime().availableProcessors();
+		for (int threads = 1; threads <= processors; threads *= 2) {
+			ForkJoinPool pool = new ForkJoinPool(threads);
+			PetriNetFragmentParser.parseAll(specs, pool);
+			long start = System.nanoTime();
+			PetriNetFragmentParser.parseAll(specs, pool);
+			long elapsed = System.nanoTime() - start;
+			pool.shutdown();
+			System.out.println(String.format("parseAll %8d nets %3d threads %10.3f ms %10.0f nets/s",
+					BATCH_SIZE, threads, elapsed / 1000000.0, BATCH_SIZE * 1.0e9 / elapsed));
+		}
+	}
+
+	public static void main(String[] args) {
+		benchmarkTokenize();
+		benchmarkDuplicateLabels();
+		benchmarkParseAll();
+	}
+
+}
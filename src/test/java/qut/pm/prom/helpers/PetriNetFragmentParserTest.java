@@ -2,6 +2,13 @@ package qut.pm.prom.helpers;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
 
 import org.junit.Before;
@@ -13,6 +20,8 @@ import org.processmining.models.graphbased.directed.petrinet.elements.Transition
 import org.processmining.models.graphbased.directed.petrinet.impl.StochasticNetImpl;
 import org.processmining.models.semantics.petrinet.Marking;
 
+import qut.pm.spm.AcceptingStochasticNet;
+
 public class PetriNetFragmentParserTest {
 
 	private PetriNetFragmentParser parser = null;
@@ -27,6 +36,99 @@ public class PetriNetFragmentParserTest {
 		parser.createNet("invalid", "I --> ~jerry [a] -> F");
 	}
 
+	@Test
+	public void invalidInputMessage() {
+		try {
+			parser.createNet("invalid", "I --> ~jerry [a] -> F");
+			fail("Expected lexer error");
+		}catch (RuntimeException re) {
+			assertEquals("Unexpected character in input: --> ~jerry [a] -> F", re.getMessage());
+		}
+	}
+
+	@Test
+	public void unexpectedSymbolMessage() {
+		try {
+			parser.createNet("invalid", "I -> [a 0.4] -> F");
+			fail("Expected parse error");
+		}catch (RuntimeException re) {
+			assertEquals("Expected one of [SIMPLE_TRAN_END, ID_PREFIX], but found 0.4:WEIGHT", 
+					re.getMessage());
+		}
+	}
+
+	@Test
+	public void readerMultiLine() throws Exception {
+		StochasticNet expected = parser.createNetArgs("expected", 
+				"I -> [a] -> p1 -> [b] -> F",
+				"p1 -> {c 0.5} -> p1");
+		String text = "I -> [a] -> p1 -> [b] -> F\r\n"
+					+ "\n"
+					+ "p1 -> {c 0.5} -> p1\n";
+		StochasticNet net = parser.createNet("reader", new StringReader(text));
+		assertTrue( StochasticPetriNetUtils.areEqual(expected, net) );
+	}
+
+	@Test
+	public void pathMultiLine() throws Exception {
+		StochasticNet expected = parser.createNetArgs("expected", 
+				"I -> [a] -> p1 -> [b] -> F",
+				"p1 -> [c] -> p1");
+		File fragFile = File.createTempFile("fragment_parser_test", ".frag");
+		fragFile.deleteOnExit();
+		PrintWriter out = new PrintWriter(fragFile.getAbsolutePath());
+		out.println("I -> [a] -> p1 -> [b] -> F");
+		out.println("p1 -> [c] -> p1");
+		out.close();
+		StochasticNet net = parser.createNet("path", fragFile.toPath());
+		assertTrue( StochasticPetriNetUtils.areEqual(expected, net) );
+		net = PetrinetExportUtils.readPNetFragmentToStochasticNet(fragFile);
+		assertTrue( StochasticPetriNetUtils.areEqual(expected, net) );
+	}
+
+	@Test
+	public void parseAll() {
+		Map<String,String[]> specs = new LinkedHashMap<>();
+		for (int i=0; i<50; i++) {
+			specs.put("net" + i, new String[] {"I -> {a 0." + (i%9+1) + "} -> p1 -> [b] -> F",
+											   "p1 -> [c" + i + "] -> F"});
+		}
+		Map<String,AcceptingStochasticNet> result = PetriNetFragmentParser.parseAll(specs);
+		assertEquals(specs.keySet(), result.keySet());
+		for (Map.Entry<String,String[]> spec: specs.entrySet()) {
+			StochasticNet expected = parser.createNetArgs(spec.getKey(), spec.getValue());
+			AcceptingStochasticNet anet = result.get(spec.getKey());
+			assertTrue( StochasticPetriNetUtils.areEqual(expected, anet.getNet()) );
+			checkMarkings(anet, "I", "F");
+		}
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void parseAllInvalid() {
+		Map<String,String[]> specs = new LinkedHashMap<>();
+		specs.put("valid", new String[] {"I -> [a] -> F"});
+		specs.put("invalid", new String[] {"I --> [a] -> F"});
+		PetriNetFragmentParser.parseAll(specs);
+	}
+
+	@Test
+	public void longChain() {
+		final int length = 500;
+		StochasticNet expected = new StochasticNetImpl("expected");
+		StringBuilder text = new StringBuilder("p0");
+		Place prev = expected.addPlace("p0");
+		for (int i=0; i<length; i++) {
+			Transition tran = expected.addTransition("t" + i);
+			Place next = expected.addPlace("p" + (i+1));
+			expected.addArc(prev, tran);
+			expected.addArc(tran, next);
+			prev = next;
+			text.append(" -> [t" + i + "] -> p" + (i+1));
+		}
+		StochasticNet net = parser.createNet("long", text.toString());
+		assertTrue( StochasticPetriNetUtils.areEqual(expected, net) );
+	}
+
 	
 	@Test
 	public void ptpFragment() {
@@ -198,6 +300,7 @@ public class PetriNetFragmentParserTest {
 		parser.addToNet(net, "I -> [a__2] -> F");
 		parser.addToNet(net, "I -> [a__2] -> p1 -> [b] -> F");
 		assertTrue( StochasticPetriNetUtils.areEqualWithDupes(expected, net, nme, nmn) );
+		assertEquals(3, net.getTransitions().size());
 	}
 
 	
@@ -228,6 +331,17 @@ public class PetriNetFragmentParserTest {
 		parser.addToNet(net, "I -> {a__2 0.5} -> F");
 		parser.addToNet(net, "I -> {a__2 0.5} -> p1 -> {b} -> F");
 		assertTrue( StochasticPetriNetUtils.areEqualWithDupes(expected, net, nme, nmn) );
+		assertEquals(3, net.getTransitions().size());
+	}
+
+	@Test
+	public void idBackrefsNewNet() {
+		AcceptingPetriNet net1 = parser.createAcceptingNet("net1", "I -> [a__1] -> F");
+		AcceptingPetriNet net2 = parser.createAcceptingNet("net2", "I -> [a__1] -> F");
+		parser.addToAcceptingNet(net2, "I -> [a__1] -> p1");
+		assertEquals(1, net1.getNet().getTransitions().size());
+		assertEquals(1, net2.getNet().getTransitions().size());
+		assertEquals(3, net2.getNet().getPlaces().size());
 	}
 	
 	@Test
@@ -457,5 +571,64 @@ public class PetriNetFragmentParserTest {
 		assertTrue( StochasticPetriNetUtils.areEqualWithDupes(expected, net, nm1, nm2) );
 	}
 
-	
+	@Test
+	public void fragmentNet() {
+		FragmentNet fragment = parser.createFragmentNet(
+				"I -> [a] -> p1 -> {b__1 0.4} -> F",
+				"p1 -> [a] -> F",
+				"I -> [a] -> p1");
+		assertEquals(5, fragment.getNodeCount());
+		assertEquals(6, fragment.getArcCount());
+		assertTrue(fragment.isPlace(0));
+		assertEquals("I", fragment.getLabel(0));
+		assertTrue(fragment.isTransition(1));
+		assertEquals("a", fragment.getId(1));
+		assertTrue(fragment.isWeighted(3));
+		assertEquals("b__1", fragment.getId(3));
+		assertEquals(0.4, fragment.getWeight(3), 0.0001);
+		assertTrue(fragment.hasArc(2,1));
+		assertTrue(fragment.hasArc(1,2));
+		assertTrue(fragment.hasArc(1,4));
+	}
+
+	@Test
+	public void fragmentNetToStochasticNet() {
+		String[] specs = new String[] {"I -> [a] -> p1 -> {tau 0.4} -> F", "p1 -> {c 2.0} -> F"};
+		StochasticNet expected = parser.createNetArgs("expected", specs);
+		StochasticNet net = parser.createFragmentNet(specs).toStochasticNet("net");
+		assertTrue( StochasticPetriNetUtils.areEqual(expected, net) );
+	}
+
+	@Test
+	public void fragmentNetUnchangedByLaterParse() {
+		FragmentNet fragment = parser.createFragmentNet("I -> [a] -> F");
+		parser.addToNet(new StochasticNetImpl("other"), "I -> [b] -> p1 -> [c] -> F");
+		parser.createFragmentNet("I -> [d] -> F");
+		assertEquals(3, fragment.getNodeCount());
+		assertEquals(2, fragment.getArcCount());
+	}
+
+	@Test
+	public void missingTransitionBrackets() {
+		try {
+			parser.createFragmentNet("I -> a -> F");
+			fail("Expected parse error");
+		}catch (RuntimeException re) {
+			assertTrue(re.getMessage().startsWith(
+					"Expected one of [SIMPLE_TRAN_START, WEIGHTED_TRAN_START], but found"));
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void fragmentArcToUnknownNode() {
+		FragmentNet fragment = new FragmentNet();
+		fragment.addArc(fragment.addPlace("I"), -1);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void fragmentArcBetweenPlaces() {
+		FragmentNet fragment = new FragmentNet();
+		fragment.addArc(fragment.addPlace("I"), fragment.addPlace("F"));
+	}
+
 }
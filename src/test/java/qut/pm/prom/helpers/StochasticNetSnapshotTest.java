@@ -0,0 +1,136 @@
+package qut.pm.prom.helpers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.processmining.models.graphbased.directed.petrinet.PetrinetNode;
+import org.processmining.models.graphbased.directed.petrinet.StochasticNet;
+import org.processmining.models.graphbased.directed.petrinet.elements.Place;
+import org.processmining.models.graphbased.directed.petrinet.elements.Transition;
+
+public class StochasticNetSnapshotTest {
+
+	private PetriNetFragmentParser parser = null;
+	private StochasticNet net = null;
+	private StochasticNetSnapshot snapshot = null;
+	private int[] buffer = null;
+
+	@Before
+	public void setUp() {
+		parser = new PetriNetFragmentParser();
+		net = parser.createNetArgs("snapshot", 
+				"I -> {a 2.0} -> p1 -> [b] -> p2 -> [d] -> F",
+				"p1 -> [c] -> p2",
+				"I -> [e] -> F");
+		snapshot = new StochasticNetSnapshot(net);
+		buffer = new int[net.getTransitions().size() + net.getPlaces().size()];
+	}
+
+	private Place place(String label) {
+		for (Place place: net.getPlaces()) {
+			if (place.getLabel().equals(label))
+				return place;
+		}
+		return null;
+	}
+
+	private Transition transition(String label) {
+		for (Transition transition: net.getTransitions()) {
+			if (transition.getLabel().equals(label))
+				return transition;
+		}
+		return null;
+	}
+
+	private Set<String> transitionLabels(int count) {
+		Set<String> result = new TreeSet<>();
+		for (int i=0; i<count; i++)
+			result.add(snapshot.getTransitionLabel(buffer[i]));
+		return result;
+	}
+
+	private Set<String> placeLabels(int count) {
+		Set<String> result = new TreeSet<>();
+		for (int i=0; i<count; i++)
+			result.add(snapshot.getPlaceLabel(buffer[i]));
+		return result;
+	}
+
+	private static Set<String> labels(Collection<? extends PetrinetNode> nodes) {
+		Set<String> result = new TreeSet<>();
+		for (PetrinetNode node: nodes)
+			result.add(node.getLabel());
+		return result;
+	}
+
+	@Test
+	public void matchesNetHelpers() {
+		for (Place place: net.getPlaces()) {
+			int p = snapshot.indexOf(place);
+			assertEquals(labels(StochasticPetriNetUtils.predecessors(place)), 
+					transitionLabels(StochasticPetriNetUtils.placePredecessors(snapshot, p, buffer)));
+			assertEquals(labels(StochasticPetriNetUtils.successors(place)), 
+					transitionLabels(StochasticPetriNetUtils.placeSuccessors(snapshot, p, buffer)));
+		}
+		for (Transition transition: net.getTransitions()) {
+			int t = snapshot.indexOf(transition);
+			assertEquals(labels(StochasticPetriNetUtils.predecessors(transition)), 
+					placeLabels(StochasticPetriNetUtils.transitionPredecessors(snapshot, t, buffer)));
+			assertEquals(labels(StochasticPetriNetUtils.successors(transition)), 
+					placeLabels(StochasticPetriNetUtils.transitionSuccessors(snapshot, t, buffer)));
+			assertEquals(labels(StochasticPetriNetUtils.findAllSiblings(transition)), 
+					transitionLabels(StochasticPetriNetUtils.siblings(snapshot, t, buffer)));
+		}
+	}
+
+	@Test
+	public void siblingsReusingFlags() {
+		boolean[] seen = new boolean[snapshot.getTransitionCount()];
+		for (Transition transition: net.getTransitions()) {
+			int t = snapshot.indexOf(transition);
+			assertEquals(labels(StochasticPetriNetUtils.findAllSiblings(transition)), 
+					transitionLabels(StochasticPetriNetUtils.siblings(snapshot, t, buffer, seen)));
+			for (boolean flag: seen)
+				assertFalse(flag);
+		}
+	}
+
+	@Test
+	public void rowsAndWeights() {
+		int a = snapshot.indexOf(transition("a"));
+		int p1 = snapshot.indexOf(place("p1"));
+		StochasticNetSnapshot.Csr outputs = snapshot.getTransitionOutputs();
+		assertEquals(1, outputs.degree(a));
+		assertEquals(p1, outputs.target(outputs.start(a)));
+		assertEquals(1, outputs.weight(outputs.find(a, p1)));
+		assertEquals(-1, outputs.find(a, snapshot.indexOf(place("F"))));
+		assertEquals(2.0, snapshot.getWeight(a), 0.0001);
+		assertEquals(5, outputs.getArcCount());
+		assertEquals(5, snapshot.getTransitionInputs().getArcCount());
+		StochasticNetSnapshot.Csr placeOutputs = snapshot.getPlaceOutputs();
+		for (int p=0; p<snapshot.getPlaceCount(); p++) {
+			for (int i=placeOutputs.start(p)+1; i<placeOutputs.end(p); i++)
+				assertTrue(placeOutputs.target(i-1) < placeOutputs.target(i));
+		}
+	}
+
+	@Test
+	public void arcWeights() {
+		net.addArc(place("p1"), transition("b"));
+		StochasticNetSnapshot weighted = new StochasticNetSnapshot(net);
+		StochasticNetSnapshot.Csr inputs = weighted.getTransitionInputs();
+		int b = weighted.indexOf(transition("b"));
+		assertEquals(2, inputs.weight(inputs.find(b, weighted.indexOf(place("p1")))));
+		// snapshot taken before the change is unaffected
+		inputs = snapshot.getTransitionInputs();
+		assertEquals(1, inputs.weight(inputs.find(b, snapshot.indexOf(place("p1")))));
+	}
+
+}
@@ -1,6 +1,8 @@
 package qut.pm.prom.helpers;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertTrue;
 
 import org.junit.Before;
@@ -85,7 +87,165 @@ public class StochasticNetUtilsNetsTest {
 		areNotEqual(net1,net3);
 		areNotEqual(net2,net3);
 	}
-	
-	
-	
+
+	@Test
+	public void compareSuperset() {
+		StochasticNet net1 = parser.createNet("sub", "I -> [a] -> F");
+		StochasticNet net2 = parser.createNetArgs("super", "I -> [a] -> F", "I -> [b] -> F");
+		StochasticNet net3 = parser.createNetArgs("superPlace", "I -> [a] -> F", "p1 -> [a] -> F");
+		areNotEqual(net1,net2);
+		areNotEqual(net2,net1);
+		areNotEqual(net1,net3);
+		areNotEqual(net3,net1);
+	}
+
+	@Test
+	public void compareEdgeDirection() {
+		StochasticNet net1 = parser.createNet("forward", "p1 -> [a] -> p2");
+		StochasticNet net2 = parser.createNet("backward", "p2 -> [a] -> p1");
+		areNotEqual(net1,net2);
+	}
+
+	@Test
+	public void compareInvisible() {
+		StochasticNet net1 = parser.createNet("visible", "I -> [a] -> F");
+		StochasticNet net2 = parser.createNet("invisible", "I -> [a] -> F");
+		net2.getTransitions().iterator().next().setInvisible(true);
+		areNotEqual(net1,net2);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void compareDuplicateLabels() {
+		StochasticNet net1 = parser.createNet("dupes", "I -> [a__1] -> p1 -> [a__2] -> F");
+		StochasticPetriNetUtils.areEqual(net1, net1);
+	}
+
+	@Test
+	public void fingerprint() {
+		StochasticNet net1 = parser.createNetArgs("fp1", "I -> {a 1.0} -> p1 -> [b] -> F", "p1 -> [c] -> F");
+		StochasticNet net2 = parser.createNetArgs("fp2", "p1 -> [c] -> F", "I -> {a 1.0} -> p1 -> [b] -> F");
+		StochasticNet net3 = parser.createNetArgs("fp3", "I -> {a 0.8} -> p1 -> [b] -> F", "p1 -> [c] -> F");
+		StochasticNet net4 = parser.createNetArgs("fp4", "I -> {a 1.0} -> p1 -> [b] -> F", "p1 -> [c] -> p2");
+		assertEquals(StochasticPetriNetUtils.fingerprint(net1), StochasticPetriNetUtils.fingerprint(net2));
+		// weights are left to areEqual
+		assertEquals(StochasticPetriNetUtils.fingerprint(net1), StochasticPetriNetUtils.fingerprint(net3));
+		areNotEqual(net1, net3);
+		assertNotEquals(StochasticPetriNetUtils.fingerprint(net1), StochasticPetriNetUtils.fingerprint(net4));
+	}
+
+	@Test
+	public void fingerprintWeightsWithinEpsilon() {
+		// equal nets must fingerprint the same whatever their weights round to
+		StochasticNet net1 = parser.createNet("fpe1", "I -> {a 1.0000049} -> F");
+		StochasticNet net2 = parser.createNet("fpe2", "I -> {a 1.0000051} -> F");
+		areEqual(net1, net2);
+		assertEquals(StochasticPetriNetUtils.fingerprint(net1), StochasticPetriNetUtils.fingerprint(net2));
+	}
+
+	@Test
+	public void fingerprintStable() {
+		NetFingerprint fingerprint = new NetFingerprint.Builder().add("I").add(1L).add(-1L).build();
+		assertEquals("4be0a8f5cc4ec074c2232b531e470b23", fingerprint.toString());
+	}
+
+	public void areIsomorphic(StochasticNet net1, StochasticNet net2) {
+		assertTrue( StochasticPetriNetUtils.areIsomorphic(net1, net2) );
+		assertTrue( StochasticPetriNetUtils.areIsomorphic(net2, net1) );
+	}
+
+	public void areNotIsomorphic(StochasticNet net1, StochasticNet net2) {
+		assertFalse( StochasticPetriNetUtils.areIsomorphic(net1, net2) );
+		assertFalse( StochasticPetriNetUtils.areIsomorphic(net2, net1) );
+	}
+
+	@Test
+	public void isomorphicSilentTransitions() {
+		StochasticNet net1 = parser.createNetArgs("iso1", 
+				"I -> {tau__1 2.0} -> p1 -> {a 1.0} -> p2 -> {tau__2 1.0} -> F", 
+				"I -> {tau__3 1.0} -> p2");
+		StochasticNet net2 = parser.createNetArgs("iso2", 
+				"I -> {tau__5 1.0} -> p2 -> {tau__6 1.0} -> F", 
+				"I -> {tau__4 2.0} -> p1 -> {a 1.0} -> p2");
+		StochasticNet net3 = parser.createNetArgs("iso3", 
+				"I -> {tau__1 1.0} -> p1 -> {a 1.0} -> p2 -> {tau__2 1.0} -> F", 
+				"I -> {tau__3 2.0} -> p2");
+		areIsomorphic(net1, net2);
+		areNotIsomorphic(net1, net3);
+	}
+
+	@Test
+	public void isomorphicStructure() {
+		// same labels and degrees, different wiring
+		StochasticNet net1 = parser.createNetArgs("cycle", 
+				"p1 -> [tau__1] -> p2 -> [tau__2] -> p3 -> [tau__3] -> p4 -> [tau__4] -> p1");
+		StochasticNet net2 = parser.createNetArgs("cycle2", 
+				"p3 -> [tau__1] -> p4 -> [tau__2] -> p1 -> [tau__3] -> p2 -> [tau__4] -> p3");
+		StochasticNet net3 = parser.createNetArgs("twoCycles", 
+				"p1 -> [tau__1] -> p2 -> [tau__2] -> p1", 
+				"p3 -> [tau__3] -> p4 -> [tau__4] -> p3");
+		areIsomorphic(net1, net2);
+		areNotIsomorphic(net1, net3);
+	}
+
+	@Test
+	public void isomorphicManySilent() {
+		int width = 200;
+		String[] specs1 = new String[width];
+		String[] specs2 = new String[width];
+		for (int i=0; i<width; i++) {
+			specs1[i] = "I -> [tau__" + i + "] -> p" + i + " -> [tau__" + (width+i) + "] -> F";
+			int j = width - 1 - i;
+			specs2[i] = "I -> [tau__" + j + "] -> p" + j + " -> [tau__" + (width+j) + "] -> F";
+		}
+		StochasticNet net1 = parser.createNetArgs("wide1", specs1);
+		StochasticNet net2 = parser.createNetArgs("wide2", specs2);
+		areIsomorphic(net1, net2);
+		net2.addArc(net2.getPlaces().iterator().next(), net2.getTransitions().iterator().next());
+		areNotIsomorphic(net1, net2);
+	}
+
+	@Test
+	public void isomorphicUniqueLabelsAgreesWithEqual() {
+		StochasticNet net1 = parser.createNetArgs("u1", "I -> {a 1.0} -> p1 -> [b] -> F", "p1 -> [c] -> F");
+		StochasticNet net2 = parser.createNetArgs("u2", "p1 -> [c] -> F", "I -> {a 1.0} -> p1 -> [b] -> F");
+		StochasticNet net3 = parser.createNetArgs("u3", "I -> {a 0.5} -> p1 -> [b] -> F", "p1 -> [c] -> F");
+		areIsomorphic(net1, net2);
+		areNotIsomorphic(net1, net3);
+		areIsomorphic(null, null);
+		assertFalse( StochasticPetriNetUtils.areIsomorphic(net1, null) );
+	}
+
+	@Test
+	public void isomorphicEmpty() {
+		areIsomorphic(new StochasticNetImpl("empty1"), new StochasticNetImpl("empty2"));
+		areNotIsomorphic(new StochasticNetImpl("empty"), parser.createNetArgs("a", "I -> [a] -> F"));
+	}
+
+	@Test
+	public void isomorphicParallelArcs() {
+		// an inhibitor or reset arc alongside an ordinary arc between the same nodes
+		StochasticNet net1 = parser.createNetArgs("inhibited1", "I -> [tau__1] -> F", "I -> [tau__2] -> F");
+		StochasticNet net2 = parser.createNetArgs("inhibited2", "I -> [tau__2] -> F", "I -> [tau__1] -> F");
+		StochasticNet net3 = parser.createNetArgs("reset", "I -> [tau__1] -> F", "I -> [tau__2] -> F");
+		addArcsAlongside(net1, true);
+		addArcsAlongside(net2, true);
+		addArcsAlongside(net3, false);
+		areIsomorphic(net1, net2);
+		areNotIsomorphic(net1, net3);
+	}
+
+	private void addArcsAlongside(StochasticNet net, boolean inhibitor) {
+		Place initial = null;
+		for (Place place: net.getPlaces()) {
+			if ("I".equals(place.getLabel()))
+				initial = place;
+		}
+		for (Transition transition: net.getTransitions()) {
+			if (inhibitor)
+				net.addInhibitorArc(initial, transition);
+			else
+				net.addResetArc(initial, transition);
+		}
+	}
+
 }
@@ -0,0 +1,157 @@
+package qut.pm.prom.helpers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.processmining.models.graphbased.directed.petrinet.StochasticNet;
+import org.processmining.models.graphbased.directed.petrinet.elements.Place;
+import org.processmining.models.graphbased.directed.petrinet.elements.Transition;
+
+public class TransitionReachabilityIndexTest {
+
+	private PetriNetFragmentParser parser = null;
+
+	@Before
+	public void setUp() {
+		parser = new PetriNetFragmentParser();
+	}
+
+	private static Transition find(StochasticNet net, String label) {
+		for (Transition transition: net.getTransitions()) {
+			if (transition.getLabel().equals(label))
+				return transition;
+		}
+		return null;
+	}
+
+	private static Place findPlace(StochasticNet net, String label) {
+		for (Place place: net.getPlaces()) {
+			if (place.getLabel().equals(label))
+				return place;
+		}
+		return null;
+	}
+
+	private static Set<String> labels(Collection<Transition> transitions) {
+		Set<String> result = new TreeSet<>();
+		for (Transition transition: transitions)
+			result.add(transition.getLabel());
+		return result;
+	}
+
+	private static Set<String> labels(String ... labels) {
+		Set<String> result = new TreeSet<>();
+		for (String label: labels)
+			result.add(label);
+		return result;
+	}
+
+	@Test
+	public void directSuccessorsAndPredecessors() {
+		StochasticNet net = parser.createNetArgs("choice", 
+				"I -> [a] -> p1 -> [b] -> p2 -> [d] -> F",
+				"p1 -> [c] -> p2");
+		Transition a = find(net, "a");
+		Transition d = find(net, "d");
+		assertEquals(labels("b","c"), labels(StochasticPetriNetUtils.findAllSuccessors(a)));
+		assertEquals(labels(), labels(StochasticPetriNetUtils.findAllSuccessors(d)));
+		assertEquals(labels("b","c"), labels(StochasticPetriNetUtils.findAllPredecessors(d)));
+		assertEquals(labels(), labels(StochasticPetriNetUtils.findAllPredecessors(a)));
+	}
+
+	@Test
+	public void reachability() {
+		StochasticNet net = parser.createNetArgs("loop", 
+				"I -> [a] -> p1 -> [b] -> p2 -> [c] -> p1",
+				"p2 -> [d] -> F");
+		Transition a = find(net, "a");
+		Transition b = find(net, "b");
+		Transition c = find(net, "c");
+		Transition d = find(net, "d");
+		assertTrue( StochasticPetriNetUtils.isReachable(a, d) );
+		assertTrue( StochasticPetriNetUtils.isReachable(b, b) );
+		assertTrue( StochasticPetriNetUtils.isReachable(c, b) );
+		assertFalse( StochasticPetriNetUtils.isReachable(a, a) );
+		assertFalse( StochasticPetriNetUtils.isReachable(d, b) );
+		TransitionReachabilityIndex index = TransitionReachabilityIndex.forNet(net);
+		assertEquals(labels("b","c","d"), labels(index.getReachable(a)));
+		assertEquals(labels("b","c","d"), labels(index.getReachable(c)));
+		assertEquals(labels(), labels(index.getReachable(d)));
+		// successors exclude the transition itself even on a cycle
+		assertEquals(labels("c","d"), labels(index.getSuccessors(b)));
+	}
+
+	@Test
+	public void selfLoop() {
+		StochasticNet net = parser.createNetArgs("selfLoop", "I -> [a] -> p1 -> [b] -> p1 -> [c] -> F");
+		Transition b = find(net, "b");
+		assertTrue( StochasticPetriNetUtils.isReachable(b, b) );
+		assertEquals(labels("c"), labels(StochasticPetriNetUtils.findAllSuccessors(b)));
+	}
+
+	@Test
+	public void cachedUntilNetChanges() {
+		StochasticNet net = parser.createNet("cached", "I -> [a] -> p1 -> [b] -> F");
+		TransitionReachabilityIndex index = TransitionReachabilityIndex.forNet(net);
+		assertSame(index, TransitionReachabilityIndex.forNet(net));
+		parser.addToNet(net, "p1 -> [c] -> F");
+		assertTrue(index.isStale());
+		TransitionReachabilityIndex rebuilt = TransitionReachabilityIndex.forNet(net);
+		assertNotSame(index, rebuilt);
+		assertEquals(labels("b","c"), 
+				labels(StochasticPetriNetUtils.findAllSuccessors(find(net, "a"))));
+		TransitionReachabilityIndex.invalidate(net);
+		assertNotSame(rebuilt, TransitionReachabilityIndex.forNet(net));
+	}
+
+	@Test
+	public void rebuiltWhenCountsChange() {
+		StochasticNet net = parser.createNet("grown", "I -> [a] -> p1 -> [b] -> F");
+		Transition a = find(net, "a");
+		TransitionReachabilityIndex index = TransitionReachabilityIndex.forNet(net);
+		net.addArc(findPlace(net, "p1"), net.addTransition("c"));
+		assertNotSame(index, TransitionReachabilityIndex.forNet(net));
+		assertEquals(labels("b","c"), labels(StochasticPetriNetUtils.findAllSuccessors(a)));
+	}
+
+	@Test
+	public void staleAfterCountPreservingChange() {
+		StochasticNet net = parser.createNetArgs("swapped", "I -> [a] -> p1 -> [b] -> F", "I -> [c] -> p2");
+		Transition a = find(net, "a");
+		TransitionReachabilityIndex index = TransitionReachabilityIndex.forNet(net);
+		assertEquals(labels("b"), labels(StochasticPetriNetUtils.findAllSuccessors(a)));
+		// swap one arc for another, keeping every count the same
+		net.removeArc(a, findPlace(net, "p1"));
+		net.addArc(a, findPlace(net, "p2"));
+		assertTrue(index.isStale());
+		// the cache only sees counts
+		assertSame(index, TransitionReachabilityIndex.forNet(net));
+		TransitionReachabilityIndex.invalidate(net);
+		assertEquals(labels(), labels(StochasticPetriNetUtils.findAllSuccessors(a)));
+	}
+
+	@Test
+	public void longChain() {
+		int length = 1000;
+		StringBuilder spec = new StringBuilder("I");
+		for (int i=0; i<length; i++) {
+			spec.append(" -> [t" + i + "] -> p" + i);
+		}
+		StochasticNet net = parser.createNet("chain", spec.toString());
+		TransitionReachabilityIndex index = TransitionReachabilityIndex.forNet(net);
+		Transition first = find(net, "t0");
+		assertEquals(length-1, index.getReachable(first).size());
+		assertTrue(index.isReachable(first, find(net, "t" + (length-1))));
+		assertFalse(index.isReachable(find(net, "t" + (length-1)), first));
+	}
+
+}
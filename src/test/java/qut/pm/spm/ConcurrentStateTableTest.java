@@ -0,0 +1,70 @@
+package qut.pm.spm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class ConcurrentStateTableTest {
+
+	@Test
+	public void addFind() {
+		ConcurrentStateTable table = new ConcurrentStateTable(2, 100);
+		assertEquals(0, table.add(new long[] {1, 2}, 0));
+		assertEquals(1, table.add(new long[] {0, 0, 2, 1}, 2));
+		assertEquals(-1, table.add(new long[] {1, 2}, 0));
+		assertEquals(1, table.find(new long[] {2, 1}, 0));
+		assertEquals(-1, table.find(new long[] {2, 2}, 0));
+		long[] key = new long[2];
+		table.get(1, key, 0);
+		assertEquals(2, key[0]);
+		assertEquals(1, key[1]);
+		assertEquals(2, table.size());
+	}
+
+	@Test
+	public void full() {
+		ConcurrentStateTable table = new ConcurrentStateTable(1, 2);
+		table.add(new long[] {1}, 0);
+		table.add(new long[] {2}, 0);
+		assertEquals(ConcurrentStateTable.FULL, table.add(new long[] {3}, 0));
+		assertEquals(-2, table.add(new long[] {2}, 0));
+		assertEquals(2, table.size());
+	}
+
+	@Test
+	public void concurrentAdd() throws Exception {
+		int keys = 20000;
+		ConcurrentStateTable table = new ConcurrentStateTable(1, keys);
+		AtomicInteger added = new AtomicInteger();
+		Thread[] threads = new Thread[4];
+		for (int t=0; t<threads.length; t++) {
+			int offset = t * 1000;
+			threads[t] = new Thread(() -> {
+				long[] key = new long[1];
+				for (int i=0; i<keys; i++) {
+					key[0] = (i + offset) % keys;
+					if (table.add(key, 0) >= 0)
+						added.incrementAndGet();
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread: threads)
+			thread.join();
+		assertEquals(keys, added.get());
+		assertEquals(keys, table.size());
+		BitSet seen = new BitSet();
+		long[] key = new long[1];
+		for (int state=0; state<keys; state++) {
+			table.get(state, key, 0);
+			assertTrue(!seen.get((int)key[0]));
+			seen.set((int)key[0]);
+			assertEquals(state, table.find(key, 0));
+		}
+	}
+
+}
@@ -0,0 +1,51 @@
+package qut.pm.spm;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import qut.pm.prom.helpers.PetriNetFragmentParser;
+import qut.pm.prom.helpers.StochasticNetSnapshot;
+
+public class MarkingCodecTest {
+
+	private StochasticNetSnapshot snapshot = null;
+
+	@Before
+	public void setUp() {
+		PetriNetFragmentParser parser = new PetriNetFragmentParser();
+		snapshot = new StochasticNetSnapshot(parser.createNet("net", "I -> [a] -> p1 -> [b] -> F"));
+	}
+
+	@Test
+	public void maxTokens() {
+		assertEquals(15, new MarkingCodec(snapshot).getMaxTokens());
+		assertEquals(1, new MarkingCodec(snapshot, 1).getMaxTokens());
+		assertEquals((1 << 30) - 1, new MarkingCodec(snapshot, 30).getMaxTokens());
+		assertEquals(Integer.MAX_VALUE, new MarkingCodec(snapshot, 32).getMaxTokens());
+	}
+
+	@Test
+	public void roundTripFullWidth() {
+		MarkingCodec codec = new MarkingCodec(snapshot, 32);
+		int[] tokens = new int[snapshot.getPlaceCount()];
+		tokens[0] = codec.getMaxTokens();
+		tokens[tokens.length-1] = 3;
+		long[] encoded = new long[codec.getWords()];
+		codec.encode(tokens, encoded, 0);
+		int[] decoded = new int[tokens.length];
+		codec.decode(encoded, 0, decoded);
+		assertArrayEquals(tokens, decoded);
+	}
+
+	@Test(expected=IllegalStateException.class)
+	public void tooManyTokens() {
+		MarkingCodec codec = new MarkingCodec(snapshot, 2);
+		int[] tokens = new int[snapshot.getPlaceCount()];
+		tokens[0] = codec.getMaxTokens() + 1;
+		codec.encode(tokens, new long[codec.getWords()], 0);
+	}
+
+}
@@ -0,0 +1,99 @@
+package qut.pm.spm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import qut.pm.prom.helpers.PetriNetFragmentParser;
+
+public class ParallelReachabilityGraphBuilderTest {
+
+	private static final double EPSILON = 0.00001;
+
+	private PetriNetFragmentParser parser = null;
+	private ForkJoinPool pool = null;
+
+	@Before
+	public void setUp() {
+		parser = new PetriNetFragmentParser();
+		pool = new ForkJoinPool(4);
+	}
+
+	@After
+	public void tearDown() {
+		pool.shutdown();
+	}
+
+	private AcceptingStochasticNet net(String ... specs) {
+		return parser.markInitialFinalPlaces(parser.createNetArgs("net", specs));
+	}
+
+	private AcceptingStochasticNet parallelCycles(int width) {
+		String[] specs = new String[width * 2];
+		for (int i=0; i<width; i++) {
+			specs[2*i] = "I -> [s] -> p" + i + " -> [a" + i + "] -> q" + i + " -> [b" + i + "] -> p" + i;
+			specs[2*i+1] = "q" + i + " -> [e] -> F";
+		}
+		return net(specs);
+	}
+
+	private static void assertSameGraph(ReachabilityGraph expected, ReachabilityGraph graph) {
+		assertEquals(expected.getStateCount(), graph.getStateCount());
+		assertEquals(expected.getEdgeCount(), graph.getEdgeCount());
+		for (int state=0; state<graph.getStateCount(); state++) {
+			int other = expected.findState(graph.getMarking(state));
+			assertTrue(other >= 0);
+			assertEquals(expected.isFinal(other), graph.isFinal(state));
+			assertEquals(expected.getEdgeEnd(other) - expected.getEdgeStart(other),
+					graph.getEdgeEnd(state) - graph.getEdgeStart(state));
+			for (int edge=graph.getEdgeStart(state), otherEdge=expected.getEdgeStart(other);
+					edge<graph.getEdgeEnd(state); edge++, otherEdge++)
+			{
+				assertEquals(expected.getEdgeTransition(otherEdge), graph.getEdgeTransition(edge));
+				assertEquals(expected.getEdgeProbability(otherEdge), graph.getEdgeProbability(edge), EPSILON);
+				assertEquals(expected.getMarking(expected.getEdgeTarget(otherEdge)),
+						graph.getMarking(graph.getEdgeTarget(edge)));
+			}
+		}
+	}
+
+	@Test
+	public void sameAsSequential() {
+		AcceptingStochasticNet anet = parallelCycles(12);
+		ReachabilityGraph expected = new ReachabilityGraphBuilder(anet).build();
+		ReachabilityGraph graph = new ParallelReachabilityGraphBuilder(anet, 100000,
+				MarkingCodec.DEFAULT_BITS_PER_PLACE, pool).build();
+		assertEquals(anet.getInitialMarking(), graph.getMarking(graph.getInitialState()));
+		assertSameGraph(expected, graph);
+	}
+
+	@Test
+	public void weightedChoice() {
+		AcceptingStochasticNet anet = net("I -> {a 1.0} -> F", "I -> {b 3.0} -> F");
+		assertSameGraph(new ReachabilityGraphBuilder(anet).build(),
+				new ParallelReachabilityGraphBuilder(anet).build());
+	}
+
+	@Test
+	public void stateBound() {
+		AcceptingStochasticNet anet = parallelCycles(10);
+		ReachabilityGraph graph = new ParallelReachabilityGraphBuilder(anet, 500,
+				MarkingCodec.DEFAULT_BITS_PER_PLACE, pool).build();
+		assertEquals(500, graph.getStateCount());
+		assertTrue(graph.isTruncated());
+		for (int edge=0; edge<graph.getEdgeCount(); edge++)
+			assertTrue(graph.getEdgeTarget(edge) < 500);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void unboundedOverflow() {
+		AcceptingStochasticNet anet = net("I -> [g] -> p0 -> [a] -> p0", "p0 -> [a] -> p1");
+		new ParallelReachabilityGraphBuilder(anet, 1000, 2, pool).build();
+	}
+
+}
@@ -0,0 +1,114 @@
+package qut.pm.spm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.processmining.models.graphbased.directed.petrinet.StochasticNet.DistributionType;
+import org.processmining.models.graphbased.directed.petrinet.elements.TimedTransition;
+import org.processmining.models.graphbased.directed.petrinet.elements.Transition;
+
+import qut.pm.prom.helpers.PetriNetFragmentParser;
+
+public class ReachabilityGraphBuilderTest {
+
+	private static final double EPSILON = 0.00001;
+
+	private PetriNetFragmentParser parser = null;
+
+	@Before
+	public void setUp() {
+		parser = new PetriNetFragmentParser();
+	}
+
+	private AcceptingStochasticNet net(String ... specs) {
+		return parser.markInitialFinalPlaces(parser.createNetArgs("net", specs));
+	}
+
+	private static double probability(ReachabilityGraph graph, int state, String label) {
+		for (int edge=graph.getEdgeStart(state); edge<graph.getEdgeEnd(state); edge++) {
+			if (graph.getTransition(edge).getLabel().equals(label))
+				return graph.getEdgeProbability(edge);
+		}
+		return 0;
+	}
+
+	@Test
+	public void weightedChoice() {
+		ReachabilityGraph graph = new ReachabilityGraphBuilder( 
+				net("I -> {a 1.0} -> F", "I -> {b 3.0} -> F") ).build();
+		assertEquals(2, graph.getStateCount());
+		assertEquals(2, graph.getEdgeCount());
+		assertEquals(0.25, probability(graph, 0, "a"), EPSILON);
+		assertEquals(0.75, probability(graph, 0, "b"), EPSILON);
+		int finalState = graph.getEdgeTarget(0);
+		assertTrue(graph.isFinal(finalState));
+		assertTrue(graph.isDeadlock(finalState));
+		assertFalse(graph.isFinal(0));
+		assertFalse(graph.isTruncated());
+	}
+
+	@Test
+	public void concurrency() {
+		AcceptingStochasticNet anet = net(
+				"I -> [s] -> p1 -> [a] -> p3 -> [j] -> F",
+				"I -> [s] -> p2 -> [b] -> p4 -> [j] -> F");
+		ReachabilityGraph graph = new ReachabilityGraphBuilder(anet).build();
+		assertEquals(6, graph.getStateCount());
+		assertEquals(6, graph.getEdgeCount());
+		int finalState = graph.findState(anet.getFinalMarkings().iterator().next());
+		assertTrue(graph.isFinal(finalState));
+		assertEquals(anet.getInitialMarking(), graph.getMarking(0));
+		for (int state=0; state<graph.getStateCount(); state++) {
+			double total = 0;
+			for (int edge=graph.getEdgeStart(state); edge<graph.getEdgeEnd(state); edge++)
+				total += graph.getEdgeProbability(edge);
+			assertEquals(graph.isDeadlock(state)? 0.0 : 1.0, total, EPSILON);
+		}
+	}
+
+	@Test
+	public void immediatePriority() {
+		AcceptingStochasticNet anet = net("I -> {a 1.0} -> F", "I -> {b 1.0} -> F");
+		for (Transition transition: anet.getNet().getTransitions()) {
+			if (transition.getLabel().equals("b"))
+				((TimedTransition)transition).setDistributionType(DistributionType.EXPONENTIAL);
+		}
+		ReachabilityGraph graph = new ReachabilityGraphBuilder(anet).build();
+		assertEquals(1, graph.getEdgeEnd(0) - graph.getEdgeStart(0));
+		assertEquals(1.0, probability(graph, 0, "a"), EPSILON);
+	}
+
+	@Test
+	public void stateBound() {
+		// a puts a token back in p0 and adds one to p1 on every firing
+		AcceptingStochasticNet anet = net("I -> [g] -> p0 -> [a] -> p0", "p0 -> [a] -> p1");
+		ReachabilityGraph graph = new ReachabilityGraphBuilder(anet, 5).build();
+		assertEquals(5, graph.getStateCount());
+		assertTrue(graph.isTruncated());
+		assertTrue(graph.isIncomplete(4));
+		assertFalse(graph.isDeadlock(4));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void unboundedOverflow() {
+		AcceptingStochasticNet anet = net("I -> [g] -> p0 -> [a] -> p0", "p0 -> [a] -> p1");
+		new ReachabilityGraphBuilder(anet, 1000, 2).build();
+	}
+
+	@Test
+	public void largeStateSpace() {
+		// 12 independent two-place cycles in parallel: 2^12 states
+		int width = 12;
+		String[] specs = new String[width * 2];
+		for (int i=0; i<width; i++) {
+			specs[2*i] = "I -> [s] -> p" + i + " -> [a" + i + "] -> q" + i + " -> [b" + i + "] -> p" + i;
+			specs[2*i+1] = "q" + i + " -> [e] -> F";
+		}
+		ReachabilityGraph graph = new ReachabilityGraphBuilder(net(specs)).build();
+		assertEquals(1 + (1 << width) + 1, graph.getStateCount());
+	}
+
+}
@@ -0,0 +1,92 @@
+package qut.pm.spm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import qut.pm.prom.helpers.PetriNetFragmentParser;
+
+public class SDFAConverterTest {
+
+	private static final double EPSILON = 0.00001;
+
+	private PetriNetFragmentParser parser = null;
+
+	@Before
+	public void setUp() {
+		parser = new PetriNetFragmentParser();
+	}
+
+	private AcceptingStochasticNet net(String ... specs) {
+		return parser.markInitialFinalPlaces(parser.createNetArgs("net", specs));
+	}
+
+	@Test
+	public void weightedChoice() {
+		StochasticDeterministicFiniteAutomaton sdfa = new SDFAConverter().convert(
+				net("I -> {a 1.0} -> F", "I -> {b 3.0} -> F"));
+		assertEquals(2, sdfa.getStateCount());
+		assertEquals(2, sdfa.getEdgeCount());
+		assertEquals(0.0, sdfa.getTerminationProbability(0), EPSILON);
+		int a = sdfa.findEdge(0, sdfa.labelIndex("a"));
+		assertEquals(0.25, sdfa.getEdgeProbability(a), EPSILON);
+		assertEquals(1.0, sdfa.getTerminationProbability(sdfa.getEdgeTarget(a)), EPSILON);
+		assertEquals(0.75, sdfa.traceProbability("b"), EPSILON);
+	}
+
+	@Test
+	public void duplicateLabelsMerge() {
+		// both branches start with a, so after a the automaton is in a mix of two markings
+		StochasticDeterministicFiniteAutomaton sdfa = new SDFAConverter().convert(
+				net("I -> {a__1 1.0} -> p1 -> {b 1.0} -> F",
+					"I -> {a__2 3.0} -> p2 -> {c 1.0} -> F"));
+		assertEquals(1, sdfa.getEdgeEnd(0) - sdfa.getEdgeStart(0));
+		assertEquals(1.0, sdfa.getEdgeProbability(sdfa.getEdgeStart(0)), EPSILON);
+		assertEquals(0.25, sdfa.traceProbability("a", "b"), EPSILON);
+		assertEquals(0.75, sdfa.traceProbability("a", "c"), EPSILON);
+		assertEquals(0.0, sdfa.traceProbability("a"), EPSILON);
+	}
+
+	@Test
+	public void loopConverges() {
+		StochasticDeterministicFiniteAutomaton sdfa = new SDFAConverter().convert(
+				net("I -> {a 1.0} -> p1 -> {b 1.0} -> p1", "p1 -> {c 1.0} -> F"));
+		assertEquals(3, sdfa.getStateCount());
+		assertFalse(sdfa.isTruncated());
+		assertEquals(0.125, sdfa.traceProbability("a", "b", "b", "c"), EPSILON);
+	}
+
+	@Test
+	public void sameAsTraceProbability() {
+		AcceptingStochasticNet anet = net(
+				"I -> [s] -> p1 -> {a 1.0} -> p3 -> [j] -> F",
+				"I -> [s] -> p2 -> {b__1 2.0} -> p4 -> [j] -> F",
+				"p1 -> {tau__1 1.0} -> p5 -> {b__2 1.0} -> p3",
+				"p4 -> {tau__2 1.0} -> p2");
+		StochasticDeterministicFiniteAutomaton sdfa = new SDFAConverter().convert(anet);
+		TraceProbabilityCalculator calc = new TraceProbabilityCalculator(anet);
+		String[][] traces = {
+				{"s", "a", "b", "j"}, {"s", "b", "a", "j"}, {"s", "b", "b", "j"},
+				{"s", "b", "b", "a", "j"}, {"s", "a", "j"}};
+		double total = 0;
+		for (String[] trace: traces) {
+			double expected = calc.traceProbability(trace);
+			assertEquals(expected, sdfa.traceProbability(trace), EPSILON);
+			total += expected;
+		}
+		assertTrue(total > 0);
+	}
+
+	@Test
+	public void stateBound() {
+		StochasticDeterministicFiniteAutomaton sdfa = new SDFAConverter(2, SDFAConverter.DEFAULT_EPSILON)
+				.convert(net("I -> {a 1.0} -> p1 -> {b 1.0} -> p2 -> {c 1.0} -> F"));
+		assertEquals(2, sdfa.getStateCount());
+		assertTrue(sdfa.isTruncated());
+		assertTrue(sdfa.isIncomplete(1));
+	}
+
+}
@@ -0,0 +1,163 @@
+package qut.pm.spm;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import org.deckfour.xes.model.XLog;
+import org.junit.Before;
+import org.junit.Test;
+
+import qut.pm.prom.helpers.PetriNetFragmentParser;
+import qut.pm.xes.helpers.DelimitedTraceToXESConverter;
+
+public class StochasticConformanceCalculatorTest {
+
+	private static final double EPSILON = 0.00001;
+
+	private PetriNetFragmentParser parser = null;
+	private DelimitedTraceToXESConverter converter = null;
+
+	@Before
+	public void setUp() {
+		parser = new PetriNetFragmentParser();
+		converter = new DelimitedTraceToXESConverter();
+	}
+
+	private AcceptingStochasticNet net(String ... specs) {
+		return parser.markInitialFinalPlaces(parser.createNetArgs("net", specs));
+	}
+
+	private static StochasticConformanceCalculator truncatedCalculator(ForkJoinPool pool,
+			int chunkVariants)
+	{
+		return new StochasticConformanceCalculator(pool, chunkVariants,
+				StochasticConformanceCalculator.DEFAULT_TRUNCATION_MASS,
+				StochasticConformanceCalculator.DEFAULT_MAX_MODEL_TRACES);
+	}
+
+	private static StochasticConformanceCalculator truncatedCalculator() {
+		return truncatedCalculator(null, StochasticConformanceCalculator.DEFAULT_CHUNK_VARIANTS);
+	}
+
+	@Test
+	public void perfectFit() {
+		AcceptingStochasticNet anet = net("I -> {a 1.0} -> F", "I -> {b 1.0} -> F");
+		StochasticConformance result = truncatedCalculator().calculate(
+				converter.convertTextArgs("a", "b", "b", "a"), anet);
+		assertEquals(2, result.getVariantCount());
+		assertEquals(Arrays.asList("a"), result.getVariant(0));
+		assertEquals(0.5, result.getModelProbability(0), EPSILON);
+		assertEquals(1.0, result.getUnitEarthMovers(), EPSILON);
+		assertEquals(1.0, result.getTruncatedEarthMovers(), EPSILON);
+		assertEquals(1.0, result.getLogEntropy(), EPSILON);
+		assertEquals(1.0, result.getModelEntropy(), EPSILON);
+		assertEquals(1.0, result.getEntropyRecall(), EPSILON);
+		assertEquals(1.0, result.getEntropyPrecision(), EPSILON);
+	}
+
+	@Test
+	public void partialFit() {
+		AcceptingStochasticNet anet = net("I -> {a 1.0} -> F", "I -> {b 1.0} -> F");
+		StochasticConformance result = truncatedCalculator().calculate(
+				converter.convertTextArgs("a", "a", "c"), anet);
+		assertEquals(0.5, result.getUnitEarthMovers(), EPSILON);
+		// a to a, then the rest of a and all of c to b at distance one
+		assertEquals(0.5, result.getTruncatedEarthMovers(), EPSILON);
+		// only a is shared, with log probability 2/3 and model probability 1/2
+		double logEntropy = -(2 * Math.log(2.0/3) + Math.log(1.0/3)) / 3 / Math.log(2);
+		assertEquals(-2.0/3 * Math.log(2.0/3) / Math.log(2) / logEntropy,
+				result.getEntropyRecall(), EPSILON);
+		assertEquals(0.5, result.getEntropyPrecision(), EPSILON);
+	}
+
+	@Test
+	public void loopEntropy() {
+		// a b^k c has probability 0.5^(k+1)
+		AcceptingStochasticNet anet = net(
+				"I -> {a 1.0} -> p1 -> {b 1.0} -> p1", "p1 -> {c 1.0} -> F");
+		StochasticConformance result = truncatedCalculator().calculate(
+				converter.convertTextArgs("a c", "a b c"), anet);
+		assertEquals(2.0, result.getModelEntropy(), EPSILON);
+		assertEquals(0.75, result.getUnitEarthMovers(), EPSILON);
+		assertEquals(1.0, result.getEntropyRecall(), EPSILON);
+		// a c, a b c and a b b c hold 0.875 of the model at the default mass of 0.8, so a b c
+		// moves 0.125 to a b b c at distance 1/4 and 0.125 to the unlisted remainder
+		assertEquals(1.0 - 0.125/4 - 0.125, result.getTruncatedEarthMovers(), EPSILON);
+		StochasticConformance twoTraces = new StochasticConformanceCalculator(null,
+				StochasticConformanceCalculator.DEFAULT_CHUNK_VARIANTS, 1.0, 2).calculate(
+						converter.convertTextArgs("a c", "a b c"), anet);
+		assertEquals(0.75, twoTraces.getTruncatedEarthMovers(), EPSILON);
+	}
+
+	@Test
+	public void truncatedEarthMoversOptIn() {
+		AcceptingStochasticNet anet = net("I -> {a 1.0} -> F", "I -> {b 1.0} -> F");
+		StochasticConformance result = new StochasticConformanceCalculator().calculate(
+				converter.convertTextArgs("a", "b"), anet);
+		assertTrue(Double.isNaN(result.getTruncatedEarthMovers()));
+		assertEquals(1.0, result.getUnitEarthMovers(), EPSILON);
+	}
+
+	@Test
+	public void entropyPrecisionWithoutDominantTrace() {
+		AcceptingStochasticNet anet = net("I -> {a 98.0} -> F", "I -> {b 1.0} -> F",
+				"I -> {c 1.0} -> F");
+		StochasticConformance result = new StochasticConformanceCalculator().calculate(
+				converter.convertTextArgs("b", "c"), anet);
+		double rare = 0.01 * Math.log(100) / Math.log(2);
+		double modelEntropy = 2 * rare - 0.98 * Math.log(0.98) / Math.log(2);
+		assertEquals(modelEntropy, result.getModelEntropy(), EPSILON);
+		assertEquals(2 * rare / modelEntropy, result.getEntropyPrecision(), EPSILON);
+		assertTrue(result.getEntropyPrecision() <= 1.0);
+		assertEquals(1.0, result.getEntropyRecall(), EPSILON);
+	}
+
+	@Test
+	public void entropyRecallWithoutDominantTrace() {
+		AcceptingStochasticNet anet = net("I -> {b 1.0} -> F", "I -> {c 1.0} -> F");
+		StochasticConformance result = new StochasticConformanceCalculator().calculate(
+				converter.convertTextArgs("a", "a", "a", "a", "a", "a", "a", "a", "b", "c"), anet);
+		double logEntropy = -(0.8 * Math.log(0.8) + 2 * 0.1 * Math.log(0.1)) / Math.log(2);
+		assertEquals(logEntropy, result.getLogEntropy(), EPSILON);
+		assertEquals(-2 * 0.1 * Math.log(0.1) / Math.log(2) / logEntropy,
+				result.getEntropyRecall(), EPSILON);
+		assertEquals(1.0, result.getEntropyPrecision(), EPSILON);
+	}
+
+	@Test
+	public void truncatedEarthMoversDistance() {
+		AcceptingStochasticNet anet = net("I -> {a 1.0} -> p1 -> {c 1.0} -> F");
+		StochasticConformance result = truncatedCalculator().calculate(
+				converter.convertTextArgs("a b", "a c"), anet);
+		assertEquals(0.0, result.getModelProbability(0), EPSILON);
+		// a b is one substitution from a c, over two events
+		assertEquals(0.75, result.getTruncatedEarthMovers(), EPSILON);
+	}
+
+	@Test
+	public void sameForAnyThreads() {
+		AcceptingStochasticNet anet = net(
+				"I -> [s] -> p1 -> {a 1.0} -> p3 -> [j] -> F",
+				"I -> [s] -> p2 -> {b 2.0} -> p4 -> [j] -> F",
+				"p1 -> {c 1.0} -> p1", "p2 -> {tau 1.0} -> p5 -> {d 2.0} -> p2");
+		XLog log = new StochasticLogSampler(anet, 3L).sampleLog(2000);
+		StochasticConformance sequential = truncatedCalculator(null, 4).calculate(log, anet);
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			StochasticConformance parallel = truncatedCalculator(pool, 4).calculate(log, anet);
+			assertEquals(sequential.getVariantCount(), parallel.getVariantCount());
+			for (int i=0; i<sequential.getVariantCount(); i++)
+				assertEquals(sequential.getModelProbability(i), parallel.getModelProbability(i), 0.0);
+			assertEquals(sequential.getUnitEarthMovers(), parallel.getUnitEarthMovers(), 0.0);
+			assertEquals(sequential.getTruncatedEarthMovers(), parallel.getTruncatedEarthMovers(), 0.0);
+			assertEquals(sequential.getEntropyPrecision(), parallel.getEntropyPrecision(), 0.0);
+			assertEquals(sequential.getEntropyRecall(), parallel.getEntropyRecall(), 0.0);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+}
@@ -0,0 +1,128 @@
+package qut.pm.spm;
+
+import static org.junit.Assert.assertEquals;
+import static qut.pm.xes.helpers.XESLogUtils.XES_CONCEPT_NAME;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.concurrent.ForkJoinPool;
+
+import org.deckfour.xes.model.XLog;
+import org.deckfour.xes.model.XTrace;
+import org.junit.Before;
+import org.junit.Test;
+
+import qut.pm.prom.helpers.PetriNetFragmentParser;
+import qut.pm.xes.helpers.DelimitedTraceToXESConverter;
+
+public class StochasticLogSamplerTest {
+
+	private PetriNetFragmentParser parser = null;
+	private DelimitedTraceToXESConverter converter = null;
+
+	@Before
+	public void setUp() {
+		parser = new PetriNetFragmentParser();
+		converter = new DelimitedTraceToXESConverter();
+	}
+
+	private AcceptingStochasticNet net(String ... specs) {
+		return parser.markInitialFinalPlaces(parser.createNetArgs("net", specs));
+	}
+
+	@Test
+	public void weightedChoice() {
+		StochasticLogSampler sampler = new StochasticLogSampler(
+				net("I -> {a 1.0} -> F", "I -> {b 3.0} -> F"), 1L);
+		XLog log = sampler.sampleLog(20000);
+		assertEquals(20000, log.size());
+		int b = 0;
+		for (XTrace trace: log) {
+			assertEquals(1, trace.size());
+			if ("b".equals(trace.get(0).getAttributes().get(XES_CONCEPT_NAME).toString()))
+				b++;
+		}
+		assertEquals(0.75, b / 20000.0, 0.02);
+	}
+
+	@Test
+	public void silentAndRejected() throws IOException {
+		// tau leads to a deadlock outside the final marking, so only a is produced
+		StochasticLogSampler sampler = new StochasticLogSampler(
+				net("I -> {tau 1.0} -> p1 -> {a 1.0} -> F", "I -> {b 1.0} -> p2"), 1L);
+		StringWriter writer = new StringWriter();
+		sampler.writeDelimited(100, writer);
+		StringBuilder expected = new StringBuilder();
+		for (int i=0; i<100; i++)
+			expected.append("a\n");
+		assertEquals(expected.toString(), writer.toString());
+	}
+
+	@Test
+	public void sameForAnyThreads() throws IOException {
+		AcceptingStochasticNet anet = net(
+				"I -> {a 1.0} -> p1 -> {b 1.0} -> p1",
+				"p1 -> {c 1.0} -> F");
+		ForkJoinPool single = new ForkJoinPool(1);
+		ForkJoinPool many = new ForkJoinPool(4);
+		try {
+			StringWriter first = new StringWriter();
+			new StochasticLogSampler(anet, 42L, StochasticLogSampler.DEFAULT_MAX_TRACE_LENGTH, single)
+					.writeDelimited(10000, first);
+			StringWriter second = new StringWriter();
+			new StochasticLogSampler(anet, 42L, StochasticLogSampler.DEFAULT_MAX_TRACE_LENGTH, many)
+					.writeDelimited(10000, second);
+			assertEquals(first.toString(), second.toString());
+			XLog log = converter.convertText(first.toString());
+			assertEquals(10000, log.size());
+			int shortest = 0;
+			for (XTrace trace: log) {
+				if (trace.size() == 2)
+					shortest++;
+			}
+			assertEquals(0.5, shortest / 10000.0, 0.03);
+		} finally {
+			single.shutdown();
+			many.shutdown();
+		}
+	}
+
+	@Test
+	public void silentLivelockRejected() throws IOException {
+		// the tau cycle never deadlocks and adds no events, so only a is produced
+		StochasticLogSampler sampler = new StochasticLogSampler(
+				net("I -> {a 1.0} -> F",
+					"I -> {tau__1 1.0} -> p2 -> {tau__2 1.0} -> p3 -> {tau__3 1.0} -> p2"), 1L);
+		StringWriter writer = new StringWriter();
+		sampler.writeDelimited(100, writer);
+		StringBuilder expected = new StringBuilder();
+		for (int i=0; i<100; i++)
+			expected.append("a\n");
+		assertEquals(expected.toString(), writer.toString());
+	}
+
+	@Test
+	public void emptyTraceSampled() {
+		XLog log = new StochasticLogSampler(net("I -> {tau 1.0} -> F"), 1L).sampleLog(3);
+		assertEquals(3, log.size());
+		assertEquals(0, log.get(0).size());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void emptyTraceNotDelimited() throws IOException {
+		new StochasticLogSampler(net("I -> {a 1.0} -> F", "I -> {tau 1.0} -> F"), 1L)
+				.writeDelimited(100, new StringWriter());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void onlySilentLivelock() {
+		new StochasticLogSampler(
+				net("I -> {tau__1 1.0} -> p2 -> {tau__2 1.0} -> p3 -> {tau__3 1.0} -> p2"), 1L).sampleLog(1);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void noFinalDeadlock() {
+		new StochasticLogSampler(net("I -> {a 1.0} -> p1"), 1L).sampleLog(1);
+	}
+
+}
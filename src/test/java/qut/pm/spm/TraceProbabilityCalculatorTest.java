@@ -0,0 +1,110 @@
+package qut.pm.spm;
+
+import static org.junit.Assert.assertEquals;
+
+import org.deckfour.xes.model.XLog;
+import org.junit.Before;
+import org.junit.Test;
+
+import qut.pm.prom.helpers.PetriNetFragmentParser;
+import qut.pm.xes.helpers.DelimitedTraceToXESConverter;
+
+public class TraceProbabilityCalculatorTest {
+
+	private static final double EPSILON = 0.00001;
+
+	private PetriNetFragmentParser parser = null;
+
+	@Before
+	public void setUp() {
+		parser = new PetriNetFragmentParser();
+	}
+
+	private TraceProbabilityCalculator calculator(String ... specs) {
+		return new TraceProbabilityCalculator(
+				parser.markInitialFinalPlaces(parser.createNetArgs("net", specs)));
+	}
+
+	@Test
+	public void weightedChoice() {
+		TraceProbabilityCalculator calc = calculator("I -> {a 1.0} -> F", "I -> {b 3.0} -> F");
+		assertEquals(0.25, calc.traceProbability("a"), EPSILON);
+		assertEquals(0.75, calc.traceProbability("b"), EPSILON);
+		assertEquals(0.0, calc.traceProbability("a", "b"), EPSILON);
+		assertEquals(0.0, calc.traceProbability(), EPSILON);
+		assertEquals(0.0, calc.traceProbability("c"), EPSILON);
+	}
+
+	@Test
+	public void silentChoice() {
+		TraceProbabilityCalculator calc = calculator(
+				"I -> {a 1.0} -> F",
+				"I -> {tau 1.0} -> p1 -> {b 1.0} -> F");
+		assertEquals(0.5, calc.traceProbability("a"), EPSILON);
+		assertEquals(0.5, calc.traceProbability("b"), EPSILON);
+	}
+
+	@Test
+	public void silentCycle() {
+		TraceProbabilityCalculator calc = calculator(
+				"I -> {a 1.0} -> p1 -> {c 1.0} -> F",
+				"p1 -> {tau__1 1.0} -> p2 -> {b 1.0} -> F",
+				"p2 -> {tau__2 1.0} -> p1");
+		assertEquals(2.0/3.0, calc.traceProbability("a", "c"), EPSILON);
+		assertEquals(1.0/3.0, calc.traceProbability("a", "b"), EPSILON);
+	}
+
+	@Test
+	public void silentLivelock() {
+		// p2 and p3 swap a token silently forever
+		TraceProbabilityCalculator calc = calculator(
+				"I -> {a 1.0} -> F",
+				"I -> {tau__1 1.0} -> p2 -> {tau__2 1.0} -> p3 -> {tau__3 1.0} -> p2");
+		assertEquals(0.5, calc.traceProbability("a"), EPSILON);
+		assertEquals(0.0, calc.traceProbability(), EPSILON);
+	}
+
+	@Test
+	public void nonFinalDeadlock() {
+		TraceProbabilityCalculator calc = calculator("I -> {a 1.0} -> F", "I -> {b 1.0} -> p1");
+		assertEquals(0.5, calc.traceProbability("a"), EPSILON);
+		assertEquals(0.0, calc.traceProbability("b"), EPSILON);
+	}
+
+	@Test
+	public void visibleLoop() {
+		TraceProbabilityCalculator calc = calculator(
+				"I -> {a 1.0} -> p1 -> {b 1.0} -> p1",
+				"p1 -> {c 1.0} -> F");
+		assertEquals(0.5, calc.traceProbability("a", "c"), EPSILON);
+		assertEquals(0.125, calc.traceProbability("a", "b", "b", "c"), EPSILON);
+	}
+
+	@Test
+	public void log() {
+		TraceProbabilityCalculator calc = calculator(
+				"I -> {a 1.0} -> p1 -> {b 1.0} -> p1",
+				"p1 -> {c 1.0} -> F");
+		XLog log = new DelimitedTraceToXESConverter().convertTextArgs(
+				"a c", "a b c", "a b b c", "a c", "a d c", "a b");
+		double[] probabilities = calc.traceProbabilities(log);
+		assertEquals(6, probabilities.length);
+		assertEquals(0.5, probabilities[0], EPSILON);
+		assertEquals(0.25, probabilities[1], EPSILON);
+		assertEquals(0.125, probabilities[2], EPSILON);
+		assertEquals(0.5, probabilities[3], EPSILON);
+		assertEquals(0.0, probabilities[4], EPSILON);
+		assertEquals(0.0, probabilities[5], EPSILON);
+		assertEquals(calc.traceProbability("a", "b", "b", "c"), probabilities[2], EPSILON);
+	}
+
+	@Test
+	public void concurrency() {
+		TraceProbabilityCalculator calc = calculator(
+				"I -> [s] -> p1 -> [a] -> p3 -> [j] -> F",
+				"I -> [s] -> p2 -> [b] -> p4 -> [j] -> F");
+		assertEquals(0.5, calc.traceProbability("s", "a", "b", "j"), EPSILON);
+		assertEquals(0.5, calc.traceProbability("s", "b", "a", "j"), EPSILON);
+	}
+
+}
@@ -0,0 +1,40 @@
+package qut.pm.spm;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class TruncatedEarthMoversTest {
+
+	private static final double EPSILON = 0.00001;
+
+	private static double distance(int[] first, int[] second) {
+		return TruncatedEarthMovers.normalisedLevenshtein(first, second, new int[second.length+1]);
+	}
+
+	@Test
+	public void normalisedLevenshtein() {
+		assertEquals(0.0, distance(new int[0], new int[0]), EPSILON);
+		assertEquals(1.0, distance(new int[] {1}, new int[0]), EPSILON);
+		assertEquals(0.0, distance(new int[] {1,2,3}, new int[] {1,2,3}), EPSILON);
+		assertEquals(1.0/3, distance(new int[] {1,2,3}, new int[] {1,3}), EPSILON);
+		assertEquals(2.0/4, distance(new int[] {1,2,3,4}, new int[] {2,1,3,4}), EPSILON);
+	}
+
+	@Test
+	public void transportReroutes() {
+		// the cheapest first move of supply 0 to demand 0 must be undone for supply 1
+		double cost = TruncatedEarthMovers.transportCost(new double[] {0.5, 0.5},
+				new double[] {0.5, 0.5}, new double[][] {{0, 0.1}, {0.1, 1}});
+		assertEquals(0.1, cost, EPSILON);
+	}
+
+	@Test
+	public void transportUnequalParts() {
+		double cost = TruncatedEarthMovers.transportCost(new double[] {0.7, 0.3},
+				new double[] {0.2, 0.2, 0.6}, new double[][] {{0, 1, 0.5}, {1, 0, 0.25}});
+		// 0.2 and 0.5 of supply 0 to demands 0 and 2, 0.2 and 0.1 of supply 1 to demands 1 and 2
+		assertEquals(0.5*0.5 + 0.1*0.25, cost, EPSILON);
+	}
+
+}
@@ -0,0 +1,151 @@
+package qut.pm.xes.helpers;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.deckfour.xes.classification.XEventNameClassifier;
+import org.deckfour.xes.model.XLog;
+import org.junit.Test;
+
+public class ColumnarLogTest {
+
+	private static final String TRACES = "a b a a\nc b a\na b a a\n";
+
+	private DelimitedTraceToXESConverter converter = new DelimitedTraceToXESConverter();
+
+	private static String tempFile(String suffix) throws IOException {
+		File file = File.createTempFile("columnar_log_test", suffix);
+		file.deleteOnExit();
+		return file.getAbsolutePath();
+	}
+
+	@Test
+	public void emptyLog() throws Exception {
+		String path = tempFile(".qplg");
+		new ColumnarLogWriter(path).close();
+		ColumnarLog log = ColumnarLog.open(path);
+		assertEquals(0, log.getTraceCount());
+		assertEquals(0, log.getActivityCount());
+		assertEquals(0, log.toXLog().size());
+	}
+
+	@Test
+	public void xlogRoundTrip() throws Exception {
+		XLog expected = converter.convertText(TRACES);
+		String path = tempFile(".qplg");
+		ColumnarLogWriter.write(expected, new XEventNameClassifier(), path);
+		ColumnarLog log = ColumnarLog.open(path);
+		assertEquals(3, log.getTraceCount());
+		assertEquals(11, log.getEventCount());
+		assertEquals(3, log.getTotalCount());
+		assertFalse(log.hasCounts());
+		assertEquals(Arrays.asList("a", "b", "c"), Arrays.asList(log.getActivity(0),
+				log.getActivity(1), log.getActivity(2)));
+		assertArrayEquals(new int[] {2, 1, 0}, log.getTrace(1));
+		assertEquals(Arrays.asList("c", "b", "a"), log.getTraceLabels(1));
+		XESLogTestUtils.compareLogs(expected, log.toXLog());
+	}
+
+	@Test
+	public void delimitedRoundTrip() throws Exception {
+		String text = "register,,check,,ship\nregister,,cancel\nregister,,check,,ship\n";
+		String delimited = tempFile(".txt");
+		Files.write(new File(delimited).toPath(), text.getBytes(StandardCharsets.UTF_8));
+		String path = tempFile(".qplg");
+		ColumnarLogWriter.writeDelimited(delimited, ",,", "\n", path);
+		StringWriter out = new StringWriter();
+		ColumnarLog.open(path).writeDelimited(out, ",,", "\n");
+		assertEquals(text, out.toString());
+	}
+
+	@Test
+	public void variantMultiplicities() throws Exception {
+		TraceVariantIndex index = TraceVariantIndex.fromDelimited(TRACES);
+		String path = tempFile(".qplg");
+		ColumnarLogWriter.write(index, path);
+		ColumnarLog log = ColumnarLog.open(path);
+		assertTrue(log.hasCounts());
+		assertEquals(2, log.getTraceCount());
+		assertEquals(3, log.getTotalCount());
+		assertEquals(2, log.getCount(0));
+		assertEquals(1, log.getCount(1));
+		XESLogTestUtils.compareLogs(converter.convertText("a b a a\na b a a\nc b a\n"),
+				log.toXLog());
+		TraceVariantIndex reloaded = log.toVariantIndex();
+		assertEquals(3, reloaded.getTraceCount());
+		assertEquals(2, reloaded.getVariantCount());
+		assertEquals(index.getVariant(0), reloaded.getVariant(0));
+		assertEquals(2, reloaded.getCount(0));
+	}
+
+	@Test
+	public void multiByteVarints() throws Exception {
+		String path = tempFile(".qplg");
+		List<List<String>> traces = new ArrayList<>();
+		try (ColumnarLogWriter writer = new ColumnarLogWriter(path)) {
+			for (int i=0; i<20000; i++)
+				writer.internActivity("a" + i);
+			for (int i=0; i<100; i++) {
+				List<String> trace = Arrays.asList("a" + (i * 197 % 20000), "a" + i, "a19999",
+						"é" + i);
+				traces.add(trace);
+				writer.addTrace(trace, i + 1);
+			}
+		}
+		ColumnarLog log = ColumnarLog.open(path);
+		assertEquals(20100, log.getActivityCount());
+		for (int i=0; i<100; i++) {
+			assertEquals(traces.get(i), log.getTraceLabels(i));
+			assertEquals(i + 1, log.getCount(i));
+		}
+		assertEquals(5050, log.getTotalCount());
+	}
+
+	@Test(expected=IOException.class)
+	public void notColumnar() throws Exception {
+		String path = tempFile(".txt");
+		Files.write(new File(path).toPath(), (TRACES + TRACES + TRACES + TRACES)
+				.getBytes(StandardCharsets.UTF_8));
+		ColumnarLog.open(path);
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void unknownActivity() throws Exception {
+		try (ColumnarLogWriter writer = new ColumnarLogWriter(tempFile(".qplg"))) {
+			writer.addTrace(new int[] {0}, 1, 1);
+		}
+	}
+
+	@Test
+	public void unknownActivityWritesNothing() throws Exception {
+		String filePath = tempFile(".qplg");
+		try (ColumnarLogWriter writer = new ColumnarLogWriter(filePath)) {
+			int a = writer.internActivity("a");
+			int b = writer.internActivity("b");
+			writer.addTrace(new int[] {a, b}, 2, 1);
+			try {
+				writer.addTrace(new int[] {b, a, 7}, 3, 1);
+			} catch (IllegalArgumentException e) {
+				// rejected trace
+			}
+			writer.addTrace(new int[] {b}, 1, 1);
+		}
+		ColumnarLog log = ColumnarLog.open(filePath);
+		assertEquals(2, log.getTraceCount());
+		assertEquals(3, log.getEventCount());
+		assertEquals(Arrays.asList("a", "b"), log.getTraceLabels(0));
+		assertEquals(Arrays.asList("b"), log.getTraceLabels(1));
+	}
+
+}
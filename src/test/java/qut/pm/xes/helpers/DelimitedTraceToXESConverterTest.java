@@ -1,6 +1,8 @@
 package qut.pm.xes.helpers;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 
 import java.io.File;
 import java.io.PrintWriter;
@@ -217,4 +219,27 @@ public class DelimitedTraceToXESConverterTest {
 		assertEquals(traceText,output);
 	}
 	
+	@Test
+	public void sharedAttributes() {
+		String traceText = "a b a a" + "\n" 
+				 + "c b a" + "\n";
+		XLog expected = converter.convertText(traceText);
+		XLog result = new DelimitedTraceToXESConverter(true).convertText(traceText);
+		XESLogTestUtils.compareLogs(expected,result);
+		XTrace trace = result.get(0);
+		assertSame(trace.get(0).getAttributes(), trace.get(2).getAttributes());
+		assertSame(trace.get(0).getAttributes(), result.get(1).get(2).getAttributes());
+		assertNotSame(trace.get(0).getAttributes(), trace.get(1).getAttributes());
+		assertNotSame(expected.get(0).get(0).getAttributes(), 
+				expected.get(0).get(2).getAttributes());
+	}
+
+	@Test
+	public void sharedAttributesVarargs() {
+		XLog expected = converter.convertTextArgs("a b","b a");
+		XLog result = new DelimitedTraceToXESConverter(true).convertTextArgs("a b","b a");
+		XESLogTestUtils.compareLogs(expected,result);
+		assertSame(result.get(0).get(0).getAttributes(), result.get(1).get(1).getAttributes());
+	}
+
 }
@@ -0,0 +1,114 @@
+package qut.pm.xes.helpers;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+import org.deckfour.xes.classification.XEventAttributeClassifier;
+import org.deckfour.xes.classification.XEventNameClassifier;
+import org.deckfour.xes.model.XAttributeMap;
+import org.deckfour.xes.model.XEvent;
+import org.deckfour.xes.model.XLog;
+import org.deckfour.xes.model.XTrace;
+import org.deckfour.xes.model.impl.XAttributeLiteralImpl;
+import org.deckfour.xes.model.impl.XAttributeMapImpl;
+import org.deckfour.xes.model.impl.XEventImpl;
+import org.deckfour.xes.model.impl.XLogImpl;
+import org.deckfour.xes.model.impl.XTraceImpl;
+import org.junit.Test;
+
+public class DelimitedTraceWriterTest {
+
+	private static class CountingClassifier extends XEventNameClassifier {
+		int calls = 0;
+
+		@Override
+		public String getClassIdentity(XEvent event) {
+			calls++;
+			return super.getClassIdentity(event);
+		}
+	}
+
+	private DelimitedTraceToXESConverter converter = new DelimitedTraceToXESConverter();
+
+	private static final String TRACES = "a b a a\nc b a\na b a a\n";
+
+	@Test
+	public void sameAsConvertToString() throws Exception {
+		XLog log = converter.convertText(TRACES);
+		StringWriter out = new StringWriter();
+		try (DelimitedTraceWriter writer = new DelimitedTraceWriter(out, new XEventNameClassifier())) {
+			writer.writeLog(log);
+			assertEquals(3, writer.getTraceCount());
+		}
+		assertEquals(converter.convertXLogToString(log), out.toString());
+	}
+
+	@Test
+	public void channel() throws Exception {
+		XLog log = converter.convertText(TRACES);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (DelimitedTraceWriter writer = new DelimitedTraceWriter(Channels.newChannel(out),
+				new XEventNameClassifier(), 3, ",,", "\n"))
+		{
+			writer.writeLog(log);
+		}
+		assertEquals("a,,b,,a,,a\nc,,b,,a\na,,b,,a,,a\n",
+				new String(out.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void unicodeLabels() throws Exception {
+		XLog log = converter.convertText("café 中\n");
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (DelimitedTraceWriter writer = new DelimitedTraceWriter(Channels.newChannel(out),
+				new XEventNameClassifier()))
+		{
+			writer.writeLog(log);
+		}
+		assertEquals("café 中\n", new String(out.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void identityCachedPerValue() throws Exception {
+		CountingClassifier classifier = new CountingClassifier();
+		StringWriter out = new StringWriter();
+		try (DelimitedTraceWriter writer = new DelimitedTraceWriter(out, classifier)) {
+			writer.writeLog(converter.convertText(TRACES));
+		}
+		assertEquals(3, classifier.calls);
+		assertEquals(TRACES, out.toString());
+	}
+
+	@Test
+	public void multipleKeys() throws Exception {
+		XLog log = new XLogImpl(new XAttributeMapImpl());
+		XTrace trace = new XTraceImpl(new XAttributeMapImpl());
+		trace.add(newEvent("a", "start"));
+		trace.add(newEvent("a", "complete"));
+		trace.add(newEvent("a", "start"));
+		log.add(trace);
+		XEventAttributeClassifier classifier = new XEventAttributeClassifier("name and transition",
+				"concept:name", "lifecycle:transition");
+		StringWriter out = new StringWriter();
+		try (DelimitedTraceWriter writer = new DelimitedTraceWriter(out, classifier)) {
+			writer.writeLog(log);
+		}
+		String expected = classifier.getClassIdentity(trace.get(0)) + " "
+				+ classifier.getClassIdentity(trace.get(1)) + " "
+				+ classifier.getClassIdentity(trace.get(2)) + "\n";
+		assertEquals(expected, out.toString());
+	}
+
+	private static XEvent newEvent(String name, String transition) {
+		XAttributeMap attributes = new XAttributeMapImpl();
+		attributes.put("concept:name", new XAttributeLiteralImpl("concept:name", name));
+		attributes.put("lifecycle:transition",
+				new XAttributeLiteralImpl("lifecycle:transition", transition));
+		return new XEventImpl(attributes);
+	}
+
+}
@@ -0,0 +1,199 @@
+package qut.pm.xes.helpers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.deckfour.xes.model.XLog;
+import org.junit.AfterClass;
+import org.junit.Test;
+
+public class MappedDelimitedTraceReaderTest {
+
+	private DelimitedTraceToXESConverter converter = new DelimitedTraceToXESConverter();
+	private static ForkJoinPool pool = new ForkJoinPool(4);
+
+	@AfterClass
+	public static void shutdownPool() {
+		pool.shutdown();
+	}
+
+	private String writeFile(String text) throws IOException {
+		File file = File.createTempFile("mapped_trace_test", ".txt");
+		file.deleteOnExit();
+		Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+		return file.getAbsolutePath();
+	}
+
+	private void assertSameAsConverter(String text, String eventDelimiter, String traceDelimiter,
+			int windowBytes) throws IOException
+	{
+		XLog expected = converter.convertText(text, eventDelimiter, traceDelimiter);
+		MappedDelimitedTraceReader reader = new MappedDelimitedTraceReader(eventDelimiter,
+				traceDelimiter, windowBytes);
+		String filePath = writeFile(text);
+		XLog result = reader.readLog(filePath);
+		XESLogTestUtils.compareLogs(expected, result);
+		MappedDelimitedTraceReader parallelReader = new MappedDelimitedTraceReader(eventDelimiter,
+				traceDelimiter, windowBytes, windowBytes);
+		XLog parallelResult = parallelReader.readLog(filePath, pool);
+		XESLogTestUtils.compareLogs(expected, parallelResult);
+		assertEquals(reader.getActivityCount(), parallelReader.getActivityCount());
+		for (int activity=0; activity<reader.getActivityCount(); activity++)
+			assertEquals(reader.getActivity(activity), parallelReader.getActivity(activity));
+	}
+
+	private List<List<String>> readTraces(MappedDelimitedTraceReader reader, String text)
+			throws IOException
+	{
+		return readTraces(reader, writeFile(text), null);
+	}
+
+	private List<List<String>> readTraces(MappedDelimitedTraceReader reader, String filePath,
+			ForkJoinPool readPool) throws IOException
+	{
+		List<List<String>> result = new ArrayList<>();
+		MappedDelimitedTraceReader.TraceListener listener = (activities, length) -> {
+			List<String> trace = new ArrayList<>();
+			for (int i=0; i<length; i++)
+				trace.add(reader.getActivity(activities[i]));
+			result.add(trace);
+		};
+		if (readPool == null)
+			reader.read(filePath, listener);
+		else
+			reader.read(filePath, readPool, listener);
+		return result;
+	}
+
+	@Test
+	public void empty() throws Exception {
+		assertSameAsConverter("", " ", "\n", 1024);
+	}
+
+	@Test
+	public void sameAsConverter() throws Exception {
+		String text = "a b a a\nc b a\na b a a\n";
+		assertSameAsConverter(text, " ", "\n", 1024);
+		assertSameAsConverter("a b c", " ", "\n", 1024);
+	}
+
+	@Test
+	public void multiCharacterDelimiters() throws Exception {
+		String text = "register,,check stock,,ship\nregister,,cancel\n";
+		assertSameAsConverter(text, ",,", "\n", 1024);
+		assertSameAsConverter("a,b,a,a==c,b,a==a,b,a,a==", ",", "==", 1024);
+	}
+
+	@Test
+	public void emptyLineEndsLog() throws Exception {
+		assertSameAsConverter("a b\nc\n\nd e\n", " ", "\n", 1024);
+	}
+
+	@Test
+	public void emptyEventEndsTrace() throws Exception {
+		assertSameAsConverter("a  b\n c\nd e \n", " ", "\n", 1024);
+		List<List<String>> traces = readTraces(new MappedDelimitedTraceReader(), "a  b\n c\n");
+		assertEquals(2, traces.size());
+		assertEquals(1, traces.get(0).size());
+		assertEquals(0, traces.get(1).size());
+	}
+
+	@Test
+	public void tracesAcrossWindows() throws Exception {
+		StringBuilder text = new StringBuilder();
+		for (int i=0; i<200; i++)
+			text.append("start,,step" + (i % 7) + ",,end\n");
+		text.append("done");
+		assertSameAsConverter(text.toString(), ",,", "\n", 7);
+		assertSameAsConverter(text.toString(), ",,", "\n", 64);
+	}
+
+	@Test
+	public void manyActivities() throws Exception {
+		StringBuilder text = new StringBuilder();
+		for (int i=0; i<500; i++)
+			text.append("a" + i + " b" + (i % 3) + " a" + (i / 2) + "\n");
+		assertSameAsConverter(text.toString(), " ", "\n", 1024);
+	}
+
+	@Test
+	public void unicodeLabels() throws Exception {
+		String text = "café über 中\n中 café\n";
+		assertSameAsConverter(text, " ", "\n", 5);
+		MappedDelimitedTraceReader reader = new MappedDelimitedTraceReader();
+		readTraces(reader, text);
+		assertEquals(3, reader.getActivityCount());
+		assertEquals("中", reader.getActivity(2));
+	}
+
+	@Test
+	public void sharedAttributes() throws Exception {
+		XLog log = new MappedDelimitedTraceReader().readLog(writeFile("a b\nb a\n"));
+		assertSame(log.get(0).get(0).getAttributes(), log.get(1).get(1).getAttributes());
+	}
+
+	@Test
+	public void readVariants() throws Exception {
+		String text = "a b a a\nc b a\na b a a\n";
+		MappedDelimitedTraceReader reader = new MappedDelimitedTraceReader(" ", "\n", 4);
+		TraceVariantIndex index = reader.readVariants(writeFile(text));
+		TraceVariantIndex expected = TraceVariantIndex.fromDelimited(text);
+		assertEquals(expected.getTraceCount(), index.getTraceCount());
+		assertEquals(expected.getVariantCount(), index.getVariantCount());
+		for (int variant=0; variant<expected.getVariantCount(); variant++) {
+			assertEquals(expected.getVariant(variant), index.getVariant(variant));
+			assertEquals(expected.getCount(variant), index.getCount(variant));
+		}
+	}
+
+	@Test
+	public void selfOverlappingDelimiterReadAsOneChunk() throws Exception {
+		assertSameAsConverter("a,b==c===b,a==a,b==", ",", "==", 3);
+	}
+
+	@Test
+	public void emptyLineEndsLogAcrossChunks() throws Exception {
+		StringBuilder text = new StringBuilder();
+		for (int i=0; i<100; i++)
+			text.append("a b" + i + "\n");
+		text.append("\n");
+		for (int i=0; i<100; i++)
+			text.append("c d" + i + "\n");
+		assertSameAsConverter(text.toString(), " ", "\n", 16);
+	}
+
+	@Test
+	public void chunksSmallerThanWindow() throws Exception {
+		StringBuilder text = new StringBuilder();
+		for (int i=0; i<2000; i++)
+			text.append("u" + (i % 17) + " v" + (i % 5) + "\n");
+		XLog expected = converter.convertText(text.toString(), " ", "\n");
+		MappedDelimitedTraceReader reader = new MappedDelimitedTraceReader(" ", "\n",
+				MappedDelimitedTraceReader.DEFAULT_WINDOW_BYTES, 20);
+		XESLogTestUtils.compareLogs(expected, reader.readLog(writeFile(text.toString()), pool));
+	}
+
+	@Test
+	public void parallelTraceOrder() throws Exception {
+		StringBuilder text = new StringBuilder();
+		for (int i=0; i<1000; i++)
+			text.append("t" + i + ",,x" + (i % 13) + "\n");
+		String filePath = writeFile(text.toString());
+		MappedDelimitedTraceReader sequential = new MappedDelimitedTraceReader(",,", "\n", 32);
+		MappedDelimitedTraceReader parallel = new MappedDelimitedTraceReader(",,", "\n", 32, 32);
+		assertEquals(readTraces(sequential, filePath, null), readTraces(parallel, filePath, pool));
+		TraceVariantIndex index = parallel.readVariants(filePath, pool);
+		assertEquals(1000, index.getVariantCount());
+		assertEquals(text.toString().trim().replace(",,", " ").split("\n")[999],
+				String.join(" ", index.getVariant(999)));
+	}
+
+}
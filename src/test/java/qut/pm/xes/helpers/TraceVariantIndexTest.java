@@ -0,0 +1,74 @@
+package qut.pm.xes.helpers;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.deckfour.xes.model.XLog;
+import org.junit.Test;
+
+public class TraceVariantIndexTest {
+
+	@Test
+	public void variantsAndCounts() {
+		TraceVariantIndex index = TraceVariantIndex.fromDelimited("a b c\na b\na b c\nd\n");
+		assertEquals(4, index.getTraceCount());
+		assertEquals(3, index.getVariantCount());
+		assertEquals(4, index.getActivityCount());
+		assertEquals(Arrays.asList("a", "b", "c"), index.getVariant(0));
+		assertEquals(2, index.getCount(0));
+		assertEquals(Arrays.asList("a", "b"), index.getVariant(1));
+		assertEquals(1, index.getCount(1));
+		// root, a, a b, a b c, d
+		assertEquals(5, index.getNodeCount());
+		assertEquals(1, index.findVariant(Arrays.asList("a", "b")));
+		assertEquals(-1, index.findVariant(Arrays.asList("a")));
+		assertEquals(-1, index.findVariant(Arrays.asList("e")));
+	}
+
+	@Test
+	public void tree() {
+		TraceVariantIndex index = TraceVariantIndex.fromDelimited("a b\na c\n");
+		int a = index.getFirstChild(TraceVariantIndex.ROOT);
+		assertEquals(-1, index.getNextSibling(a));
+		assertEquals("a", index.getActivity(index.getNodeActivity(a)));
+		int children = 0;
+		for (int child=index.getFirstChild(a); child>=0; child=index.getNextSibling(child)) {
+			assertEquals(2, index.getDepth(child));
+			assertEquals(a, index.getParent(child));
+			assertEquals(1, index.getEndCount(child));
+			children++;
+		}
+		assertEquals(2, children);
+		assertEquals(0, index.getEndCount(a));
+		assertEquals(-1, index.getNodeVariant(a));
+	}
+
+	@Test
+	public void emptyTrace() {
+		TraceVariantIndex index = new TraceVariantIndex();
+		assertEquals(0, index.addTrace(Collections.emptyList()));
+		assertEquals(TraceVariantIndex.ROOT, index.getVariantNode(0));
+		assertEquals(Collections.emptyList(), index.getVariant(0));
+	}
+
+	@Test
+	public void sameAsConverter() throws Exception {
+		String text = "a,,b\nb,,a,,c\na,,b\n";
+		DelimitedTraceToXESConverter converter = new DelimitedTraceToXESConverter();
+		XLog log = converter.convertText(text, ",,", "\n");
+		TraceVariantIndex fromLog = TraceVariantIndex.fromXLog(log, Classifier.NAME);
+		TraceVariantIndex fromText = TraceVariantIndex.fromDelimited(text, ",,", "\n");
+		TraceVariantIndex fromReader = TraceVariantIndex.fromDelimited(new StringReader(text), ",,");
+		for (TraceVariantIndex index: Arrays.asList(fromLog, fromText, fromReader)) {
+			assertEquals(3, index.getTraceCount());
+			assertEquals(2, index.getVariantCount());
+			assertEquals(Arrays.asList("a", "b"), index.getVariant(0));
+			assertEquals(2, index.getCount(0));
+			assertEquals(Arrays.asList("b", "a", "c"), index.getVariant(1));
+		}
+	}
+
+}
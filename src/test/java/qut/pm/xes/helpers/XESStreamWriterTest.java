@@ -0,0 +1,162 @@
+package qut.pm.xes.helpers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.deckfour.xes.in.XesXmlParser;
+import org.deckfour.xes.model.XEvent;
+import org.deckfour.xes.model.XLog;
+import org.deckfour.xes.model.XTrace;
+import org.junit.Test;
+
+public class XESStreamWriterTest {
+
+	private static final String HEADER =
+			"<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n"
+			+ "<log xes.version=\"1.0\" xes.features=\"nested-attributes\" "
+			+ "xmlns=\"http://www.xes-standard.org/\">\n"
+			+ "\t<extension name=\"Concept\" prefix=\"concept\" "
+			+ "uri=\"http://www.xes-standard.org/concept.xesext\"/>\n";
+
+	private static String event(String label) {
+		return "\t\t<event>\n\t\t\t<string key=\"concept:name\" value=\"" + label
+				+ "\"/>\n\t\t</event>\n";
+	}
+
+	private static int count(String text, String part) {
+		int result = 0;
+		for (int i=text.indexOf(part); i>=0; i=text.indexOf(part, i+1))
+			result++;
+		return result;
+	}
+
+	private static String read(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int read;
+		while ((read = in.read(buffer)) > 0)
+			out.write(buffer, 0, read);
+		in.close();
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void emptyLog() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new XESStreamWriter(Channels.newChannel(out)).close();
+		assertEquals(HEADER + "</log>\n", new String(out.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void traces() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (XESStreamWriter writer = new XESStreamWriter(Channels.newChannel(out), 7)) {
+			writer.writeTrace(Arrays.asList("a", "b"));
+			String[] labels = {"c", "a"};
+			writer.writeTrace(new int[] {1, 0, 1}, 2, activity -> labels[activity]);
+			writer.writeTrace(Arrays.asList());
+			assertEquals(3, writer.getTraceCount());
+		}
+		String expected = HEADER
+				+ "\t<trace>\n" + event("a") + event("b") + "\t</trace>\n"
+				+ "\t<trace>\n" + event("a") + event("c") + "\t</trace>\n"
+				+ "\t<trace>\n\t</trace>\n"
+				+ "</log>\n";
+		assertEquals(expected, new String(out.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void escape() {
+		assertEquals("a&amp;b &lt;c&gt; &quot;d&apos; &#9;\uFFFD",
+				XESStreamWriter.escape("a&b <c> \"d' \t\u0001"));
+	}
+
+	@Test
+	public void gzipFile() throws Exception {
+		File file = File.createTempFile("xes_stream_test", ".xes.gz");
+		file.deleteOnExit();
+		try (XESStreamWriter writer = XESStreamWriter.open(file.getAbsolutePath(), true, 64)) {
+			for (int i=0; i<1000; i++)
+				writer.writeTrace(Arrays.asList("a", "b" + (i % 10)));
+		}
+		String xes = read(new GZIPInputStream(new FileInputStream(file)));
+		assertTrue(xes.startsWith(HEADER));
+		assertTrue(xes.endsWith("</log>\n"));
+		assertEquals(1000, count(xes, "<trace>"));
+		assertEquals(100, count(xes, event("b7")));
+	}
+
+	@Test
+	public void commandLineConvert() throws Exception {
+		File in = File.createTempFile("xes_stream_test", ".txt");
+		in.deleteOnExit();
+		Files.write(in.toPath(), "a,,b\nc\na,,b\n".getBytes(StandardCharsets.UTF_8));
+		File out = File.createTempFile("xes_stream_test", ".xes");
+		out.deleteOnExit();
+		long traces = XESConverterCommandLine.convert(in.getAbsolutePath(), out.getAbsolutePath(),
+				",,", "\n", false, 16, 4, 4, 2);
+		assertEquals(3, traces);
+		String xes = new String(Files.readAllBytes(out.toPath()), StandardCharsets.UTF_8);
+		assertEquals(HEADER
+				+ "\t<trace>\n" + event("a") + event("b") + "\t</trace>\n"
+				+ "\t<trace>\n" + event("c") + "\t</trace>\n"
+				+ "\t<trace>\n" + event("a") + event("b") + "\t</trace>\n"
+				+ "</log>\n", xes);
+	}
+
+	private static void assertSameNames(XLog expected, XLog log) {
+		assertEquals(expected.size(), log.size());
+		for (int t=0; t<log.size(); t++) {
+			XTrace expectedTrace = expected.get(t);
+			XTrace trace = log.get(t);
+			assertEquals(expectedTrace.size(), trace.size());
+			for (int e=0; e<trace.size(); e++)
+				assertEquals(name(expectedTrace.get(e)), name(trace.get(e)));
+		}
+	}
+
+	private static String name(XEvent event) {
+		return event.getAttributes().get(XESLogUtils.XES_CONCEPT_NAME).toString();
+	}
+
+	@Test
+	public void parsesAsConverterLog() throws Exception {
+		String text = "a b&c <d>\n\"e\" a\nb&c\n";
+		File in = File.createTempFile("xes_stream_test", ".txt");
+		in.deleteOnExit();
+		Files.write(in.toPath(), text.getBytes(StandardCharsets.UTF_8));
+		File out = File.createTempFile("xes_stream_test", ".xes.gz");
+		out.deleteOnExit();
+		XESConverterCommandLine.convert(in.getAbsolutePath(), out.getAbsolutePath(),
+				" ", "\n", true, 16, 4, 4, 2);
+		XLog expected = new DelimitedTraceToXESConverter().convertFile(in.getAbsolutePath());
+		List<XLog> parsed;
+		try (InputStream xes = new GZIPInputStream(new FileInputStream(out))) {
+			parsed = new XesXmlParser().parse(xes);
+		}
+		assertEquals(1, parsed.size());
+		assertFalse(expected.isEmpty());
+		assertSameNames(expected, parsed.get(0));
+	}
+
+	@Test
+	public void unescapeDelimiters() {
+		assertEquals("\n", XESConverterCommandLine.unescape("\\n"));
+		assertEquals(",,", XESConverterCommandLine.unescape(",,"));
+		assertEquals("\t|\\", XESConverterCommandLine.unescape("\\t|\\\\"));
+	}
+
+}